@@ -148,14 +148,17 @@ public class AggregateTracker extends CollectionTracker {
     
         private final int m_nonRepeaters;
     
+        private final int m_maxRepetitions;
+    
         private final List<ChildTrackerPduBuilder> m_childPduBuilders;
         
         private int m_currResponseIndex = 0;
         
-        public ChildTrackerResponseProcessor(PduBuilder pduBuilder, List<ChildTrackerPduBuilder> builders, int nonRepeaters, int repeaters) {
+        public ChildTrackerResponseProcessor(PduBuilder pduBuilder, List<ChildTrackerPduBuilder> builders, int nonRepeaters, int repeaters, int maxRepetitions) {
             m_repeaters = repeaters;
             m_pduBuilder = pduBuilder;
             m_nonRepeaters = nonRepeaters;
+            m_maxRepetitions = maxRepetitions;
             m_childPduBuilders = builders;
         }
     
@@ -198,6 +201,12 @@ public class AggregateTracker extends CollectionTracker {
         @Override
         public boolean processErrors(int errorStatus, int errorIndex) {
             if (errorStatus == TOO_BIG_ERR) {
+                // ask for fewer rows of the columns first, then for fewer columns
+                if (m_repeaters > 0 && m_maxRepetitions > 1) {
+                    setMaxRepetitions(m_maxRepetitions/2);
+                    reportTooBigErr("Reducing maxRepetitions for this request to "+(m_maxRepetitions/2));
+                    return true;
+                }
                 int maxVarsPerPdu = m_pduBuilder.getMaxVarsPerPdu();
                 if (maxVarsPerPdu <= 1) {
                     throw new IllegalArgumentException("Unable to handle tooBigError when maxVarsPerPdu = "+maxVarsPerPdu);
@@ -317,6 +326,10 @@ public class AggregateTracker extends CollectionTracker {
         
         // construct a response processor that tracks the changes and informs the response processors
         // for the child trackers
-        return new ChildTrackerResponseProcessor(parentBuilder, builders, nonRepeaters, repeaters);
+        return new ChildTrackerResponseProcessor(parentBuilder, builders, nonRepeaters, repeaters, maxRepititions == Integer.MAX_VALUE ? 1 : maxRepititions);
+    }
+
+    CollectionTracker[] getChildren() {
+        return m_children;
     }
 }
@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A walker that splits the trackers of a walk into groups of columns and
+ * walks up to maxConcurrentWalks of these groups at the same time, each with
+ * its own walker from the {@link SnmpStrategy}, so that several requests
+ * are in flight to the agent instead of a single one.
+ *
+ * The results of all of the groups are still handed to the trackers one at
+ * a time, so trackers don't need to be thread-safe.  A group that times out
+ * is walked again once with half of the max-repetitions, starting from where
+ * it stopped.
+ *
+ * This walker doesn't build or send any PDU itself, so it isn't a
+ * {@link SnmpWalker}.  Closing it stops the walks that are still in flight.
+ */
+public class ConcurrentWalker extends AbstractSnmpWalker {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(ConcurrentWalker.class);
+
+    private static final ExecutorService s_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger m_count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "ConcurrentWalker-" + m_count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Wraps a leaf tracker of the walk.  The leaf keeps its own parent, so
+     * that its results are still stored where they were before, and every
+     * call that reaches it is serialized on the lock of the walker.  It is
+     * finished as soon as the walk is stopped, so that the walker of its
+     * group doesn't send any other request.
+     */
+    private class UnitTracker extends CollectionTracker {
+        private final CollectionTracker m_delegate;
+
+        private UnitTracker(CollectionTracker delegate) {
+            m_delegate = delegate;
+        }
+
+        @Override
+        public void setMaxRepetitions(int maxRepetitions) {
+            synchronized (m_lock) {
+                m_delegate.setMaxRepetitions(maxRepetitions);
+            }
+        }
+
+        @Override
+        public void setFailed(boolean failed) {
+            super.setFailed(failed);
+            synchronized (m_lock) {
+                m_delegate.setFailed(failed);
+            }
+        }
+
+        @Override
+        public void setTimedOut(boolean timedOut) {
+            super.setTimedOut(timedOut);
+            synchronized (m_lock) {
+                m_delegate.setTimedOut(timedOut);
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            if (m_stopped) {
+                return true;
+            }
+            synchronized (m_lock) {
+                return m_delegate.isFinished();
+            }
+        }
+
+        @Override
+        public ResponseProcessor buildNextPdu(PduBuilder pduBuilder) {
+            final ResponseProcessor processor;
+            synchronized (m_lock) {
+                processor = m_delegate.buildNextPdu(pduBuilder);
+            }
+            return new ResponseProcessor() {
+                @Override
+                public void processResponse(SnmpObjId snmpObjId, SnmpValue val) {
+                    synchronized (m_lock) {
+                        processor.processResponse(snmpObjId, val);
+                    }
+                }
+
+                @Override
+                public boolean processErrors(int errorStatus, int errorIndex) {
+                    synchronized (m_lock) {
+                        return processor.processErrors(errorStatus, errorIndex);
+                    }
+                }
+            };
+        }
+    }
+
+    private final SnmpAgentConfig m_agentConfig;
+    private final CollectionTracker m_tracker;
+    private final int m_maxConcurrentWalks;
+    private final Object m_lock = new Object();
+    private final ConcurrentLinkedQueue<CollectionTracker[]> m_chunks = new ConcurrentLinkedQueue<CollectionTracker[]>();
+    private final AtomicInteger m_activeLanes = new AtomicInteger();
+    private final Set<SnmpWalker> m_laneWalkers = Collections.newSetFromMap(new ConcurrentHashMap<SnmpWalker, Boolean>());
+
+    private volatile boolean m_stopped = false;
+    private volatile boolean m_closed = false;
+    private volatile SnmpWalker m_failedWalker = null;
+
+    public ConcurrentWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker, int maxConcurrentWalks) {
+        super(agentConfig.getAddress(), name, agentConfig.getMaxRepetitions(), tracker);
+        m_agentConfig = agentConfig;
+        m_tracker = tracker;
+        m_maxConcurrentWalks = Math.max(1, maxConcurrentWalks);
+    }
+
+    @Override
+    public void start() {
+        try {
+            final List<CollectionTracker> units = new ArrayList<CollectionTracker>();
+            flatten(m_tracker, units);
+
+            final int maxVars = Math.max(1, m_agentConfig.getMaxVarsPerPdu());
+            final int chunkSize = Math.max(1, Math.min(maxVars, (units.size() + m_maxConcurrentWalks - 1) / m_maxConcurrentWalks));
+            for (int i = 0; i < units.size(); i += chunkSize) {
+                final List<CollectionTracker> chunk = units.subList(i, Math.min(units.size(), i + chunkSize));
+                m_chunks.add(chunk.toArray(new CollectionTracker[chunk.size()]));
+            }
+
+            final int lanes = Math.min(m_maxConcurrentWalks, m_chunks.size());
+            LOG.debug("{}: walking {} trackers of {} in {} chunks over {} concurrent walks", getName(), units.size(), getAddress(), m_chunks.size(), lanes);
+            if (lanes == 0) {
+                handleDone();
+                return;
+            }
+
+            m_activeLanes.set(lanes);
+            for (int i = 0; i < lanes; i++) {
+                s_executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        walkChunks();
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            handleFatalError(e);
+        }
+    }
+
+    private void flatten(CollectionTracker tracker, List<CollectionTracker> units) {
+        if (tracker instanceof AggregateTracker) {
+            for (CollectionTracker child : ((AggregateTracker)tracker).getChildren()) {
+                flatten(child, units);
+            }
+        } else {
+            units.add(new UnitTracker(tracker));
+        }
+    }
+
+    private void walkChunks() {
+        try {
+            CollectionTracker[] chunk;
+            while (!m_stopped && (chunk = m_chunks.poll()) != null) {
+                walkChunk(new AggregateTracker(chunk));
+            }
+        } catch (Throwable e) {
+            LOG.warn("{}: Unexpected error walking {}", getName(), getAddress(), e);
+            m_stopped = true;
+        } finally {
+            if (m_activeLanes.decrementAndGet() == 0) {
+                lanesFinished();
+            }
+        }
+    }
+
+    private void walkChunk(AggregateTracker tracker) throws InterruptedException, IOException {
+        final int maxRepetitions = m_agentConfig.getMaxRepetitions();
+        SnmpWalker walker = walk(tracker, maxRepetitions);
+        if (walker.failed() && walker.timedOut() && maxRepetitions > 1) {
+            // try the rest of these columns once more, with fewer rows per request
+            LOG.info("{}: Timeout walking {}, retrying with maxRepetitions {}", getName(), getAddress(), maxRepetitions/2);
+            tracker.setTimedOut(false);
+            tracker.setFailed(false);
+            walker = walk(tracker, maxRepetitions/2);
+        }
+        if (walker.failed()) {
+            fail(walker);
+        }
+    }
+
+    private SnmpWalker walk(AggregateTracker tracker, int maxRepetitions) throws InterruptedException, IOException {
+        final SnmpWalker walker = SnmpUtils.createWalker(m_agentConfig, getName(), tracker);
+        tracker.setMaxRepetitions(maxRepetitions);
+        m_laneWalkers.add(walker);
+        try {
+            if (!m_closed) {
+                walker.start();
+                walker.waitFor();
+            }
+        } finally {
+            m_laneWalkers.remove(walker);
+            if (m_closed) {
+                // the walk may have been stopped while this walker started
+                walker.close();
+            }
+        }
+        return walker;
+    }
+
+    private void fail(SnmpWalker walker) {
+        synchronized (m_lock) {
+            if (m_failedWalker == null) {
+                m_failedWalker = walker;
+            }
+        }
+        m_stopped = true;
+    }
+
+    private void lanesFinished() {
+        if (m_closed) {
+            // we've already given up on this walk
+            return;
+        }
+        final SnmpWalker failed = m_failedWalker;
+        if (failed == null && m_stopped) {
+            handleError("Unexpected error walking the trackers");
+        } else if (failed == null) {
+            handleDone();
+        } else if (failed.timedOut()) {
+            handleTimeout(failed.getErrorMessage());
+        } else if (failed.getErrorThrowable() != null) {
+            handleError(failed.getErrorMessage(), failed.getErrorThrowable());
+        } else {
+            handleError(failed.getErrorMessage());
+        }
+    }
+
+    /**
+     * Stops the walk: the groups that haven't been started are dropped and
+     * the walkers of the groups that are in flight are ended, which closes
+     * their sessions.
+     */
+    @Override
+    public void close() throws IOException {
+        m_stopped = true;
+        m_closed = true;
+        for (final SnmpWalker walker : m_laneWalkers) {
+            walker.handleError("The walk of " + getName() + " was closed");
+        }
+    }
+}
@@ -74,6 +74,19 @@ public abstract class SnmpUtils {
         return getStrategy().createWalker(agentConfig, name, createTooBigTracker(agentConfig, tracker));
     }
 
+    /**
+     * Creates a walker that walks up to maxConcurrentWalks groups of the
+     * columns of the tracker at the same time.
+     *
+     * @see ConcurrentWalker
+     */
+    public static AbstractSnmpWalker createWalker(SnmpAgentConfig agentConfig, String name, CollectionTracker tracker, int maxConcurrentWalks) {
+        if (maxConcurrentWalks <= 1) {
+            return createWalker(agentConfig, name, tracker);
+        }
+        return new ConcurrentWalker(agentConfig, name, createTooBigTracker(agentConfig, tracker), maxConcurrentWalks);
+    }
+
     private static TooBigReportingAggregator createTooBigTracker(SnmpAgentConfig agentConfig, CollectionTracker tracker) {
         return createTooBigTracker(agentConfig, new CollectionTracker[] { tracker });
     }
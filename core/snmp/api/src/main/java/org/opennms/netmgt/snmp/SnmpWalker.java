@@ -28,18 +28,10 @@
 
 package org.opennms.netmgt.snmp;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public abstract class SnmpWalker implements Closeable {
-	
-	private static final transient Logger LOG = LoggerFactory.getLogger(SnmpWalker.class);
+public abstract class SnmpWalker extends AbstractSnmpWalker {
     
     protected abstract static class WalkerPduBuilder extends PduBuilder {
         protected WalkerPduBuilder(int maxVarsPerPdu) {
@@ -49,33 +41,18 @@ public abstract class SnmpWalker implements Closeable {
         public abstract void reset();
     }
     
-    private final String m_name;
-    private final CollectionTracker m_tracker;
-
-    private final CountDownLatch m_signal;
-
-    private final InetAddress m_address;
     private WalkerPduBuilder m_pduBuilder;
     private ResponseProcessor m_responseProcessor;
     private final int m_maxVarsPerPdu;
-    private boolean m_error = false;
-    private String m_errorMessage = "";
-    private Throwable m_errorThrowable = null;
     
     protected SnmpWalker(InetAddress address, String name, int maxVarsPerPdu, int maxRepetitions, CollectionTracker tracker) {
-        m_address = address;
-        m_signal = new CountDownLatch(1);
-        
-        m_name = name;
-
-        m_tracker = tracker;
-        m_tracker.setMaxRepetitions(maxRepetitions);
-        
+        super(address, name, maxRepetitions, tracker);
         m_maxVarsPerPdu = maxVarsPerPdu;
     }
 
     protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
     
+    @Override
     public void start() {
         m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
         try {
@@ -90,108 +67,17 @@ public abstract class SnmpWalker implements Closeable {
     }
 
     protected void buildAndSendNextPdu() throws IOException {
-        if (m_tracker.isFinished()) {
+        if (getTracker().isFinished()) {
             handleDone();
         } else {
             m_pduBuilder.reset();
-            m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            m_responseProcessor = getTracker().buildNextPdu(m_pduBuilder);
             sendNextPdu(m_pduBuilder);
         }
     }
 
     protected abstract void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException;
 
-    protected void handleDone() {
-        finish();
-    }
-
-    /**
-     * <P>
-     * Returns the success or failure code for collection of the data.
-     * </P>
-     */
-    public boolean failed() {
-        return m_error;
-    }
-    
-    public boolean timedOut() {
-        return m_tracker.timedOut();
-    }
-
-    protected void handleAuthError(String msg) {
-        m_tracker.setFailed(true);
-        processError("Authentication error processing", msg, null);
-    }
-
-    protected void handleError(String msg) {
-        // XXX why do we set timedOut to false here?  should we be doing this everywhere?
-        m_tracker.setTimedOut(false);
-        processError("Error retrieving", msg, null);
-    }
-
-    protected void handleError(String msg, Throwable t) {
-        // XXX why do we set timedOut to false here?  should we be doing this everywhere?
-        m_tracker.setTimedOut(false);
-        processError("Error retrieving", msg, t);
-    }
-
-    protected void handleFatalError(Throwable e) {
-        m_tracker.setFailed(true);
-        processError("Unexpected error occurred processing", e.toString(), e);
-    }
-    
-    protected void handleTimeout(String msg) {
-        m_tracker.setTimedOut(true);
-        processError("Timeout retrieving", msg, null);
-    }
-
-    private void processError(String reason, String cause, Throwable t) {
-        String logMessage = reason + " " + getName() + " for " + m_address + ": " + cause;
-
-        m_error = true;
-        m_errorMessage = logMessage;
-        m_errorThrowable = t;
-        
-        finish();
-    }
-
-    private void finish() {
-        signal();
-        try {
-            close();
-        } catch (IOException e) {
-            LOG.error("{}: Unexpected Error occured closing SNMP session for: {}", getName(), m_address, e);
-        }
-    }
-
-    @Override
-    public abstract void close() throws IOException;
-
-    public final String getName() {
-        return m_name;
-    }
-
-    private void signal() {
-        synchronized (this) {
-            notifyAll();
-        }
-        if (m_signal != null) {
-            m_signal.countDown();
-        }
-    }
-
-    public void waitFor() throws InterruptedException {
-        m_signal.await();
-    }
-    
-    public void waitFor(long timeout) throws InterruptedException {
-        if (m_signal.await(timeout, TimeUnit.MILLISECONDS)) {
-            // Everything completed on time
-        } else {
-            handleTimeout("Timeout of " + timeout + " expired while waiting for " + getClass().getSimpleName() + " to finish");
-        }
-    }
-    
     // processErrors returns true if we need to retry the request and false otherwise
     protected boolean processErrors(int errorStatus, int errorIndex) {
         return m_responseProcessor.processErrors(errorStatus, errorIndex);
@@ -201,16 +87,4 @@ public abstract class SnmpWalker implements Closeable {
         m_responseProcessor.processResponse(receivedOid, val);
     }
 
-    protected final InetAddress getAddress() {
-        return m_address;
-    }
-
-    public final String getErrorMessage() {
-        return m_errorMessage;
-    }
-
-    public final Throwable getErrorThrowable() {
-        return m_errorThrowable;
-    }
-
 }
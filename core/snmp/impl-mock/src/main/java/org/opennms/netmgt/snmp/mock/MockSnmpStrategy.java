@@ -34,6 +34,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.InetAddrUtils;
@@ -64,6 +66,10 @@ public class MockSnmpStrategy implements SnmpStrategy {
     // TOG's enterprise ID
     private static int s_enterpriseId = 5813;
     private static Map<SnmpAgentAddress,PropertyOidContainer> m_loaders = new HashMap<SnmpAgentAddress,PropertyOidContainer>();
+    private static volatile long s_responseDelay = 0;
+    private static final AtomicLong s_requests = new AtomicLong();
+    private static final AtomicInteger s_requestsInFlight = new AtomicInteger();
+    private static final AtomicInteger s_maxRequestsInFlight = new AtomicInteger();
 
     public MockSnmpStrategy() {
     }
@@ -248,4 +254,53 @@ public class MockSnmpStrategy implements SnmpStrategy {
         m_loaders.clear();
     }
 
+    /**
+     * Sets the number of milliseconds that the walkers wait before answering
+     * each request, to play agents that are far away.
+     */
+    public static void setResponseDelay(final long responseDelay) {
+        s_responseDelay = responseDelay;
+    }
+
+    public static long getResponseDelay() {
+        return s_responseDelay;
+    }
+
+    static void requestStarted() {
+        s_requests.incrementAndGet();
+        final int inFlight = s_requestsInFlight.incrementAndGet();
+        int max;
+        while ((max = s_maxRequestsInFlight.get()) < inFlight && !s_maxRequestsInFlight.compareAndSet(max, inFlight)) {
+            // try again
+        }
+    }
+
+    static void requestFinished() {
+        s_requestsInFlight.decrementAndGet();
+    }
+
+    /**
+     * The number of requests that the walkers have answered or are answering.
+     */
+    public static long getRequests() {
+        return s_requests.get();
+    }
+
+    public static int getRequestsInFlight() {
+        return s_requestsInFlight.get();
+    }
+
+    /**
+     * The largest number of requests that the walkers were answering at the
+     * same time since the last call to {@link #resetRequestCounts()}.
+     */
+    public static int getMaxRequestsInFlight() {
+        return s_maxRequestsInFlight.get();
+    }
+
+    public static void resetRequestCounts() {
+        s_requests.set(0);
+        s_maxRequestsInFlight.set(0);
+    }
+
 }
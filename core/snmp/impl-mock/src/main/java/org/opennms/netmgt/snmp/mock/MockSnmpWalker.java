@@ -184,7 +184,12 @@ public class MockSnmpWalker extends SnmpWalker {
 
 		@Override
 		public void run() {
-		    handleResponses();
+		    MockSnmpStrategy.requestStarted();
+		    try {
+		        handleResponses();
+		    } finally {
+		        MockSnmpStrategy.requestFinished();
+		    }
 		}
 
 	    protected void handleResponses() {
@@ -197,6 +202,11 @@ public class MockSnmpWalker extends SnmpWalker {
 	            	return;
 	            }
 
+	            final long delay = MockSnmpStrategy.getResponseDelay();
+	            if (delay > 0) {
+	            	Thread.sleep(delay);
+	            }
+
 	            List<MockVarBind> responses = new ArrayList<MockVarBind>(m_oids.size());
 	            		
 	            int errorStatus = 0;
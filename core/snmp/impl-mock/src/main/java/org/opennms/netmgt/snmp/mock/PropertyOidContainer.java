@@ -87,7 +87,7 @@ public class PropertyOidContainer {
 
     public SnmpObjId findNextOidForOid(final SnmpObjId oid) {
         final NavigableMap<SnmpObjId,SnmpValue> next = m_tree.tailMap(oid, false);
-        if (next.size() == 0) {
+        if (next.isEmpty()) {
             return null;
         } else {
             return next.firstKey();
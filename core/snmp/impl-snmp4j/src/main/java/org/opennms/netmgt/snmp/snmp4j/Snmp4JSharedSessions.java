@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.smi.Address;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+/**
+ * A small, fixed set of SNMP sessions that are shared by the requests to all
+ * of the SNMPv1 and SNMPv2c agents, instead of a session with its own socket
+ * and listen thread per walk or request.
+ *
+ * The responses are matched to their requests by SNMP4J using the request
+ * ID, and are handed to the listeners by a shared pool of dispatcher threads.
+ * The number of requests in flight to the same agent is limited; the requests
+ * over the limit are queued and sent as the responses (or timeouts) of the
+ * previous ones come in, so that no thread ever waits for a slot.
+ *
+ * SNMPv3 requests still use a session of their own since the USM users of
+ * different agents can conflict.
+ */
+public class Snmp4JSharedSessions {
+
+    private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JSharedSessions.class);
+
+    /**
+     * Send the SNMPv1 and SNMPv2c requests through the shared sessions.
+     */
+    public static final String SHARED_TRANSPORT_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransport";
+
+    /**
+     * The number of shared sessions, each with its own UDP socket.
+     */
+    public static final String SOCKETS_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransport.sockets";
+
+    /**
+     * The number of threads that hand the responses to the listeners.
+     */
+    public static final String DISPATCHER_THREADS_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransport.dispatcherThreads";
+
+    /**
+     * The maximum number of requests in flight to the same agent, 0 for no limit.
+     */
+    public static final String MAX_IN_FLIGHT_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransport.maxInFlightPerAgent";
+
+    private static Snmp4JSharedSessions s_instance = null;
+
+    private static Thread s_shutdownHook = null;
+
+    /**
+     * The requests in flight to an agent, and the ones waiting for a slot.
+     */
+    private static class AgentSlots {
+        private int m_inFlight = 0;
+        private final Queue<QueuedRequest> m_queue = new LinkedList<QueuedRequest>();
+    }
+
+    private static class QueuedRequest {
+        private final PDU m_pdu;
+        private final Target m_target;
+        private final ResponseListener m_listener;
+
+        private QueuedRequest(final PDU pdu, final Target target, final ResponseListener listener) {
+            m_pdu = pdu;
+            m_target = target;
+            m_listener = listener;
+        }
+    }
+
+    /**
+     * Frees the slot of the request when its response or timeout comes in,
+     * before handing the response to the listener of the request.
+     */
+    private class SlotReleasingListener implements ResponseListener {
+        private final Snmp m_session;
+        private final Address m_address;
+        private final ResponseListener m_listener;
+
+        private SlotReleasingListener(final Snmp session, final Address address, final ResponseListener listener) {
+            m_session = session;
+            m_address = address;
+            m_listener = listener;
+        }
+
+        @Override
+        public void onResponse(final ResponseEvent event) {
+            // the listener of the request is this one so it must be the one to cancel it
+            m_session.cancel(event.getRequest(), this);
+            release(m_address);
+            m_listener.onResponse(event);
+        }
+    }
+
+    private final Snmp[] m_sessions;
+
+    private final ThreadPool m_dispatcherThreads;
+
+    private final int m_maxInFlight;
+
+    private final AtomicInteger m_next = new AtomicInteger();
+
+    private final AtomicInteger m_inFlight = new AtomicInteger();
+
+    private final AtomicInteger m_queued = new AtomicInteger();
+
+    private final ConcurrentMap<Address, AgentSlots> m_slots = new ConcurrentHashMap<Address, AgentSlots>();
+
+    private volatile boolean m_closed = false;
+
+    /**
+     * <p>Constructor for Snmp4JSharedSessions.</p>
+     *
+     * @param sockets the number of sessions
+     * @param dispatcherThreads the number of threads handing responses to the listeners
+     * @param maxInFlight the maximum number of requests in flight per agent, 0 for no limit
+     * @throws IOException if a socket can't be opened
+     */
+    public Snmp4JSharedSessions(final int sockets, final int dispatcherThreads, final int maxInFlight) throws IOException {
+        if (sockets < 1 || dispatcherThreads < 1 || maxInFlight < 0) {
+            throw new IllegalArgumentException("At least one socket and dispatcher thread is required");
+        }
+        m_maxInFlight = maxInFlight;
+        m_dispatcherThreads = ThreadPool.create("Snmp4JSharedDispatcher", dispatcherThreads);
+        m_sessions = new Snmp[sockets];
+        try {
+            for (int i = 0; i < sockets; i++) {
+                final MessageDispatcher dispatcher = new MultiThreadedMessageDispatcher(m_dispatcherThreads, new MessageDispatcherImpl());
+                dispatcher.addMessageProcessingModel(new MPv1());
+                dispatcher.addMessageProcessingModel(new MPv2c());
+                m_sessions[i] = new Snmp(dispatcher, new DefaultUdpTransportMapping());
+                m_sessions[i].listen();
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+        LOG.info("Sending SNMPv1 and SNMPv2c requests through {} shared sockets, with {} dispatcher threads and at most {} requests in flight per agent", sockets, dispatcherThreads, maxInFlight == 0 ? "unlimited" : maxInFlight);
+    }
+
+    /**
+     * Returns whether the shared sessions are enabled with the
+     * {@link #SHARED_TRANSPORT_PROPERTY} system property.
+     *
+     * @return a boolean.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(SHARED_TRANSPORT_PROPERTY);
+    }
+
+    /**
+     * Returns whether the requests to the agent go through the shared sessions.
+     *
+     * @param agentConfig a {@link org.opennms.netmgt.snmp.snmp4j.Snmp4JAgentConfig} object.
+     * @return a boolean.
+     */
+    public static boolean isSharedFor(final Snmp4JAgentConfig agentConfig) {
+        return agentConfig != null && !agentConfig.isSnmpV3() && isEnabled();
+    }
+
+    /**
+     * Returns the shared sessions, which are created the first time.  They
+     * are closed when the JVM exits, if {@link #closeInstance()} hasn't been
+     * called before.
+     *
+     * @return a {@link org.opennms.netmgt.snmp.snmp4j.Snmp4JSharedSessions} object.
+     * @throws IOException if a socket can't be opened
+     */
+    public static synchronized Snmp4JSharedSessions getInstance() throws IOException {
+        if (s_instance == null) {
+            s_instance = new Snmp4JSharedSessions(
+                Integer.getInteger(SOCKETS_PROPERTY, 4),
+                Integer.getInteger(DISPATCHER_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, 10)
+            );
+            if (s_shutdownHook == null) {
+                s_shutdownHook = new Thread("Snmp4JSharedSessions-Shutdown") {
+                    @Override
+                    public void run() {
+                        closeInstance();
+                    }
+                };
+                Runtime.getRuntime().addShutdownHook(s_shutdownHook);
+            }
+        }
+        return s_instance;
+    }
+
+    /**
+     * Closes the shared sockets and stops the dispatcher threads, the next
+     * requests create them again.
+     */
+    public static synchronized void closeInstance() {
+        if (s_instance != null) {
+            s_instance.close();
+            s_instance = null;
+        }
+    }
+
+    /**
+     * Sends the request, or queues it if there are already too many requests
+     * in flight to the agent.  The listener is called once with the response,
+     * the timeout or the error of the request.
+     *
+     * @param pdu the request
+     * @param target the agent
+     * @param listener a {@link org.snmp4j.event.ResponseListener} object.
+     */
+    public void send(final PDU pdu, final Target target, final ResponseListener listener) {
+        final Address address = target.getAddress();
+        if (m_maxInFlight > 0) {
+            AgentSlots slots = m_slots.get(address);
+            if (slots == null) {
+                final AgentSlots newSlots = new AgentSlots();
+                slots = m_slots.putIfAbsent(address, newSlots);
+                if (slots == null) {
+                    slots = newSlots;
+                }
+            }
+            synchronized (slots) {
+                if (slots.m_inFlight >= m_maxInFlight) {
+                    slots.m_queue.add(new QueuedRequest(pdu, target, listener));
+                    m_queued.incrementAndGet();
+                    return;
+                }
+                slots.m_inFlight++;
+            }
+        }
+        sendInSlot(new QueuedRequest(pdu, target, listener));
+    }
+
+    /**
+     * Sends the request and waits for its response.
+     *
+     * @param pdu the request
+     * @param target the agent
+     * @return the response event, with a null response on timeout
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public ResponseEvent send(final PDU pdu, final Target target) throws InterruptedException {
+        final ResponseEvent[] result = new ResponseEvent[1];
+        send(pdu, target, new ResponseListener() {
+            @Override
+            public void onResponse(final ResponseEvent event) {
+                synchronized (result) {
+                    result[0] = event;
+                    result.notifyAll();
+                }
+            }
+        });
+        synchronized (result) {
+            while (result[0] == null) {
+                result.wait();
+            }
+            return result[0];
+        }
+    }
+
+    /**
+     * Sends the request, which holds a slot.  If it can't be sent, its slot
+     * goes to the next queued request, if any.
+     */
+    private void sendInSlot(final QueuedRequest first) {
+        QueuedRequest request = first;
+        while (request != null && !doSend(request)) {
+            request = releaseSlot(request.m_target.getAddress());
+        }
+    }
+
+    private boolean doSend(final QueuedRequest request) {
+        final Snmp session = m_sessions[(m_next.getAndIncrement() & Integer.MAX_VALUE) % m_sessions.length];
+        m_inFlight.incrementAndGet();
+        try {
+            session.send(request.m_pdu, request.m_target, null, new SlotReleasingListener(session, request.m_target.getAddress(), request.m_listener));
+            return true;
+        } catch (final Throwable e) {
+            LOG.debug("Failed to send request to {}", request.m_target.getAddress(), e);
+            request.m_listener.onResponse(new ResponseEvent(session, null, request.m_pdu, null, null, e instanceof Exception ? (Exception)e : new RuntimeException(e)));
+            return false;
+        }
+    }
+
+    /**
+     * Frees the slot of a request to the agent, and sends the next queued
+     * request with it, if there is one.
+     */
+    private void release(final Address address) {
+        final QueuedRequest next = releaseSlot(address);
+        if (next != null) {
+            sendInSlot(next);
+        }
+    }
+
+    /**
+     * Frees the slot of a request to the agent.
+     *
+     * @return the queued request that the slot goes to, or null
+     */
+    private QueuedRequest releaseSlot(final Address address) {
+        m_inFlight.decrementAndGet();
+        if (m_maxInFlight == 0) {
+            return null;
+        }
+        final AgentSlots slots = m_slots.get(address);
+        synchronized (slots) {
+            final QueuedRequest next = slots.m_queue.poll();
+            if (next == null) {
+                slots.m_inFlight--;
+            } else {
+                m_queued.decrementAndGet();
+            }
+            return next;
+        }
+    }
+
+    /**
+     * <p>getInFlightRequests</p>
+     *
+     * @return the number of requests waiting for a response
+     */
+    public int getInFlightRequests() {
+        return m_inFlight.get();
+    }
+
+    /**
+     * <p>getQueuedRequests</p>
+     *
+     * @return the number of requests waiting for a slot
+     */
+    public int getQueuedRequests() {
+        return m_queued.get();
+    }
+
+    /**
+     * <p>getSocketCount</p>
+     *
+     * @return the number of shared sockets
+     */
+    public int getSocketCount() {
+        return m_sessions.length;
+    }
+
+    /**
+     * <p>isClosed</p>
+     *
+     * @return true once the shared sockets have been closed
+     */
+    public boolean isClosed() {
+        return m_closed;
+    }
+
+    private void close() {
+        m_closed = true;
+        for (final Snmp session : m_sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (final IOException e) {
+                LOG.error("error closing shared SNMP session", e);
+            }
+        }
+        m_dispatcherThreads.cancel();
+    }
+}
@@ -120,6 +120,14 @@ public class Snmp4JStrategy implements SnmpStrategy {
     public Snmp4JStrategy() {
         initialize();
     }
+
+    /**
+     * Closes the sessions shared by the SNMPv1 and SNMPv2c requests, along
+     * with their sockets and threads.  Called when the strategy is torn down.
+     */
+    public void destroy() {
+        Snmp4JSharedSessions.closeInstance();
+    }
     
     /**
      * SNMP4J createWalker implemenetation.
@@ -242,6 +250,10 @@ public class Snmp4JStrategy implements SnmpStrategy {
      * adapted from default SnmpAgentConfig values to those compatible with the SNMP4J library.
      */
     protected SnmpValue[] send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse) {
+        if (expectResponse && Snmp4JSharedSessions.isSharedFor(agentConfig)) {
+            return sendShared(agentConfig, pdu);
+        }
+
         Snmp session;
 
         try {
@@ -282,6 +294,31 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
     
 
+    /**
+     * Sends an SNMP4J request PDU through the shared sessions and waits for
+     * its response.
+     */
+    private SnmpValue[] sendShared(Snmp4JAgentConfig agentConfig, PDU pdu) {
+        try {
+            final ResponseEvent responseEvent = Snmp4JSharedSessions.getInstance().send(pdu, agentConfig.getTarget());
+            if (responseEvent.getError() != null) {
+                LOG.error("send: error during SNMP operation", responseEvent.getError());
+                return new SnmpValue[] { null };
+            }
+            return processResponse(agentConfig, responseEvent);
+        } catch (final IOException e) {
+            LOG.error("send: error during SNMP operation", e);
+            return new SnmpValue[] { null };
+        } catch (final InterruptedException e) {
+            LOG.warn("send: interrupted while waiting for the response of {}", agentConfig, e);
+            Thread.currentThread().interrupt();
+            return new SnmpValue[] { null };
+        } catch (final RuntimeException e) {
+            LOG.error("send: unexpected error during SNMP operation", e);
+            return new SnmpValue[] { null };
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
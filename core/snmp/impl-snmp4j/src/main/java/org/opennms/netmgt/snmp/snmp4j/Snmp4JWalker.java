@@ -164,7 +164,10 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            // (the shared sessions cancel their requests themselves)
+            if (m_session != null) {
+                m_session.cancel(responseEvent.getRequest(), this);
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -189,6 +192,7 @@ public class Snmp4JWalker extends SnmpWalker {
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
+    private final boolean m_shared;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
         super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), tracker);
@@ -197,6 +201,7 @@ public class Snmp4JWalker extends SnmpWalker {
         
         m_tgt = agentConfig.getTarget();
         m_listener = new Snmp4JResponseListener();
+        m_shared = Snmp4JSharedSessions.isSharedFor(agentConfig);
     }
     
         @Override
@@ -217,6 +222,11 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws IOException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
+        if (m_shared) {
+            LOG.debug("Sending tracker pdu of size {} through the shared sessions", snmp4JPduBuilder.getPdu().size());
+            Snmp4JSharedSessions.getInstance().send(snmp4JPduBuilder.getPdu(), m_tgt, m_listener);
+            return;
+        }
         if (m_session == null) {
             m_session = m_agentConfig.createSnmpSession();
             m_session.listen();
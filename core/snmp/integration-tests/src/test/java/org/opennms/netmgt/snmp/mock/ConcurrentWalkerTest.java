@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.mock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.AbstractSnmpWalker;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentAddress;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.springframework.core.io.ByteArrayResource;
+
+/**
+ * Walks a large ifTable of the mock agent, answering each request after a
+ * delay, one request at a time and with several requests in flight.
+ */
+public class ConcurrentWalkerTest {
+
+    private static final String IF_ENTRY = ".1.3.6.1.2.1.2.2.1";
+
+    private static final int INTERFACES = 500;
+
+    private static final int[] COLUMNS = { 1, 2, 3, 5, 10, 11, 16, 17 };
+
+    private InetAddress m_agentAddress = InetAddressUtils.addr("127.0.0.1");
+    private int m_agentPort = 1691;
+    private String m_oldProperty;
+
+    @Before
+    public void setUp() throws Exception {
+        final StringBuilder data = new StringBuilder();
+        for (final int column : COLUMNS) {
+            for (int ifIndex = 1; ifIndex <= INTERFACES; ifIndex++) {
+                data.append(IF_ENTRY).append('.').append(column).append('.').append(ifIndex);
+                if (column == 2) {
+                    data.append(" = STRING: eth").append(ifIndex).append('\n');
+                } else {
+                    data.append(" = Counter32: ").append(column * 100000 + ifIndex).append('\n');
+                }
+            }
+        }
+        MockSnmpStrategy.setDataForAddress(new SnmpAgentAddress(m_agentAddress, m_agentPort), new ByteArrayResource(data.toString().getBytes("UTF-8")));
+        MockSnmpStrategy.setResponseDelay(1);
+        MockSnmpStrategy.resetRequestCounts();
+        m_oldProperty = System.getProperty("org.opennms.snmp.strategyClass");
+        System.setProperty("org.opennms.snmp.strategyClass", MockSnmpStrategy.class.getName());
+    }
+
+    @After
+    public void tearDown() {
+        MockSnmpStrategy.setResponseDelay(0);
+        MockSnmpStrategy.resetData();
+        if (m_oldProperty == null) {
+            System.getProperties().remove("org.opennms.snmp.strategyClass");
+        } else {
+            System.setProperty("org.opennms.snmp.strategyClass", m_oldProperty);
+        }
+    }
+
+    @Test
+    public void testConcurrentWalkMatchesSequentialWalk() throws Exception {
+        final ResultTracker sequential = new ResultTracker();
+        AbstractSnmpWalker walker = SnmpUtils.createWalker(getAgentConfig(), "sequential", sequential, 1);
+        walker.start();
+        walker.waitFor();
+        assertFalse(walker.getErrorMessage(), walker.failed());
+        assertEquals(COLUMNS.length * INTERFACES, sequential.getResults().size());
+        assertEquals(1, MockSnmpStrategy.getMaxRequestsInFlight());
+
+        MockSnmpStrategy.resetRequestCounts();
+        final ResultTracker concurrent = new ResultTracker();
+        walker = SnmpUtils.createWalker(getAgentConfig(), "concurrent", concurrent, 4);
+        walker.start();
+        walker.waitFor();
+        assertFalse(walker.getErrorMessage(), walker.failed());
+        assertEquals(sequential.getResults(), concurrent.getResults());
+
+        // the groups were walked at the same time, never more than four
+        assertTrue("requests in flight: " + MockSnmpStrategy.getMaxRequestsInFlight(), MockSnmpStrategy.getMaxRequestsInFlight() > 1);
+        assertTrue(MockSnmpStrategy.getMaxRequestsInFlight() <= 4);
+    }
+
+    /**
+     * A walk that times out stops the walks of its groups that are still in
+     * flight, so no request is made for it afterwards.
+     */
+    @Test
+    public void testClosingStopsTheWalksInFlight() throws Exception {
+        MockSnmpStrategy.setResponseDelay(20);
+
+        final ResultTracker tracker = new ResultTracker();
+        final AbstractSnmpWalker walker = SnmpUtils.createWalker(getAgentConfig(), "closed", tracker, 4);
+        walker.start();
+        walker.waitFor(100);
+        assertTrue(walker.failed());
+        assertTrue(walker.timedOut());
+
+        final long end = System.currentTimeMillis() + 5000;
+        while (MockSnmpStrategy.getRequestsInFlight() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, MockSnmpStrategy.getRequestsInFlight());
+
+        final long requests = MockSnmpStrategy.getRequests();
+        Thread.sleep(200);
+        assertEquals(requests, MockSnmpStrategy.getRequests());
+        assertTrue(tracker.getResults().size() < COLUMNS.length * INTERFACES);
+    }
+
+    @Test
+    public void testConcurrentWalkTimeout() throws Exception {
+        final SnmpAgentConfig config = getAgentConfig();
+        config.setPort(12345);
+
+        final ResultTracker tracker = new ResultTracker();
+        final AbstractSnmpWalker walker = SnmpUtils.createWalker(config, "timeout", tracker, 4);
+        walker.start();
+        walker.waitFor();
+        assertTrue(walker.failed());
+        assertTrue(walker.timedOut());
+        assertEquals(0, tracker.getResults().size());
+    }
+
+    private SnmpAgentConfig getAgentConfig() {
+        final SnmpAgentConfig config = new SnmpAgentConfig();
+        config.setAddress(m_agentAddress);
+        config.setPort(m_agentPort);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setMaxVarsPerPdu(2);
+        config.setMaxRepetitions(2);
+        return config;
+    }
+
+    private static class ResultTracker extends AggregateTracker {
+        private final Map<String, String> m_results = new TreeMap<String, String>();
+
+        public ResultTracker() {
+            super(columns());
+        }
+
+        private static List<Collectable> columns() {
+            final List<Collectable> columns = new ArrayList<Collectable>();
+            for (final int column : COLUMNS) {
+                columns.add(new ColumnTracker(SnmpObjId.get(IF_ENTRY + "." + column)));
+            }
+            return columns;
+        }
+
+        public Map<String, String> getResults() {
+            return m_results;
+        }
+
+        @Override
+        protected void storeResult(final SnmpResult res) {
+            m_results.put(res.getAbsoluteInstance().toString(), res.getValue().toString());
+        }
+    }
+}
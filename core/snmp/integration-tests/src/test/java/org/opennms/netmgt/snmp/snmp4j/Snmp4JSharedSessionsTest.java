@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the mock agent with a session per walk and through the shared
+ * sessions, and logs the walks per second along with the number of open
+ * file descriptors while the walks are in flight.
+ */
+public class Snmp4JSharedSessionsTest extends MockSnmpAgentTestCase {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSharedSessionsTest.class);
+
+    private static final int WALKS = 2000;
+
+    private static final int CONCURRENT_WALKS = 200;
+
+    private final Snmp4JStrategy m_strategy = new Snmp4JStrategy();
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @After
+    public void closeSharedSessions() {
+        System.clearProperty(Snmp4JSharedSessions.SHARED_TRANSPORT_PROPERTY);
+        Snmp4JSharedSessions.closeInstance();
+    }
+
+    @Test
+    public void testGetThroughSharedSessions() throws Exception {
+        System.setProperty(Snmp4JSharedSessions.SHARED_TRANSPORT_PROPERTY, "true");
+        final SnmpValue value = m_strategy.get(getAgentConfig(), SnmpObjId.get(".1.3.5.1.1.3.0"));
+        assertEquals(42, value.toInt());
+        assertEquals(0, Snmp4JSharedSessions.getInstance().getInFlightRequests());
+    }
+
+    @Test
+    public void testDestroyClosesSharedSessions() throws Exception {
+        System.setProperty(Snmp4JSharedSessions.SHARED_TRANSPORT_PROPERTY, "true");
+        assertEquals(42, m_strategy.get(getAgentConfig(), SnmpObjId.get(".1.3.5.1.1.3.0")).toInt());
+        final Snmp4JSharedSessions sessions = Snmp4JSharedSessions.getInstance();
+        assertFalse(sessions.isClosed());
+
+        m_strategy.destroy();
+        assertTrue(sessions.isClosed());
+
+        // the next request opens new sessions
+        assertEquals(42, m_strategy.get(getAgentConfig(), SnmpObjId.get(".1.3.5.1.1.3.0")).toInt());
+        assertNotSame(sessions, Snmp4JSharedSessions.getInstance());
+    }
+
+    @Test
+    public void testInFlightLimit() throws Exception {
+        System.setProperty(Snmp4JSharedSessions.SHARED_TRANSPORT_PROPERTY, "true");
+        System.setProperty(Snmp4JSharedSessions.MAX_IN_FLIGHT_PROPERTY, "1");
+        try {
+            assertEquals(6 * CONCURRENT_WALKS, walk(CONCURRENT_WALKS));
+            assertEquals(0, Snmp4JSharedSessions.getInstance().getInFlightRequests());
+            assertEquals(0, Snmp4JSharedSessions.getInstance().getQueuedRequests());
+        } finally {
+            System.clearProperty(Snmp4JSharedSessions.MAX_IN_FLIGHT_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testWalkThroughput() throws Exception {
+        runWalks("a session per walk");
+        System.setProperty(Snmp4JSharedSessions.SHARED_TRANSPORT_PROPERTY, "true");
+        runWalks("shared sessions");
+    }
+
+    private void runWalks(final String mode) throws Exception {
+        long maxFileDescriptors = 0;
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < WALKS; i += CONCURRENT_WALKS) {
+            final List<SnmpWalker> walkers = startWalkers(CONCURRENT_WALKS, new AtomicInteger());
+            maxFileDescriptors = Math.max(maxFileDescriptors, getOpenFileDescriptors());
+            waitFor(walkers);
+        }
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        LOG.debug("{}: {} walks in {} ms, {} walks per second, {} open file descriptors with {} walks in flight", mode, WALKS, elapsed, WALKS * 1000 / elapsed, maxFileDescriptors, CONCURRENT_WALKS);
+    }
+
+    private int walk(final int count) throws Exception {
+        final AtomicInteger results = new AtomicInteger();
+        waitFor(startWalkers(count, results));
+        return results.get();
+    }
+
+    private List<SnmpWalker> startWalkers(final int count, final AtomicInteger results) {
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+        final List<SnmpWalker> walkers = new ArrayList<SnmpWalker>(count);
+        for (int i = 0; i < count; i++) {
+            final ColumnTracker tracker = new ColumnTracker(SnmpObjId.get(".1.3.5.1.1")) {
+                @Override
+                protected void storeResult(final SnmpResult res) {
+                    results.incrementAndGet();
+                }
+            };
+            final SnmpWalker walker = m_strategy.createWalker(agentConfig, "walk" + i, tracker);
+            walker.start();
+            walkers.add(walker);
+        }
+        return walkers;
+    }
+
+    private static void waitFor(final List<SnmpWalker> walkers) throws Exception {
+        for (final SnmpWalker walker : walkers) {
+            walker.waitFor();
+            assertFalse(walker.getErrorMessage(), walker.failed());
+        }
+    }
+
+    private static long getOpenFileDescriptors() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean)os).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+}
@@ -28,6 +28,7 @@
 
 package org.opennms.core.tasks;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
@@ -97,6 +98,7 @@ public class DefaultTaskCoordinator implements InitializingBean {
 
     private final BlockingQueue<Future<Runnable>> m_queue;
     private final ConcurrentHashMap<String, CompletionService<Runnable>> m_taskCompletionServices = new ConcurrentHashMap<String, CompletionService<Runnable>>();
+    private final ConcurrentHashMap<String, ExecutorStats> m_executorStats = new ConcurrentHashMap<String, ExecutorStats>();
     
     private String m_defaultExecutor ;
     private CompletionService<Runnable> m_defaultCompletionService;
@@ -440,7 +442,29 @@ public class DefaultTaskCoordinator implements InitializingBean {
      * @param executor a {@link java.util.concurrent.Executor} object.
      */
     public void addExecutor(String executorName, Executor executor) {
-        m_taskCompletionServices.put(executorName, new ExecutorCompletionService<Runnable>(executor, m_queue));
+        final ExecutorStats stats = new ExecutorStats(executorName);
+        m_executorStats.put(executorName, stats);
+        m_taskCompletionServices.put(executorName, new ExecutorCompletionService<Runnable>(stats.instrument(executor), m_queue));
+    }
+
+    /**
+     * Returns the queue depth and latency of each of the executors, keyed by
+     * the name they were added with.
+     *
+     * @return a {@link java.util.Map} object.
+     */
+    public Map<String, ExecutorStats> getExecutorStats() {
+        return Collections.unmodifiableMap(m_executorStats);
+    }
+
+    /**
+     * <p>getExecutorStats</p>
+     *
+     * @param executorName a {@link java.lang.String} object.
+     * @return the stats of the executor, or null if there is no executor with that name
+     */
+    public ExecutorStats getExecutorStats(String executorName) {
+        return m_executorStats.get(executorName);
     }
 
     /**
@@ -450,6 +474,7 @@ public class DefaultTaskCoordinator implements InitializingBean {
      */
     public void setExecutors(Map<String,Executor> executors) {
         m_taskCompletionServices.clear();
+        m_executorStats.clear();
         for (Map.Entry<String, Executor> e : executors.entrySet()) {
             addExecutor(e.getKey(), e.getValue());
         }
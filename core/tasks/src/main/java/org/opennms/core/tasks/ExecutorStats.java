@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.tasks;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the work handed to one of the executors of a
+ * {@link DefaultTaskCoordinator}, along with the time it spent waiting for a
+ * thread and the time it took to run, so that a saturated executor can be
+ * told apart from a slow one.
+ */
+public class ExecutorStats {
+
+    private final String m_name;
+
+    private final AtomicLong m_submitted = new AtomicLong();
+
+    private final AtomicLong m_started = new AtomicLong();
+
+    private final AtomicLong m_completed = new AtomicLong();
+
+    private final AtomicLong m_waitNanos = new AtomicLong();
+
+    private final AtomicLong m_runNanos = new AtomicLong();
+
+    private final AtomicLong m_maxWaitNanos = new AtomicLong();
+
+    /**
+     * <p>Constructor for ExecutorStats.</p>
+     *
+     * @param name the name the executor was added with
+     */
+    public ExecutorStats(final String name) {
+        m_name = name;
+    }
+
+    /**
+     * Wraps the executor so that the work it is given is counted.
+     *
+     * @param executor a {@link java.util.concurrent.Executor} object.
+     * @return a {@link java.util.concurrent.Executor} object.
+     */
+    public Executor instrument(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable r) {
+                final long submittedAt = System.nanoTime();
+                m_submitted.incrementAndGet();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            final long startedAt = System.nanoTime();
+                            started(startedAt - submittedAt);
+                            try {
+                                r.run();
+                            } finally {
+                                m_runNanos.addAndGet(System.nanoTime() - startedAt);
+                                m_completed.incrementAndGet();
+                            }
+                        }
+                        @Override
+                        public String toString() {
+                            return r.toString();
+                        }
+                    });
+                } catch (final RuntimeException e) {
+                    // rejected, so it will never start
+                    m_submitted.decrementAndGet();
+                    throw e;
+                }
+            }
+            @Override
+            public String toString() {
+                return String.format("%s(%s)", m_name, executor);
+            }
+        };
+    }
+
+    private void started(final long waitNanos) {
+        m_started.incrementAndGet();
+        m_waitNanos.addAndGet(waitNanos);
+        long max = m_maxWaitNanos.get();
+        while (waitNanos > max && !m_maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = m_maxWaitNanos.get();
+        }
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * @return the number of runnables waiting for a thread of the executor
+     */
+    public long getQueueDepth() {
+        // read started first so that a concurrent start can't make this negative
+        final long started = m_started.get();
+        return Math.max(0, m_submitted.get() - started);
+    }
+
+    /**
+     * @return the number of runnables currently running on the executor
+     */
+    public long getActiveCount() {
+        final long completed = m_completed.get();
+        return Math.max(0, m_started.get() - completed);
+    }
+
+    public long getSubmittedCount() {
+        return m_submitted.get();
+    }
+
+    public long getCompletedCount() {
+        return m_completed.get();
+    }
+
+    /**
+     * @return the average time, in milliseconds, a runnable waited for a thread
+     */
+    public double getAverageWaitTime() {
+        return average(m_waitNanos.get(), m_started.get());
+    }
+
+    /**
+     * @return the longest time, in milliseconds, a runnable waited for a thread
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_maxWaitNanos.get());
+    }
+
+    /**
+     * @return the average time, in milliseconds, a runnable took to run
+     */
+    public double getAverageRunTime() {
+        return average(m_runNanos.get(), m_completed.get());
+    }
+
+    private static double average(final long nanos, final long count) {
+        return count == 0 ? 0.0 : nanos / 1000000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: queued=%d, active=%d, completed=%d, avgWait=%.1fms, maxWait=%dms, avgRun=%.1fms",
+                             m_name, getQueueDepth(), getActiveCount(), getCompletedCount(),
+                             getAverageWaitTime(), getMaxWaitTime(), getAverageRunTime());
+    }
+}
@@ -38,6 +38,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -468,7 +469,72 @@ public class TaskTest {
         assertEquals(total*(total+1)/2, result.get());
         
     }
+
+    @Test
+    public void testExecutorStats() throws Exception {
+        final ExecutorService single = Executors.newSingleThreadExecutor(
+            new LogPreservingThreadFactory("single", 1)
+        );
+        // counts down once the stats have counted the submission
+        final CountDownLatch submitted = new CountDownLatch(5);
+        m_coordinator.addExecutor("single", new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                single.execute(command);
+                submitted.countDown();
+            }
+        });
+
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        BatchTask task = new BatchTask(m_coordinator, null);
+        task.add(holder(running, release), "single");
+        for (int i = 0; i < 4; i++) {
+            task.add(holder(new CountDownLatch(1), new CountDownLatch(0)), "single");
+        }
+        task.schedule();
+
+        // the first one holds the only thread and the others queue behind it
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        final long heldFrom = System.nanoTime();
+        ExecutorStats stats = m_coordinator.getExecutorStats("single");
+        assertEquals(5, stats.getSubmittedCount());
+        assertEquals(4, stats.getQueueDepth());
+        assertEquals(1, stats.getActiveCount());
+        assertEquals(0, stats.getCompletedCount());
+        final long heldFor = System.nanoTime() - heldFrom;
+        release.countDown();
+
+        task.waitFor();
+        // the stats are updated once the runnables return
+        single.shutdown();
+        assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(5, stats.getSubmittedCount());
+        assertEquals(5, stats.getCompletedCount());
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(0, stats.getActiveCount());
+        // the first one ran and the others waited at least as long as it was held
+        assertTrue("average run time " + stats.getAverageRunTime(), stats.getAverageRunTime() * 5 >= heldFor / 1000000.0);
+        assertTrue("max wait time " + stats.getMaxWaitTime(), stats.getMaxWaitTime() >= TimeUnit.NANOSECONDS.toMillis(heldFor));
+        assertEquals(0, m_coordinator.getExecutorStats(SyncTask.DEFAULT_EXECUTOR).getSubmittedCount());
+    }
     
+    private Runnable holder(final CountDownLatch running, final CountDownLatch release) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
     private <T> Runnable appender(final List<T> list, final T value) {
         return new Runnable() {
             @Override
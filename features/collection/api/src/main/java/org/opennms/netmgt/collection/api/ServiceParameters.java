@@ -74,6 +74,7 @@ public class ServiceParameters {
         @Deprecated
         MAXREPETITIONS("maxRepetitions"),
         MAX_REQUEST_SIZE("max-request-size"),
+        MAX_CONCURRENT_WALKS("max-concurrent-walks"),
         SECURITY_NAME("security-name"),
         AUTH_PASSPHRASE("auth-passphrase"),
         AUTH_PROTOCOL("auth-protocol"),
@@ -276,6 +277,10 @@ public class ServiceParameters {
         return ParameterMap.getKeyedInteger(getParameters(), ParameterName.MAX_REQUEST_SIZE.toString(), current);
     }
 
+    public int getSnmpMaxConcurrentWalks(int current) {
+        return ParameterMap.getKeyedInteger(getParameters(), ParameterName.MAX_CONCURRENT_WALKS.toString(), current);
+    }
+
     public String getSnmpSecurityName(String current) {
         return ParameterMap.getKeyedString(getParameters(), ParameterName.SECURITY_NAME.toString(), current);
     }
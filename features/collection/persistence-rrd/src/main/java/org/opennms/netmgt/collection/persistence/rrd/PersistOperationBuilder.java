@@ -48,6 +48,7 @@ import org.opennms.netmgt.collection.support.DefaultTimeKeeper;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.rrd.RrdUpdateFormat;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -174,7 +175,7 @@ public class PersistOperationBuilder {
             List<RrdDataSource> dataSources = getDataSources();
             if (dataSources != null && dataSources.size() > 0) {
                 RrdUtils.createRRD(ownerName, absolutePath, m_rrdName, getRepository().getStep(), dataSources, getRepository().getRraList(), getAttributeMappings());
-                RrdUtils.updateRRD(ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+                updateRRD(ownerName, absolutePath);
                 RrdUtils.createMetaDataFile(absolutePath, m_rrdName, m_metaData);
             }
         } catch (FileNotFoundException e) {
@@ -183,6 +184,37 @@ public class PersistOperationBuilder {
         }
     }
 
+    /**
+     * Hands the values to the strategy as doubles when they can all be
+     * parsed without losing precision, so they are not formatted into an
+     * update string and parsed again.  Otherwise, for example for 64-bit
+     * counters beyond 2^53, the values are passed in an update string as
+     * they were collected.
+     */
+    private void updateRRD(String ownerName, String absolutePath) throws RrdException {
+        double[] values = new double[m_declarations.size()];
+        int i = 0;
+        for (String value : m_declarations.values()) {
+            try {
+                values[i] = RrdUpdateFormat.parseValue(value);
+            } catch (NumberFormatException e) {
+                values = null;
+                break;
+            }
+            if (!RrdUpdateFormat.isExact(value, values[i])) {
+                values = null;
+                break;
+            }
+            i++;
+        }
+
+        if (values != null) {
+            RrdUtils.updateRRD(ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), values);
+        } else {
+            RrdUtils.updateRRD(ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+        }
+    }
+
     private String getValues() {
         boolean first = true;
         StringBuffer values = new StringBuffer();
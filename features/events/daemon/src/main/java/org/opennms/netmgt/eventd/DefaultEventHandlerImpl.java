@@ -31,6 +31,7 @@ package org.opennms.netmgt.eventd;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.opennms.netmgt.eventd.processor.PipelinedEventProcessor;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventProcessor;
 import org.opennms.netmgt.events.api.EventProcessorException;
@@ -50,6 +51,8 @@ import org.springframework.util.Assert;
  * Operations done on an incoming event are handled by the List of injected
  * EventProcessors, in the order in which they are given in the list.  If any
  * of them throw an exception, futher processing of that event Log is stopped.
+ * Processors that implement {@link PipelinedEventProcessor} may finish with an
+ * event on another thread, the later processors then run on that thread.
  *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
@@ -130,16 +133,36 @@ public final class DefaultEventHandlerImpl implements InitializingBean, EventHan
                     LOG.debug("}");
                 }
 
-                for (final EventProcessor eventProcessor : m_eventProcessors) {
-                    try {
-                        eventProcessor.process(m_eventLog.getHeader(), event);
-                    } catch (EventProcessorException e) {
-                        LOG.warn("Unable to process event using processor {}; not processing with any later processors.", eventProcessor, e);
-                        break;
-                    } catch (Throwable t) {
-                        LOG.warn("Unknown exception processing event with processor {}; not processing with any later processors.", eventProcessor, t);
+                process(event, 0);
+            }
+        }
+
+        /**
+         * Runs the event through the processors, starting with the one at the
+         * given index.  A {@link PipelinedEventProcessor} is handed the rest
+         * of the chain, which it runs once it is done with the event.
+         */
+        private void process(final Event event, final int first) {
+            for (int i = first; i < m_eventProcessors.size(); i++) {
+                final EventProcessor eventProcessor = m_eventProcessors.get(i);
+                try {
+                    if (eventProcessor instanceof PipelinedEventProcessor) {
+                        final int next = i + 1;
+                        ((PipelinedEventProcessor) eventProcessor).process(m_eventLog.getHeader(), event, new Runnable() {
+                            @Override
+                            public void run() {
+                                process(event, next);
+                            }
+                        });
                         break;
                     }
+                    eventProcessor.process(m_eventLog.getHeader(), event);
+                } catch (EventProcessorException e) {
+                    LOG.warn("Unable to process event using processor {}; not processing with any later processors.", eventProcessor, e);
+                    break;
+                } catch (Throwable t) {
+                    LOG.warn("Unknown exception processing event with processor {}; not processing with any later processors.", eventProcessor, t);
+                    break;
                 }
             }
         }
@@ -32,16 +32,20 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.logging.Logging;
@@ -63,6 +67,12 @@ import org.springframework.util.StringUtils;
  * An implementation of the EventIpcManager interface that can be used to
  * communicate between services in the same JVM
  *
+ * Each listener has its own thread, which gets the events from a queue: an
+ * executor by default, or a preallocated ring buffer when
+ * {@value #RING_BUFFER_PROPERTY} is set.  The listeners of each UEI are
+ * looked up in an immutable routing table that is replaced whenever a
+ * listener is added or removed, so broadcasting an event doesn't lock.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -71,6 +81,23 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /** Set to true to queue the events of each listener in a ring buffer rather than an executor. */
+    public static final String RING_BUFFER_PROPERTY = "org.opennms.eventd.ipc.ringBuffer";
+
+    /** The number of events the ring buffer of each listener can hold, the handler queue length by default. */
+    public static final String RING_BUFFER_SIZE_PROPERTY = "org.opennms.eventd.ipc.ringBuffer.size";
+
+    /** Set to true to drop the oldest events of a listener, rather than the new ones, when its queue is full. */
+    public static final String DISCARD_OLDEST_PROPERTY = "org.opennms.eventd.ipc.discardOldest";
+
+    private static final int DEFAULT_RING_BUFFER_SIZE = 8192;
+
+    /**
+     * The maximum number of UEIs for which the matching listeners are kept,
+     * so that unexpected UEIs can't fill the memory.
+     */
+    private static final int MAX_RESOLVED_UEIS = 10000;
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -109,6 +136,18 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      */
     private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
 
+    /**
+     * The listener threads to send the events to, rebuilt from the maps
+     * above whenever they change
+     */
+    private volatile Routes m_routes = new Routes(new EventListenerExecutor[0], new HashMap<String, EventListenerExecutor[]>());
+
+    private boolean m_ringBuffer = Boolean.getBoolean(RING_BUFFER_PROPERTY);
+
+    private Integer m_ringBufferSize = Integer.getInteger(RING_BUFFER_SIZE_PROPERTY);
+
+    private boolean m_discardOldest = Boolean.getBoolean(DISCARD_OLDEST_PROPERTY);
+
     /**
      * The thread pool handling the events
      */
@@ -133,15 +172,31 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         private final EventListener m_listener;
 
         /**
-         * The thread that is running this runnable.
+         * The thread that is running this runnable, when the events aren't
+         * queued in a ring buffer.
          */
-        private final ExecutorService m_delegateThread;
+        private final ThreadPoolExecutor m_delegateThread;
+
+        /**
+         * The buffer of the events, when they aren't queued to an executor.
+         */
+        private final EventListenerRingBuffer m_ringBuffer;
+
+        private final AtomicLong m_dropped = new AtomicLong();
 
         /**
          * Constructor
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
+        EventListenerExecutor(EventListener listener, Integer handlerQueueLength, Integer ringBufferSize, final boolean discardOldest) {
             m_listener = listener;
+            if (ringBufferSize != null) {
+                m_ringBuffer = new EventListenerRingBuffer(listener, ringBufferSize, discardOldest);
+                m_delegateThread = null;
+                return;
+            }
+
+            final RejectedExecutionHandler discardOldestHandler = new DiscardTrapsAndSyslogEvents();
+            m_ringBuffer = null;
             // You could also do Executors.newSingleThreadExecutor() here
             m_delegateThread = new ThreadPoolExecutor(
                     1,
@@ -157,13 +212,23 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                     new RejectedExecutionHandler() {
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                            LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                            m_dropped.incrementAndGet();
+                            if (discardOldest) {
+                                discardOldestHandler.rejectedExecution(r, executor);
+                            } else {
+                                LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                            }
                         }
                     }
             );
         }
 
         public void addEvent(final Event event) {
+            if (m_ringBuffer != null) {
+                m_ringBuffer.offer(event);
+                return;
+            }
+
             m_delegateThread.execute(new Runnable() {
                 @Override
                 public void run() {
@@ -188,7 +253,77 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
          * Stops the execution of this listener.
          */
         public void stop() {
-            m_delegateThread.shutdown();
+            if (m_ringBuffer != null) {
+                m_ringBuffer.stop();
+            } else {
+                m_delegateThread.shutdown();
+            }
+        }
+
+        /**
+         * @return the number of events waiting to be sent to the listener
+         */
+        public long getQueued() {
+            return m_ringBuffer != null ? m_ringBuffer.getQueued() : m_delegateThread.getQueue().size();
+        }
+
+        /**
+         * @return the number of events dropped because the queue was full
+         */
+        public long getDropped() {
+            return m_ringBuffer != null ? m_ringBuffer.getDropped() : m_dropped.get();
+        }
+    }
+
+    /**
+     * An immutable snapshot of the listener threads to send the events to.
+     * The listeners matching each UEI, wildcards included, are resolved
+     * once and kept along with the snapshot.
+     */
+    private static class Routes {
+        private final EventListenerExecutor[] m_all;
+
+        private final Map<String, EventListenerExecutor[]> m_byUei;
+
+        private final ConcurrentMap<String, EventListenerExecutor[]> m_resolved = new ConcurrentHashMap<String, EventListenerExecutor[]>();
+
+        Routes(EventListenerExecutor[] all, Map<String, EventListenerExecutor[]> byUei) {
+            m_all = all;
+            m_byUei = byUei;
+        }
+
+        /**
+         * Loop to attempt partial wild card "directory" matches.
+         */
+        EventListenerExecutor[] resolve(final String eventUei) {
+            EventListenerExecutor[] executors = m_resolved.get(eventUei);
+            if (executors != null) {
+                return executors;
+            }
+
+            final Set<EventListenerExecutor> matches = new LinkedHashSet<EventListenerExecutor>();
+            for (String uei = eventUei; uei.length() > 0; ) {
+                final EventListenerExecutor[] ueiExecutors = m_byUei.get(uei);
+                if (ueiExecutors != null) {
+                    Collections.addAll(matches, ueiExecutors);
+                }
+
+                // Try wild cards: Find / before last character
+                int i = uei.lastIndexOf("/", uei.length() - 2);
+                if (i > 0) {
+                    // Split at "/", including the /
+                    uei = uei.substring (0, i + 1);
+                } else {
+                    // No more wild cards to match
+                    break;
+                }
+            }
+
+            executors = matches.toArray(new EventListenerExecutor[matches.size()]);
+            if (m_resolved.size() < MAX_RESOLVED_UEIS) {
+                m_resolved.put(eventUei, executors);
+            }
+            return executors;
         }
     }
 
@@ -262,13 +397,14 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     public void broadcastNow(Event event) {
         LOG.debug("Event ID {} to be broadcasted: {}", event.getDbid(), event.getUei());
 
-        if (m_listeners.isEmpty()) {
+        final Routes routes = m_routes;
+        if (routes.m_all.length == 0) {
             LOG.debug("No listeners interested in all events");
         }
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            queueEventToListener(event, listener);
+        for (EventListenerExecutor listenerThread : routes.m_all) {
+            listenerThread.addEvent(event);
         }
 
         if (event.getUei() == null) {
@@ -276,39 +412,72 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
 
-        /*
-         * Send to listeners who are interested in this event UEI.
-         * Loop to attempt partial wild card "directory" matches.
-         */
-        Set<EventListener> sentToListeners = new HashSet<EventListener>();
-        for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        queueEventToListener(event, listener);
-                        sentToListeners.add(listener);
-                    }
+        // Send to listeners who are interested in this event UEI.
+        final EventListenerExecutor[] ueiListenerThreads = routes.resolve(event.getUei());
+        for (EventListenerExecutor listenerThread : ueiListenerThreads) {
+            listenerThread.addEvent(event);
+        }
+
+        if (ueiListenerThreads.length == 0) {
+            LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
+        }
+    }
+
+    /**
+     * Rebuilds the routing table from the listeners, must be called after
+     * any change to them.
+     */
+    private void updateRoutes() {
+        final List<EventListenerExecutor> all = new ArrayList<EventListenerExecutor>(m_listeners.size());
+        for (EventListener listener : m_listeners) {
+            final EventListenerExecutor listenerThread = m_listenerThreads.get(listener.getName());
+            if (listenerThread != null) {
+                all.add(listenerThread);
+            }
+        }
+
+        final Map<String, EventListenerExecutor[]> byUei = new HashMap<String, EventListenerExecutor[]>();
+        for (Map.Entry<String, List<EventListener>> entry : m_ueiListeners.entrySet()) {
+            final List<EventListenerExecutor> listenerThreads = new ArrayList<EventListenerExecutor>(entry.getValue().size());
+            for (EventListener listener : entry.getValue()) {
+                final EventListenerExecutor listenerThread = m_listenerThreads.get(listener.getName());
+                if (listenerThread != null) {
+                    listenerThreads.add(listenerThread);
                 }
             }
-            
-            // Try wild cards: Find / before last character
-            int i = uei.lastIndexOf("/", uei.length() - 2);
-            if (i > 0) {
-                // Split at "/", including the /
-                uei = uei.substring (0, i + 1);
-            } else {
-                // No more wild cards to match
-                break;
+            if (!listenerThreads.isEmpty()) {
+                byUei.put(entry.getKey(), listenerThreads.toArray(new EventListenerExecutor[listenerThreads.size()]));
             }
         }
-        
-        if (sentToListeners.isEmpty()) {
-            LOG.debug("No listener interested in event ID {}: {}", event.getDbid(), event.getUei());
+
+        m_routes = new Routes(all.toArray(new EventListenerExecutor[all.size()]), byUei);
+    }
+
+    /**
+     * Returns the number of events waiting to be sent to each listener.
+     *
+     * @return a {@link java.util.Map} object.
+     */
+    public synchronized Map<String, Long> getQueuedEventsByListener() {
+        final Map<String, Long> queued = new TreeMap<String, Long>();
+        for (Map.Entry<String, EventListenerExecutor> entry : m_listenerThreads.entrySet()) {
+            queued.put(entry.getKey(), entry.getValue().getQueued());
         }
+        return queued;
     }
 
-    private void queueEventToListener(Event event, EventListener listener) {
-        m_listenerThreads.get(listener.getName()).addEvent(event);
+    /**
+     * Returns the number of events dropped because the queue of each
+     * listener was full.
+     *
+     * @return a {@link java.util.Map} object.
+     */
+    public synchronized Map<String, Long> getDroppedEventsByListener() {
+        final Map<String, Long> dropped = new TreeMap<String, Long>();
+        for (Map.Entry<String, EventListenerExecutor> entry : m_listenerThreads.entrySet()) {
+            dropped.put(entry.getKey(), entry.getValue().getDropped());
+        }
+        return dropped;
     }
 
     /**
@@ -329,6 +498,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : m_ueiListeners.keySet()) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutes();
     }
 
     /**
@@ -356,6 +527,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
+
+        updateRoutes();
     }
 
     /**
@@ -390,6 +563,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         for (String uei : ueis) {
             removeUeiForListener(uei, listener);
         }
+
+        updateRoutes();
     }
 
     /**
@@ -409,6 +584,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(uei, "uei argument cannot be null");
 
         removeUeiForListener(uei, listener);
+
+        updateRoutes();
     }
 
     /**
@@ -435,6 +612,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
             m_listenerThreads.remove(listener.getName());
         }
+
+        updateRoutes();
     }
 
     /**
@@ -446,7 +625,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        Integer ringBufferSize = null;
+        if (m_ringBuffer) {
+            ringBufferSize = m_ringBufferSize != null ? m_ringBufferSize : m_handlerQueueLength != null ? m_handlerQueueLength : DEFAULT_RING_BUFFER_SIZE;
+        }
+        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength, ringBufferSize, m_discardOldest);
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
@@ -576,4 +759,29 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.state(m_eventHandlerPool == null, "handlerQueueLength property cannot be set after afterPropertiesSet() is called");
         m_handlerQueueLength = size;
     }
+
+    public boolean isRingBuffer() {
+        return m_ringBuffer;
+    }
+
+    /**
+     * <p>setRingBuffer</p>
+     *
+     * @param ringBuffer whether to queue the events of the listeners added from now on in ring buffers
+     */
+    public void setRingBuffer(boolean ringBuffer) {
+        m_ringBuffer = ringBuffer;
+    }
+
+    public void setRingBufferSize(int ringBufferSize) {
+        m_ringBufferSize = ringBufferSize;
+    }
+
+    public boolean isDiscardOldest() {
+        return m_discardOldest;
+    }
+
+    public void setDiscardOldest(boolean discardOldest) {
+        m_discardOldest = discardOldest;
+    }
 }
@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events to a listener from a preallocated ring buffer.
+ *
+ * Every handler thread may broadcast events, so the events are published
+ * with a compare and swap on the head of the buffer, and each slot has a
+ * sequence number telling whether it holds an event for the current lap.
+ * The thread of the listener drains the events in batches and only parks
+ * when the buffer is empty, so queuing an event doesn't allocate and
+ * doesn't wake the listener while it is busy.
+ *
+ * When the buffer is full, the new event is dropped, or the oldest queued
+ * event if the buffer is set to discard the oldest events, like
+ * {@link EventIpcManagerDefaultImpl.DiscardTrapsAndSyslogEvents}.
+ */
+public class EventListenerRingBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(EventListenerRingBuffer.class);
+
+    private static final int DRAIN_BATCH_SIZE = 64;
+
+    private static final long PARK_NANOS = 100000000L;
+
+    private final EventListener m_listener;
+
+    private final boolean m_discardOldest;
+
+    private final int m_mask;
+
+    /**
+     * The sequence of each slot: equal to the position of the slot when it
+     * can be published, and to the position plus one once it has been.
+     */
+    private final AtomicLongArray m_sequences;
+
+    private final AtomicReferenceArray<Event> m_events;
+
+    /** The position of the next event to publish. */
+    private final AtomicLong m_head = new AtomicLong();
+
+    /** The position of the next event to deliver. */
+    private final AtomicLong m_tail = new AtomicLong();
+
+    private final AtomicLong m_delivered = new AtomicLong();
+
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    private final Thread m_thread;
+
+    /**
+     * Set while the thread is about to park, the first producer to clear
+     * it wakes the thread up.
+     */
+    private final AtomicBoolean m_waiting = new AtomicBoolean(false);
+
+    private volatile boolean m_running = true;
+
+    /**
+     * Creates the buffer and starts the thread of the listener.
+     *
+     * @param listener the listener to deliver the events to
+     * @param capacity the minimum number of events to buffer, rounded up to a power of two
+     * @param discardOldest whether to drop the oldest event rather than the new one when the buffer is full
+     */
+    public EventListenerRingBuffer(final EventListener listener, final int capacity, final boolean discardOldest) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        m_listener = listener;
+        m_discardOldest = discardOldest;
+
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        m_mask = size - 1;
+        m_sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            m_sequences.set(i, i);
+        }
+        m_events = new AtomicReferenceArray<Event>(size);
+
+        // Like the executors, the thread keeps the log prefix of the thread registering the listener
+        m_thread = new LogPreservingThreadFactory(listener.getName(), 1).newThread(new Runnable() {
+            @Override
+            public void run() {
+                deliverEvents();
+            }
+        });
+        m_thread.start();
+    }
+
+    /**
+     * Queues the event for the listener.
+     *
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @return false if the event was dropped because the buffer is full
+     */
+    public boolean offer(final Event event) {
+        while (true) {
+            final long position = m_head.get();
+            final int index = (int) position & m_mask;
+            final long available = m_sequences.get(index) - position;
+            if (available == 0) {
+                if (m_head.compareAndSet(position, position + 1)) {
+                    m_events.set(index, event);
+                    m_sequences.set(index, position + 1);
+                    if (m_waiting.get() && m_waiting.compareAndSet(true, false)) {
+                        LockSupport.unpark(m_thread);
+                    }
+                    return true;
+                }
+            } else if (available < 0) {
+                // the slot still holds the event from the previous lap
+                if (!m_discardOldest) {
+                    m_dropped.incrementAndGet();
+                    LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                    return false;
+                }
+                if (poll() != null) {
+                    m_dropped.incrementAndGet();
+                    LOG.debug("Listener {}'s event queue is full, discarded the oldest event", m_listener.getName());
+                }
+            }
+        }
+    }
+
+    private Event poll() {
+        while (true) {
+            final long position = m_tail.get();
+            final int index = (int) position & m_mask;
+            final long published = m_sequences.get(index) - (position + 1);
+            if (published == 0) {
+                if (m_tail.compareAndSet(position, position + 1)) {
+                    final Event event = m_events.get(index);
+                    m_events.lazySet(index, null);
+                    m_sequences.set(index, position + m_mask + 1);
+                    return event;
+                }
+            } else if (published < 0) {
+                return null;
+            }
+        }
+    }
+
+    private boolean isEmpty() {
+        final long position = m_tail.get();
+        return m_sequences.get((int) position & m_mask) != position + 1;
+    }
+
+    private void deliverEvents() {
+        final Event[] batch = new Event[DRAIN_BATCH_SIZE];
+        while (true) {
+            int count = 0;
+            Event event;
+            while (count < batch.length && (event = poll()) != null) {
+                batch[count++] = event;
+            }
+
+            if (count == 0) {
+                if (!m_running) {
+                    return;
+                }
+                // the producers check the flag after publishing, so they either see it or we see their event
+                m_waiting.set(true);
+                if (isEmpty() && m_running) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                m_waiting.set(false);
+                continue;
+            }
+
+            for (int i = 0; i < count; i++) {
+                deliver(batch[i]);
+                batch[i] = null;
+            }
+            m_delivered.addAndGet(count);
+        }
+    }
+
+    private void deliver(final Event event) {
+        try {
+            LOG.debug("run: calling onEvent on {} for event {} dbid {} with time {}", m_listener.getName(), event.getUei(), event.getDbid(), event.getTime());
+
+            // Make sure we restore our log4j logging prefix after onEvent is called
+            final Map<String,String> mdc = Logging.getCopyOfContextMap();
+            try {
+                m_listener.onEvent(event);
+            } finally {
+                Logging.setContextMap(mdc);
+            }
+        } catch (final Throwable t) {
+            LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+        }
+    }
+
+    /**
+     * Stops the thread of the listener once the queued events have been
+     * delivered.
+     */
+    public void stop() {
+        m_running = false;
+        LockSupport.unpark(m_thread);
+    }
+
+    /**
+     * <p>getCapacity</p>
+     *
+     * @return the number of events the buffer can hold
+     */
+    public int getCapacity() {
+        return m_mask + 1;
+    }
+
+    /**
+     * <p>getQueued</p>
+     *
+     * @return the number of events waiting to be delivered
+     */
+    public long getQueued() {
+        return Math.max(0, m_head.get() - m_tail.get());
+    }
+
+    /**
+     * <p>getDelivered</p>
+     *
+     * @return the number of events delivered to the listener
+     */
+    public long getDelivered() {
+        return m_delivered.get();
+    }
+
+    /**
+     * <p>getDropped</p>
+     *
+     * @return the number of events dropped because the buffer was full
+     */
+    public long getDropped() {
+        return m_dropped.get();
+    }
+}
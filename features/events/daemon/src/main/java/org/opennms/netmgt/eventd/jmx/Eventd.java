@@ -29,6 +29,7 @@
 package org.opennms.netmgt.eventd.jmx;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.eventd.processor.BatchingEventWriter;
 
 /**
  * <p>Eventd class.</p>
@@ -48,4 +49,32 @@ public class Eventd extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
     protected String getSpringContext() {
         return "eventDaemonContext";       
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getQueuedEvents() {
+        final BatchingEventWriter writer = getBatchingEventWriter();
+        return writer == null ? 0 : writer.getQueuedEvents();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long[] getBatchSizeHistogram() {
+        final BatchingEventWriter writer = getBatchingEventWriter();
+        return writer == null ? new long[0] : writer.getBatchSizes().getCounts();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long[] getBatchLatencyHistogram() {
+        final BatchingEventWriter writer = getBatchingEventWriter();
+        return writer == null ? new long[0] : writer.getLatencies().getCounts();
+    }
+
+    private BatchingEventWriter getBatchingEventWriter() {
+        if (getDaemon().getEventWriter() instanceof BatchingEventWriter) {
+            return (BatchingEventWriter) getDaemon().getEventWriter();
+        }
+        return null;
+    }
 }
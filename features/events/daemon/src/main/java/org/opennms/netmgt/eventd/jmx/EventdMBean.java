@@ -37,4 +37,22 @@ import org.opennms.netmgt.daemon.BaseOnmsMBean;
  * @version $Id: $
  */
 public interface EventdMBean extends BaseOnmsMBean {
+
+    /**
+     * @return the number of events waiting to be persisted in batches
+     */
+    int getQueuedEvents();
+
+    /**
+     * @return the number of batches of each size, by power of two, up to
+     * 1024 events and above
+     */
+    long[] getBatchSizeHistogram();
+
+    /**
+     * @return the number of events persisted within each number of
+     * milliseconds after they were queued, by power of two, up to 16384
+     * and above
+     */
+    long[] getBatchLatencyHistogram();
 }
@@ -0,0 +1,461 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.eventd.EventdConstants;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Persists the events in batches.
+ *
+ * When batching is enabled, the events are queued and a single writer thread
+ * inserts the events that arrive within a few milliseconds of each other
+ * with one JDBC batch and one transaction.  The event identifiers are
+ * allocated from the sequence in blocks.  The processors that follow this
+ * one in the chain, and so the broadcast of the event, only run once the
+ * batch has been committed, in the order in which the events were queued,
+ * so the listeners still get events that are in the database and that
+ * have their dbid set.
+ *
+ * When batching is disabled, which is the default, the events are handed to
+ * the delegate writer one at a time, as before.
+ */
+public class BatchingEventWriter extends AbstractJdbcPersister implements PipelinedEventProcessor, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingEventWriter.class);
+
+    /** Set to true to persist the events in batches. */
+    public static final String BATCH_PROPERTY = "org.opennms.eventd.batch";
+
+    /** The maximum number of events to insert with a single batch. */
+    public static final String BATCH_SIZE_PROPERTY = "org.opennms.eventd.batch.size";
+
+    /** The number of milliseconds to wait for more events before inserting a batch. */
+    public static final String BATCH_DELAY_PROPERTY = "org.opennms.eventd.batch.delay";
+
+    /** The maximum number of events waiting to be inserted. */
+    public static final String BATCH_QUEUE_SIZE_PROPERTY = "org.opennms.eventd.batch.queueSize";
+
+    /** The number of event identifiers to allocate at once. */
+    public static final String BATCH_ID_BLOCK_SIZE_PROPERTY = "org.opennms.eventd.batch.idBlockSize";
+
+    private static class PendingEvent {
+        private final Header m_header;
+        private final Event m_event;
+        private final boolean m_persist;
+        private final Runnable m_continuation;
+        private final long m_queued = System.nanoTime();
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private Integer m_id;
+        private volatile Throwable m_failure;
+
+        private PendingEvent(final Header header, final Event event, final boolean persist, final Runnable continuation) {
+            m_header = header;
+            m_event = event;
+            m_persist = persist;
+            m_continuation = continuation;
+        }
+    }
+
+    private EventWriter m_delegate;
+
+    private String m_getNextIdBlockString;
+
+    private boolean m_batching = Boolean.getBoolean(BATCH_PROPERTY);
+    private int m_batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, 200);
+    private long m_batchDelay = Long.getLong(BATCH_DELAY_PROPERTY, 5);
+    private int m_queueSize = Integer.getInteger(BATCH_QUEUE_SIZE_PROPERTY, 10000);
+    private int m_idBlockSize = Integer.getInteger(BATCH_ID_BLOCK_SIZE_PROPERTY, 100);
+
+    private BlockingQueue<PendingEvent> m_queue;
+    private Thread m_writer;
+    private ExecutorService m_continuations;
+    private volatile boolean m_running = false;
+
+    /**
+     * Identifiers that have been allocated from the sequence but not used
+     * yet, only accessed by the writer.
+     */
+    private final Deque<Integer> m_ids = new ArrayDeque<Integer>();
+
+    private final Log2Histogram m_batchSizes = new Log2Histogram(12);
+    private final Log2Histogram m_latencies = new Log2Histogram(16);
+
+    /** {@inheritDoc} */
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        super.afterPropertiesSet();
+        Assert.state(m_delegate != null, "property delegate must be set");
+        if (!m_batching) {
+            return;
+        }
+        Assert.state(m_getNextIdBlockString != null, "property getNextIdBlockString must be set");
+        Assert.state(m_batchSize > 0, "the batch size must be positive");
+
+        m_queue = new ArrayBlockingQueue<PendingEvent>(m_queueSize);
+        m_continuations = Executors.newSingleThreadExecutor(
+                new LogPreservingThreadFactory(BatchingEventWriter.class.getSimpleName() + "-Continuations", 1));
+        m_writer = new LogPreservingThreadFactory(BatchingEventWriter.class.getSimpleName(), 1).newThread(new Runnable() {
+            @Override
+            public void run() {
+                writeQueuedEvents();
+            }
+        });
+        m_running = true;
+        m_writer.start();
+    }
+
+    /**
+     * Writes the queued events and waits for the continuations of the
+     * events that were written to complete.
+     *
+     * @throws java.lang.InterruptedException if any.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (!m_running) {
+            return;
+        }
+        m_running = false;
+        m_writer.join();
+
+        // events that were queued while the writer was stopping
+        final List<PendingEvent> batch = new ArrayList<PendingEvent>();
+        while (m_queue.drainTo(batch, m_batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+
+        m_continuations.shutdown();
+        if (!m_continuations.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn("Timed out waiting for the processing of the persisted events to complete.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns once the event has been persisted.
+     */
+    @Override
+    public void process(final Header eventHeader, final Event event) throws EventProcessorException {
+        if (!m_running) {
+            m_delegate.process(eventHeader, event);
+            return;
+        }
+
+        final PendingEvent pending = enqueue(eventHeader, event, null);
+        try {
+            pending.m_done.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException(e);
+        }
+        if (pending.m_failure != null) {
+            throw new EventProcessorException(pending.m_failure);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the event, the continuation runs on another thread once the
+     * batch containing the event is committed.  Blocks while the queue is
+     * full.
+     */
+    @Override
+    public void process(final Header eventHeader, final Event event, final Runnable continuation) throws EventProcessorException {
+        if (!m_running) {
+            m_delegate.process(eventHeader, event);
+            continuation.run();
+            return;
+        }
+
+        enqueue(eventHeader, event, continuation);
+    }
+
+    private PendingEvent enqueue(final Header eventHeader, final Event event, final Runnable continuation) throws EventProcessorException {
+        final PendingEvent pending = new PendingEvent(eventHeader, event, checkEventSanityAndDoWeProcess(event, "BatchingEventWriter"), continuation);
+        try {
+            m_queue.put(pending);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException(e);
+        }
+        return pending;
+    }
+
+    private void writeQueuedEvents() {
+        final long delay = TimeUnit.MILLISECONDS.toNanos(m_batchDelay);
+        final List<PendingEvent> batch = new ArrayList<PendingEvent>(m_batchSize);
+        while (m_running) {
+            try {
+                final PendingEvent first = m_queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // wait a little for more events
+                final long deadline = System.nanoTime() + delay;
+                while (batch.size() < m_batchSize) {
+                    if (m_queue.drainTo(batch, m_batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    final long remaining = deadline - System.nanoTime();
+                    final PendingEvent next = remaining > 0 ? m_queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (final InterruptedException e) {
+                LOG.warn("Interrupted while waiting for events to persist.");
+            }
+
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Inserts the events that must be persisted with one transaction, then
+     * schedules the continuations of the events.  If the batch fails, the
+     * events are inserted one at a time so that only the events that can't
+     * be inserted are dropped from the rest of the chain.
+     */
+    private void writeBatch(final List<PendingEvent> batch) {
+        final List<PendingEvent> persisted = new ArrayList<PendingEvent>(batch.size());
+        for (final PendingEvent pending : batch) {
+            if (pending.m_persist) {
+                persisted.add(pending);
+            }
+        }
+
+        if (!persisted.isEmpty()) {
+            try {
+                insertEvents(persisted);
+                m_batchSizes.record(persisted.size());
+            } catch (final Throwable t) {
+                LOG.warn("Error inserting a batch of {} events into the datastore, inserting them one at a time.", persisted.size(), t);
+                for (final PendingEvent pending : persisted) {
+                    try {
+                        insertEvents(Collections.singletonList(pending));
+                        m_batchSizes.record(1);
+                    } catch (final Throwable t2) {
+                        LOG.warn("Unable to persist event {}; not processing with any later processors.", pending.m_event.getUei(), t2);
+                        pending.m_failure = t2;
+                    }
+                }
+            }
+        }
+
+        final long now = System.nanoTime();
+        final List<Runnable> continuations = new ArrayList<Runnable>(batch.size());
+        for (final PendingEvent pending : batch) {
+            m_latencies.record(TimeUnit.NANOSECONDS.toMillis(now - pending.m_queued));
+            if (pending.m_failure == null && pending.m_continuation != null) {
+                continuations.add(pending.m_continuation);
+            }
+            pending.m_done.countDown();
+        }
+
+        if (!continuations.isEmpty()) {
+            m_continuations.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (final Runnable continuation : continuations) {
+                        try {
+                            continuation.run();
+                        } catch (final Throwable t) {
+                            LOG.warn("Unknown exception processing a persisted event.", t);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void insertEvents(final List<PendingEvent> events) throws SQLException {
+        for (final PendingEvent pending : events) {
+            if (pending.m_id == null) {
+                pending.m_id = getNextBlockId();
+                synchronized (pending.m_event) {
+                    pending.m_event.setDbid(pending.m_id);
+                }
+            }
+        }
+
+        final Connection connection = getDataSource().getConnection();
+        final DBUtils d = new DBUtils(getClass());
+        d.watch(connection);
+        try {
+            connection.setAutoCommit(false);
+            final PreparedStatement insStmt = connection.prepareStatement(EventdConstants.SQL_DB_INS_EVENT);
+            d.watch(insStmt);
+            for (final PendingEvent pending : events) {
+                setEventParameters(insStmt, pending.m_header, pending.m_event, pending.m_id);
+                insStmt.addBatch();
+            }
+            insStmt.executeBatch();
+            connection.commit();
+        } catch (final SQLException e) {
+            try {
+                connection.rollback();
+            } catch (final Throwable e2) {
+                LOG.warn("Rollback of transaction failed.", e2);
+            }
+            throw e;
+        } finally {
+            d.cleanUp();
+        }
+
+        LOG.debug("Inserted {} events into the EVENTS table.", events.size());
+    }
+
+    private int getNextBlockId() {
+        if (m_ids.isEmpty()) {
+            m_ids.addAll(new JdbcTemplate(getDataSource()).queryForList(m_getNextIdBlockString, Integer.class, m_idBlockSize));
+        }
+        return m_ids.removeFirst();
+    }
+
+    /**
+     * <p>getDelegate</p>
+     *
+     * @return the writer used when batching is disabled
+     */
+    public EventWriter getDelegate() {
+        return m_delegate;
+    }
+
+    /**
+     * <p>setDelegate</p>
+     *
+     * @param delegate the writer to use when batching is disabled
+     */
+    public void setDelegate(final EventWriter delegate) {
+        m_delegate = delegate;
+    }
+
+    /**
+     * <p>getGetNextIdBlockString</p>
+     *
+     * @return the query returning a number of identifiers, given as its only parameter
+     */
+    public String getGetNextIdBlockString() {
+        return m_getNextIdBlockString;
+    }
+
+    /**
+     * <p>setGetNextIdBlockString</p>
+     *
+     * @param getNextIdBlockString a {@link java.lang.String} object.
+     */
+    public void setGetNextIdBlockString(final String getNextIdBlockString) {
+        m_getNextIdBlockString = getNextIdBlockString;
+    }
+
+    public boolean isBatching() {
+        return m_batching;
+    }
+
+    public void setBatching(final boolean batching) {
+        m_batching = batching;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public void setBatchDelay(final long batchDelay) {
+        m_batchDelay = batchDelay;
+    }
+
+    public void setQueueSize(final int queueSize) {
+        m_queueSize = queueSize;
+    }
+
+    public void setIdBlockSize(final int idBlockSize) {
+        m_idBlockSize = idBlockSize;
+    }
+
+    /**
+     * <p>getQueuedEvents</p>
+     *
+     * @return the number of events waiting to be persisted
+     */
+    public int getQueuedEvents() {
+        return m_queue == null ? 0 : m_queue.size();
+    }
+
+    /**
+     * <p>getBatchSizes</p>
+     *
+     * @return the histogram of the number of events inserted with each batch
+     */
+    public Log2Histogram getBatchSizes() {
+        return m_batchSizes;
+    }
+
+    /**
+     * <p>getLatencies</p>
+     *
+     * @return the histogram of the number of milliseconds between the time
+     * an event is queued and the time it is committed
+     */
+    public Log2Histogram getLatencies() {
+        return m_latencies;
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram with power of two buckets: the first bucket counts the values
+ * up to 1, the bucket i the values up to 2^i, and the last one all of the
+ * larger values.  Recording a value is lock free.
+ */
+public class Log2Histogram {
+
+    private final AtomicLongArray m_counts;
+
+    /**
+     * <p>Constructor for Log2Histogram.</p>
+     *
+     * @param buckets the number of buckets, including the one for the larger values
+     */
+    public Log2Histogram(final int buckets) {
+        if (buckets < 2 || buckets > 64) {
+            throw new IllegalArgumentException("buckets must be between 2 and 64");
+        }
+        m_counts = new AtomicLongArray(buckets);
+    }
+
+    /**
+     * <p>record</p>
+     *
+     * @param value a long.
+     */
+    public void record(final long value) {
+        final int bucket = value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+        m_counts.incrementAndGet(Math.min(bucket, m_counts.length() - 1));
+    }
+
+    /**
+     * <p>getCounts</p>
+     *
+     * @return the number of values recorded in each bucket
+     */
+    public long[] getCounts() {
+        final long[] counts = new long[m_counts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = m_counts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * <p>getCount</p>
+     *
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < m_counts.length(); i++) {
+            count += m_counts.get(i);
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        final long[] counts = getCounts();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(i == counts.length - 1 ? ">" + (1L << (i - 1)) : "<=" + (1L << i)).append(": ").append(counts[i]);
+        }
+        return sb.toString();
+    }
+}
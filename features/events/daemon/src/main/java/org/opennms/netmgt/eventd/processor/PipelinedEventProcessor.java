@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import org.opennms.netmgt.events.api.EventProcessor;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+
+/**
+ * An {@link EventProcessor} that may finish with an event asynchronously.
+ * The event handler gives it the processors that follow it in the chain as
+ * a continuation, instead of calling them when this processor returns.
+ */
+public interface PipelinedEventProcessor extends EventProcessor {
+
+    /**
+     * Processes the event and runs the continuation once it is done with
+     * it, possibly on another thread.  The continuation must not be run if
+     * the event couldn't be processed, so that later processors never see
+     * it, as when {@link #process(Header, Event)} throws an exception.
+     *
+     * @param eventHeader a {@link org.opennms.netmgt.xml.event.Header} object.
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @param continuation runs the rest of the processors
+     * @throws org.opennms.netmgt.events.api.EventProcessorException if the event couldn't be accepted
+     */
+    void process(Header eventHeader, Event event, Runnable continuation) throws EventProcessorException;
+}
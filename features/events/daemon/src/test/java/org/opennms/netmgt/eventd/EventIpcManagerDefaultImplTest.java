@@ -424,6 +424,40 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         
         assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
     }
+
+
+    public void testRingBufferAddEventListenerWithUeiAndSubUeiMatchAndBroadcast() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testRingBufferAddEventListenerWithUeiAndSubUeiMatchAndBroadcast");
+        Event e = bldr.getEvent();
+
+        m_mocks.replayAll();
+
+        m_manager.setRingBuffer(true);
+        m_manager.addEventListener(m_listener, "uei.opennms.org/foo");
+        m_manager.addEventListener(m_listener, "uei.opennms.org/");
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+
+        m_mocks.verifyAll();
+
+        assertTrue("could not remove broadcasted event--did it make it?", m_listener.getEvents().remove(e));
+        assertEquals(Long.valueOf(0), m_manager.getDroppedEventsByListener().get(m_listener.getName()));
+        m_manager.removeEventListener(m_listener);
+    }
+
+    public void testRemoveEventListenerWithUeiAndBroadcast() throws Exception {
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testRemoveEventListenerWithUeiAndBroadcast");
+        Event e = bldr.getEvent();
+
+        m_mocks.replayAll();
+
+        m_manager.addEventListener(m_listener, e.getUei());
+        m_manager.removeEventListener(m_listener, e.getUei());
+        m_manager.broadcastNow(e);
+        Thread.sleep(100);
+
+        m_mocks.verifyAll();
+    }
     
 
     /**
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class EventListenerRingBufferTest {
+    private static final Logger LOG = LoggerFactory.getLogger(EventListenerRingBufferTest.class);
+
+    private static class RecordingListener implements EventListener {
+        private final List<Event> m_events = Collections.synchronizedList(new ArrayList<Event>());
+        private final CountDownLatch m_blocked;
+
+        private RecordingListener(final CountDownLatch blocked) {
+            m_blocked = blocked;
+        }
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void onEvent(final Event e) {
+            try {
+                m_blocked.await();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            m_events.add(e);
+        }
+    }
+
+    private static Event event(final int id) {
+        final Event e = new EventBuilder("uei.opennms.org/test", "EventListenerRingBufferTest").getEvent();
+        e.setDbid(id);
+        return e;
+    }
+
+    private static void awaitDelivered(final EventListenerRingBuffer buffer, final long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (buffer.getDelivered() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testCapacityIsRoundedUp() {
+        final EventListenerRingBuffer buffer = new EventListenerRingBuffer(new RecordingListener(new CountDownLatch(0)), 1000, false);
+        assertEquals(1024, buffer.getCapacity());
+        buffer.stop();
+    }
+
+    @Test
+    public void testDropsNewEventsWhenFull() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final RecordingListener listener = new RecordingListener(blocked);
+        final EventListenerRingBuffer buffer = new EventListenerRingBuffer(listener, 16, false);
+
+        // the first event is taken by the listener, which blocks
+        assertTrue(buffer.offer(event(0)));
+        while (buffer.getQueued() > 0) {
+            Thread.sleep(10);
+        }
+        for (int i = 1; i <= 16; i++) {
+            assertTrue(buffer.offer(event(i)));
+        }
+        assertFalse(buffer.offer(event(17)));
+        assertEquals(1, buffer.getDropped());
+
+        blocked.countDown();
+        awaitDelivered(buffer, 17);
+        assertEquals(17, listener.m_events.size());
+        for (int i = 0; i <= 16; i++) {
+            assertEquals(Integer.valueOf(i), listener.m_events.get(i).getDbid());
+        }
+        buffer.stop();
+    }
+
+    @Test
+    public void testDiscardsOldestEventsWhenFull() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final RecordingListener listener = new RecordingListener(blocked);
+        final EventListenerRingBuffer buffer = new EventListenerRingBuffer(listener, 16, true);
+
+        assertTrue(buffer.offer(event(0)));
+        while (buffer.getQueued() > 0) {
+            Thread.sleep(10);
+        }
+        for (int i = 1; i <= 20; i++) {
+            assertTrue(buffer.offer(event(i)));
+        }
+        assertEquals(4, buffer.getDropped());
+
+        blocked.countDown();
+        awaitDelivered(buffer, 17);
+        assertEquals(17, listener.m_events.size());
+        assertEquals(Integer.valueOf(0), listener.m_events.get(0).getDbid());
+        assertEquals(Integer.valueOf(5), listener.m_events.get(1).getDbid());
+        assertEquals(Integer.valueOf(20), listener.m_events.get(16).getDbid());
+        buffer.stop();
+    }
+
+    /**
+     * Several threads queue events as fast as possible, the events of each
+     * thread must be delivered in order.
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int eventsPerProducer = 250000;
+        final int[] lastIds = new int[producers];
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        final Event[][] events = new Event[producers][eventsPerProducer];
+        for (int p = 0; p < producers; p++) {
+            lastIds[p] = -1;
+            for (int i = 0; i < eventsPerProducer; i++) {
+                events[p][i] = new EventBuilder("uei.opennms.org/test/" + p, "EventListenerRingBufferTest").getEvent();
+                events[p][i].setDbid(i);
+            }
+        }
+
+        final EventListenerRingBuffer buffer = new EventListenerRingBuffer(new EventListener() {
+            @Override
+            public String getName() {
+                return "ordered";
+            }
+
+            @Override
+            public void onEvent(final Event e) {
+                final int producer = e.getUei().charAt(e.getUei().length() - 1) - '0';
+                if (e.getDbid() <= lastIds[producer]) {
+                    errors.add("event " + e.getDbid() + " of producer " + producer + " is out of order");
+                }
+                lastIds[producer] = e.getDbid();
+            }
+        }, producers * eventsPerProducer, false);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final Event[] producerEvents = events[p];
+            final Thread thread = new Thread("producer-" + p) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (final Event e : producerEvents) {
+                        buffer.offer(e);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        awaitDelivered(buffer, producers * eventsPerProducer);
+        final long elapsed = System.nanoTime() - begin;
+        buffer.stop();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(0, buffer.getDropped());
+        assertEquals(producers * eventsPerProducer, buffer.getDelivered());
+        LOG.debug("{} events from {} threads delivered in {} ms", producers * eventsPerProducer, producers, TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.api.EventdServiceManager;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath*:/META-INF/opennms/component-service.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+
+        "classpath:/META-INF/opennms/applicationContext-eventDaemon.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(reuseDatabase=false)
+public class BatchingEventWriterTest {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingEventWriterTest.class);
+
+    @Autowired
+    private EventWriter m_eventWriter;
+
+    @Autowired
+    private DataSource m_dataSource;
+
+    @Autowired
+    private EventdServiceManager m_eventdServiceManager;
+
+    @Autowired
+    private EventUtil m_eventUtil;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private BatchingEventWriter m_batchingWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        m_batchingWriter = new BatchingEventWriter();
+        m_batchingWriter.setDataSource(m_dataSource);
+        m_batchingWriter.setEventdServiceManager(m_eventdServiceManager);
+        m_batchingWriter.setEventUtil(m_eventUtil);
+        m_batchingWriter.setGetNextIdString("SELECT nextval('eventsNxtId')");
+        m_batchingWriter.setGetNextIdBlockString("SELECT nextval('eventsNxtId') FROM generate_series(1, ?)");
+        m_batchingWriter.setDelegate(m_eventWriter);
+        m_batchingWriter.setBatching(true);
+        m_batchingWriter.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_batchingWriter.destroy();
+    }
+
+    @Test
+    public void testWriteEvent() throws Exception {
+        final Event event = new EventBuilder("testUei", "testSource").setLogDest("logndisplay").setLogMessage("abc\u0000def").getEvent();
+        assertEquals(Integer.valueOf(0), event.getDbid());
+        m_batchingWriter.process(null, event);
+        assertTrue(event.getDbid() > 0);
+
+        assertEquals("abc%0def", jdbcTemplate.queryForObject("SELECT eventLogmsg FROM events WHERE eventId = ?", String.class, event.getDbid()));
+    }
+
+    /**
+     * Checks that the continuations run in order, once the events are in
+     * the database, and that the events that aren't persisted still go
+     * through.
+     */
+    @Test
+    public void testContinuationsRunInOrderAfterCommit() throws Exception {
+        final int count = 5000;
+        final CountDownLatch done = new CountDownLatch(count);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final Event event = new EventBuilder("testUei", "testSource").setLogDest(i % 10 == 0 ? "donotpersist" : "logndisplay").getEvent();
+            m_batchingWriter.process(null, event, new Runnable() {
+                @Override
+                public void run() {
+                    if (index % 10 != 0 && jdbcTemplate.queryForInt("SELECT COUNT(*) FROM events WHERE eventId = ?", event.getDbid()) != 1) {
+                        errors.add("event " + index + " is not in the database");
+                    }
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        final long elapsed = System.nanoTime() - start;
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        assertEquals(count - count / 10, jdbcTemplate.queryForInt("SELECT COUNT(*) FROM events"));
+        LOG.debug("{} events in {} ms, batch sizes: {}, latencies: {}", count, TimeUnit.NANOSECONDS.toMillis(elapsed), m_batchingWriter.getBatchSizes(), m_batchingWriter.getLatencies());
+    }
+}
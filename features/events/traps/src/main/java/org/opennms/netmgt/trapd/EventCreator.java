@@ -31,6 +31,8 @@ package org.opennms.netmgt.trapd;
 import static org.opennms.core.utils.InetAddressUtils.str;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -56,6 +58,14 @@ public class EventCreator implements TrapProcessor {
     
     private EventBuilder m_eventBuilder;
     private TrapdIpMgr m_trapdIpMgr;
+    private TrapIdentity m_trapIdentity;
+
+    /**
+     * The varbinds that haven't been added to the event yet; they are only
+     * converted when the event is needed.
+     */
+    private final List<SnmpObjId> m_varBindNames = new ArrayList<SnmpObjId>();
+    private final List<SnmpValue> m_varBindValues = new ArrayList<SnmpValue>();
 
     
     public EventCreator(TrapdIpMgr trapdIpMgr) {
@@ -103,10 +113,8 @@ public class EventCreator implements TrapProcessor {
     /** {@inheritDoc} */
     @Override
     public void processVarBind(SnmpObjId name, SnmpValue value) {
-        m_eventBuilder.addParam(SyntaxToEvent.processSyntax(name.toString(), value));
-        if (EventConstants.OID_SNMP_IFINDEX.isPrefixOf(name)) {
-            m_eventBuilder.setIfIndex(value.toInt());
-        }
+        m_varBindNames.add(name);
+        m_varBindValues.add(value);
     }
 
     /** {@inheritDoc} */
@@ -123,6 +131,7 @@ public class EventCreator implements TrapProcessor {
     /** {@inheritDoc} */
     @Override
     public void setTrapIdentity(TrapIdentity trapIdentity) {
+        m_trapIdentity = trapIdentity;
         setGeneric(trapIdentity.getGeneric());
         setSpecific(trapIdentity.getSpecific());
         setEnterpriseId(trapIdentity.getEnterpriseId().toString());
@@ -130,7 +139,24 @@ public class EventCreator implements TrapProcessor {
         LOG.debug("setTrapIdentity: SNMP trap {}", trapIdentity);
     }
 
+    /**
+     * @return the identity of the trap, or null if it hasn't been set
+     */
+    public TrapIdentity getTrapIdentity() {
+        return m_trapIdentity;
+    }
+
     public Event getEvent() {
+        for (int i = 0; i < m_varBindNames.size(); i++) {
+            final SnmpObjId name = m_varBindNames.get(i);
+            final SnmpValue value = m_varBindValues.get(i);
+            m_eventBuilder.addParam(SyntaxToEvent.processSyntax(name.toString(), value));
+            if (EventConstants.OID_SNMP_IFINDEX.isPrefixOf(name)) {
+                m_eventBuilder.setIfIndex(value.toInt());
+            }
+        }
+        m_varBindNames.clear();
+        m_varBindValues.clear();
         return m_eventBuilder.getEvent();
     }
 
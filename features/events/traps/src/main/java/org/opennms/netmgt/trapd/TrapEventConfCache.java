@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.snmp.TrapIdentity;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.opennms.netmgt.xml.eventconf.EventConfMatcher;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Logmsg;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+
+/**
+ * Bounded cache of the event configuration matching the traps of a given
+ * identity (enterprise id, generic and specific type).
+ *
+ * The identity of a trap decides the matching event configuration only if
+ * none of the candidates that could match it look at anything else (the
+ * agent, the community, the varbinds, ...).  That is worked out once per
+ * identity from the candidates of the event configuration; the identities
+ * for which it isn't the case are remembered too, and their traps must be
+ * matched as a whole.
+ *
+ * The cache is emptied whenever the event configuration is reloaded or
+ * changed, which is when its matcher is replaced, and whenever it is full.
+ * Only the traps whose event configuration is found by their identity count
+ * as hits; the others, including the ones of remembered identities that must
+ * be matched as a whole, count as misses.
+ */
+class TrapEventConfCache {
+
+    /**
+     * The mask elements that only depend on the identity of a trap, or have
+     * the same value for all traps.
+     */
+    private static final Set<String> IDENTITY_TAGS = new HashSet<String>(Arrays.asList(
+        Maskelement.TAG_SNMP_EID,
+        Maskelement.TAG_SNMP_GENERIC,
+        Maskelement.TAG_SNMP_SPECIFIC,
+        Maskelement.TAG_SOURCE,
+        Maskelement.TAG_UEI
+    ));
+
+    /**
+     * The event configuration matching the traps of an identity.
+     */
+    static final class Decision {
+        private final Event m_eventConf;
+
+        private Decision(final Event eventConf) {
+            m_eventConf = eventConf;
+        }
+
+        /**
+         * @return the matching event configuration, or null if there is none
+         */
+        public Event getEventConf() {
+            return m_eventConf;
+        }
+
+        /**
+         * @return true if the traps must be discarded without being sent to eventd
+         */
+        public boolean isDiscard() {
+            if (m_eventConf == null) {
+                return false;
+            }
+            final Logmsg logmsg = m_eventConf.getLogmsg();
+            return logmsg != null && "discardtraps".equals(logmsg.getDest());
+        }
+    }
+
+    private static final Decision UNDECIDED = new Decision(null);
+
+    private static final class Key {
+        private final String m_enterpriseId;
+        private final int m_generic;
+        private final int m_specific;
+
+        private Key(final TrapIdentity identity) {
+            m_enterpriseId = identity.getEnterpriseId();
+            m_generic = identity.getGeneric();
+            m_specific = identity.getSpecific();
+        }
+
+        @Override
+        public int hashCode() {
+            return (m_enterpriseId == null ? 0 : m_enterpriseId.hashCode()) * 31 * 31 + m_generic * 31 + m_specific;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return m_generic == other.m_generic && m_specific == other.m_specific
+                && (m_enterpriseId == null ? other.m_enterpriseId == null : m_enterpriseId.equals(other.m_enterpriseId));
+        }
+    }
+
+    /**
+     * The decisions made with the candidates of a matcher.
+     */
+    private static final class Decisions {
+        private final EventConfMatcher m_matcher;
+        private final ConcurrentMap<Key, Decision> m_decisions = new ConcurrentHashMap<Key, Decision>();
+
+        private Decisions(final EventConfMatcher matcher) {
+            m_matcher = matcher;
+        }
+    }
+
+    private final EventConfDao m_eventConfDao;
+
+    private final int m_maxSize;
+
+    /**
+     * Replaced with empty decisions when the matcher changes, so a decision
+     * made with an old matcher is never put with the ones of the new one.
+     */
+    private volatile Decisions m_current = new Decisions(null);
+
+    private final StripedCounter m_hits = new StripedCounter();
+
+    private final StripedCounter m_misses = new StripedCounter();
+
+    /**
+     * <p>Constructor for TrapEventConfCache.</p>
+     *
+     * @param eventConfDao the event configuration to match the traps against
+     * @param maxSize the maximum number of trap identities to remember
+     */
+    public TrapEventConfCache(final EventConfDao eventConfDao, final int maxSize) {
+        m_eventConfDao = eventConfDao;
+        m_maxSize = maxSize;
+    }
+
+    /**
+     * Returns the event configuration matching all traps with the given
+     * identity.
+     *
+     * @param identity the identity of the trap
+     * @return the decision, or null if the trap must be matched against the
+     *         event configuration as a whole
+     */
+    public Decision getDecision(final TrapIdentity identity) {
+        final Events events = m_eventConfDao.getRootEvents();
+        final EventConfMatcher matcher = events == null ? null : events.getMatcher();
+        if (identity == null || matcher == null) {
+            return null;
+        }
+
+        final Decisions decisions = getDecisions(matcher);
+        final Key key = new Key(identity);
+        Decision decision = decisions.m_decisions.get(key);
+        if (decision == null) {
+            m_misses.increment();
+            decision = decide(matcher, identity);
+            if (decisions.m_decisions.size() >= m_maxSize) {
+                decisions.m_decisions.clear();
+            }
+            decisions.m_decisions.put(key, decision);
+        } else if (decision == UNDECIDED) {
+            m_misses.increment();
+        } else {
+            m_hits.increment();
+        }
+        return decision == UNDECIDED ? null : decision;
+    }
+
+    private Decisions getDecisions(final EventConfMatcher matcher) {
+        Decisions decisions = m_current;
+        if (decisions.m_matcher != matcher) {
+            synchronized (this) {
+                decisions = m_current;
+                if (decisions.m_matcher != matcher) {
+                    decisions = new Decisions(matcher);
+                    m_current = decisions;
+                }
+            }
+        }
+        return decisions;
+    }
+
+    /**
+     * Walks the candidates for the identity in priority order, skipping the
+     * ones that no trap with this identity can match.
+     */
+    private static Decision decide(final EventConfMatcher matcher, final TrapIdentity identity) {
+        final EventBuilder builder = new EventBuilder(null, "trapd");
+        builder.setEnterpriseId(identity.getEnterpriseId());
+        builder.setGeneric(identity.getGeneric());
+        builder.setSpecific(identity.getSpecific());
+        final org.opennms.netmgt.xml.event.Event event = builder.getEvent();
+
+        for (final Event candidate : matcher.getCandidates(event)) {
+            final Mask mask = candidate.getMask();
+            if (mask == null || mask.getMaskelementCount() <= 0) {
+                if (candidate.matches(event)) {
+                    return new Decision(candidate);
+                }
+                continue;
+            }
+
+            boolean identityOnly = mask.getVarbindCount() == 0;
+            boolean possible = true;
+            for (final Maskelement element : mask.getMaskelementCollection()) {
+                if (!IDENTITY_TAGS.contains(element.getMename())) {
+                    identityOnly = false;
+                } else if (!element.constructMatcher().matches(event)) {
+                    possible = false;
+                    break;
+                }
+            }
+            if (!possible) {
+                continue;
+            }
+            return identityOnly ? new Decision(candidate) : UNDECIDED;
+        }
+        return new Decision(null);
+    }
+
+    public int getSize() {
+        return m_current.m_decisions.size();
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+}
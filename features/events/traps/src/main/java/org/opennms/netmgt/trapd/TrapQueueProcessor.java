@@ -83,17 +83,23 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
      */
     private EventConfDao m_eventConfDao;
 
+    /**
+     * The event configuration already matched by the traps of each identity,
+     * if any.
+     */
+    private TrapEventConfCache m_eventConfCache;
+
     private TrapNotification m_trapNotification;
     
-    private static long s_v1TrapsReceived = 0;
+    private static final StripedCounter s_v1TrapsReceived = new StripedCounter();
     
-    private static long s_v2cTrapsReceived = 0;
+    private static final StripedCounter s_v2cTrapsReceived = new StripedCounter();
     
-    private static long s_v3TrapsReceived = 0;
+    private static final StripedCounter s_v3TrapsReceived = new StripedCounter();
     
-    private static long s_trapsDiscarded = 0;
+    private static final StripedCounter s_trapsDiscarded = new StripedCounter();
     
-    private static long s_trapsErrored = 0;
+    private static final StripedCounter s_trapsErrored = new StripedCounter();
 
     /**
      * Process a V2 trap and convert it to an event for transmission.
@@ -165,12 +171,12 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
     @Override
     public Callable<Void> call() {
         try {
-            processTrapEvent(((EventCreator)m_trapNotification.getTrapProcessor()).getEvent());
+            processTrapEvent((EventCreator)m_trapNotification.getTrapProcessor());
         } catch (IllegalArgumentException e) {
             LOG.info(e.getMessage());
         } catch (Throwable e) {
             LOG.error("Unexpected error processing trap: {}", e, e);
-            s_trapsErrored++;
+            s_trapsErrored.increment();
         }
         return null;
     }
@@ -178,27 +184,33 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
     /**
      * <p>processTrapEvent</p>
      *
-     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * The event configuration is looked up by the identity of the trap when
+     * possible, so that discarded traps are dropped before their event is
+     * built.
+     *
+     * @param eventCreator the {@link org.opennms.netmgt.trapd.EventCreator} that received the trap
      */
-    private void processTrapEvent(final Event event) {
-    	final InetAddress trapInterface = event.getInterfaceAddress();
+    private void processTrapEvent(final EventCreator eventCreator) {
+        final TrapEventConfCache.Decision decision = m_eventConfCache == null ? null : m_eventConfCache.getDecision(eventCreator.getTrapIdentity());
 
-    	final org.opennms.netmgt.xml.eventconf.Event econf = m_eventConfDao.findByEvent(event);
-        if (econf == null || econf.getUei() == null) {
-            event.setUei("uei.opennms.org/default/trap");
+        Event event = null;
+        final org.opennms.netmgt.xml.eventconf.Event econf;
+        if (decision != null) {
+            econf = decision.getEventConf();
         } else {
-            event.setUei(econf.getUei());
+            event = eventCreator.getEvent();
+            econf = m_eventConfDao.findByEvent(event);
         }
 
         if (econf != null) {
             final Snmp snmp = econf.getSnmp();
             if (snmp != null) {
                 if ("v1".equals(snmp.getVersion())) {
-                    s_v1TrapsReceived++;
+                    s_v1TrapsReceived.increment();
                 } else if ("v2c".equals(snmp.getVersion())) {
-                    s_v2cTrapsReceived++;
+                    s_v2cTrapsReceived.increment();
                 } else if ("v3".equals(snmp.getVersion())) {
-                    s_v3TrapsReceived++;
+                    s_v3TrapsReceived.increment();
                 }
             }
             final Logmsg logmsg = econf.getLogmsg();
@@ -206,12 +218,22 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
                 final String dest = logmsg.getDest();
                 if ("discardtraps".equals(dest)) {
                     LOG.debug("Trap discarded due to matching event having logmsg dest == discardtraps");
-                    s_trapsDiscarded++;
+                    s_trapsDiscarded.increment();
                     return;
                 }
             }
         }
 
+        if (event == null) {
+            event = eventCreator.getEvent();
+        }
+        if (econf == null || econf.getUei() == null) {
+            event.setUei("uei.opennms.org/default/trap");
+        } else {
+            event.setUei(econf.getUei());
+        }
+        final InetAddress trapInterface = event.getInterfaceAddress();
+
         // send the event to eventd
         m_eventMgr.sendNow(event);
 
@@ -302,6 +324,14 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
         m_newSuspect = newSuspect;
     }
 
+    public TrapEventConfCache getEventConfCache() {
+        return m_eventConfCache;
+    }
+
+    public void setEventConfCache(TrapEventConfCache eventConfCache) {
+        m_eventConfCache = eventConfCache;
+    }
+
     public TrapNotification getTrapNotification() {
         return m_trapNotification;
     }
@@ -319,22 +349,22 @@ class TrapQueueProcessor implements Callable<Callable<?>>, InitializingBean {
     }
     
     public static long getV1TrapsReceived() {
-        return s_v1TrapsReceived;
+        return s_v1TrapsReceived.get();
     }
     
     public static long getV2cTrapsReceived() {
-        return s_v2cTrapsReceived;
+        return s_v2cTrapsReceived.get();
     }
     
     public static long getV3TrapsReceived() {
-        return s_v3TrapsReceived;
+        return s_v3TrapsReceived.get();
     }
     
     public static long getTrapsDiscarded() {
-        return s_trapsDiscarded;
+        return s_trapsDiscarded.get();
     }
     
     public static long getTrapsErrored() {
-        return s_trapsErrored;
+        return s_trapsErrored.get();
     }
 }
@@ -89,6 +89,25 @@ public class TrapQueueProcessorFactory implements InitializingBean {
     @Autowired
     private EventConfDao m_eventConfDao;
 
+    /**
+     * The maximum number of trap identities whose event configuration is cached
+     */
+    private int m_eventConfCacheSize = 10000;
+
+    private TrapEventConfCache m_eventConfCache;
+
+    public int getEventConfCacheSize() {
+        return m_eventConfCacheSize;
+    }
+
+    public void setEventConfCacheSize(int eventConfCacheSize) {
+        m_eventConfCacheSize = eventConfCacheSize;
+    }
+
+    public TrapEventConfCache getEventConfCache() {
+        return m_eventConfCache;
+    }
+
     /**
      * The constructor
      */
@@ -98,6 +117,7 @@ public class TrapQueueProcessorFactory implements InitializingBean {
     public TrapQueueProcessor getInstance(TrapNotification info) {
         TrapQueueProcessor retval = new TrapQueueProcessor();
         retval.setEventConfDao(m_eventConfDao);
+        retval.setEventConfCache(m_eventConfCache);
         retval.setEventManager(m_eventManager);
         retval.setNewSuspect(m_newSuspectOnTrap);
         retval.setTrapNotification(info);
@@ -109,5 +129,8 @@ public class TrapQueueProcessorFactory implements InitializingBean {
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
         Assert.state(m_eventManager != null, "eventManager must be set");
+        if (m_eventConfCacheSize > 0) {
+            m_eventConfCache = new TrapEventConfCache(m_eventConfDao, m_eventConfCacheSize);
+        }
     }
 }
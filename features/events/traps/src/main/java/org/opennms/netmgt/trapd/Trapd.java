@@ -372,4 +372,19 @@ public class Trapd extends AbstractServiceDaemon implements TrapProcessorFactory
     public long getTrapsErrored() {
         return TrapQueueProcessor.getTrapsErrored();
     }
+
+    public long getEventConfCacheHits() {
+        final TrapEventConfCache cache = m_processorFactory == null ? null : m_processorFactory.getEventConfCache();
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    public long getEventConfCacheMisses() {
+        final TrapEventConfCache cache = m_processorFactory == null ? null : m_processorFactory.getEventConfCache();
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    public int getEventConfCacheSize() {
+        final TrapEventConfCache cache = m_processorFactory == null ? null : m_processorFactory.getEventConfCache();
+        return cache == null ? 0 : cache.getSize();
+    }
 }
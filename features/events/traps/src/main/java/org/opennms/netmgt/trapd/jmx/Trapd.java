@@ -78,4 +78,22 @@ public class Trapd extends AbstractSpringContextJmxServiceDaemon<org.opennms.net
     public long getTrapsErrored() {
         return getDaemon().getTrapsErrored();
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventConfCacheHits() {
+        return getDaemon().getEventConfCacheHits();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventConfCacheMisses() {
+        return getDaemon().getEventConfCacheMisses();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getEventConfCacheSize() {
+        return getDaemon().getEventConfCacheSize();
+    }
 }
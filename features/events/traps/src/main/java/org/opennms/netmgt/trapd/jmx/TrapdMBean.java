@@ -51,4 +51,13 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The number of traps whose event configuration was found by their identity since Trapd was last started */
+    public long getEventConfCacheHits();
+
+    /** @return The number of traps whose identity had to be matched against the event configuration, or that had to be matched as a whole, since Trapd was last started */
+    public long getEventConfCacheMisses();
+
+    /** @return The number of trap identities whose event configuration is cached */
+    public int getEventConfCacheSize();
 }
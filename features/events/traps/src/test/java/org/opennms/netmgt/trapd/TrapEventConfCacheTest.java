@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.DefaultEventConfDao;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.TrapIdentity;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+
+public class TrapEventConfCacheTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TrapEventConfCacheTest.class);
+
+    private static final TrapIdentity BGP_ESTABLISHED = new TrapIdentity(SnmpObjId.get(".1.3.6.1.2.1.15.7"), 6, 1);
+
+    private static final TrapIdentity BGP_BACKWARD_TRANSITION = new TrapIdentity(SnmpObjId.get(".1.3.6.1.2.1.15.7"), 6, 2);
+
+    private static final TrapIdentity COLD_START = new TrapIdentity(SnmpObjId.get(".1.3.6.1.4.1.5813"), 0, 0);
+
+    private static final TrapIdentity HP_FAULT_FINDER = new TrapIdentity(SnmpObjId.get(".1.3.6.1.4.1.11.2.14.12.1"), 6, 5);
+
+    private static final TrapIdentity AP_NOISE_PROFILE = new TrapIdentity(SnmpObjId.get(".1.3.6.1.4.1.14179.2.6.3"), 6, 38);
+
+    private static final TrapIdentity UNKNOWN = new TrapIdentity(SnmpObjId.get(".1.3.6.1.4.1.9999"), 6, 1);
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    @Before
+    public void setUp() throws Exception {
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new ClassPathResource("/org/opennms/netmgt/trapd/eventconf.xml"));
+        m_eventConfDao.afterPropertiesSet();
+    }
+
+    @Test
+    public void testDecisions() {
+        final TrapEventConfCache cache = new TrapEventConfCache(m_eventConfDao, 100);
+
+        final TrapEventConfCache.Decision established = cache.getDecision(BGP_ESTABLISHED);
+        assertNotNull(established);
+        assertEquals("uei.opennms.org/IETF/BGP/traps/bgpEstablished", established.getEventConf().getUei());
+        assertFalse(established.isDiscard());
+
+        assertTrue(cache.getDecision(BGP_BACKWARD_TRANSITION).isDiscard());
+        assertEquals("uei.opennms.org/generic/traps/SNMP_Cold_Start", cache.getDecision(COLD_START).getEventConf().getUei());
+
+        // matches on a varbind, so it depends on more than the identity
+        assertNull(cache.getDecision(AP_NOISE_PROFILE));
+
+        final TrapEventConfCache.Decision unknown = cache.getDecision(UNKNOWN);
+        assertNotNull(unknown);
+        assertNull(unknown.getEventConf());
+        assertFalse(unknown.isDiscard());
+
+        // the decisions are the ones found with the whole event
+        for (final TrapIdentity identity : new TrapIdentity[] { BGP_ESTABLISHED, BGP_BACKWARD_TRANSITION, COLD_START, HP_FAULT_FINDER, UNKNOWN }) {
+            assertSame(m_eventConfDao.findByEvent(createEvent(identity, 0)), cache.getDecision(identity).getEventConf());
+        }
+    }
+
+    @Test
+    public void testInvalidatedOnReload() {
+        final TrapEventConfCache cache = new TrapEventConfCache(m_eventConfDao, 100);
+        final org.opennms.netmgt.xml.eventconf.Event eventConf = cache.getDecision(BGP_ESTABLISHED).getEventConf();
+        cache.getDecision(BGP_ESTABLISHED);
+        cache.getDecision(AP_NOISE_PROFILE);
+        cache.getDecision(AP_NOISE_PROFILE);
+        assertEquals(2, cache.getSize());
+        // the traps that must be matched as a whole are never hits
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        m_eventConfDao.reload();
+        final org.opennms.netmgt.xml.eventconf.Event reloaded = cache.getDecision(BGP_ESTABLISHED).getEventConf();
+        assertEquals(eventConf.getUei(), reloaded.getUei());
+        assertFalse(eventConf == reloaded);
+        assertEquals(1, cache.getSize());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testBounded() {
+        final TrapEventConfCache cache = new TrapEventConfCache(m_eventConfDao, 10);
+        for (int specific = 0; specific < 100; specific++) {
+            cache.getDecision(new TrapIdentity(SnmpObjId.get(".1.3.6.1.4.1.9999"), 6, specific));
+        }
+        assertTrue(cache.getSize() <= 10);
+    }
+
+    /**
+     * Replays a mix of traps where a few identities make up most of the
+     * traffic, as usual, and compares the time it takes to find their event
+     * configuration with and without the cache.
+     */
+    @Test
+    public void testReplayTrapMix() {
+        final TrapIdentity[] identities = new TrapIdentity[] { BGP_ESTABLISHED, BGP_BACKWARD_TRANSITION, COLD_START, HP_FAULT_FINDER, AP_NOISE_PROFILE, UNKNOWN };
+        final Random random = new Random(42);
+        final List<TrapIdentity> mix = new ArrayList<TrapIdentity>();
+        final List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 100000; i++) {
+            // roughly zipfian: each identity is half as frequent as the previous one
+            int n = 0;
+            while (n < identities.length - 1 && random.nextBoolean()) {
+                n++;
+            }
+            mix.add(identities[n]);
+            events.add(createEvent(identities[n], i));
+        }
+
+        long begin = System.nanoTime();
+        int discarded = 0;
+        for (final Event event : events) {
+            final org.opennms.netmgt.xml.eventconf.Event eventConf = m_eventConfDao.findByEvent(event);
+            if (eventConf != null && eventConf.getLogmsg() != null && "discardtraps".equals(eventConf.getLogmsg().getDest())) {
+                discarded++;
+            }
+        }
+        final long uncached = System.nanoTime() - begin;
+
+        final TrapEventConfCache cache = new TrapEventConfCache(m_eventConfDao, 100);
+        begin = System.nanoTime();
+        int cachedDiscarded = 0;
+        int undecided = 0;
+        for (int i = 0; i < mix.size(); i++) {
+            final TrapEventConfCache.Decision decision = cache.getDecision(mix.get(i));
+            if (decision == null) {
+                undecided++;
+            }
+            final org.opennms.netmgt.xml.eventconf.Event eventConf = decision != null ? decision.getEventConf() : m_eventConfDao.findByEvent(events.get(i));
+            if (eventConf != null && eventConf.getLogmsg() != null && "discardtraps".equals(eventConf.getLogmsg().getDest())) {
+                cachedDiscarded++;
+            }
+        }
+        final long cached = System.nanoTime() - begin;
+
+        assertEquals(discarded, cachedDiscarded);
+        // AP_NOISE_PROFILE is the only identity whose traps must be matched as a whole
+        assertTrue(undecided > 0);
+        assertEquals(identities.length - 1 + undecided, cache.getMisses());
+        assertEquals(mix.size() - cache.getMisses(), cache.getHits());
+        LOG.debug("{} traps: {} ms matching whole events, {} ms by identity, {} discarded", mix.size(), uncached / 1000000, cached / 1000000, discarded);
+    }
+
+    private static Event createEvent(final TrapIdentity identity, final int n) {
+        final EventBuilder builder = new EventBuilder(null, "trapd");
+        builder.setEnterpriseId(identity.getEnterpriseId());
+        builder.setGeneric(identity.getGeneric());
+        builder.setSpecific(identity.getSpecific());
+        builder.setHost("192.168.1." + (n % 250 + 1));
+        builder.setCommunity("public");
+        builder.addParam(".1.3.6.1.4.1.14179.2.2.1.1.1", n % 2 == 0 ? "00:14:F1:AD:A7:50" : "00:14:F1:AD:A7:51");
+        builder.addParam(".1.3.6.1.2.1.2.2.1.1", n % 48);
+        return builder.getEvent();
+    }
+}
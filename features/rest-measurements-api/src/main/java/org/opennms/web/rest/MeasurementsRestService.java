@@ -34,6 +34,7 @@ import java.util.Map;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
+import org.opennms.web.rest.measurements.ColumnarExpressionEngine;
 import org.opennms.web.rest.measurements.ExpressionEngine;
 import org.opennms.web.rest.measurements.ExpressionException;
 import org.opennms.web.rest.measurements.JEXLExpressionEngine;
@@ -92,7 +93,14 @@ public class MeasurementsRestService {
     @Autowired
     private MeasurementFetchStrategy m_fetchStrategy;
 
-    private final ExpressionEngine expressionEngine = new JEXLExpressionEngine();
+    /**
+     * Set to "columnar" to evaluate the expressions with the
+     * {@link ColumnarExpressionEngine} instead of JEXL.
+     */
+    public static final String EXPRESSION_ENGINE_PROPERTY = "org.opennms.web.rest.measurements.expressionEngine";
+
+    private final ExpressionEngine expressionEngine = "columnar".equalsIgnoreCase(System.getProperty(EXPRESSION_ENGINE_PROPERTY)) ?
+            new ColumnarExpressionEngine() : new JEXLExpressionEngine();
 
     /**
      * Retrieves the measurements for a single attribute.
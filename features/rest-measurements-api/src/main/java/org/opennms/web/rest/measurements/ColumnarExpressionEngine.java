@@ -0,0 +1,1261 @@
+package org.opennms.web.rest.measurements;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.jexl2.JexlContext;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.JexlException;
+import org.apache.commons.jexl2.MapContext;
+import org.opennms.web.rest.measurements.fetch.FetchResults;
+import org.opennms.web.rest.measurements.model.Expression;
+import org.opennms.web.rest.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * An expression engine that evaluates the expressions one column at a time.
+ *
+ * The {@link JEXLExpressionEngine} evaluates every expression once per row,
+ * copying every value of the row into the JEXL context beforehand.  This
+ * engine instead compiles each expression into a tree of operations over
+ * whole <code>double[]</code> and <code>long[]</code> columns, which avoids
+ * the context updates and the boxing of every value.
+ *
+ * The supported subset covers number literals, references to the sources,
+ * the timestamp, the constants and to earlier expressions, arithmetic,
+ * comparisons, logical operators, the ternary operator and the common
+ * single and double argument <code>math:</code> and
+ * <code>strictmath:</code> functions.  The operations follow the JEXL
+ * arithmetic, so integer values are only promoted to doubles when they are
+ * combined with doubles.
+ *
+ * Expressions outside of this subset are evaluated row by row with JEXL.
+ * So are the rows where the result might differ from JEXL, for example
+ * because of a division by zero, an integer overflow or a comparison with
+ * NaN, which means the results are always the same as the ones of the
+ * {@link JEXLExpressionEngine}.  Requests in which expressions reference
+ * themselves, later expressions or share the same label depend on the row
+ * by row evaluation order and are handed to the {@link JEXLExpressionEngine}
+ * as a whole.
+ */
+public class ColumnarExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarExpressionEngine.class);
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
+    /**
+     * JEXL keywords that can't be evaluated by this engine.
+     */
+    private static final Set<String> UNSUPPORTED_KEYWORDS = ImmutableSet.of(
+            "null", "empty", "size", "new", "var", "if", "else", "for", "foreach", "while", "return", "function", "in");
+
+    /**
+     * Use a single instance of the JEXL engine, which is thread-safe.
+     */
+    private final JexlEngine jexl = JEXLExpressionEngine.newJexlEngine();
+
+    private final JEXLExpressionEngine rowEngine = new JEXLExpressionEngine();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+        final int numExpressions = expressions.size();
+
+        // Don't do anything if there are no expressions
+        if (numExpressions < 1) {
+            return;
+        }
+
+        // Parse the expressions with JEXL first, so that invalid expressions
+        // are reported exactly like they are by the JEXL engine
+        final String labels[] = new String[numExpressions];
+        final org.apache.commons.jexl2.Expression jexlExpressions[] = new org.apache.commons.jexl2.Expression[numExpressions];
+        final Set<String> uniqueLabels = Sets.newHashSet();
+        for (int k = 0; k < numExpressions; k++) {
+            final Expression e = expressions.get(k);
+            labels[k] = e.getLabel();
+            uniqueLabels.add(e.getLabel());
+            try {
+                jexlExpressions[k] = jexl.createExpression(e.getExpression());
+            } catch (JexlException ex) {
+                throw new ExpressionException("Failed to parse expression label '" +
+                        e.getLabel() + "'.", ex);
+            }
+        }
+
+        final Map<String, double[]> columns = results.getColumns();
+        if (uniqueLabels.size() != numExpressions || hasForwardReferences(expressions, columns)) {
+            LOG.debug("The expressions depend on the order of evaluation, using JEXL for the whole request.");
+            rowEngine.applyExpressions(request, results);
+            return;
+        }
+
+        // Compile the expressions, leaving those we don't support to JEXL
+        final Scope scope = new Scope(labels, columns, results.getConstants());
+        final Node nodes[] = new Node[numExpressions];
+        for (int k = 0; k < numExpressions; k++) {
+            try {
+                final Node node = new Parser(expressions.get(k).getExpression(), scope, k).parse();
+                if (node.getType() != Type.BOOLEAN) {
+                    nodes[k] = node;
+                }
+            } catch (final UnsupportedExpressionException e) {
+                LOG.debug("Evaluating expression with label '{}' with JEXL: {}", labels[k], e.getMessage());
+            }
+        }
+
+        final long timestamps[] = results.getTimestamps();
+        final int numRows = timestamps.length;
+        final double expressionValues[][] = new double[numExpressions][];
+        final Frame frame = new Frame(numRows, timestamps, expressionValues);
+
+        for (int k = 0; k < numExpressions; k++) {
+            RowEvaluator rowEvaluator = null;
+            if (nodes[k] == null) {
+                rowEvaluator = new RowEvaluator(labels, jexlExpressions[k], k, frame, columns, results.getConstants());
+                final double values[] = new double[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    values[i] = rowEvaluator.evaluate(i);
+                }
+                expressionValues[k] = values;
+                continue;
+            }
+
+            final Column column = nodes[k].evaluate(frame);
+            final double values[];
+            if (column.m_doubles == null) {
+                values = toDoubles(column.m_longs);
+            } else if (column.m_shared) {
+                values = column.m_doubles.clone();
+            } else {
+                values = column.m_doubles;
+            }
+
+            // Have JEXL work out the rows we couldn't evaluate faithfully
+            if (column.m_unsafe != null) {
+                for (int i = 0; i < numRows; i++) {
+                    if (column.m_unsafe[i]) {
+                        if (rowEvaluator == null) {
+                            rowEvaluator = new RowEvaluator(labels, jexlExpressions[k], k, frame, columns, results.getConstants());
+                        }
+                        values[i] = rowEvaluator.evaluate(i);
+                    }
+                }
+            }
+            expressionValues[k] = values;
+        }
+
+        // Store the results
+        for (int k = 0; k < numExpressions; k++) {
+            if (!expressions.get(k).getTransient()) {
+                columns.put(labels[k], expressionValues[k]);
+            }
+        }
+    }
+
+    /**
+     * Determines whether any of the expressions may see the value of
+     * itself, or of a later expression, computed for the previous row.
+     */
+    private static boolean hasForwardReferences(final List<Expression> expressions, final Map<String, double[]> columns) {
+        for (int k = 0; k < expressions.size(); k++) {
+            final Matcher matcher = IDENTIFIER.matcher(expressions.get(k).getExpression());
+            while (matcher.find()) {
+                final String identifier = matcher.group();
+                // sources and the timestamp are put in the context before every evaluation
+                if (columns.containsKey(identifier) || "timestamp".equals(identifier)) {
+                    continue;
+                }
+                for (int m = k; m < expressions.size(); m++) {
+                    if (identifier.equals(expressions.get(m).getLabel())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static double[] toDoubles(final long values[]) {
+        final double doubles[] = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = values[i];
+        }
+        return doubles;
+    }
+
+    /**
+     * Converts a floating point value that JEXL does not hold as a
+     * {@link Double} the same way its arithmetic does.
+     */
+    private static double toJexlDouble(final Number value) {
+        return Double.parseDouble(String.valueOf(value));
+    }
+
+    /**
+     * Evaluates an expression for single rows with JEXL, using the same
+     * context the {@link JEXLExpressionEngine} would.
+     */
+    private static final class RowEvaluator {
+        private final String m_labels[];
+        private final org.apache.commons.jexl2.Expression m_expression;
+        private final int m_index;
+        private final Frame m_frame;
+        private final Map<String, double[]> m_columns;
+        private final Map<String, Object> m_values = Maps.newHashMap();
+        private final JexlContext m_context = new MapContext(m_values);
+
+        private RowEvaluator(final String labels[], final org.apache.commons.jexl2.Expression expression, final int index,
+                final Frame frame, final Map<String, double[]> columns, final Map<String, Object> constants) {
+            m_labels = labels;
+            m_expression = expression;
+            m_index = index;
+            m_frame = frame;
+            m_columns = columns;
+
+            m_values.putAll(constants);
+            m_values.put("__inf", Double.POSITIVE_INFINITY);
+            m_values.put("__neg_inf", Double.NEGATIVE_INFINITY);
+        }
+
+        private double evaluate(final int row) throws ExpressionException {
+            for (int j = 0; j < m_index; j++) {
+                m_values.put(m_labels[j], m_frame.m_expressionValues[j][row]);
+            }
+            m_values.put("timestamp", m_frame.m_timestamps[row]);
+            for (final Map.Entry<String, double[]> column : m_columns.entrySet()) {
+                m_values.put(column.getKey(), column.getValue()[row]);
+            }
+
+            try {
+                return Utils.toDouble(m_expression.evaluate(m_context));
+            } catch (NullPointerException|NumberFormatException e) {
+                throw new ExpressionException("The return value from expression with label '" +
+                        m_labels[m_index] + "' could not be cast to a Double.", e);
+            } catch (JexlException e) {
+                throw new ExpressionException("Failed to evaluate expression with label '" +
+                        m_labels[m_index] + "'.", e);
+            }
+        }
+    }
+
+    private static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedExpressionException(final String message) {
+            super(message);
+        }
+    }
+
+    private static enum Type {
+        DOUBLE,
+        LONG,
+        BOOLEAN
+    }
+
+    /**
+     * The values available to the nodes while a request is evaluated.
+     */
+    private static final class Frame {
+        private final int m_rows;
+        private final long m_timestamps[];
+        private final double m_expressionValues[][];
+
+        private Frame(final int rows, final long timestamps[], final double expressionValues[][]) {
+            m_rows = rows;
+            m_timestamps = timestamps;
+            m_expressionValues = expressionValues;
+        }
+    }
+
+    /**
+     * The result of a node.  Exactly one of the arrays is set, depending on
+     * the type of the node.  Rows flagged as unsafe must be evaluated again
+     * with JEXL.
+     */
+    private static final class Column {
+        private final double m_doubles[];
+        private final long m_longs[];
+        private final boolean m_booleans[];
+        // set when the array belongs to the request and must not be modified
+        private final boolean m_shared;
+        private boolean m_unsafe[];
+
+        private Column(final double doubles[], final long longs[], final boolean booleans[], final boolean shared, final boolean unsafe[]) {
+            m_doubles = doubles;
+            m_longs = longs;
+            m_booleans = booleans;
+            m_shared = shared;
+            m_unsafe = unsafe;
+        }
+
+        private static Column of(final double values[], final boolean unsafe[]) {
+            return new Column(values, null, null, false, unsafe);
+        }
+
+        private static Column of(final long values[], final boolean unsafe[]) {
+            return new Column(null, values, null, false, unsafe);
+        }
+
+        private static Column of(final boolean values[], final boolean unsafe[]) {
+            return new Column(null, null, values, false, unsafe);
+        }
+
+        private double[] asDoubles() {
+            return m_doubles != null ? m_doubles : toDoubles(m_longs);
+        }
+    }
+
+    private static boolean[] markUnsafe(boolean unsafe[], final int row, final int rows) {
+        if (unsafe == null) {
+            unsafe = new boolean[rows];
+        }
+        unsafe[row] = true;
+        return unsafe;
+    }
+
+    /**
+     * Combines the unsafe rows of both operands.  The operands are not
+     * used after this, so their arrays may be reused.
+     */
+    private static boolean[] unionUnsafe(final Column a, final Column b) {
+        if (a.m_unsafe == null) {
+            return b.m_unsafe;
+        } else if (b.m_unsafe == null) {
+            return a.m_unsafe;
+        }
+        for (int i = 0; i < a.m_unsafe.length; i++) {
+            a.m_unsafe[i] |= b.m_unsafe[i];
+        }
+        return a.m_unsafe;
+    }
+
+    private static abstract class Node {
+        private final Type m_type;
+
+        protected Node(final Type type) {
+            m_type = type;
+        }
+
+        Type getType() {
+            return m_type;
+        }
+
+        abstract Column evaluate(Frame frame);
+    }
+
+    private static final class SourceNode extends Node {
+        private final double m_values[];
+
+        private SourceNode(final double values[]) {
+            super(Type.DOUBLE);
+            m_values = values;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            return new Column(m_values, null, null, true, null);
+        }
+    }
+
+    private static final class TimestampNode extends Node {
+        private TimestampNode() {
+            super(Type.LONG);
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            return new Column(null, frame.m_timestamps, null, true, null);
+        }
+    }
+
+    private static final class ExpressionNode extends Node {
+        private final int m_index;
+
+        private ExpressionNode(final int index) {
+            super(Type.DOUBLE);
+            m_index = index;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            return new Column(frame.m_expressionValues[m_index], null, null, true, null);
+        }
+    }
+
+    private static final class ConstantNode extends Node {
+        private final double m_double;
+        private final long m_long;
+        private final boolean m_boolean;
+
+        private ConstantNode(final Type type, final double doubleValue, final long longValue, final boolean booleanValue) {
+            super(type);
+            m_double = doubleValue;
+            m_long = longValue;
+            m_boolean = booleanValue;
+        }
+
+        private static ConstantNode of(final double value) {
+            return new ConstantNode(Type.DOUBLE, value, 0L, false);
+        }
+
+        private static ConstantNode of(final long value) {
+            return new ConstantNode(Type.LONG, 0.0d, value, false);
+        }
+
+        private static ConstantNode of(final boolean value) {
+            return new ConstantNode(Type.BOOLEAN, 0.0d, 0L, value);
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            switch (getType()) {
+            case DOUBLE:
+                final double doubles[] = new double[frame.m_rows];
+                Arrays.fill(doubles, m_double);
+                return Column.of(doubles, null);
+            case LONG:
+                final long longs[] = new long[frame.m_rows];
+                Arrays.fill(longs, m_long);
+                return Column.of(longs, null);
+            default:
+                final boolean booleans[] = new boolean[frame.m_rows];
+                Arrays.fill(booleans, m_boolean);
+                return Column.of(booleans, null);
+            }
+        }
+    }
+
+    /**
+     * +, -, *, / and %.  Integer operands are only promoted to doubles
+     * when the other operand is a double, like JEXL does.
+     */
+    private static final class ArithmeticNode extends Node {
+        private final char m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        private ArithmeticNode(final char operator, final Node left, final Node right) throws UnsupportedExpressionException {
+            super(left.getType() == Type.LONG && right.getType() == Type.LONG ? Type.LONG : Type.DOUBLE);
+            if (left.getType() == Type.BOOLEAN || right.getType() == Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("arithmetic on a boolean");
+            }
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            final Column left = m_left.evaluate(frame);
+            final Column right = m_right.evaluate(frame);
+            final boolean unsafe[] = unionUnsafe(left, right);
+            if (getType() == Type.LONG) {
+                return evaluateLongs(left.m_longs, right.m_longs, unsafe, frame.m_rows);
+            } else {
+                return evaluateDoubles(left.asDoubles(), right.asDoubles(), unsafe, frame.m_rows);
+            }
+        }
+
+        private Column evaluateDoubles(final double a[], final double b[], boolean unsafe[], final int n) {
+            final double r[] = new double[n];
+            switch (m_operator) {
+            case '+':
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] + b[i];
+                }
+                break;
+            case '-':
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] - b[i];
+                }
+                break;
+            case '*':
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] * b[i];
+                }
+                break;
+            case '/':
+                for (int i = 0; i < n; i++) {
+                    // JEXL fails on a division by zero
+                    if (b[i] == 0.0d) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    }
+                    r[i] = a[i] / b[i];
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    if (b[i] == 0.0d) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    }
+                    r[i] = a[i] % b[i];
+                }
+                break;
+            }
+            return Column.of(r, unsafe);
+        }
+
+        /**
+         * JEXL evaluates integers as {@link java.math.BigInteger}s, so
+         * rows that overflow are left to JEXL.
+         */
+        private Column evaluateLongs(final long a[], final long b[], boolean unsafe[], final int n) {
+            final long r[] = new long[n];
+            switch (m_operator) {
+            case '+':
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] + b[i];
+                    if (((a[i] ^ r[i]) & (b[i] ^ r[i])) < 0) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    }
+                }
+                break;
+            case '-':
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] - b[i];
+                    if (((a[i] ^ b[i]) & (a[i] ^ r[i])) < 0) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    }
+                }
+                break;
+            case '*':
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[i] * b[i];
+                    if (((Math.abs(a[i]) | Math.abs(b[i])) >>> 31 != 0)
+                            && ((b[i] != 0 && r[i] / b[i] != a[i]) || (a[i] == Long.MIN_VALUE && b[i] == -1))) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    }
+                }
+                break;
+            case '/':
+                for (int i = 0; i < n; i++) {
+                    if (b[i] == 0 || (a[i] == Long.MIN_VALUE && b[i] == -1)) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    } else {
+                        r[i] = a[i] / b[i];
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    // the remainder only matches the modulus for positive operands
+                    if (a[i] < 0 || b[i] <= 0) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    } else {
+                        r[i] = a[i] % b[i];
+                    }
+                }
+                break;
+            }
+            return Column.of(r, unsafe);
+        }
+    }
+
+    private static final class NegateNode extends Node {
+        private final Node m_operand;
+
+        private NegateNode(final Node operand) throws UnsupportedExpressionException {
+            super(operand.getType());
+            if (operand.getType() == Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("negation of a boolean");
+            }
+            m_operand = operand;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            final Column operand = m_operand.evaluate(frame);
+            boolean unsafe[] = operand.m_unsafe;
+            final int n = frame.m_rows;
+            if (getType() == Type.DOUBLE) {
+                final double a[] = operand.m_doubles;
+                final double r[] = new double[n];
+                for (int i = 0; i < n; i++) {
+                    r[i] = -a[i];
+                }
+                return Column.of(r, unsafe);
+            }
+
+            final long a[] = operand.m_longs;
+            final long r[] = new long[n];
+            for (int i = 0; i < n; i++) {
+                // JEXL negates integers without widening them
+                if (a[i] == Long.MIN_VALUE || a[i] == Integer.MIN_VALUE) {
+                    unsafe = markUnsafe(unsafe, i, n);
+                }
+                r[i] = -a[i];
+            }
+            return Column.of(r, unsafe);
+        }
+    }
+
+    /**
+     * ==, !=, &lt;, &lt;=, &gt; and &gt;=.
+     */
+    private static final class ComparisonNode extends Node {
+        private static final int EQ = 0;
+        private static final int NE = 1;
+        private static final int LT = 2;
+        private static final int LE = 3;
+        private static final int GT = 4;
+        private static final int GE = 5;
+
+        private final int m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        private ComparisonNode(final int operator, final Node left, final Node right) throws UnsupportedExpressionException {
+            super(Type.BOOLEAN);
+            final boolean leftBoolean = left.getType() == Type.BOOLEAN;
+            final boolean rightBoolean = right.getType() == Type.BOOLEAN;
+            if (leftBoolean != rightBoolean || (leftBoolean && operator != EQ && operator != NE)) {
+                throw new UnsupportedExpressionException("comparison with a boolean");
+            }
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            final Column left = m_left.evaluate(frame);
+            final Column right = m_right.evaluate(frame);
+            boolean unsafe[] = unionUnsafe(left, right);
+            final int n = frame.m_rows;
+            final boolean r[] = new boolean[n];
+
+            if (m_left.getType() == Type.BOOLEAN) {
+                final boolean a[] = left.m_booleans;
+                final boolean b[] = right.m_booleans;
+                for (int i = 0; i < n; i++) {
+                    r[i] = (a[i] == b[i]) == (m_operator == EQ);
+                }
+            } else if (m_left.getType() == Type.LONG && m_right.getType() == Type.LONG) {
+                final long a[] = left.m_longs;
+                final long b[] = right.m_longs;
+                for (int i = 0; i < n; i++) {
+                    r[i] = compare(Long.compare(a[i], b[i]));
+                }
+            } else {
+                final double a[] = left.asDoubles();
+                final double b[] = right.asDoubles();
+                for (int i = 0; i < n; i++) {
+                    // JEXL compares the boxed values, which differs for NaN
+                    if (Double.isNaN(a[i]) || Double.isNaN(b[i])) {
+                        unsafe = markUnsafe(unsafe, i, n);
+                    } else {
+                        r[i] = compare(a[i] < b[i] ? -1 : (a[i] > b[i] ? 1 : 0));
+                    }
+                }
+            }
+            return Column.of(r, unsafe);
+        }
+
+        private boolean compare(final int comparison) {
+            switch (m_operator) {
+            case EQ: return comparison == 0;
+            case NE: return comparison != 0;
+            case LT: return comparison < 0;
+            case LE: return comparison <= 0;
+            case GT: return comparison > 0;
+            default: return comparison >= 0;
+            }
+        }
+    }
+
+    /**
+     * &amp;&amp; and ||.  The right operand is evaluated for every row, but
+     * only the rows JEXL would evaluate it for can make the result unsafe.
+     */
+    private static final class LogicalNode extends Node {
+        private final boolean m_and;
+        private final Node m_left;
+        private final Node m_right;
+
+        private LogicalNode(final boolean and, final Node left, final Node right) throws UnsupportedExpressionException {
+            super(Type.BOOLEAN);
+            if (left.getType() != Type.BOOLEAN || right.getType() != Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("logical operator on a number");
+            }
+            m_and = and;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            final Column left = m_left.evaluate(frame);
+            final Column right = m_right.evaluate(frame);
+            final boolean a[] = left.m_booleans;
+            final boolean b[] = right.m_booleans;
+            boolean unsafe[] = left.m_unsafe;
+            final int n = frame.m_rows;
+            final boolean r[] = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                final boolean evaluatesRight = a[i] == m_and;
+                r[i] = evaluatesRight ? b[i] : a[i];
+                if (evaluatesRight && right.m_unsafe != null && right.m_unsafe[i]) {
+                    unsafe = markUnsafe(unsafe, i, n);
+                }
+            }
+            return Column.of(r, unsafe);
+        }
+    }
+
+    private static final class NotNode extends Node {
+        private final Node m_operand;
+
+        private NotNode(final Node operand) throws UnsupportedExpressionException {
+            super(Type.BOOLEAN);
+            if (operand.getType() != Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("logical negation of a number");
+            }
+            m_operand = operand;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            final Column operand = m_operand.evaluate(frame);
+            final boolean a[] = operand.m_booleans;
+            final boolean r[] = new boolean[frame.m_rows];
+            for (int i = 0; i < r.length; i++) {
+                r[i] = !a[i];
+            }
+            return Column.of(r, operand.m_unsafe);
+        }
+    }
+
+    private static final class TernaryNode extends Node {
+        private final Node m_condition;
+        private final Node m_then;
+        private final Node m_else;
+
+        private TernaryNode(final Node condition, final Node thenNode, final Node elseNode) throws UnsupportedExpressionException {
+            super(thenNode.getType());
+            if (condition.getType() != Type.BOOLEAN) {
+                throw new UnsupportedExpressionException("condition is not a boolean");
+            }
+            if (thenNode.getType() != elseNode.getType()) {
+                // JEXL returns either value as is, so the type would vary by row
+                throw new UnsupportedExpressionException("branches of different types");
+            }
+            m_condition = condition;
+            m_then = thenNode;
+            m_else = elseNode;
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            final Column condition = m_condition.evaluate(frame);
+            final Column thenColumn = m_then.evaluate(frame);
+            final Column elseColumn = m_else.evaluate(frame);
+            final boolean c[] = condition.m_booleans;
+            boolean unsafe[] = condition.m_unsafe;
+            final int n = frame.m_rows;
+
+            for (int i = 0; i < n; i++) {
+                final boolean branchUnsafe[] = c[i] ? thenColumn.m_unsafe : elseColumn.m_unsafe;
+                if (branchUnsafe != null && branchUnsafe[i]) {
+                    unsafe = markUnsafe(unsafe, i, n);
+                }
+            }
+
+            switch (getType()) {
+            case DOUBLE:
+                final double doubles[] = new double[n];
+                for (int i = 0; i < n; i++) {
+                    doubles[i] = c[i] ? thenColumn.m_doubles[i] : elseColumn.m_doubles[i];
+                }
+                return Column.of(doubles, unsafe);
+            case LONG:
+                final long longs[] = new long[n];
+                for (int i = 0; i < n; i++) {
+                    longs[i] = c[i] ? thenColumn.m_longs[i] : elseColumn.m_longs[i];
+                }
+                return Column.of(longs, unsafe);
+            default:
+                final boolean booleans[] = new boolean[n];
+                for (int i = 0; i < n; i++) {
+                    booleans[i] = c[i] ? thenColumn.m_booleans[i] : elseColumn.m_booleans[i];
+                }
+                return Column.of(booleans, unsafe);
+            }
+        }
+    }
+
+    /**
+     * The math: and strictmath: functions that take and return doubles.
+     */
+    private static final class FunctionNode extends Node {
+        private static final Set<String> UNARY = ImmutableSet.of(
+                "abs", "acos", "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", "floor",
+                "log", "log10", "rint", "signum", "sin", "sinh", "sqrt", "tan", "tanh", "toDegrees", "toRadians");
+        private static final Set<String> BINARY = ImmutableSet.of("atan2", "hypot", "max", "min", "pow");
+
+        private final boolean m_strict;
+        private final String m_name;
+        private final Node m_arguments[];
+
+        private FunctionNode(final String namespace, final String name, final List<Node> arguments) throws UnsupportedExpressionException {
+            super(Type.DOUBLE);
+            if (!(arguments.size() == 1 && UNARY.contains(name)) && !(arguments.size() == 2 && BINARY.contains(name))) {
+                throw new UnsupportedExpressionException("function " + namespace + ":" + name);
+            }
+            for (final Node argument : arguments) {
+                // the overload JEXL picks depends on the type of the arguments
+                if (argument.getType() != Type.DOUBLE) {
+                    throw new UnsupportedExpressionException("function " + namespace + ":" + name + " on a " + argument.getType());
+                }
+            }
+            m_strict = "strictmath".equals(namespace);
+            m_name = name;
+            m_arguments = arguments.toArray(new Node[arguments.size()]);
+        }
+
+        @Override
+        Column evaluate(final Frame frame) {
+            final Column a = m_arguments[0].evaluate(frame);
+            final double x[] = a.m_doubles;
+            final int n = frame.m_rows;
+            final double r[] = new double[n];
+            if (m_arguments.length == 1) {
+                for (int i = 0; i < n; i++) {
+                    r[i] = m_strict ? applyStrict(x[i]) : apply(x[i]);
+                }
+                return Column.of(r, a.m_unsafe);
+            }
+
+            final Column b = m_arguments[1].evaluate(frame);
+            final double y[] = b.m_doubles;
+            for (int i = 0; i < n; i++) {
+                r[i] = m_strict ? applyStrict(x[i], y[i]) : apply(x[i], y[i]);
+            }
+            return Column.of(r, unionUnsafe(a, b));
+        }
+
+        private double apply(final double x) {
+            switch (m_name) {
+            case "abs": return Math.abs(x);
+            case "acos": return Math.acos(x);
+            case "asin": return Math.asin(x);
+            case "atan": return Math.atan(x);
+            case "cbrt": return Math.cbrt(x);
+            case "ceil": return Math.ceil(x);
+            case "cos": return Math.cos(x);
+            case "cosh": return Math.cosh(x);
+            case "exp": return Math.exp(x);
+            case "floor": return Math.floor(x);
+            case "log": return Math.log(x);
+            case "log10": return Math.log10(x);
+            case "rint": return Math.rint(x);
+            case "signum": return Math.signum(x);
+            case "sin": return Math.sin(x);
+            case "sinh": return Math.sinh(x);
+            case "sqrt": return Math.sqrt(x);
+            case "tan": return Math.tan(x);
+            case "tanh": return Math.tanh(x);
+            case "toDegrees": return Math.toDegrees(x);
+            default: return Math.toRadians(x);
+            }
+        }
+
+        private double applyStrict(final double x) {
+            switch (m_name) {
+            case "abs": return StrictMath.abs(x);
+            case "acos": return StrictMath.acos(x);
+            case "asin": return StrictMath.asin(x);
+            case "atan": return StrictMath.atan(x);
+            case "cbrt": return StrictMath.cbrt(x);
+            case "ceil": return StrictMath.ceil(x);
+            case "cos": return StrictMath.cos(x);
+            case "cosh": return StrictMath.cosh(x);
+            case "exp": return StrictMath.exp(x);
+            case "floor": return StrictMath.floor(x);
+            case "log": return StrictMath.log(x);
+            case "log10": return StrictMath.log10(x);
+            case "rint": return StrictMath.rint(x);
+            case "signum": return StrictMath.signum(x);
+            case "sin": return StrictMath.sin(x);
+            case "sinh": return StrictMath.sinh(x);
+            case "sqrt": return StrictMath.sqrt(x);
+            case "tan": return StrictMath.tan(x);
+            case "tanh": return StrictMath.tanh(x);
+            case "toDegrees": return StrictMath.toDegrees(x);
+            default: return StrictMath.toRadians(x);
+            }
+        }
+
+        private double apply(final double x, final double y) {
+            switch (m_name) {
+            case "atan2": return Math.atan2(x, y);
+            case "hypot": return Math.hypot(x, y);
+            case "max": return Math.max(x, y);
+            case "min": return Math.min(x, y);
+            default: return Math.pow(x, y);
+            }
+        }
+
+        private double applyStrict(final double x, final double y) {
+            switch (m_name) {
+            case "atan2": return StrictMath.atan2(x, y);
+            case "hypot": return StrictMath.hypot(x, y);
+            case "max": return StrictMath.max(x, y);
+            case "min": return StrictMath.min(x, y);
+            default: return StrictMath.pow(x, y);
+            }
+        }
+    }
+
+    /**
+     * Resolves the identifiers used in an expression the same way the JEXL
+     * context of the {@link JEXLExpressionEngine} does: sources first, then
+     * the timestamp, earlier expressions, the infinity constants and
+     * finally the constants returned by the fetch.
+     */
+    private static final class Scope {
+        private final String m_labels[];
+        private final Map<String, double[]> m_columns;
+        private final Map<String, Object> m_constants;
+
+        private Scope(final String labels[], final Map<String, double[]> columns, final Map<String, Object> constants) {
+            m_labels = labels;
+            m_columns = columns;
+            m_constants = constants;
+        }
+
+        private Node resolve(final String identifier, final int expressionIndex) throws UnsupportedExpressionException {
+            final double column[] = m_columns.get(identifier);
+            if (column != null) {
+                return new SourceNode(column);
+            }
+            if ("timestamp".equals(identifier)) {
+                return new TimestampNode();
+            }
+            for (int j = expressionIndex - 1; j >= 0; j--) {
+                if (identifier.equals(m_labels[j])) {
+                    return new ExpressionNode(j);
+                }
+            }
+            if ("__inf".equals(identifier)) {
+                return ConstantNode.of(Double.POSITIVE_INFINITY);
+            }
+            if ("__neg_inf".equals(identifier)) {
+                return ConstantNode.of(Double.NEGATIVE_INFINITY);
+            }
+
+            final Object constant = m_constants.get(identifier);
+            if (constant instanceof Double) {
+                return ConstantNode.of(((Double)constant).doubleValue());
+            } else if (constant instanceof Float) {
+                return ConstantNode.of(toJexlDouble((Float)constant));
+            } else if (constant instanceof Long || constant instanceof Integer || constant instanceof Short || constant instanceof Byte) {
+                return ConstantNode.of(((Number)constant).longValue());
+            }
+            throw new UnsupportedExpressionException("identifier '" + identifier + "'"
+                    + (constant == null ? "" : " of type " + constant.getClass().getSimpleName()));
+        }
+    }
+
+    /**
+     * A recursive descent parser for the supported subset of JEXL, using
+     * the precedence of the JEXL grammar.  Only called for expressions
+     * JEXL has already parsed successfully.
+     */
+    private static final class Parser {
+        private final String m_text;
+        private final Scope m_scope;
+        private final int m_expressionIndex;
+        private int m_pos = 0;
+
+        private Parser(final String text, final Scope scope, final int expressionIndex) {
+            m_text = text;
+            m_scope = scope;
+            m_expressionIndex = expressionIndex;
+        }
+
+        private Node parse() throws UnsupportedExpressionException {
+            final Node node = ternary();
+            skipWhitespace();
+            if (m_pos < m_text.length()) {
+                throw new UnsupportedExpressionException("unsupported syntax at '" + m_text.substring(m_pos) + "'");
+            }
+            return node;
+        }
+
+        private Node ternary() throws UnsupportedExpressionException {
+            final Node condition = or();
+            if (!accept("?")) {
+                return condition;
+            }
+            final Node thenNode = ternary();
+            expect(":");
+            final Node elseNode = ternary();
+            return new TernaryNode(condition, thenNode, elseNode);
+        }
+
+        private Node or() throws UnsupportedExpressionException {
+            Node node = and();
+            while (accept("||") || acceptWord("or")) {
+                node = new LogicalNode(false, node, and());
+            }
+            return node;
+        }
+
+        private Node and() throws UnsupportedExpressionException {
+            Node node = equality();
+            while (accept("&&") || acceptWord("and")) {
+                node = new LogicalNode(true, node, equality());
+            }
+            return node;
+        }
+
+        private Node equality() throws UnsupportedExpressionException {
+            Node node = relational();
+            while (true) {
+                if (accept("==") || acceptWord("eq")) {
+                    node = new ComparisonNode(ComparisonNode.EQ, node, relational());
+                } else if (accept("!=") || acceptWord("ne")) {
+                    node = new ComparisonNode(ComparisonNode.NE, node, relational());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node relational() throws UnsupportedExpressionException {
+            Node node = additive();
+            while (true) {
+                if (accept("<=") || acceptWord("le")) {
+                    node = new ComparisonNode(ComparisonNode.LE, node, additive());
+                } else if (accept(">=") || acceptWord("ge")) {
+                    node = new ComparisonNode(ComparisonNode.GE, node, additive());
+                } else if (accept("<") || acceptWord("lt")) {
+                    node = new ComparisonNode(ComparisonNode.LT, node, additive());
+                } else if (accept(">") || acceptWord("gt")) {
+                    node = new ComparisonNode(ComparisonNode.GT, node, additive());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node additive() throws UnsupportedExpressionException {
+            Node node = multiplicative();
+            while (true) {
+                if (accept("+")) {
+                    node = new ArithmeticNode('+', node, multiplicative());
+                } else if (accept("-")) {
+                    node = new ArithmeticNode('-', node, multiplicative());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node multiplicative() throws UnsupportedExpressionException {
+            Node node = unary();
+            while (true) {
+                if (accept("*")) {
+                    node = new ArithmeticNode('*', node, unary());
+                } else if (accept("/") || acceptWord("div")) {
+                    node = new ArithmeticNode('/', node, unary());
+                } else if (accept("%") || acceptWord("mod")) {
+                    node = new ArithmeticNode('%', node, unary());
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node unary() throws UnsupportedExpressionException {
+            if (accept("-")) {
+                return new NegateNode(unary());
+            }
+            skipWhitespace();
+            if ((!lookingAt("!=") && accept("!")) || acceptWord("not")) {
+                return new NotNode(unary());
+            }
+            return primary();
+        }
+
+        private Node primary() throws UnsupportedExpressionException {
+            skipWhitespace();
+            if (m_pos >= m_text.length()) {
+                throw new UnsupportedExpressionException("unexpected end of expression");
+            }
+
+            final char c = m_text.charAt(m_pos);
+            if (c == '(') {
+                m_pos++;
+                final Node node = ternary();
+                expect(")");
+                return node;
+            } else if (Character.isDigit(c)) {
+                return number();
+            } else if (isIdentifierStart(c)) {
+                final String identifier = identifier();
+                if ("true".equals(identifier)) {
+                    return ConstantNode.of(true);
+                } else if ("false".equals(identifier)) {
+                    return ConstantNode.of(false);
+                } else if (UNSUPPORTED_KEYWORDS.contains(identifier)) {
+                    throw new UnsupportedExpressionException("keyword '" + identifier + "'");
+                } else if (("math".equals(identifier) || "strictmath".equals(identifier)) && lookingAt(":")) {
+                    return function(identifier);
+                }
+                return m_scope.resolve(identifier, m_expressionIndex);
+            }
+            throw new UnsupportedExpressionException("unsupported syntax at '" + m_text.substring(m_pos) + "'");
+        }
+
+        private Node function(final String namespace) throws UnsupportedExpressionException {
+            m_pos++;
+            if (m_pos >= m_text.length() || !isIdentifierStart(m_text.charAt(m_pos))) {
+                throw new UnsupportedExpressionException("function without a name");
+            }
+            final String name = identifier();
+            expect("(");
+            final List<Node> arguments = new ArrayList<Node>(2);
+            if (!accept(")")) {
+                do {
+                    arguments.add(ternary());
+                } while (accept(","));
+                expect(")");
+            }
+            return new FunctionNode(namespace, name, arguments);
+        }
+
+        /**
+         * Integers are typed like JEXL types them.  Reals without a suffix
+         * are {@link Float}s in JEXL, and are converted to doubles the way
+         * its arithmetic does.
+         */
+        private Node number() throws UnsupportedExpressionException {
+            final int start = m_pos;
+            while (m_pos < m_text.length() && Character.isDigit(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+
+            boolean real = false;
+            if (m_pos + 1 < m_text.length() && m_text.charAt(m_pos) == '.' && Character.isDigit(m_text.charAt(m_pos + 1))) {
+                real = true;
+                m_pos++;
+                while (m_pos < m_text.length() && Character.isDigit(m_text.charAt(m_pos))) {
+                    m_pos++;
+                }
+                if (m_pos < m_text.length() && (m_text.charAt(m_pos) == 'e' || m_text.charAt(m_pos) == 'E')) {
+                    m_pos++;
+                    if (m_pos < m_text.length() && (m_text.charAt(m_pos) == '+' || m_text.charAt(m_pos) == '-')) {
+                        m_pos++;
+                    }
+                    final int exponentStart = m_pos;
+                    while (m_pos < m_text.length() && Character.isDigit(m_text.charAt(m_pos))) {
+                        m_pos++;
+                    }
+                    if (m_pos == exponentStart) {
+                        throw new UnsupportedExpressionException("malformed number");
+                    }
+                }
+            }
+
+            final String digits = m_text.substring(start, m_pos);
+            final char suffix = m_pos < m_text.length() ? m_text.charAt(m_pos) : ' ';
+            if (real && (suffix == 'd' || suffix == 'D')) {
+                m_pos++;
+            } else if (suffix == 'f' || suffix == 'F' || (!real && (suffix == 'l' || suffix == 'L'))) {
+                m_pos++;
+            }
+            if (m_pos < m_text.length() && (isIdentifierPart(m_text.charAt(m_pos)) || m_text.charAt(m_pos) == '.')) {
+                throw new UnsupportedExpressionException("unsupported number '" + m_text.substring(start) + "'");
+            }
+
+            if (real) {
+                if (suffix == 'd' || suffix == 'D') {
+                    return ConstantNode.of(Double.parseDouble(digits));
+                }
+                return ConstantNode.of(toJexlDouble(Float.valueOf(digits)));
+            } else if (suffix == 'f' || suffix == 'F') {
+                // an integer with a real suffix is parsed differently by JEXL
+                throw new UnsupportedExpressionException("unsupported number '" + digits + suffix + "'");
+            } else if (digits.length() > 1 && digits.charAt(0) == '0') {
+                // octal
+                throw new UnsupportedExpressionException("unsupported number '" + digits + "'");
+            }
+            try {
+                return ConstantNode.of(Long.parseLong(digits));
+            } catch (final NumberFormatException e) {
+                throw new UnsupportedExpressionException("number out of range '" + digits + "'");
+            }
+        }
+
+        private String identifier() {
+            final int start = m_pos;
+            while (m_pos < m_text.length() && isIdentifierPart(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+            return m_text.substring(start, m_pos);
+        }
+
+        private static boolean isIdentifierStart(final char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private static boolean isIdentifierPart(final char c) {
+            return isIdentifierStart(c) || (c >= '0' && c <= '9');
+        }
+
+        private void skipWhitespace() {
+            while (m_pos < m_text.length() && Character.isWhitespace(m_text.charAt(m_pos))) {
+                m_pos++;
+            }
+        }
+
+        private boolean lookingAt(final String token) {
+            return m_text.startsWith(token, m_pos);
+        }
+
+        private boolean accept(final String token) {
+            skipWhitespace();
+            if (m_text.startsWith(token, m_pos)) {
+                m_pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptWord(final String word) {
+            skipWhitespace();
+            final int end = m_pos + word.length();
+            if (m_text.startsWith(word, m_pos) && (end >= m_text.length() || !isIdentifierPart(m_text.charAt(end)))) {
+                m_pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final String token) throws UnsupportedExpressionException {
+            if (!accept(token)) {
+                throw new UnsupportedExpressionException("expected '" + token + "'");
+            }
+        }
+    }
+}
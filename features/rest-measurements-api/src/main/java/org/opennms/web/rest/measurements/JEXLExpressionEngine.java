@@ -24,14 +24,21 @@ public class JEXLExpressionEngine implements ExpressionEngine {
     /**
      * Use a single instance of the JEXL engine, which is thread-safe.
      */
-    private final JexlEngine jexl = new JexlEngine();
+    private final JexlEngine jexl = newJexlEngine();
+
+    /**
+     * Creates a JEXL engine with the functions that are available
+     * to the expressions.
+     */
+    static JexlEngine newJexlEngine() {
+        final JexlEngine jexl = new JexlEngine();
 
-    public JEXLExpressionEngine() {
         // Add additional functions to the engine
         Map<String, Object> functions = Maps.newHashMap();
         functions.put("math", Math.class);
         functions.put("strictmath", StrictMath.class);
         jexl.setFunctions(functions);
+        return jexl;
     }
 
     /**
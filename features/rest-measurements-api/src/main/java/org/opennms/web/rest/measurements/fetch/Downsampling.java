@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements.fetch;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Reduces fetched measurements to a maximum number of rows.
+ *
+ * All of the columns share the same timestamps, so the rows to keep are
+ * chosen for all of the columns at once.
+ */
+public enum Downsampling {
+
+    /**
+     * Keeps all of the rows.
+     */
+    NONE {
+        @Override
+        public FetchResults downsample(final FetchResults results, final int maxRows) {
+            return results;
+        }
+    },
+
+    /**
+     * Largest-Triangle-Three-Buckets: splits the rows into buckets and keeps
+     * the row of each bucket that forms the largest triangle with the row
+     * kept for the previous bucket and the average of the next bucket.  The
+     * areas of the columns are scaled by the range of each column and added
+     * up, so that every column has the same weight.  The first and the last
+     * rows are always kept.
+     */
+    LTTB {
+        @Override
+        public FetchResults downsample(final FetchResults results, final int maxRows) {
+            final long[] timestamps = results.getTimestamps();
+            final int numRows = timestamps.length;
+            if (maxRows <= 0 || numRows <= maxRows) {
+                return results;
+            }
+            if (maxRows < 3) {
+                return select(results, maxRows == 1 ? new int[] { 0 } : new int[] { 0, numRows - 1 });
+            }
+
+            final double[][] columns = results.getColumns().values().toArray(new double[0][]);
+            final double[] scales = new double[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                scales[c] = range(columns[c]);
+            }
+
+            final int[] selected = new int[maxRows];
+            final double[] averages = new double[columns.length];
+            final double every = (double) (numRows - 2) / (maxRows - 2);
+
+            int a = 0;
+            selected[0] = 0;
+            for (int i = 0; i < maxRows - 2; i++) {
+                // average of the next bucket
+                final int averageStart = (int) Math.floor((i + 1) * every) + 1;
+                final int averageEnd = Math.min((int) Math.floor((i + 2) * every) + 1, numRows);
+                double averageX = 0;
+                for (int j = averageStart; j < averageEnd; j++) {
+                    averageX += timestamps[j];
+                }
+                averageX /= averageEnd - averageStart;
+                for (int c = 0; c < columns.length; c++) {
+                    averages[c] = average(columns[c], averageStart, averageEnd);
+                }
+
+                // the row of this bucket forming the largest triangle
+                final int rangeStart = (int) Math.floor(i * every) + 1;
+                final int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+                final double ax = timestamps[a];
+                double maxArea = -1;
+                int next = rangeStart;
+                for (int j = rangeStart; j < rangeEnd; j++) {
+                    double area = 0;
+                    for (int c = 0; c < columns.length; c++) {
+                        final double ay = columns[c][a];
+                        final double y = columns[c][j];
+                        final double triangle = Math.abs((ax - averageX) * (y - ay) - (ax - timestamps[j]) * (averages[c] - ay)) / scales[c];
+                        // NaN values don't contribute
+                        if (!Double.isNaN(triangle)) {
+                            area += triangle;
+                        }
+                    }
+                    if (area > maxArea) {
+                        maxArea = area;
+                        next = j;
+                    }
+                }
+                selected[i + 1] = next;
+                a = next;
+            }
+            selected[maxRows - 1] = numRows - 1;
+            return select(results, selected);
+        }
+    },
+
+    /**
+     * Splits the rows into <code>maxRows / 2</code> buckets and replaces
+     * each bucket with two rows, the minimum of every column at the time of
+     * the first row of the bucket and the maximum at the time of the last.
+     * This keeps the peaks and valleys of every column, which a single
+     * sample per bucket can miss.
+     */
+    MINMAX {
+        @Override
+        public FetchResults downsample(final FetchResults results, final int maxRows) {
+            final long[] timestamps = results.getTimestamps();
+            final int numRows = timestamps.length;
+            if (maxRows <= 0 || numRows <= maxRows) {
+                return results;
+            }
+
+            final int numBuckets = Math.max(1, maxRows / 2);
+            final long[] newTimestamps = new long[numBuckets * 2];
+            final Map<String, double[]> newColumns = Maps.newHashMapWithExpectedSize(results.getColumns().size());
+            for (final String label : results.getColumns().keySet()) {
+                newColumns.put(label, new double[newTimestamps.length]);
+            }
+
+            int row = 0;
+            for (int b = 0; b < numBuckets; b++) {
+                final int start = (int) ((long) b * numRows / numBuckets);
+                final int end = (int) ((long) (b + 1) * numRows / numBuckets);
+                final boolean single = end - start == 1;
+
+                newTimestamps[row] = timestamps[start];
+                if (!single) {
+                    newTimestamps[row + 1] = timestamps[end - 1];
+                }
+                for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+                    final double[] values = column.getValue();
+                    final double[] newValues = newColumns.get(column.getKey());
+                    double min = Double.NaN;
+                    double max = Double.NaN;
+                    for (int j = start; j < end; j++) {
+                        if (!Double.isNaN(values[j])) {
+                            min = Double.isNaN(min) ? values[j] : Math.min(min, values[j]);
+                            max = Double.isNaN(max) ? values[j] : Math.max(max, values[j]);
+                        }
+                    }
+                    newValues[row] = min;
+                    if (!single) {
+                        newValues[row + 1] = max;
+                    }
+                }
+                row += single ? 1 : 2;
+            }
+
+            return trim(results, newTimestamps, newColumns, row);
+        }
+    };
+
+    /**
+     * Reduces the results to at most the given number of rows.
+     *
+     * @param maxRows the maximum number of rows, no limit when <= 0
+     * @return the given results when there's nothing to do, new results otherwise
+     */
+    public abstract FetchResults downsample(FetchResults results, int maxRows);
+
+    /**
+     * Returns the method with the given name, or {@link #NONE} when the
+     * name is <code>null</code> or unknown.
+     */
+    public static Downsampling fromString(final String name) {
+        if (name != null) {
+            for (final Downsampling downsampling : values()) {
+                if (downsampling.name().equalsIgnoreCase(name.trim())) {
+                    return downsampling;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    private static FetchResults select(final FetchResults results, final int[] rows) {
+        final long[] timestamps = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            timestamps[i] = results.getTimestamps()[rows[i]];
+        }
+
+        final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(results.getColumns().size());
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            final double[] values = new double[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                values[i] = column.getValue()[rows[i]];
+            }
+            columns.put(column.getKey(), values);
+        }
+        return new FetchResults(timestamps, columns, step(results, rows.length), results.getConstants());
+    }
+
+    private static FetchResults trim(final FetchResults results, final long[] timestamps, final Map<String, double[]> columns, final int numRows) {
+        if (numRows == timestamps.length) {
+            return new FetchResults(timestamps, columns, step(results, numRows), results.getConstants());
+        }
+
+        final long[] trimmedTimestamps = new long[numRows];
+        System.arraycopy(timestamps, 0, trimmedTimestamps, 0, numRows);
+        final Map<String, double[]> trimmedColumns = Maps.newHashMapWithExpectedSize(columns.size());
+        for (final Map.Entry<String, double[]> column : columns.entrySet()) {
+            final double[] values = new double[numRows];
+            System.arraycopy(column.getValue(), 0, values, 0, numRows);
+            trimmedColumns.put(column.getKey(), values);
+        }
+        return new FetchResults(trimmedTimestamps, trimmedColumns, step(results, numRows), results.getConstants());
+    }
+
+    /**
+     * The average step between the remaining rows.
+     */
+    private static long step(final FetchResults results, final int numRows) {
+        final int originalRows = results.getTimestamps().length;
+        if (numRows <= 1 || originalRows <= 1) {
+            return results.getStep();
+        }
+        return results.getStep() * (originalRows - 1) / (numRows - 1);
+    }
+
+    private static double range(final double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (final double value : values) {
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        // columns without a range still count, but don't need scaling
+        return max > min ? max - min : 1.0d;
+    }
+
+    private static double average(final double[] values, final int start, final int end) {
+        double sum = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (!Double.isNaN(values[i])) {
+                sum += values[i];
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : Double.NaN;
+    }
+}
@@ -28,6 +28,9 @@
 
 package org.opennms.web.rest.measurements.fetch;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.rrd.MultiOutputRrdStrategy;
 import org.opennms.netmgt.rrd.QueuingRrdStrategy;
@@ -35,6 +38,7 @@ import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
 import org.opennms.netmgt.rrd.rrdtool.JniRrdStrategy;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -44,23 +48,67 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @author Jesse White <jesse@opennms.org>
  * @author Dustin Frisch <fooker@lab.sh>
  */
-public class MeasurementFetchStrategyFactory {
+public class MeasurementFetchStrategyFactory implements DisposableBean {
+
+    /**
+     * Set to true to read the JRB files in parallel with the
+     * {@link ParallelJrobinFetchStrategy}.
+     */
+    public static final String JROBIN_PARALLEL_PROPERTY = "org.opennms.web.rest.measurements.jrobin.parallel";
+
+    /**
+     * The number of threads used to read the JRB files in parallel.
+     */
+    public static final String JROBIN_THREADS_PROPERTY = "org.opennms.web.rest.measurements.jrobin.threads";
+
+    /**
+     * The {@link Downsampling} used to reduce the rows read in parallel to maxrows.
+     */
+    public static final String DOWNSAMPLING_PROPERTY = "org.opennms.web.rest.measurements.downsampling";
 
     @Autowired
     private ResourceDao m_resourceDao;
 
+    /**
+     * The parallel strategies created by this factory, which own threads.
+     */
+    private final List<ParallelJrobinFetchStrategy> m_parallelStrategies = new ArrayList<ParallelJrobinFetchStrategy>();
+
 	public MeasurementFetchStrategy getFetchStrategy() {
 		RrdStrategy<?, ?> strategy = findRrdStrategy();
 
 		if (strategy instanceof JniRrdStrategy) {
 			return new RrdtoolXportFetchStrategy(m_resourceDao);
         } else if (strategy instanceof JRobinRrdStrategy) {
+            if (Boolean.getBoolean(JROBIN_PARALLEL_PROPERTY)) {
+                final ParallelJrobinFetchStrategy parallelStrategy = new ParallelJrobinFetchStrategy(m_resourceDao,
+                        Integer.getInteger(JROBIN_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                        Downsampling.fromString(System.getProperty(DOWNSAMPLING_PROPERTY, Downsampling.LTTB.name())));
+                synchronized (m_parallelStrategies) {
+                    m_parallelStrategies.add(parallelStrategy);
+                }
+                return parallelStrategy;
+            }
 		return new JrobinFetchStrategy(m_resourceDao);
         } else {
             throw new RuntimeException("Unsupported RRD strategy: " + strategy.getClass());
         }
 	}
 
+    /**
+     * Stops the threads of the parallel strategies, which are created
+     * through a factory method and aren't destroyed by the container.
+     */
+    @Override
+    public void destroy() {
+        synchronized (m_parallelStrategies) {
+            for (final ParallelJrobinFetchStrategy parallelStrategy : m_parallelStrategies) {
+                parallelStrategy.destroy();
+            }
+            m_parallelStrategies.clear();
+        }
+    }
+
 	private static RrdStrategy<?, ?> findRrdStrategy() {
         return findRrdStrategy(RrdUtils.getStrategy());
     }
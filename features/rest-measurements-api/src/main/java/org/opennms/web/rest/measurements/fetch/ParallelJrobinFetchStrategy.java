@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements.fetch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jrobin.core.RrdException;
+import org.jrobin.data.DataProcessor;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.netmgt.dao.api.ResourceDao;
+import org.opennms.web.rest.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Used to fetch measurements from JRB files, reading the files in parallel.
+ *
+ * The {@link JrobinFetchStrategy} adds every source to a single
+ * {@link DataProcessor}, which reads the files one after another.  This
+ * strategy uses a {@link DataProcessor} per file instead, and runs them on a
+ * bounded thread pool that is shared by all of the requests.
+ *
+ * Each file is read with the fetch resolution and pixel count that the
+ * {@link JrobinFetchStrategy} uses, at the resolution of its archive.  The
+ * results are then aligned to the smallest step of all of the files,
+ * averaging the values over the time they cover like JRobin does when it
+ * combines files, and reduced to <code>maxrows</code> with the configured
+ * {@link Downsampling}.
+ *
+ * The threads of the pool are stopped by {@link #destroy()}, which the
+ * {@link MeasurementFetchStrategyFactory} calls when it is destroyed.
+ */
+public class ParallelJrobinFetchStrategy extends AbstractRrdBasedFetchStrategy {
+
+    private final ExecutorService m_executor;
+
+    private final Downsampling m_downsampling;
+
+    public ParallelJrobinFetchStrategy(final ResourceDao resourceDao, final int threads, final Downsampling downsampling) {
+        super(resourceDao);
+        final int poolSize = Math.max(1, threads);
+        m_executor = Executors.newFixedThreadPool(poolSize,
+                new LogPreservingThreadFactory(ParallelJrobinFetchStrategy.class.getSimpleName(), poolSize));
+        m_downsampling = downsampling;
+    }
+
+    /**
+     * Stops the threads used to read the files once the fetches that are
+     * in progress are done.  Fetches can't be made after this.
+     */
+    public void destroy() {
+        m_executor.shutdown();
+    }
+
+    /**
+     * The values of all of the sources read from a single file.
+     */
+    private static class FileResults {
+        private final long[] m_timestamps;
+        private final long m_step;
+        private final Map<String, double[]> m_columns;
+
+        private FileResults(final long[] timestamps, final long step, final Map<String, double[]> columns) {
+            m_timestamps = timestamps;
+            m_step = step;
+            m_columns = columns;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected FetchResults fetchMeasurements(long start, long end, long step, int maxrows,
+            Map<Source, String> rrdsBySource, Map<String, Object> constants) throws RrdException {
+
+        final long startInSeconds = (long) Math.floor(start / 1000);
+        final long endInSeconds = (long) Math.floor(end / 1000);
+
+        long stepInSeconds = (long) Math.floor(step / 1000);
+        // The step must be strictly positive
+        if (stepInSeconds <= 0) {
+            stepInSeconds = 1;
+        }
+
+        // Read every file once, even if it's used by multiple sources
+        final Map<String, List<Source>> sourcesByRrd = Maps.newLinkedHashMap();
+        for (final Map.Entry<Source, String> entry : rrdsBySource.entrySet()) {
+            List<Source> sources = sourcesByRrd.get(entry.getValue());
+            if (sources == null) {
+                sources = Lists.newArrayList();
+                sourcesByRrd.put(entry.getValue(), sources);
+            }
+            sources.add(entry.getKey());
+        }
+
+        final List<Future<FileResults>> futures = Lists.newArrayListWithCapacity(sourcesByRrd.size());
+        for (final Map.Entry<String, List<Source>> entry : sourcesByRrd.entrySet()) {
+            futures.add(m_executor.submit(fetchFile(startInSeconds, endInSeconds, stepInSeconds, maxrows, entry.getKey(), entry.getValue())));
+        }
+
+        final List<FileResults> fileResults = Lists.newArrayListWithCapacity(futures.size());
+        try {
+            for (final Future<FileResults> future : futures) {
+                fileResults.add(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RrdException("Interrupted while waiting for the JRB files to be read.", e);
+        } catch (final ExecutionException e) {
+            throw new RrdException("JRB processing failed.", e.getCause());
+        } finally {
+            for (final Future<FileResults> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        // Align all of the files to the finest step, like the DataProcessor does
+        FileResults finest = null;
+        for (final FileResults results : fileResults) {
+            if (finest == null || results.m_step < finest.m_step) {
+                finest = results;
+            }
+        }
+        final long commonStep = finest != null ? finest.m_step : stepInSeconds;
+        final long[] timestamps = finest != null ? finest.m_timestamps.clone()
+                : createTimestamps(startInSeconds, endInSeconds, commonStep);
+
+        final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(rrdsBySource.size());
+        for (final FileResults results : fileResults) {
+            for (final Map.Entry<String, double[]> column : results.m_columns.entrySet()) {
+                columns.put(column.getKey(), align(results.m_timestamps, column.getValue(), results.m_step, timestamps, commonStep));
+            }
+        }
+
+        // Convert the timestamps to milliseconds
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] *= 1000;
+        }
+
+        return m_downsampling.downsample(new FetchResults(timestamps, columns, commonStep * 1000, constants), maxrows);
+    }
+
+    private static Callable<FileResults> fetchFile(final long start, final long end, final long step, final int maxrows, final String rrdFile, final List<Source> sources) {
+        return new Callable<FileResults>() {
+            @Override
+            public FileResults call() throws IOException, RrdException {
+                // process every file like the JrobinFetchStrategy processes all of them
+                final DataProcessor dproc = new DataProcessor(start, end);
+                if (maxrows > 0) {
+                    dproc.setPixelCount(maxrows);
+                }
+                dproc.setFetchRequestResolution(step);
+                for (final Source source : sources) {
+                    dproc.addDatasource(source.getLabel(), rrdFile, source.getAttribute(),
+                            source.getAggregation());
+                }
+                dproc.processData();
+
+                final Map<String, double[]> columns = Maps.newHashMapWithExpectedSize(sources.size());
+                for (final Source source : sources) {
+                    columns.put(source.getLabel(), dproc.getValues(source.getLabel()));
+                }
+                return new FileResults(dproc.getTimestamps(), dproc.getStep(), columns);
+            }
+        };
+    }
+
+    /**
+     * Creates the timestamps for the given range and step, the same way the
+     * {@link DataProcessor} does.
+     */
+    static long[] createTimestamps(final long start, final long end, final long step) {
+        final long t1 = start - start % step;
+        long t2 = end - end % step;
+        if (t2 < end) {
+            t2 += step;
+        }
+        final int count = (int) (((t2 - t1) / step) + 1);
+        final long[] timestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = t1 + i * step;
+        }
+        return timestamps;
+    }
+
+    /**
+     * Maps the values onto the given timestamps.  Every value covers the
+     * interval (timestamp - step, timestamp], and the new value for each
+     * timestamp is the average of the known values weighted by how much of
+     * its interval they cover.
+     */
+    static double[] align(final long[] timestamps, final double[] values, final long step,
+            final long[] newTimestamps, final long newStep) {
+        if (step == newStep && timestamps.length == newTimestamps.length
+                && (timestamps.length == 0 || timestamps[0] == newTimestamps[0])) {
+            return values;
+        }
+
+        final double[] newValues = new double[newTimestamps.length];
+        int j = 0;
+        for (int i = 0; i < newTimestamps.length; i++) {
+            final long newEnd = newTimestamps[i];
+            final long newStart = newEnd - newStep;
+
+            // skip the values that end before this interval begins
+            while (j < timestamps.length && timestamps[j] <= newStart) {
+                j++;
+            }
+
+            double sum = 0;
+            long covered = 0;
+            for (int k = j; k < timestamps.length && timestamps[k] - step < newEnd; k++) {
+                final long overlap = Math.min(newEnd, timestamps[k]) - Math.max(newStart, timestamps[k] - step);
+                if (overlap > 0 && !Double.isNaN(values[k])) {
+                    sum += values[k] * overlap;
+                    covered += overlap;
+                }
+            }
+            newValues[i] = covered > 0 ? sum / covered : Double.NaN;
+        }
+        return newValues;
+    }
+}
@@ -0,0 +1,254 @@
+package org.opennms.web.rest.measurements;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.web.rest.measurements.fetch.FetchResults;
+import org.opennms.web.rest.measurements.model.Expression;
+import org.opennms.web.rest.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the {@link ColumnarExpressionEngine} returns exactly the
+ * same values as the {@link JEXLExpressionEngine}.
+ */
+public class ColumnarExpressionEngineTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarExpressionEngineTest.class);
+
+    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    private final ExpressionEngine columnarExpressionEngine = new ColumnarExpressionEngine();
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        columnarExpressionEngine.applyExpressions(request(expression("y", "/")), results(10));
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        columnarExpressionEngine.applyExpressions(request(expression("y", "x > 1")), results(10));
+    }
+
+    @Test
+    public void canPerformArithmetic() throws ExpressionException {
+        assertSameResults(
+                expression("a", "x * 5 + 7"),
+                expression("b", "x - y / 3"),
+                expression("c", "(x + y) * (x - y) % 11"),
+                expression("d", "-x + -(y * 2)"),
+                expression("e", "x div 4 + y mod 3"),
+                expression("f", "x / 0.1 + y * 0.123456789 - 1.5d + 2.5f"),
+                expression("g", "x * 1.5 + 7l"));
+    }
+
+    @Test
+    public void canPerformIntegerArithmetic() throws ExpressionException {
+        assertSameResults(
+                expression("a", "timestamp / 1000"),
+                expression("b", "timestamp % 7000 - 3"),
+                expression("c", "timestamp * 3 / 7 + 2147483647 * 3"),
+                expression("d", "timestamp / 125.0d"),
+                expression("e", "9223372036854775807 + timestamp"),
+                expression("f", "-timestamp % 3"),
+                expression("g", "timestamp / (timestamp - 5000)"));
+    }
+
+    @Test
+    public void canDivideByZero() throws ExpressionException {
+        assertSameResults(
+                expression("a", "y / x"),
+                expression("b", "x == 0 ? 0 : y / x"),
+                expression("c", "y % (x - 2)"),
+                expression("d", "x / __inf + __neg_inf"));
+    }
+
+    @Test
+    public void canCompareAndBranch() throws ExpressionException {
+        assertSameResults(
+                expression("a", "x > y ? x : y"),
+                expression("b", "x >= 5 && y < 10 || x == y ? 1 : 0"),
+                expression("c", "!(x <= 3) && x != 7 ? x : -1"),
+                expression("d", "x gt 3 and not (y le 2) ? x : (x eq 1 ? 2 : 3)"),
+                expression("e", "x == x ? 1 : 0"),
+                expression("f", "z < 1 ? z : x"),
+                expression("g", "timestamp > 5000 ? timestamp : 0"));
+    }
+
+    @Test
+    public void canHandleNaN() throws ExpressionException {
+        assertSameResults(
+                expression("a", "z * 2 + x"),
+                expression("b", "z > 0 ? 1 : 2"),
+                expression("c", "z == z ? z : 0"),
+                expression("d", "z != 0 && x > 1 ? 3 : 4"));
+    }
+
+    @Test
+    public void canCallFunctions() throws ExpressionException {
+        assertSameResults(
+                expression("a", "math:sin(x) + math:cos(y)"),
+                expression("b", "strictmath:pow(x, 0.5d) + math:max(x, y)"),
+                expression("c", "math:abs(-x * 1.0d) + math:sqrt(y)"),
+                expression("d", "math:abs(timestamp)"),
+                expression("e", "math:round(x * 0.3)"));
+    }
+
+    @Test
+    public void canReferenceEarlierExpressions() throws ExpressionException {
+        assertSameResults(
+                expression("a", "x * 8", true),
+                expression("b", "a + y"),
+                expression("x", "b * 2"),
+                expression("c", "x + a"));
+    }
+
+    @Test
+    public void canReferenceConstants() throws ExpressionException {
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("longSpeed", 100000000000L);
+        constants.put("ratio", 0.62137d);
+        constants.put("floatRatio", 0.62137f);
+        constants.put("stringSpeed", "1000");
+        constants.put("__inf", 5);
+
+        assertSameResults(constants,
+                expression("a", "speed / 0.62137"),
+                expression("b", "speed / 3 + longSpeed / 7"),
+                expression("c", "x * ratio + y * floatRatio"),
+                expression("d", "x * 8 / stringSpeed"),
+                expression("e", "speed > x ? __inf : 0"));
+    }
+
+    @Test
+    public void canFallBackForOrderDependentExpressions() throws ExpressionException {
+        // b is only defined on the first row because of the constant
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("b", 1);
+        assertSameResults(constants,
+                expression("a", "x + b"),
+                expression("b", "y * 2"));
+        assertSameResults(
+                expression("a", "x + 1"),
+                expression("a", "a * 2"));
+    }
+
+    @Test
+    public void canFallBackForUnsupportedConstructs() throws ExpressionException {
+        assertSameResults(
+                expression("a", "x > 3 ? 1 : 2.5"),
+                expression("b", "a + (x > 5 ? x : timestamp)"),
+                expression("c", "math:abs(timestamp) + a"),
+                expression("d", "x.intValue() + 1"));
+    }
+
+    /**
+     * Evaluates a larger request with both engines; the time they took is
+     * only logged, since it depends on the load of the machine.
+     */
+    @Test
+    public void canEvaluateManyRows() throws ExpressionException {
+        final int rows = 50000;
+        final Expression[] expressions = new Expression[10];
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = expression("e" + i, "x * " + (i + 1) + " + y / 8.0d - (x > y ? x : y)");
+        }
+
+        assertSameResults(rows, Maps.<String, Object>newHashMap(), expressions);
+
+        long start = System.nanoTime();
+        jexlExpressionEngine.applyExpressions(request(expressions), results(rows));
+        final long jexlNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        columnarExpressionEngine.applyExpressions(request(expressions), results(rows));
+        final long columnarNanos = System.nanoTime() - start;
+
+        LOG.debug("{} expressions over {} rows: JEXL {}ms, columnar {}ms",
+                expressions.length, rows, jexlNanos / 1000000, columnarNanos / 1000000);
+    }
+
+    private void assertSameResults(final Expression... expressions) throws ExpressionException {
+        assertSameResults(Maps.<String, Object>newHashMap(), expressions);
+    }
+
+    private void assertSameResults(final Map<String, Object> constants, final Expression... expressions) throws ExpressionException {
+        assertSameResults(100, constants, expressions);
+    }
+
+    private void assertSameResults(final int numRows, final Map<String, Object> constants, final Expression... expressions) throws ExpressionException {
+        final FetchResults expected = results(numRows, constants);
+        jexlExpressionEngine.applyExpressions(request(expressions), expected);
+
+        final FetchResults actual = results(numRows, constants);
+        columnarExpressionEngine.applyExpressions(request(expressions), actual);
+
+        assertEquals(expected.getColumns().keySet(), actual.getColumns().keySet());
+        for (final Map.Entry<String, double[]> column : expected.getColumns().entrySet()) {
+            final double[] actualValues = actual.getColumns().get(column.getKey());
+            assertNotNull(actualValues);
+            for (int i = 0; i < column.getValue().length; i++) {
+                // compare the bits, so that NaN and -0.0 must match as well
+                assertEquals("Value of '" + column.getKey() + "' on row " + i,
+                        Double.doubleToRawLongBits(column.getValue()[i]),
+                        Double.doubleToRawLongBits(actualValues[i]));
+            }
+        }
+    }
+
+    private static Expression expression(final String label, final String expression) {
+        return expression(label, expression, false);
+    }
+
+    private static Expression expression(final String label, final String expression, final boolean transientFlag) {
+        final Expression exp = new Expression();
+        exp.setLabel(label);
+        exp.setExpression(expression);
+        exp.setTransient(transientFlag);
+        return exp;
+    }
+
+    private static QueryRequest request(final Expression... expressions) {
+        final QueryRequest request = new QueryRequest();
+        final List<Expression> list = Lists.newArrayList(expressions);
+        request.setExpressions(list);
+        return request;
+    }
+
+    private static FetchResults results(final int numRows) {
+        return results(numRows, Maps.<String, Object>newHashMap());
+    }
+
+    /**
+     * Builds results with a counter x, random values y and a column z
+     * that is NaN on every third row.
+     */
+    private static FetchResults results(final int numRows, final Map<String, Object> constants) {
+        final Random random = new Random(42);
+        final long timestamps[] = new long[numRows];
+        final double xValues[] = new double[numRows];
+        final double yValues[] = new double[numRows];
+        final double zValues[] = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = i * 1000;
+            xValues[i] = i;
+            yValues[i] = Math.floor(random.nextDouble() * 20) - 5;
+            zValues[i] = i % 3 == 0 ? Double.NaN : random.nextDouble();
+        }
+        final Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        values.put("y", yValues);
+        values.put("z", zValues);
+        return new FetchResults(timestamps, values, 1000, constants);
+    }
+}
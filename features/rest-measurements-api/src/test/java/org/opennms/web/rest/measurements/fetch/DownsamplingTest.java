@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements.fetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class DownsamplingTest {
+
+    @Test
+    public void keepsResultsThatFit() {
+        final FetchResults results = results(100);
+        assertSame(results, Downsampling.LTTB.downsample(results, 100));
+        assertSame(results, Downsampling.MINMAX.downsample(results, 0));
+        assertSame(results, Downsampling.NONE.downsample(results, 10));
+    }
+
+    @Test
+    public void lttbKeepsEndpointsAndPeaks() {
+        final FetchResults results = results(1000);
+        final FetchResults downsampled = Downsampling.LTTB.downsample(results, 50);
+
+        final long[] timestamps = downsampled.getTimestamps();
+        assertEquals(50, timestamps.length);
+        assertEquals(0L, timestamps[0]);
+        assertEquals(999000L, timestamps[49]);
+        for (int i = 1; i < timestamps.length; i++) {
+            assertTrue(timestamps[i] > timestamps[i - 1]);
+        }
+
+        // the spike at row 500 must survive
+        boolean foundSpike = false;
+        for (final double value : downsampled.getColumns().get("x")) {
+            foundSpike |= value == 1000.0d;
+        }
+        assertTrue(foundSpike);
+        assertEquals(50, downsampled.getColumns().get("y").length);
+        assertEquals(1000L * 999 / 49, downsampled.getStep());
+    }
+
+    @Test
+    public void minMaxKeepsExtremes() {
+        final FetchResults results = results(1000);
+        final FetchResults downsampled = Downsampling.MINMAX.downsample(results, 100);
+
+        assertEquals(100, downsampled.getTimestamps().length);
+        final double[] x = downsampled.getColumns().get("x");
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (final double value : x) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        assertEquals(-1.0d, min, 0.0d);
+        assertEquals(1000.0d, max, 0.0d);
+
+        // the first bucket covers rows 0 through 19, and y is NaN on every even row
+        assertEquals(0L, downsampled.getTimestamps()[0]);
+        assertEquals(19000L, downsampled.getTimestamps()[1]);
+        assertEquals(1.0d, downsampled.getColumns().get("y")[0], 0.0d);
+        assertEquals(19.0d, downsampled.getColumns().get("y")[1], 0.0d);
+    }
+
+    @Test
+    public void canParseNames() {
+        assertEquals(Downsampling.LTTB, Downsampling.fromString("lttb"));
+        assertEquals(Downsampling.MINMAX, Downsampling.fromString(" MinMax "));
+        assertEquals(Downsampling.NONE, Downsampling.fromString("bogus"));
+        assertEquals(Downsampling.NONE, Downsampling.fromString(null));
+    }
+
+    /**
+     * A sine wave x with a spike at row 500 and a dip at row 700, and a
+     * counter y that is NaN on every even row.
+     */
+    private static FetchResults results(final int numRows) {
+        final long[] timestamps = new long[numRows];
+        final double[] x = new double[numRows];
+        final double[] y = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = i * 1000L;
+            x[i] = Math.sin(i / 10.0d);
+            y[i] = i % 2 == 0 ? Double.NaN : i;
+        }
+        if (numRows > 700) {
+            x[500] = 1000.0d;
+            x[700] = -1.0d;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("x", x);
+        columns.put("y", y);
+        return new FetchResults(timestamps, columns, 1000L, Maps.<String, Object>newHashMap());
+    }
+}
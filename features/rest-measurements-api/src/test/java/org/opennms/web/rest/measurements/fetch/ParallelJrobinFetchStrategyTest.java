@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.web.rest.measurements.fetch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.web.rest.measurements.model.Source;
+
+import com.google.common.collect.Maps;
+
+public class ParallelJrobinFetchStrategyTest {
+
+    private static final String JRB_FILE = "src/test/resources/share/jrb/snmp/1/eth0-04013f75f101/ifInOctets.jrb";
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void fetchesTheSameValuesAsTheSerialStrategy() throws Exception {
+        final Map<Source, String> rrdsBySource = sources();
+
+        final FetchResults expected = new JrobinFetchStrategy(null).fetchMeasurements(
+                1414602000000L, 1417046400000L, 1000L, 0, rrdsBySource, Maps.<String, Object>newHashMap());
+        final FetchResults actual = new ParallelJrobinFetchStrategy(null, 2, Downsampling.NONE).fetchMeasurements(
+                1414602000000L, 1417046400000L, 1000L, 0, rrdsBySource, Maps.<String, Object>newHashMap());
+
+        assertEquals(expected.getStep(), actual.getStep());
+        assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+        for (final String label : expected.getColumns().keySet()) {
+            assertArrayEquals(expected.getColumns().get(label), actual.getColumns().get(label), 0.0d);
+        }
+    }
+
+    @Test
+    public void fetchesTheSameValuesAsTheSerialStrategyWithManyRows() throws Exception {
+        final Map<Source, String> rrdsBySource = sources();
+
+        // more rows than the 600 pixels JRobin uses by default
+        final FetchResults expected = new JrobinFetchStrategy(null).fetchMeasurements(
+                1414602000000L, 1417046400000L, 300000L, 2000, rrdsBySource, Maps.<String, Object>newHashMap());
+        final ParallelJrobinFetchStrategy strategy = new ParallelJrobinFetchStrategy(null, 2, Downsampling.NONE);
+        try {
+            final FetchResults actual = strategy.fetchMeasurements(
+                    1414602000000L, 1417046400000L, 300000L, 2000, rrdsBySource, Maps.<String, Object>newHashMap());
+
+            assertEquals(expected.getStep(), actual.getStep());
+            assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+            for (final String label : expected.getColumns().keySet()) {
+                assertArrayEquals(expected.getColumns().get(label), actual.getColumns().get(label), 0.0d);
+            }
+        } finally {
+            strategy.destroy();
+        }
+    }
+
+    @Test
+    public void fetchesMultipleFiles() throws Exception {
+        // read the same data from several copies of the file, one task per file
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        for (int i = 0; i < 4; i++) {
+            final File copy = m_tempFolder.newFile("ifInOctets" + i + ".jrb");
+            Files.copy(new File(JRB_FILE).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            for (final Map.Entry<Source, String> entry : sources().entrySet()) {
+                final Source source = new Source(entry.getKey().getLabel() + i, entry.getKey().getResourceId(), entry.getKey().getAttribute(), false);
+                source.setAggregation(entry.getKey().getAggregation());
+                rrdsBySource.put(source, copy.getAbsolutePath());
+            }
+        }
+
+        final FetchResults expected = new JrobinFetchStrategy(null).fetchMeasurements(
+                1414602000000L, 1417046400000L, 1000L, 0, rrdsBySource, Maps.<String, Object>newHashMap());
+        final ParallelJrobinFetchStrategy strategy = new ParallelJrobinFetchStrategy(null, 3, Downsampling.NONE);
+        try {
+            final FetchResults actual = strategy.fetchMeasurements(
+                    1414602000000L, 1417046400000L, 1000L, 0, rrdsBySource, Maps.<String, Object>newHashMap());
+
+            assertEquals(expected.getStep(), actual.getStep());
+            assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+            assertEquals(12, actual.getColumns().size());
+            for (final String label : expected.getColumns().keySet()) {
+                assertArrayEquals(expected.getColumns().get(label), actual.getColumns().get(label), 0.0d);
+            }
+            // every copy holds the same values
+            assertArrayEquals(actual.getColumns().get("ifInOctetsAVERAGE0"), actual.getColumns().get("ifInOctetsAVERAGE3"), 0.0d);
+        } finally {
+            strategy.destroy();
+        }
+    }
+
+    @Test(expected=RejectedExecutionException.class)
+    public void cannotFetchOnceDestroyed() throws Exception {
+        final ParallelJrobinFetchStrategy strategy = new ParallelJrobinFetchStrategy(null, 2, Downsampling.NONE);
+        strategy.destroy();
+        strategy.fetchMeasurements(1414602000000L, 1417046400000L, 1000L, 0, sources(), Maps.<String, Object>newHashMap());
+    }
+
+    @Test
+    public void downsamplesToMaxRows() throws Exception {
+        final FetchResults results = new ParallelJrobinFetchStrategy(null, 2, Downsampling.LTTB).fetchMeasurements(
+                1414602000000L, 1417046400000L, 1000L, 100, sources(), Maps.<String, Object>newHashMap());
+
+        assertEquals(100, results.getTimestamps().length);
+        assertEquals(3, results.getColumns().size());
+        for (final double[] values : results.getColumns().values()) {
+            assertEquals(100, values.length);
+        }
+    }
+
+    @Test
+    public void alignsToACommonStep() {
+        // 300 second values onto a 60 second step and back
+        final long[] coarse = ParallelJrobinFetchStrategy.createTimestamps(0, 1200, 300);
+        assertArrayEquals(new long[] { 0, 300, 600, 900, 1200 }, coarse);
+        final long[] fine = ParallelJrobinFetchStrategy.createTimestamps(0, 1200, 60);
+        assertEquals(21, fine.length);
+
+        final double[] values = ParallelJrobinFetchStrategy.align(coarse, new double[] { 1, 2, Double.NaN, 4, 5 }, 300, fine, 60);
+        assertEquals(2.0d, values[1], 0.0d);
+        assertEquals(2.0d, values[5], 0.0d);
+        assertTrue(Double.isNaN(values[6]));
+        assertEquals(4.0d, values[11], 0.0d);
+
+        final double[] back = ParallelJrobinFetchStrategy.align(fine, values, 60, coarse, 300);
+        assertEquals(2.0d, back[1], 0.0d);
+        assertTrue(Double.isNaN(back[2]));
+        assertEquals(4.0d, back[3], 0.0d);
+    }
+
+    private static Map<Source, String> sources() {
+        final String rrdFile = new File(JRB_FILE).getAbsolutePath();
+        final Map<Source, String> rrdsBySource = Maps.newHashMap();
+        for (final String aggregation : new String[] { "AVERAGE", "MIN", "MAX" }) {
+            final Source source = new Source("ifInOctets" + aggregation, "node[1].interfaceSnmp[eth0-04013f75f101]", "ifInOctets", false);
+            source.setAggregation(aggregation);
+            rrdsBySource.put(source, rrdFile);
+        }
+        return rrdsBySource;
+    }
+}
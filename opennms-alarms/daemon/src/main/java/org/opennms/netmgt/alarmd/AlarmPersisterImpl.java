@@ -28,6 +28,15 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.model.OnmsAlarm;
@@ -37,20 +46,109 @@ import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.UpdateField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * When write-behind is enabled, the alarms are cached by reduction key.
+ * Events that reduce to a cached alarm, and that don't update any of its
+ * fields, are only recorded in memory and the reductions of the same alarm
+ * are written at once, with a single update, every flush interval.  All
+ * other events are persisted as usual, after the pending reductions of
+ * their alarm have been written.
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
+    /** Set to true to enable write-behind of the alarm reductions. */
+    public static final String WRITE_BEHIND_PROPERTY = "org.opennms.alarmd.writeBehind";
+
+    /** The number of milliseconds between writes of the pending reductions. */
+    public static final String WRITE_BEHIND_INTERVAL_PROPERTY = "org.opennms.alarmd.writeBehind.interval";
+
+    /** The maximum number of alarms to cache. */
+    public static final String WRITE_BEHIND_CACHE_SIZE_PROPERTY = "org.opennms.alarmd.writeBehind.cacheSize";
+
+    /** The number of milliseconds after which a cached alarm is loaded again. */
+    public static final String WRITE_BEHIND_MAX_AGE_PROPERTY = "org.opennms.alarmd.writeBehind.maxAge";
+
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
 
+    private boolean m_writeBehind = Boolean.getBoolean(WRITE_BEHIND_PROPERTY);
+    private long m_flushInterval = Long.getLong(WRITE_BEHIND_INTERVAL_PROPERTY, 500);
+    private int m_cacheSize = Integer.getInteger(WRITE_BEHIND_CACHE_SIZE_PROPERTY, 10000);
+    private long m_maxAge = Long.getLong(WRITE_BEHIND_MAX_AGE_PROPERTY, 30000);
+    private int m_maxPendingEvents = 10000;
+
+    private AlarmReductionWriter m_reductionWriter;
+    private TransactionOperations m_transactionOperations;
+
+    private AlarmReductionCache m_reductionCache;
+    private ScheduledExecutorService m_flusher;
+
+    /**
+     * Held while reductions are written, so that an alarm is never loaded
+     * while some of its reductions are being written.
+     */
+    private final Lock m_flushLock = new ReentrantLock();
+
+    /**
+     * <p>afterPropertiesSet</p>
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (!m_writeBehind) {
+            return;
+        }
+
+        if (m_reductionWriter == null) {
+            m_reductionWriter = new DaoAlarmReductionWriter(m_alarmDao, m_eventDao);
+        }
+        m_reductionCache = new AlarmReductionCache(m_cacheSize, m_maxAge);
+
+        if (m_flushInterval > 0) {
+            m_flusher = Executors.newSingleThreadScheduledExecutor(
+                    new LogPreservingThreadFactory(AlarmPersisterImpl.class.getSimpleName(), 1));
+            m_flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (final Throwable t) {
+                        LOG.error("Failed to write the pending alarm reductions.", t);
+                    }
+                }
+            }, m_flushInterval, m_flushInterval, TimeUnit.MILLISECONDS);
+        }
+        LOG.info("Write-behind of alarm reductions enabled: interval {}ms, {} alarms cached for at most {}ms", m_flushInterval, m_cacheSize, m_maxAge);
+    }
+
+    /**
+     * Writes the pending reductions and stops the flusher.
+     */
+    @Override
+    public void destroy() {
+        if (m_flusher != null) {
+            m_flusher.shutdown();
+            m_flusher = null;
+        }
+        if (m_reductionCache != null) {
+            flush();
+        }
+    }
+
     /** {@inheritDoc} 
      * @return */
     @Override
@@ -60,7 +158,101 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
         LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
 
-        return addOrReduceEventAsAlarm(event);
+        if (m_reductionCache == null) {
+            return addOrReduceEventAsAlarm(event);
+        }
+
+        if (event.getDbid() > 0 && !event.getAlarmData().hasUpdateFields()) {
+            final OnmsAlarm alarm = m_reductionCache.reduce(event);
+            if (alarm != null) {
+                if (m_reductionCache.getPendingEvents() >= m_maxPendingEvents) {
+                    flush();
+                }
+                return alarm;
+            }
+        }
+
+        // The alarm must be up to date before it's loaded
+        flush(event.getAlarmData().getReductionKey());
+        final OnmsAlarm alarm = addOrReduceEventAsAlarm(event);
+        cacheAfterCommit(alarm);
+        return alarm;
+    }
+
+    /**
+     * Writes all of the pending reductions.
+     */
+    public void flush() {
+        m_flushLock.lock();
+        try {
+            write(m_reductionCache.drain());
+        } finally {
+            m_flushLock.unlock();
+        }
+    }
+
+    private void flush(final String reductionKey) {
+        m_flushLock.lock();
+        try {
+            final AlarmReduction reduction = m_reductionCache.drain(reductionKey);
+            if (reduction != null) {
+                write(Collections.singletonList(reduction));
+            }
+        } finally {
+            m_flushLock.unlock();
+        }
+    }
+
+    private void write(final List<AlarmReduction> reductions) {
+        if (reductions.isEmpty()) {
+            return;
+        }
+        if (m_transactionOperations == null) {
+            doWrite(reductions);
+        } else {
+            m_transactionOperations.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                    doWrite(reductions);
+                }
+            });
+        }
+    }
+
+    private void doWrite(final List<AlarmReduction> reductions) {
+        final List<AlarmReduction> missing = m_reductionWriter.write(reductions);
+
+        // The alarms were deleted since they were cached, so persist the events one by one
+        for (final AlarmReduction reduction : missing) {
+            LOG.info("doWrite: alarm {} with reduction key {} no longer exists, persisting {} events again", reduction.getAlarmId(), reduction.getReductionKey(), reduction.getCount());
+            m_reductionCache.evict(reduction.getReductionKey());
+            for (final Event event : reduction.getEvents()) {
+                try {
+                    addOrReduceEventAsAlarm(event);
+                } catch (final IllegalArgumentException e) {
+                    LOG.warn("doWrite: unable to persist event {} again: {}", event.getDbid(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void cacheAfterCommit(final OnmsAlarm alarm) {
+        // Initialize what the northbound interfaces need while the session is open
+        if (alarm.getServiceType() != null) {
+            alarm.getServiceType().getName();
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Reductions of an alarm that hasn't been committed could not be written
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    m_reductionCache.put(alarm);
+                }
+            });
+        } else {
+            m_reductionCache.put(alarm);
+        }
     }
 
     private OnmsAlarm addOrReduceEventAsAlarm(Event event) {
@@ -254,4 +446,63 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return m_eventDao;
     }
 
+    public void setWriteBehind(final boolean writeBehind) {
+        m_writeBehind = writeBehind;
+    }
+
+    public boolean isWriteBehind() {
+        return m_writeBehind;
+    }
+
+    /**
+     * <p>setFlushInterval</p>
+     *
+     * @param flushInterval the number of milliseconds between writes of the
+     * pending reductions, they are only written when needed if <= 0
+     */
+    public void setFlushInterval(final long flushInterval) {
+        m_flushInterval = flushInterval;
+    }
+
+    public void setCacheSize(final int cacheSize) {
+        m_cacheSize = cacheSize;
+    }
+
+    public void setMaxAge(final long maxAge) {
+        m_maxAge = maxAge;
+    }
+
+    /**
+     * <p>setMaxPendingEvents</p>
+     *
+     * @param maxPendingEvents the number of pending reductions after which
+     * they are written without waiting for the next flush
+     */
+    public void setMaxPendingEvents(final int maxPendingEvents) {
+        m_maxPendingEvents = maxPendingEvents;
+    }
+
+    /**
+     * <p>setReductionWriter</p>
+     *
+     * @param reductionWriter the writer of the pending reductions, the DAOs
+     * are used if none is set
+     */
+    public void setReductionWriter(final AlarmReductionWriter reductionWriter) {
+        m_reductionWriter = reductionWriter;
+    }
+
+    public void setTransactionOperations(final TransactionOperations transactionOperations) {
+        m_transactionOperations = transactionOperations;
+    }
+
+    /**
+     * <p>getReductionCache</p>
+     *
+     * @return the cache of the alarms, or null if write-behind is disabled
+     */
+    public AlarmReductionCache getReductionCache() {
+        return m_reductionCache;
+    }
+
 }
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * The reductions of an existing alarm that haven't been written yet.
+ *
+ * All of the events are reduced to the alarm at once: the counter is
+ * incremented by the number of events, the last event becomes the last
+ * event of the alarm and every event is linked to the alarm.
+ */
+public class AlarmReduction {
+
+    private final int m_alarmId;
+
+    private final String m_reductionKey;
+
+    private final List<Event> m_events = new ArrayList<Event>();
+
+    /**
+     * The index of the last event that asked for the previous events of the
+     * alarm to be deleted, or -1.
+     */
+    private int m_autoCleanIndex = -1;
+
+    public AlarmReduction(final int alarmId, final String reductionKey) {
+        m_alarmId = alarmId;
+        m_reductionKey = reductionKey;
+    }
+
+    /**
+     * <p>add</p>
+     *
+     * @param event an event that reduces to the alarm, which must already have been persisted
+     */
+    public void add(final Event event) {
+        if (event.getAlarmData().isAutoClean()) {
+            m_autoCleanIndex = m_events.size();
+        }
+        m_events.add(event);
+    }
+
+    public int getAlarmId() {
+        return m_alarmId;
+    }
+
+    public String getReductionKey() {
+        return m_reductionKey;
+    }
+
+    /**
+     * <p>getCount</p>
+     *
+     * @return the number of events to add to the counter of the alarm
+     */
+    public int getCount() {
+        return m_events.size();
+    }
+
+    public List<Event> getEvents() {
+        return Collections.unmodifiableList(m_events);
+    }
+
+    /**
+     * <p>getLastEventId</p>
+     *
+     * @return the id of the event that becomes the last event of the alarm
+     */
+    public int getLastEventId() {
+        return m_events.get(m_events.size() - 1).getDbid();
+    }
+
+    /**
+     * <p>isAutoClean</p>
+     *
+     * @return true if the previous events of the alarm must be deleted
+     */
+    public boolean isAutoClean() {
+        return m_autoCleanIndex >= 0;
+    }
+
+    /**
+     * <p>getAutoCleanEventId</p>
+     *
+     * @return the id of the last event that asked for the previous events
+     * of the alarm to be deleted, which must be kept
+     */
+    public int getAutoCleanEventId() {
+        return m_events.get(m_autoCleanIndex).getDbid();
+    }
+
+    /**
+     * <p>getEventIdsBeforeAutoClean</p>
+     *
+     * @return the ids of the events to link to the alarm before the previous
+     * events are deleted, up to and including the auto-clean event, or all
+     * of them when there's nothing to clean
+     */
+    public List<Integer> getEventIdsBeforeAutoClean() {
+        return getEventIds(0, isAutoClean() ? m_autoCleanIndex + 1 : m_events.size());
+    }
+
+    /**
+     * <p>getEventIdsAfterAutoClean</p>
+     *
+     * @return the ids of the events that follow the auto-clean event, which
+     * must not be deleted
+     */
+    public List<Integer> getEventIdsAfterAutoClean() {
+        return getEventIds(isAutoClean() ? m_autoCleanIndex + 1 : m_events.size(), m_events.size());
+    }
+
+    private List<Integer> getEventIds(final int start, final int end) {
+        final List<Integer> ids = new ArrayList<Integer>(end - start);
+        for (int i = start; i < end; i++) {
+            ids.add(m_events.get(i).getDbid());
+        }
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "AlarmReduction[alarmId=" + m_alarmId + ", reductionKey=" + m_reductionKey + ", count=" + m_events.size() + "]";
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.events.api.EventParameterUtils;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.beans.BeanUtils;
+
+/**
+ * Bounded cache of the alarms by reduction key, along with the reductions
+ * of these alarms that haven't been written yet.
+ *
+ * The cached alarms are copies that are updated in memory as events are
+ * reduced, so that a current alarm can be handed to the northbound
+ * interfaces without going to the database.  Entries are dropped once they
+ * are older than the maximum age, so that changes made to the alarms by
+ * others (acknowledgements, automations, ...) are picked up again.
+ */
+public class AlarmReductionCache {
+
+    private static class CachedAlarm {
+        private final OnmsAlarm m_alarm;
+        private final long m_cachedAt;
+
+        private CachedAlarm(final OnmsAlarm alarm, final long cachedAt) {
+            m_alarm = alarm;
+            m_cachedAt = cachedAt;
+        }
+    }
+
+    private final Map<String, CachedAlarm> m_alarms;
+
+    private final Map<String, AlarmReduction> m_pending = new LinkedHashMap<String, AlarmReduction>();
+
+    private final long m_maxAge;
+
+    private int m_pendingEvents = 0;
+
+    private long m_hits = 0;
+
+    private long m_misses = 0;
+
+    /**
+     * <p>Constructor for AlarmReductionCache.</p>
+     *
+     * @param maxSize the maximum number of alarms to cache
+     * @param maxAge the number of milliseconds after which a cached alarm must be loaded again
+     */
+    public AlarmReductionCache(final int maxSize, final long maxAge) {
+        m_maxAge = maxAge;
+        m_alarms = new LinkedHashMap<String, CachedAlarm>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedAlarm> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Caches a copy of the given alarm, which must have been saved.
+     *
+     * @param alarm a {@link org.opennms.netmgt.model.OnmsAlarm} object.
+     */
+    public synchronized void put(final OnmsAlarm alarm) {
+        m_alarms.put(alarm.getReductionKey(), new CachedAlarm(copy(alarm), System.currentTimeMillis()));
+    }
+
+    /**
+     * Reduces the event to the cached alarm with the same reduction key, if
+     * there is one.  The reduction is only written by {@link #drain()}.
+     *
+     * @param event an event that has already been persisted
+     * @return a copy of the updated alarm, or null if the alarm isn't cached
+     */
+    public synchronized OnmsAlarm reduce(final Event event) {
+        final String reductionKey = event.getAlarmData().getReductionKey();
+        final CachedAlarm cached = m_alarms.get(reductionKey);
+        if (cached == null || System.currentTimeMillis() - cached.m_cachedAt > m_maxAge) {
+            m_alarms.remove(reductionKey);
+            m_misses++;
+            return null;
+        }
+        m_hits++;
+
+        AlarmReduction reduction = m_pending.get(reductionKey);
+        if (reduction == null) {
+            reduction = new AlarmReduction(cached.m_alarm.getId(), reductionKey);
+            m_pending.put(reductionKey, reduction);
+        }
+        reduction.add(event);
+        m_pendingEvents++;
+
+        final OnmsAlarm alarm = cached.m_alarm;
+        alarm.setCounter(alarm.getCounter() + 1);
+        if (event.getTime() != null) {
+            alarm.setLastEventTime(event.getTime());
+        }
+        alarm.setLogMsg(event.getLogmsg() == null ? null : event.getLogmsg().getContent());
+        alarm.setEventParms(EventParameterUtils.format(event));
+        return copy(alarm);
+    }
+
+    /**
+     * Removes the alarm with the given reduction key from the cache.  Its
+     * pending reductions, if any, are kept.
+     *
+     * @param reductionKey a {@link java.lang.String} object.
+     */
+    public synchronized void evict(final String reductionKey) {
+        m_alarms.remove(reductionKey);
+    }
+
+    /**
+     * Removes and returns all of the pending reductions.
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public synchronized List<AlarmReduction> drain() {
+        final List<AlarmReduction> reductions = new ArrayList<AlarmReduction>(m_pending.values());
+        m_pending.clear();
+        m_pendingEvents = 0;
+        return reductions;
+    }
+
+    /**
+     * Removes and returns the pending reduction of the alarm with the given
+     * reduction key.
+     *
+     * @param reductionKey a {@link java.lang.String} object.
+     * @return the reduction, or null if there is none
+     */
+    public synchronized AlarmReduction drain(final String reductionKey) {
+        final AlarmReduction reduction = m_pending.remove(reductionKey);
+        if (reduction != null) {
+            m_pendingEvents -= reduction.getCount();
+        }
+        return reduction;
+    }
+
+    /**
+     * <p>getPendingEvents</p>
+     *
+     * @return the number of events that have been reduced but not written
+     */
+    public synchronized int getPendingEvents() {
+        return m_pendingEvents;
+    }
+
+    public synchronized int getSize() {
+        return m_alarms.size();
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    private static OnmsAlarm copy(final OnmsAlarm alarm) {
+        final OnmsAlarm copy = new OnmsAlarm();
+        BeanUtils.copyProperties(alarm, copy);
+        return copy;
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+
+/**
+ * Writes the reductions through the DAOs, updating each alarm once.
+ *
+ * This is used when no {@link JdbcAlarmReductionWriter} is configured.
+ */
+public class DaoAlarmReductionWriter implements AlarmReductionWriter {
+
+    private final AlarmDao m_alarmDao;
+
+    private final EventDao m_eventDao;
+
+    public DaoAlarmReductionWriter(final AlarmDao alarmDao, final EventDao eventDao) {
+        m_alarmDao = alarmDao;
+        m_eventDao = eventDao;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<AlarmReduction> write(final List<AlarmReduction> reductions) {
+        final List<AlarmReduction> missing = new ArrayList<AlarmReduction>();
+        for (final AlarmReduction reduction : reductions) {
+            final OnmsAlarm alarm = m_alarmDao.get(reduction.getAlarmId());
+            final OnmsEvent lastEvent = m_eventDao.get(reduction.getLastEventId());
+            if (alarm == null || lastEvent == null) {
+                missing.add(reduction);
+                continue;
+            }
+
+            alarm.setCounter(alarm.getCounter() + reduction.getCount());
+            alarm.setLastEvent(lastEvent);
+            alarm.setLastEventTime(lastEvent.getEventTime());
+            alarm.setLogMsg(lastEvent.getEventLogMsg());
+            alarm.setEventParms(lastEvent.getEventParms());
+            m_alarmDao.update(alarm);
+
+            linkEvents(alarm, reduction.getEventIdsBeforeAutoClean());
+            if (reduction.isAutoClean()) {
+                m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), m_eventDao.get(reduction.getAutoCleanEventId()));
+                linkEvents(alarm, reduction.getEventIdsAfterAutoClean());
+            }
+        }
+        return missing;
+    }
+
+    private void linkEvents(final OnmsAlarm alarm, final List<Integer> eventIds) {
+        for (final Integer eventId : eventIds) {
+            final OnmsEvent event = m_eventDao.get(eventId);
+            if (event != null) {
+                event.setAlarm(alarm);
+                m_eventDao.update(event);
+            }
+        }
+    }
+}
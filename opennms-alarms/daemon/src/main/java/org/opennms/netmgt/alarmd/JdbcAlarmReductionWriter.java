@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Writes the reductions with JDBC batches: one statement per alarm to
+ * update the counter and the last event, and one statement per event to
+ * link it to its alarm.
+ *
+ * The log message, the parameters and the time of the last event are
+ * copied from the events table, so the alarm ends up with the same values
+ * it would have if the events had been reduced one by one.
+ */
+public class JdbcAlarmReductionWriter implements AlarmReductionWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcAlarmReductionWriter.class);
+
+    private static final String UPDATE_ALARM = "UPDATE alarms SET counter = alarms.counter + ?, lastEventId = events.eventId, "
+            + "lastEventTime = events.eventTime, logMsg = events.eventLogMsg, eventParms = events.eventParms "
+            + "FROM events WHERE alarms.alarmId = ? AND events.eventId = ?";
+
+    private static final String LINK_EVENT = "UPDATE events SET alarmId = ? WHERE eventId = ?";
+
+    private static final String DELETE_PREVIOUS_EVENTS = "DELETE FROM events WHERE alarmId = ? AND eventId != ?";
+
+    private JdbcTemplate m_jdbcTemplate;
+
+    /**
+     * <p>setDataSource</p>
+     *
+     * @param dataSource a {@link javax.sql.DataSource} object.
+     */
+    public void setDataSource(final DataSource dataSource) {
+        m_jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<AlarmReduction> write(final List<AlarmReduction> reductions) {
+        final List<AlarmReduction> written = new ArrayList<AlarmReduction>(reductions.size());
+        final List<AlarmReduction> missing = new ArrayList<AlarmReduction>();
+
+        // The alarms must point to their new last event before the previous events can be deleted
+        final List<Object[]> alarmArgs = new ArrayList<Object[]>(reductions.size());
+        for (final AlarmReduction reduction : reductions) {
+            alarmArgs.add(new Object[] { reduction.getCount(), reduction.getAlarmId(), reduction.getLastEventId() });
+        }
+        final int[] updated = m_jdbcTemplate.batchUpdate(UPDATE_ALARM, alarmArgs);
+        for (int i = 0; i < reductions.size(); i++) {
+            // only a count of 0 means the alarm is gone, drivers may report success without a count
+            if (updated[i] == 0) {
+                missing.add(reductions.get(i));
+            } else {
+                written.add(reductions.get(i));
+            }
+        }
+
+        final List<Object[]> linkArgs = new ArrayList<Object[]>();
+        final List<Object[]> deleteArgs = new ArrayList<Object[]>();
+        final List<Object[]> lateLinkArgs = new ArrayList<Object[]>();
+        for (final AlarmReduction reduction : written) {
+            for (final Integer eventId : reduction.getEventIdsBeforeAutoClean()) {
+                linkArgs.add(new Object[] { reduction.getAlarmId(), eventId });
+            }
+            if (reduction.isAutoClean()) {
+                deleteArgs.add(new Object[] { reduction.getAlarmId(), reduction.getAutoCleanEventId() });
+                for (final Integer eventId : reduction.getEventIdsAfterAutoClean()) {
+                    lateLinkArgs.add(new Object[] { reduction.getAlarmId(), eventId });
+                }
+            }
+        }
+        batchUpdate(LINK_EVENT, linkArgs);
+        batchUpdate(DELETE_PREVIOUS_EVENTS, deleteArgs);
+        batchUpdate(LINK_EVENT, lateLinkArgs);
+
+        LOG.debug("write: reduced {} alarms with {} events, {} alarms no longer exist", written.size(), linkArgs.size() + lateLinkArgs.size(), missing.size());
+        return missing;
+    }
+
+    private void batchUpdate(final String sql, final List<Object[]> args) {
+        if (!args.isEmpty()) {
+            m_jdbcTemplate.batchUpdate(sql, args);
+        }
+    }
+}
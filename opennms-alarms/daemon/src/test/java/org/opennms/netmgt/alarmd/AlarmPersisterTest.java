@@ -28,6 +28,12 @@
 
 package org.opennms.netmgt.alarmd;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opennms.core.spring.BeanUtils;
@@ -36,10 +42,21 @@ import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.events.api.EventParameterUtils;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Logmsg;
 import org.opennms.test.JUnitConfigurationEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.support.TransactionOperations;
 
 /**
  * AlarmPersting tests
@@ -59,6 +76,7 @@ import org.springframework.test.context.ContextConfiguration;
 @JUnitConfigurationEnvironment
 @JUnitTemporaryDatabase
 public class AlarmPersisterTest implements InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterTest.class);
 
     @Autowired
     private MockEventIpcManager m_mockEventIpcManager;
@@ -69,6 +87,9 @@ public class AlarmPersisterTest implements InitializingBean {
     @Autowired
     private EventDao m_eventDao;
 
+    @Autowired
+    private TransactionOperations m_transactionTemplate;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
@@ -79,4 +100,169 @@ public class AlarmPersisterTest implements InitializingBean {
         // Do something?
     }
 
+    @Test
+    public void testWriteBehind() {
+        final AlarmPersisterImpl persister = createPersister(true);
+
+        final Event first = createEvent("writeBehind", false);
+        final OnmsAlarm created = persister.persist(first);
+        assertEquals(1, created.getCounter().intValue());
+
+        Event last = null;
+        for (int i = 2; i <= 10; i++) {
+            last = createEvent("writeBehind", false);
+            final OnmsAlarm reduced = persister.persist(last);
+            // the alarm handed to the northbound interfaces is up to date
+            assertEquals(i, reduced.getCounter().intValue());
+            assertEquals(created.getId(), reduced.getId());
+        }
+
+        // nothing has been written yet
+        assertEquals(1, m_alarmDao.get(created.getId()).getCounter().intValue());
+        assertNull(m_eventDao.get(last.getDbid()).getAlarm());
+
+        persister.flush();
+
+        final OnmsAlarm alarm = m_alarmDao.findByReductionKey("writeBehind");
+        assertEquals(10, alarm.getCounter().intValue());
+        assertEquals(last.getDbid(), alarm.getLastEvent().getId());
+        assertEquals(alarm.getId(), m_eventDao.get(last.getDbid()).getAlarm().getId());
+        assertEquals(10, countEvents(alarm));
+    }
+
+    @Test
+    public void testWriteBehindWithAutoClean() {
+        final AlarmPersisterImpl persister = createPersister(true);
+
+        Event last = null;
+        for (int i = 0; i < 5; i++) {
+            last = createEvent("autoClean", true);
+            persister.persist(last);
+        }
+        persister.flush();
+
+        final OnmsAlarm alarm = m_alarmDao.findByReductionKey("autoClean");
+        assertEquals(5, alarm.getCounter().intValue());
+        assertEquals(1, countEvents(alarm));
+        assertNotNull(m_eventDao.get(last.getDbid()));
+    }
+
+    @Test
+    public void testWriteBehindRecreatesDeletedAlarm() {
+        final AlarmPersisterImpl persister = createPersister(true);
+
+        final OnmsAlarm created = persister.persist(createEvent("deleted", false));
+        persister.persist(createEvent("deleted", false));
+        m_alarmDao.delete(created.getId());
+        persister.persist(createEvent("deleted", false));
+        persister.flush();
+
+        // the pending events are persisted again, creating a new alarm
+        final OnmsAlarm alarm = m_alarmDao.findByReductionKey("deleted");
+        assertEquals(2, alarm.getCounter().intValue());
+
+        // which is cached again on the next event
+        persister.persist(createEvent("deleted", false));
+        persister.persist(createEvent("deleted", false));
+        persister.flush();
+        assertEquals(4, m_alarmDao.findByReductionKey("deleted").getCounter().intValue());
+    }
+
+    /**
+     * A flapping link: thousands of identical events for a handful of
+     * alarms, persisted one by one and written behind.
+     */
+    @Test
+    public void testEventStorm() {
+        final int numAlarms = 10;
+        final int numEvents = 20000;
+
+        long start = System.nanoTime();
+        stormAndVerify(createPersister(false), "storm-direct-", numAlarms, numEvents);
+        final long directNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        stormAndVerify(createPersister(true), "storm-writeBehind-", numAlarms, numEvents);
+        final long writeBehindNanos = System.nanoTime() - start;
+
+        LOG.debug("{} events reduced to {} alarms: direct {} ms, write-behind {} ms",
+                numEvents, numAlarms, directNanos / 1000000, writeBehindNanos / 1000000);
+    }
+
+    private void stormAndVerify(final AlarmPersisterImpl persister, final String prefix, final int numAlarms, final int numEvents) {
+        final Event[] events = new Event[numEvents];
+        for (int i = 0; i < numEvents; i++) {
+            events[i] = createEvent(prefix + (i % numAlarms), false);
+        }
+        for (final Event event : events) {
+            persister.persist(event);
+        }
+        if (persister.isWriteBehind()) {
+            persister.flush();
+        }
+
+        for (int i = 0; i < numAlarms; i++) {
+            final OnmsAlarm alarm = m_alarmDao.findByReductionKey(prefix + i);
+            assertEquals(numEvents / numAlarms, alarm.getCounter().intValue());
+            assertEquals(events[numEvents - numAlarms + i].getDbid(), alarm.getLastEvent().getId());
+        }
+    }
+
+    private AlarmPersisterImpl createPersister(final boolean writeBehind) {
+        final AlarmPersisterImpl persister = new AlarmPersisterImpl();
+        persister.setAlarmDao(m_alarmDao);
+        persister.setEventDao(m_eventDao);
+        persister.setTransactionOperations(m_transactionTemplate);
+        persister.setWriteBehind(writeBehind);
+        // only write when asked to, or when too many reductions are pending
+        persister.setFlushInterval(0);
+        persister.setMaxPendingEvents(1000);
+        persister.afterPropertiesSet();
+        return persister;
+    }
+
+    /**
+     * Creates an event along with the row eventd would have persisted.
+     */
+    private Event createEvent(final String reductionKey, final boolean autoClean) {
+        final EventBuilder builder = new EventBuilder("uei.opennms.org/test/alarmPersister", "AlarmPersisterTest");
+        builder.setTime(new Date());
+        builder.addParam("reductionKey", reductionKey);
+        final Event event = builder.getEvent();
+
+        final Logmsg logmsg = new Logmsg();
+        logmsg.setContent("Reduced to " + reductionKey);
+        logmsg.setDest("logndisplay");
+        event.setLogmsg(logmsg);
+
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(1);
+        alarmData.setReductionKey(reductionKey);
+        alarmData.setAutoClean(autoClean);
+        event.setAlarmData(alarmData);
+
+        final OnmsEvent onmsEvent = new OnmsEvent();
+        onmsEvent.setEventUei(event.getUei());
+        onmsEvent.setEventSource(event.getSource());
+        onmsEvent.setEventTime(event.getTime());
+        onmsEvent.setEventCreateTime(new Date());
+        onmsEvent.setEventLogMsg(logmsg.getContent());
+        onmsEvent.setEventParms(EventParameterUtils.format(event));
+        onmsEvent.setEventSeverity(OnmsSeverity.MINOR.getId());
+        m_eventDao.save(onmsEvent);
+
+        event.setDbid(onmsEvent.getId());
+        return event;
+    }
+
+    private int countEvents(final OnmsAlarm alarm) {
+        int count = 0;
+        for (final OnmsEvent event : m_eventDao.findAll()) {
+            if (event.getAlarm() != null && alarm.getId().equals(event.getAlarm().getId())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
 }
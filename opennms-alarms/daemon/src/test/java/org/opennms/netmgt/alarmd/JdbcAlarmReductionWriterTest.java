@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.spring.BeanUtils;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+
+/**
+ * Writes reductions with the JDBC writer that alarmd uses, against the
+ * alarms and events tables of a temporary database.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-alarmd.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase
+public class JdbcAlarmReductionWriterTest implements InitializingBean {
+
+    @Autowired
+    private JdbcAlarmReductionWriter m_writer;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        BeanUtils.assertAutowiring(this);
+    }
+
+    @Before
+    public void setUp() {
+        // alarm 1 was created by event 1, alarm 2 by event 10
+        insertEvent(1);
+        insertAlarm(1, 1);
+        insertEvent(10);
+        insertAlarm(2, 10);
+    }
+
+    @Test
+    public void testReduce() {
+        for (int eventId = 2; eventId <= 4; eventId++) {
+            insertEvent(eventId);
+        }
+        insertEvent(11);
+
+        final AlarmReduction first = createReduction(1, 2, 3, 4);
+        final AlarmReduction second = createReduction(2, 11);
+        assertTrue(m_writer.write(Arrays.asList(first, second)).isEmpty());
+
+        // the counter and the last event are updated from the last event
+        assertAlarm(1, 4, 4);
+        assertAlarm(2, 2, 11);
+        assertEquals(Arrays.asList(1, 2, 3, 4), getEventIds(1));
+        assertEquals(Arrays.asList(10, 11), getEventIds(2));
+    }
+
+    @Test
+    public void testReduceWithAutoClean() {
+        insertEvent(2);
+        insertEvent(3);
+        insertEvent(4);
+
+        final AlarmReduction reduction = new AlarmReduction(1, "alarm1");
+        reduction.add(createEvent(2, false));
+        reduction.add(createEvent(3, true));
+        reduction.add(createEvent(4, false));
+        assertTrue(m_writer.write(Collections.singletonList(reduction)).isEmpty());
+
+        // the events before the auto-clean event are deleted, the ones after it are kept
+        assertAlarm(1, 4, 4);
+        assertEquals(Arrays.asList(3, 4), getEventIds(1));
+        assertEquals(0, m_jdbcTemplate.queryForObject("SELECT COUNT(*) FROM events WHERE eventId IN (1, 2)", Integer.class).intValue());
+    }
+
+    @Test
+    public void testMissingAlarm() {
+        insertEvent(2);
+        insertEvent(3);
+
+        final AlarmReduction missing = createReduction(99, 2);
+        final AlarmReduction reduction = createReduction(1, 3);
+        final List<AlarmReduction> notWritten = m_writer.write(Arrays.asList(missing, reduction));
+
+        assertEquals(Collections.singletonList(missing), notWritten);
+        assertAlarm(1, 2, 3);
+        assertEquals(Arrays.asList(1, 3), getEventIds(1));
+        assertNull(m_jdbcTemplate.queryForObject("SELECT alarmId FROM events WHERE eventId = 2", Integer.class));
+    }
+
+    private void insertEvent(final int eventId) {
+        m_jdbcTemplate.update("INSERT INTO events (eventId, eventUei, eventTime, eventSource, eventDpName, eventCreateTime, eventSeverity, " +
+                "eventLog, eventDisplay, eventLogMsg, eventParms) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                eventId, "uei.opennms.org/test/jdbcAlarmReductionWriter", getEventTime(eventId), "JdbcAlarmReductionWriterTest", "localhost",
+                new Timestamp(System.currentTimeMillis()), 4, "Y", "Y", "Event " + eventId, "eventId=" + eventId + "(string,text)");
+    }
+
+    private void insertAlarm(final int alarmId, final int eventId) {
+        m_jdbcTemplate.update("INSERT INTO alarms (alarmId, eventUei, dpName, reductionKey, alarmType, counter, severity, lastEventId, " +
+                "firstEventTime, lastEventTime, logMsg, eventParms) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                alarmId, "uei.opennms.org/test/jdbcAlarmReductionWriter", "localhost", "alarm" + alarmId, 1, 1, 4, eventId,
+                getEventTime(eventId), getEventTime(eventId), "Event " + eventId, "eventId=" + eventId + "(string,text)");
+        m_jdbcTemplate.update("UPDATE events SET alarmId = ? WHERE eventId = ?", alarmId, eventId);
+    }
+
+    private static Timestamp getEventTime(final int eventId) {
+        return new Timestamp(1420070400000L + eventId * 60000L);
+    }
+
+    private static Event createEvent(final int eventId, final boolean autoClean) {
+        final Event event = new EventBuilder("uei.opennms.org/test/jdbcAlarmReductionWriter", "JdbcAlarmReductionWriterTest").getEvent();
+        event.setDbid(eventId);
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(1);
+        alarmData.setAutoClean(autoClean);
+        event.setAlarmData(alarmData);
+        return event;
+    }
+
+    private static AlarmReduction createReduction(final int alarmId, final int... eventIds) {
+        final AlarmReduction reduction = new AlarmReduction(alarmId, "alarm" + alarmId);
+        for (final int eventId : eventIds) {
+            reduction.add(createEvent(eventId, false));
+        }
+        return reduction;
+    }
+
+    private void assertAlarm(final int alarmId, final int counter, final int lastEventId) {
+        assertEquals(counter, m_jdbcTemplate.queryForObject("SELECT counter FROM alarms WHERE alarmId = ?", Integer.class, alarmId).intValue());
+        assertEquals(lastEventId, m_jdbcTemplate.queryForObject("SELECT lastEventId FROM alarms WHERE alarmId = ?", Integer.class, alarmId).intValue());
+        assertEquals(getEventTime(lastEventId), m_jdbcTemplate.queryForObject("SELECT lastEventTime FROM alarms WHERE alarmId = ?", Timestamp.class, alarmId));
+        assertEquals("Event " + lastEventId, m_jdbcTemplate.queryForObject("SELECT logMsg FROM alarms WHERE alarmId = ?", String.class, alarmId));
+        assertEquals("eventId=" + lastEventId + "(string,text)", m_jdbcTemplate.queryForObject("SELECT eventParms FROM alarms WHERE alarmId = ?", String.class, alarmId));
+    }
+
+    private List<Integer> getEventIds(final int alarmId) {
+        return m_jdbcTemplate.queryForList("SELECT eventId FROM events WHERE alarmId = ? ORDER BY eventId", Integer.class, alarmId);
+    }
+}
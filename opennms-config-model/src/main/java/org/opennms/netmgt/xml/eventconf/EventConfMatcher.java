@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
+
+/**
+ * An immutable index over every event definition in an {@link Events} tree
+ * (including the loaded event files) used to find the first matching event
+ * definition for an incoming event.
+ *
+ * The definitions are flattened into {@link EventOrdering} order once, and
+ * split first by partition key (the enterprise id) and then by the exact UEI
+ * they are restricted to.  A lookup merges at most four pre-sorted arrays and
+ * only calls {@link Event#matches(org.opennms.netmgt.xml.event.Event)} on the
+ * candidates, so it takes no locks and allocates nothing on its own.
+ *
+ * Instances are built by {@link Events#initialize(Partition, EventOrdering)}
+ * and replaced as a whole when the configuration is reloaded.
+ */
+public final class EventConfMatcher {
+
+    private static final Event[] EMPTY_EVENTS = new Event[0];
+    private static final int[] EMPTY_RANKS = new int[0];
+
+    /**
+     * A list of event definitions sorted by priority along with their rank
+     * in the flattened ordering so they can be merged with int comparisons.
+     */
+    private static final class Candidates {
+        private static final Candidates EMPTY = new Candidates(EMPTY_EVENTS, EMPTY_RANKS);
+
+        private final Event[] m_events;
+        private final int[] m_ranks;
+
+        private Candidates(Event[] events, int[] ranks) {
+            m_events = events;
+            m_ranks = ranks;
+        }
+    }
+
+    /**
+     * The candidates for a single partition key.  Event definitions that are
+     * limited to a set of exact UEIs are kept in {@link #m_byUei}, all others
+     * in {@link #m_anyUei}.
+     */
+    private static final class Bucket {
+        private static final Bucket EMPTY = new Bucket(Candidates.EMPTY, Collections.<String, Candidates>emptyMap());
+
+        private final Candidates m_anyUei;
+        private final Map<String, Candidates> m_byUei;
+
+        private Bucket(Candidates anyUei, Map<String, Candidates> byUei) {
+            m_anyUei = anyUei;
+            m_byUei = byUei;
+        }
+
+        private Candidates forUei(String uei) {
+            if (uei == null) return Candidates.EMPTY;
+            final Candidates candidates = m_byUei.get(uei);
+            return candidates == null ? Candidates.EMPTY : candidates;
+        }
+    }
+
+    /**
+     * Collects the event definitions for a {@link Bucket} while the index is built.
+     */
+    private static final class BucketBuilder {
+        private final List<Integer> m_anyUei = new ArrayList<Integer>();
+        private final Map<String, List<Integer>> m_byUei = new LinkedHashMap<String, List<Integer>>();
+
+        private void add(int rank, List<String> ueis) {
+            if (ueis == null) {
+                m_anyUei.add(rank);
+                return;
+            }
+            for (String uei : ueis) {
+                List<Integer> ranks = m_byUei.get(uei);
+                if (ranks == null) {
+                    ranks = new ArrayList<Integer>(1);
+                    m_byUei.put(uei, ranks);
+                }
+                ranks.add(rank);
+            }
+        }
+
+        private Bucket build(Event[] ordered) {
+            final Map<String, Candidates> byUei = new HashMap<String, Candidates>();
+            for (Entry<String, List<Integer>> entry : m_byUei.entrySet()) {
+                byUei.put(entry.getKey(), candidates(ordered, entry.getValue()));
+            }
+            return new Bucket(candidates(ordered, m_anyUei), byUei);
+        }
+
+        private static Candidates candidates(Event[] ordered, List<Integer> ranks) {
+            if (ranks.isEmpty()) return Candidates.EMPTY;
+            final Event[] events = new Event[ranks.size()];
+            final int[] rankArray = new int[ranks.size()];
+            for (int i = 0; i < rankArray.length; i++) {
+                rankArray[i] = ranks.get(i);
+                events[i] = ordered[rankArray[i]];
+            }
+            return new Candidates(events, rankArray);
+        }
+    }
+
+    private final Partition m_partition;
+    private final Bucket m_unpartitioned;
+    private final Map<String, Bucket> m_partitioned;
+    private final int m_eventCount;
+
+    private EventConfMatcher(Partition partition, Bucket unpartitioned, Map<String, Bucket> partitioned, int eventCount) {
+        m_partition = partition;
+        m_unpartitioned = unpartitioned;
+        m_partitioned = partitioned;
+        m_eventCount = eventCount;
+    }
+
+    /**
+     * Builds the index for the given tree of event definitions.  The events
+     * must already have been initialized with their {@link EventOrdering}.
+     */
+    public static EventConfMatcher compile(Events events, Partition partition) {
+        final List<Event> ordered = events.forEachEvent(new ArrayList<Event>(), new EventCallback<List<Event>>() {
+            @Override
+            public List<Event> process(List<Event> accum, Event event) {
+                accum.add(event);
+                return accum;
+            }
+        });
+        // the events are visited in file order which is already the priority
+        // order, but sort anyway so the index never depends on that detail
+        Collections.sort(ordered);
+        final Event[] orderedArray = ordered.toArray(new Event[ordered.size()]);
+
+        final BucketBuilder unpartitioned = new BucketBuilder();
+        final Map<String, BucketBuilder> partitioned = new LinkedHashMap<String, BucketBuilder>();
+        for (int rank = 0; rank < orderedArray.length; rank++) {
+            final Event event = orderedArray[rank];
+            final List<String> ueis = restrictedUeis(event);
+            if (ueis != null && ueis.isEmpty()) {
+                // can never match anything
+                continue;
+            }
+
+            final List<String> keys = partition.group(event);
+            if (keys == null) {
+                unpartitioned.add(rank, ueis);
+            } else {
+                for (String key : new LinkedHashSet<String>(keys)) {
+                    BucketBuilder builder = partitioned.get(key);
+                    if (builder == null) {
+                        builder = new BucketBuilder();
+                        partitioned.put(key, builder);
+                    }
+                    builder.add(rank, ueis);
+                }
+            }
+        }
+
+        final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+        for (Entry<String, BucketBuilder> entry : partitioned.entrySet()) {
+            buckets.put(entry.getKey(), entry.getValue().build(orderedArray));
+        }
+        return new EventConfMatcher(partition, unpartitioned.build(orderedArray), buckets, orderedArray.length);
+    }
+
+    /**
+     * Returns the exact UEIs the given event definition is limited to, an
+     * empty list if it can never match, or <code>null</code> if it must be
+     * tested against events with any UEI.  This mirrors the matcher that
+     * {@link Event#initialize(EventOrdering.EventOrderIndex)} constructs.
+     */
+    static List<String> restrictedUeis(Event event) {
+        final Mask mask = event.getMask();
+        if (mask == null || mask.getMaskelementCount() <= 0) {
+            return event.getUei() == null ? Collections.<String>emptyList() : Collections.singletonList(event.getUei());
+        }
+
+        final List<String> values = mask.getMaskElementValues(Maskelement.TAG_UEI);
+        if (values == null) {
+            return null;
+        }
+
+        final Set<String> ueis = new LinkedHashSet<String>();
+        for (String value : values) {
+            if (value == null) continue;
+            if (value.startsWith("~") || value.endsWith("%")) {
+                return null;
+            }
+            ueis.add(value);
+        }
+        return ueis.isEmpty() ? null : new ArrayList<String>(ueis);
+    }
+
+    /**
+     * Returns the highest priority event definition matching the given
+     * event, or <code>null</code> if none match.
+     */
+    public Event findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
+        return scan(matchingEvent, null);
+    }
+
+    /**
+     * Returns the event definitions that the given event is tested against
+     * by {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)},
+     * highest priority first, whether they match it or not.
+     */
+    public List<Event> getCandidates(org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final List<Event> candidates = new ArrayList<Event>();
+        scan(matchingEvent, candidates);
+        return candidates;
+    }
+
+    /**
+     * Walks the candidates for the event in priority order and returns the
+     * first one matching it, or collects all of them if a list is given.
+     */
+    private Event scan(org.opennms.netmgt.xml.event.Event matchingEvent, List<Event> collected) {
+        final String key = m_partition.group(matchingEvent);
+        Bucket bucket = key == null ? null : m_partitioned.get(key);
+        if (bucket == null) {
+            bucket = Bucket.EMPTY;
+        }
+
+        final String uei = matchingEvent.getUei();
+        final Candidates a = m_unpartitioned.m_anyUei;
+        final Candidates b = m_unpartitioned.forUei(uei);
+        final Candidates c = bucket.m_anyUei;
+        final Candidates d = bucket.forUei(uei);
+
+        int ia = 0, ib = 0, ic = 0, id = 0;
+        while (true) {
+            final int ra = ia < a.m_ranks.length ? a.m_ranks[ia] : Integer.MAX_VALUE;
+            final int rb = ib < b.m_ranks.length ? b.m_ranks[ib] : Integer.MAX_VALUE;
+            final int rc = ic < c.m_ranks.length ? c.m_ranks[ic] : Integer.MAX_VALUE;
+            final int rd = id < d.m_ranks.length ? d.m_ranks[id] : Integer.MAX_VALUE;
+
+            final int min = Math.min(Math.min(ra, rb), Math.min(rc, rd));
+            if (min == Integer.MAX_VALUE) {
+                return null;
+            }
+
+            final Event candidate;
+            if (min == ra) {
+                candidate = a.m_events[ia++];
+            } else if (min == rb) {
+                candidate = b.m_events[ib++];
+            } else if (min == rc) {
+                candidate = c.m_events[ic++];
+            } else {
+                candidate = d.m_events[id++];
+            }
+
+            if (collected != null) {
+                collected.add(candidate);
+            } else if (candidate.matches(matchingEvent)) {
+                return candidate;
+            }
+        }
+    }
+
+    public int getEventCount() {
+        return m_eventCount;
+    }
+
+}
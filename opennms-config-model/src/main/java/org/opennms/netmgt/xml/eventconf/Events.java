@@ -115,6 +115,9 @@ public class Events implements Serializable {
         
 	@XmlTransient
 	private EventOrdering m_ordering;
+
+	@XmlTransient
+	private transient volatile EventConfMatcher m_matcher;
 	
 	public EventOrdering getOrdering() {
 	    return m_ordering;
@@ -418,6 +421,20 @@ public class Events implements Serializable {
 	}
 	
 	public Event findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
+		final EventConfMatcher matcher = m_matcher;
+		if (matcher != null) {
+			return matcher.findFirstMatchingEvent(matchingEvent);
+		}
+		return scanForFirstMatchingEvent(matchingEvent);
+	}
+
+	/**
+	 * Finds the first matching event by walking the partitioned events of
+	 * this file and then each of the loaded event files.  This is what
+	 * {@link EventConfMatcher} replaces; it is used until the events have
+	 * been initialized.
+	 */
+	public Event scanForFirstMatchingEvent(org.opennms.netmgt.xml.event.Event matchingEvent) {
 		String key = m_partition.group(matchingEvent);
 		SortedSet<Event> potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
 		if (key != null) {
@@ -437,7 +454,7 @@ public class Events implements Serializable {
 		
 		for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
 			Events subEvents = loadedEvents.getValue();
-			Event event = subEvents.findFirstMatchingEvent(matchingEvent);
+			Event event = subEvents.scanForFirstMatchingEvent(matchingEvent);
 			if (event != null) {
 				return event;
 			}
@@ -496,6 +513,11 @@ public class Events implements Serializable {
 			events.initialize(partition, m_ordering.subsequence());
 		}
 
+		m_matcher = EventConfMatcher.compile(this, partition);
+	}
+
+	public EventConfMatcher getMatcher() {
+		return m_matcher;
 	}
 
 	public Events getLoadEventsByFile(String relativePath) {
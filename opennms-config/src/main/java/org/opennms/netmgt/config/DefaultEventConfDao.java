@@ -64,7 +64,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
      */
     private String m_programmaticStoreRelativePath = DEFAULT_PROGRAMMATIC_STORE_RELATIVE_PATH;
 
-	private Events m_events;
+	private volatile Events m_events;
 
 	private Resource m_configResource;
 
@@ -32,6 +32,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.exolab.castor.xml.MarshalException;
 import org.exolab.castor.xml.Marshaller;
@@ -58,6 +61,16 @@ import org.opennms.netmgt.xml.event.Value;
 public abstract class NotifdConfigManager {
     private static final Logger LOG = LoggerFactory.getLogger(NotifdConfigManager.class);
 
+    /**
+     * The maximum number of compiled varbind patterns that are kept
+     */
+    private static final int MAX_VARBIND_PATTERNS = 1000;
+
+    /**
+     * The compiled varbind patterns, keyed by regular expression
+     */
+    private static final Map<String, Pattern> s_varbindPatterns = new ConcurrentHashMap<String, Pattern>();
+
     /**
      * 
      */
@@ -221,7 +234,7 @@ public abstract class NotifdConfigManager {
                 if (parmName.equals(notfName)) {
                     // regular expression should start with a '~'
                     if (notfValue.charAt(0) == '~') {
-                       if (parmContent.matches(notfValue.substring(1))) {
+                       if (getVarbindPattern(notfValue.substring(1)).matcher(parmContent).matches()) {
                            parmmatch = true;
                        }
                     } else {
@@ -238,6 +251,18 @@ public abstract class NotifdConfigManager {
         return parmmatch;
     }
 
+    private static Pattern getVarbindPattern(final String regex) {
+        Pattern pattern = s_varbindPatterns.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            if (s_varbindPatterns.size() >= MAX_VARBIND_PATTERNS) {
+                s_varbindPatterns.clear();
+            }
+            s_varbindPatterns.put(regex, pattern);
+        }
+        return pattern;
+    }
+
     /**
      * <p>getNextUserNotifIdSql</p>
      *
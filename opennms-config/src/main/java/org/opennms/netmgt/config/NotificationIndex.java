@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the configured notifications by the UEI of the events they
+ * match, so that an event is only checked against the notifications that
+ * may apply to it, in the order of the configuration.
+ *
+ * The notifications for exact UEIs are kept in hash buckets. The regular
+ * expressions of the '~' UEIs and of the severities are compiled once, and
+ * the '~' UEIs that match a given event UEI are remembered, so that each of
+ * them is only run once per distinct UEI.
+ */
+final class NotificationIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationIndex.class);
+
+    private static final String MATCH_ANY_UEI = "MATCH-ANY-UEI";
+
+    /**
+     * The maximum number of event UEIs for which the candidates are kept
+     */
+    private static final int MAX_CANDIDATE_LISTS = 10000;
+
+    /**
+     * A configured notification, along with its compiled patterns.
+     */
+    static final class Candidate {
+        private final int m_position;
+        private final Notification m_notification;
+        private final Pattern m_ueiPattern;
+        private final Pattern m_severityPattern;
+
+        private Candidate(final int position, final Notification notification, final Pattern ueiPattern, final Pattern severityPattern) {
+            m_position = position;
+            m_notification = notification;
+            m_ueiPattern = ueiPattern;
+            m_severityPattern = severityPattern;
+        }
+
+        public Notification getNotification() {
+            return m_notification;
+        }
+
+        /**
+         * Returns true if the notification has no severity pattern or if
+         * the given severity matches it.
+         */
+        public boolean matchesSeverity(final String severity) {
+            return m_notification.getEventSeverity() == null || (m_severityPattern != null && m_severityPattern.matcher(severity.toLowerCase()).matches());
+        }
+    }
+
+    private final Notifications m_notifications;
+    private final int m_count;
+    private final Map<String, List<Candidate>> m_byUei = new HashMap<String, List<Candidate>>();
+    private final List<Candidate> m_matchAnyUei = new ArrayList<Candidate>();
+    private final List<Candidate> m_regexUei = new ArrayList<Candidate>();
+    private final Map<String, List<Candidate>> m_candidates = new ConcurrentHashMap<String, List<Candidate>>();
+
+    /**
+     * <p>Constructor for NotificationIndex.</p>
+     *
+     * @param notifications the notifications to index
+     */
+    NotificationIndex(final Notifications notifications) {
+        m_notifications = notifications;
+        final List<Notification> notifs = notifications.getNotificationCollection();
+        m_count = notifs.size();
+
+        int position = 0;
+        for (final Notification notif : notifs) {
+            final String uei = notif.getUei();
+            final Pattern severityPattern = notif.getEventSeverity() == null ? null : compile(notif, notif.getEventSeverity().toLowerCase());
+            if (uei == null) {
+                LOG.warn("Notification {} has no UEI, it will never match.", notif.getName());
+            } else if (MATCH_ANY_UEI.equals(uei)) {
+                m_matchAnyUei.add(new Candidate(position, notif, null, severityPattern));
+            } else if (uei.length() > 0 && uei.charAt(0) == '~') {
+                final Pattern ueiPattern = compile(notif, uei.substring(1));
+                if (ueiPattern != null) {
+                    m_regexUei.add(new Candidate(position, notif, ueiPattern, severityPattern));
+                }
+            } else {
+                List<Candidate> bucket = m_byUei.get(uei);
+                if (bucket == null) {
+                    bucket = new ArrayList<Candidate>(1);
+                    m_byUei.put(uei, bucket);
+                }
+                bucket.add(new Candidate(position, notif, null, severityPattern));
+            }
+            position++;
+        }
+    }
+
+    private static Pattern compile(final Notification notif, final String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (final PatternSyntaxException e) {
+            LOG.error("Invalid regular expression {} in notification {}, it will never match.", regex, notif.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if this index is up to date with the given notifications.
+     */
+    boolean isIndexOf(final Notifications notifications) {
+        return notifications == m_notifications && notifications.getNotificationCollection().size() == m_count;
+    }
+
+    /**
+     * Returns the notifications that may match events with the given UEI,
+     * in the order of the configuration.
+     *
+     * @param uei the UEI of an event
+     * @return a {@link java.util.List} object.
+     */
+    List<Candidate> getCandidates(final String uei) {
+        List<Candidate> candidates = m_candidates.get(uei);
+        if (candidates == null) {
+            candidates = findCandidates(uei);
+            if (m_candidates.size() >= MAX_CANDIDATE_LISTS) {
+                m_candidates.clear();
+            }
+            m_candidates.put(uei, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns true if there are notifications for events with the given UEI.
+     */
+    boolean hasUei(final String uei) {
+        return !getCandidates(uei).isEmpty();
+    }
+
+    private List<Candidate> findCandidates(final String uei) {
+        final List<Candidate> bucket = m_byUei.get(uei);
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+        if (bucket != null) {
+            candidates.addAll(bucket);
+        }
+        candidates.addAll(m_matchAnyUei);
+        for (final Candidate candidate : m_regexUei) {
+            if (candidate.m_ueiPattern.matcher(uei).matches()) {
+                candidates.add(candidate);
+            } else {
+                LOG.debug("Notification regex {} failed to match event UEI: {}", candidate.m_notification.getUei(), uei);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // back to the order of the configuration
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(final Candidate a, final Candidate b) {
+                return a.m_position < b.m_position ? -1 : (a.m_position == b.m_position ? 0 : 1);
+            }
+        });
+        return Collections.unmodifiableList(candidates);
+    }
+}
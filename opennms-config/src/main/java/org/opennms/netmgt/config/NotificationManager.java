@@ -44,11 +44,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.sql.DataSource;
 
@@ -90,6 +92,67 @@ public abstract class NotificationManager {
      */
     public Notifications m_notifications;
 
+    /**
+     * Index of m_notifications by event UEI, built when first needed. It is
+     * built under the monitor of the manager, which the methods changing the
+     * notifications hold until they have cleared it, so an index can't be
+     * built from notifications that are being changed and published after
+     * they were cleared.
+     */
+    private volatile NotificationIndex m_index;
+
+    /**
+     * The maximum number of filter rule results that are kept
+     */
+    private static final int MAX_RULE_MATCHES = 10000;
+
+    /**
+     * The number of milliseconds after which a filter rule result is run again
+     */
+    private static final long RULE_MATCH_MAX_AGE = 60000;
+
+    /**
+     * The events after which the filter rule results are run again, because
+     * they change the nodes, interfaces or services that the rules select
+     */
+    private static final Set<String> INVENTORY_EVENT_UEIS = new HashSet<String>();
+
+    static {
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_ADDED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_UPDATED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_DELETED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.DUP_NODE_DELETED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_LABEL_CHANGED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_INFO_CHANGED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.ASSET_INFO_CHANGED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.INTERFACE_DELETED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.INTERFACE_REPARENTED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.INTERFACE_INDEX_CHANGED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.INTERFACE_SUPPORTS_SNMP_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.PRIMARY_SNMP_INTERFACE_CHANGED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.NODE_GAINED_SERVICE_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.SERVICE_DELETED_EVENT_UEI);
+        INVENTORY_EVENT_UEIS.add(EventConstants.SERVICE_UNMANAGED_EVENT_UEI);
+    }
+
+    private static final class RuleMatch {
+        private final boolean m_matches;
+        private final long m_time;
+
+        private RuleMatch(final boolean matches, final long time) {
+            m_matches = matches;
+            m_time = time;
+        }
+    }
+
+    /**
+     * Results of the filter rules, keyed by the rule constrained to the
+     * node, interface and service of an event
+     */
+    private final Map<String, RuleMatch> m_ruleMatches = new ConcurrentHashMap<String, RuleMatch>();
+
     /**
      * Counters for exposure via JMX
      */
@@ -197,6 +260,7 @@ public abstract class NotificationManager {
     public synchronized void parseXML(final Reader reader) throws MarshalException, ValidationException {
         m_notifications = CastorUtils.unmarshal(Notifications.class, reader, true);
         oldHeader = m_notifications.getHeader();
+        clearIndex();
     }
 
     /**
@@ -209,6 +273,7 @@ public abstract class NotificationManager {
     public synchronized void parseXML(final InputStream stream) throws MarshalException, ValidationException {
         m_notifications = CastorUtils.unmarshal(Notifications.class, stream, true);
         oldHeader = m_notifications.getHeader();
+        clearIndex();
     }
 
     /**
@@ -223,18 +288,44 @@ public abstract class NotificationManager {
     public boolean hasUei(final String uei) throws IOException, MarshalException, ValidationException {
         update();
 
-        for (Notification notif : m_notifications.getNotificationCollection()) {
-            if (uei.equals(notif.getUei()) || "MATCH-ANY-UEI".equals(notif.getUei())) {
-                return true;
-            } else if (notif.getUei().charAt(0) == '~') {
-                if (uei.matches(notif.getUei().substring(1))) {
-                    return true;
-                }
+        return getIndex().hasUei(uei);
+    }
 
+    /**
+     * Returns the index of the current notifications, building it if the
+     * notifications have changed.
+     */
+    private NotificationIndex getIndex() {
+        NotificationIndex index = m_index;
+        if (index == null || !index.isIndexOf(m_notifications)) {
+            synchronized (this) {
+                index = m_index;
+                if (index == null || !index.isIndexOf(m_notifications)) {
+                    index = new NotificationIndex(m_notifications);
+                    m_index = index;
+                }
             }
         }
+        return index;
+    }
 
-        return false;
+    private void clearIndex() {
+        m_index = null;
+        m_ruleMatches.clear();
+    }
+
+    /**
+     * Forgets the results of the filter rules of the notifications if the
+     * given event changes the nodes, interfaces or services that the rules
+     * may select.
+     *
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     */
+    public void invalidateRuleMatches(final Event event) {
+        if (event != null && INVENTORY_EVENT_UEIS.contains(event.getUei()) && !m_ruleMatches.isEmpty()) {
+            LOG.debug("Clearing {} filter rule results after event {}", m_ruleMatches.size(), event.getUei());
+            m_ruleMatches.clear();
+        }
     }
 
     /**
@@ -262,35 +353,19 @@ public abstract class NotificationManager {
             return null;
         }
 
-        for (Notification curNotif : m_notifications.getNotificationCollection()) {
+        // Only the notifications for the UEI of the event (exact, MATCH-ANY-UEI or regex), in configuration order
+        for (NotificationIndex.Candidate candidate : getIndex().getCandidates(event.getUei())) {
+            final Notification curNotif = candidate.getNotification();
 
             LOG.debug("Checking notification {} against event {} with UEI {}", curNotif.getUei(), event.getDbid(), event.getUei());
 
-            if (event.getUei().equals(curNotif.getUei()) || "MATCH-ANY-UEI".equals(curNotif.getUei())) {
-                // Match!
-            } else if (curNotif.getUei().charAt(0) == '~') {
-                if (event.getUei().matches(curNotif.getUei().substring(1))) {
-                    // Match!
-                } else {
-
-                    LOG.debug("Notification regex {} failed to match event UEI: {}", event.getUei(), curNotif.getUei());
-                    continue;
-                }
-            } else {
-
-                LOG.debug("Notification UEI {} did not match UEI of event {}: {}", curNotif.getUei(), event.getDbid(), event.getUei());
-                continue;
-            }
-
             /**
              * Check if event severity matches pattern in notification
              */
 
             LOG.debug("Checking event severity: {} against notification severity: {}", curNotif.getEventSeverity(), event.getSeverity());
             // parameter is optional, return true if not set
-            if (curNotif.getEventSeverity() == null) {
-                // Skip matching on severity
-            } else if (event.getSeverity().toLowerCase().matches(curNotif.getEventSeverity().toLowerCase())) {
+            if (candidate.matchesSeverity(event.getSeverity())) {
                 // Severities match
             } else {
 
@@ -305,14 +380,15 @@ public abstract class NotificationManager {
             // Then the service has to match if configured, the interface if configured, and the node if configured.
 
             if (curNotif.getStatus().equals("on")) {
-                if (nodeInterfaceServiceValid(curNotif, event)) {
-                    boolean parmsmatched = getConfigManager().matchNotificationParameters(event, curNotif);
+                // The parameters are checked first, they don't need the database
+                boolean parmsmatched = getConfigManager().matchNotificationParameters(event, curNotif);
 
-                    if (!parmsmatched) {
+                if (!parmsmatched) {
 
-                        LOG.debug("Event {} did not match parameters for notice {}", curNotif.getName(), event.getUei());
-                        continue;
-                    }
+                    LOG.debug("Event {} did not match parameters for notice {}", curNotif.getName(), event.getUei());
+                    continue;
+                }
+                if (nodeInterfaceServiceValid(curNotif, event)) {
                     // Add this notification to the return value
                     notifList.add(curNotif);
 
@@ -395,8 +471,18 @@ public abstract class NotificationManager {
     }
 
     private boolean isRuleMatchingFilter(final Notification notif, final String rule) {
+        final long now = System.currentTimeMillis();
+        final RuleMatch cached = m_ruleMatches.get(rule);
+        if (cached != null && now - cached.m_time < RULE_MATCH_MAX_AGE) {
+            return cached.m_matches;
+        }
         try {
-            return FilterDaoFactory.getInstance().isRuleMatching(rule);
+            final boolean matches = FilterDaoFactory.getInstance().isRuleMatching(rule);
+            if (m_ruleMatches.size() >= MAX_RULE_MATCHES) {
+                m_ruleMatches.clear();
+            }
+            m_ruleMatches.put(rule, new RuleMatch(matches, now));
+            return matches;
         } catch (FilterParseException e) {
             LOG.error("Invalid filter rule for notification {}: {}", notif.getName(), notif.getRule(), e);
             throw e;
@@ -1110,6 +1196,7 @@ public abstract class NotificationManager {
      */
     public synchronized void saveCurrent() throws MarshalException, ValidationException, IOException, ClassNotFoundException {
         m_notifications.setHeader(rebuildHeader());
+        clearIndex();
 
         // Marshal to a string first, then write the string to the file. This
         // way the original configuration
@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory copy of the nodes, interfaces, services and categories that the
+ * filter rules compiled by {@link InMemoryFilterRule} refer to.
+ *
+ * The snapshot is loaded from the database on first use, and the nodes are
+ * loaded again one by one as the events about them are received.  If a node
+ * can't be loaded, or after the maximum age, the whole snapshot is loaded
+ * again on its next use.
+ */
+public class FilterSnapshot implements EventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterSnapshot.class);
+
+    /**
+     * The events after which a node must be loaded again.
+     */
+    public static final List<String> UEIS = Collections.unmodifiableList(Arrays.asList(
+        EventConstants.NODE_ADDED_EVENT_UEI,
+        EventConstants.NODE_UPDATED_EVENT_UEI,
+        EventConstants.NODE_DELETED_EVENT_UEI,
+        EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+        EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+        EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+        EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+        EventConstants.INTERFACE_DELETED_EVENT_UEI,
+        EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+        EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+        EventConstants.SERVICE_DELETED_EVENT_UEI,
+        EventConstants.SERVICE_UNMANAGED_EVENT_UEI
+    ));
+
+    /**
+     * An IP interface and the names of its services.
+     */
+    public static class Interface {
+        private final String m_ipAddress;
+        private final boolean m_deleted;
+        private final Set<String> m_services;
+
+        Interface(final String ipAddress, final boolean deleted, final Set<String> services) {
+            m_ipAddress = ipAddress;
+            m_deleted = deleted;
+            m_services = Collections.unmodifiableSet(services);
+        }
+
+        public String getIpAddress() {
+            return m_ipAddress;
+        }
+
+        /**
+         * <p>isDeleted</p>
+         *
+         * @return true if the interface is marked as deleted ('D')
+         */
+        public boolean isDeleted() {
+            return m_deleted;
+        }
+
+        public Set<String> getServices() {
+            return m_services;
+        }
+    }
+
+    /**
+     * A node, the names of its categories and its interfaces by IP address.
+     */
+    public static class Node {
+        private final int m_id;
+        private final String m_label;
+        private final Set<String> m_categories;
+        private final Map<String, Interface> m_interfaces;
+
+        Node(final int id, final String label, final Set<String> categories, final Map<String, Interface> interfaces) {
+            m_id = id;
+            m_label = label;
+            m_categories = Collections.unmodifiableSet(categories);
+            m_interfaces = Collections.unmodifiableMap(interfaces);
+        }
+
+        public int getId() {
+            return m_id;
+        }
+
+        public String getLabel() {
+            return m_label;
+        }
+
+        public Set<String> getCategories() {
+            return m_categories;
+        }
+
+        public Collection<Interface> getInterfaces() {
+            return m_interfaces.values();
+        }
+
+        public Interface getInterface(final String ipAddress) {
+            return m_interfaces.get(ipAddress);
+        }
+    }
+
+    private final DataSource m_dataSource;
+
+    private final long m_maxAge;
+
+    private final Map<Integer, Node> m_nodes = new ConcurrentHashMap<Integer, Node>();
+
+    /**
+     * The IDs of the nodes that have each IP address, sets are replaced
+     * rather than modified
+     */
+    private final Map<String, Set<Integer>> m_nodeIds = new ConcurrentHashMap<String, Set<Integer>>();
+
+    private volatile boolean m_stale = true;
+
+    private volatile long m_loadedAt = 0;
+
+    /**
+     * <p>Constructor for FilterSnapshot.</p>
+     *
+     * @param dataSource the database to load the snapshot from
+     * @param maxAge the number of milliseconds after which the snapshot is loaded again
+     */
+    public FilterSnapshot(final DataSource dataSource, final long maxAge) {
+        m_dataSource = dataSource;
+        m_maxAge = maxAge;
+    }
+
+    /**
+     * Returns the nodes, after loading the snapshot again if it is stale.
+     *
+     * @return a {@link java.util.Collection} object.
+     * @throws java.sql.SQLException if the snapshot can't be loaded
+     */
+    public Collection<Node> getNodes() throws SQLException {
+        checkLoaded();
+        return m_nodes.values();
+    }
+
+    /**
+     * Returns the nodes that have an interface with the given IP address,
+     * after loading the snapshot again if it is stale.
+     *
+     * @param ipAddress an IP address as stored in the database
+     * @return a {@link java.util.Collection} object.
+     * @throws java.sql.SQLException if the snapshot can't be loaded
+     */
+    public Collection<Node> getNodes(final String ipAddress) throws SQLException {
+        checkLoaded();
+        final Set<Integer> nodeIds = m_nodeIds.get(ipAddress);
+        if (nodeIds == null) {
+            return Collections.emptyList();
+        }
+        final List<Node> nodes = new ArrayList<Node>(nodeIds.size());
+        for (final Integer nodeId : nodeIds) {
+            final Node node = m_nodes.get(nodeId);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Tells whether an interface with the given IP address, on any node,
+     * has the given service.
+     *
+     * @param ipAddress an IP address as stored in the database
+     * @param service a service name
+     * @return a boolean.
+     */
+    public boolean hasService(final String ipAddress, final String service) {
+        final Set<Integer> nodeIds = m_nodeIds.get(ipAddress);
+        if (nodeIds == null) {
+            return false;
+        }
+        for (final Integer nodeId : nodeIds) {
+            final Node node = m_nodes.get(nodeId);
+            final Interface iface = node == null ? null : node.getInterface(ipAddress);
+            if (iface != null && iface.getServices().contains(service)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the snapshot as stale, so that it is loaded again on its next use.
+     */
+    public void invalidate() {
+        m_stale = true;
+    }
+
+    public boolean isStale() {
+        return m_stale || System.currentTimeMillis() - m_loadedAt > m_maxAge;
+    }
+
+    public int getSize() {
+        return m_nodes.size();
+    }
+
+    private void checkLoaded() throws SQLException {
+        if (isStale()) {
+            synchronized (this) {
+                if (isStale()) {
+                    load();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads all of the nodes.
+     *
+     * @throws java.sql.SQLException if any.
+     */
+    public synchronized void load() throws SQLException {
+        // cleared first, so that the nodes of the events received meanwhile are loaded again after it
+        m_stale = false;
+        final long start = System.currentTimeMillis();
+        try {
+            final Map<Integer, Node> nodes = query(null);
+            for (final Integer nodeId : m_nodes.keySet()) {
+                if (!nodes.containsKey(nodeId)) {
+                    setNode(nodeId, null);
+                }
+            }
+            for (final Node node : nodes.values()) {
+                setNode(node.getId(), node);
+            }
+            m_loadedAt = start;
+            LOG.debug("load: loaded {} nodes in {} ms", nodes.size(), System.currentTimeMillis() - start);
+        } catch (final SQLException e) {
+            m_stale = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the given node again, or removes it if it doesn't exist anymore.
+     *
+     * @param nodeId a node ID
+     * @throws java.sql.SQLException if any.
+     */
+    public synchronized void loadNode(final int nodeId) throws SQLException {
+        final Map<Integer, Node> nodes = query(nodeId);
+        setNode(nodeId, nodes.get(nodeId));
+    }
+
+    /**
+     * Adds, replaces or removes a node, which must be done while holding the
+     * monitor of the snapshot.
+     */
+    void setNode(final int nodeId, final Node node) {
+        final Node previous = node == null ? m_nodes.remove(nodeId) : m_nodes.put(nodeId, node);
+        if (previous != null) {
+            for (final Interface iface : previous.getInterfaces()) {
+                if (node == null || node.getInterface(iface.getIpAddress()) == null) {
+                    final Set<Integer> nodeIds = new TreeSet<Integer>(m_nodeIds.get(iface.getIpAddress()));
+                    nodeIds.remove(nodeId);
+                    if (nodeIds.isEmpty()) {
+                        m_nodeIds.remove(iface.getIpAddress());
+                    } else {
+                        m_nodeIds.put(iface.getIpAddress(), Collections.unmodifiableSet(nodeIds));
+                    }
+                }
+            }
+        }
+        if (node != null) {
+            for (final Interface iface : node.getInterfaces()) {
+                final Set<Integer> current = m_nodeIds.get(iface.getIpAddress());
+                if (current == null || !current.contains(nodeId)) {
+                    final Set<Integer> nodeIds = current == null ? new TreeSet<Integer>() : new TreeSet<Integer>(current);
+                    nodeIds.add(nodeId);
+                    m_nodeIds.put(iface.getIpAddress(), Collections.unmodifiableSet(nodeIds));
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the snapshot as loaded, which is only meant for the tests that
+     * fill it with {@link #setNode(int, Node)}.
+     */
+    void setLoaded() {
+        m_loadedAt = System.currentTimeMillis();
+        m_stale = false;
+    }
+
+    private Map<Integer, Node> query(final Integer nodeId) throws SQLException {
+        final Map<Integer, String> labels = new HashMap<Integer, String>();
+        final Map<Integer, Set<String>> categories = new HashMap<Integer, Set<String>>();
+        final Map<Integer, Map<String, Boolean>> interfaces = new HashMap<Integer, Map<String, Boolean>>();
+        final Map<Integer, Map<String, Set<String>>> services = new HashMap<Integer, Map<String, Set<String>>>();
+
+        final DBUtils d = new DBUtils(getClass());
+        try {
+            final Connection conn = m_dataSource.getConnection();
+            d.watch(conn);
+            final Statement stmt = conn.createStatement();
+            d.watch(stmt);
+
+            ResultSet rset = stmt.executeQuery("SELECT nodeID, nodeLabel FROM node" + (nodeId == null ? "" : " WHERE nodeID = " + nodeId));
+            d.watch(rset);
+            while (rset.next()) {
+                labels.put(rset.getInt(1), rset.getString(2));
+            }
+
+            rset = stmt.executeQuery("SELECT category_node.nodeID, categories.categoryName FROM category_node, categories WHERE categories.categoryID = category_node.categoryID" + (nodeId == null ? "" : " AND category_node.nodeID = " + nodeId));
+            d.watch(rset);
+            while (rset.next()) {
+                get(categories, rset.getInt(1)).add(rset.getString(2));
+            }
+
+            rset = stmt.executeQuery("SELECT nodeID, ipAddr, isManaged FROM ipInterface" + (nodeId == null ? "" : " WHERE nodeID = " + nodeId));
+            d.watch(rset);
+            while (rset.next()) {
+                Map<String, Boolean> nodeInterfaces = interfaces.get(rset.getInt(1));
+                if (nodeInterfaces == null) {
+                    nodeInterfaces = new LinkedHashMap<String, Boolean>();
+                    interfaces.put(rset.getInt(1), nodeInterfaces);
+                }
+                nodeInterfaces.put(rset.getString(2), "D".equals(rset.getString(3)));
+            }
+
+            rset = stmt.executeQuery("SELECT ipInterface.nodeID, ipInterface.ipAddr, service.serviceName FROM ifServices, ipInterface, service WHERE ifServices.ipInterfaceId = ipInterface.id AND ifServices.serviceID = service.serviceID" + (nodeId == null ? "" : " AND ipInterface.nodeID = " + nodeId));
+            d.watch(rset);
+            while (rset.next()) {
+                Map<String, Set<String>> nodeServices = services.get(rset.getInt(1));
+                if (nodeServices == null) {
+                    nodeServices = new HashMap<String, Set<String>>();
+                    services.put(rset.getInt(1), nodeServices);
+                }
+                get(nodeServices, rset.getString(2)).add(rset.getString(3));
+            }
+        } finally {
+            d.cleanUp();
+        }
+
+        final Map<Integer, Node> nodes = new HashMap<Integer, Node>();
+        for (final Map.Entry<Integer, String> entry : labels.entrySet()) {
+            final Map<String, Interface> nodeInterfaces = new LinkedHashMap<String, Interface>();
+            final Map<String, Boolean> deleted = interfaces.get(entry.getKey());
+            final Map<String, Set<String>> nodeServices = services.get(entry.getKey());
+            if (deleted != null) {
+                for (final Map.Entry<String, Boolean> iface : deleted.entrySet()) {
+                    final Set<String> ifServices = nodeServices == null ? null : nodeServices.get(iface.getKey());
+                    nodeInterfaces.put(iface.getKey(), new Interface(iface.getKey(), iface.getValue(), ifServices == null ? Collections.<String>emptySet() : ifServices));
+                }
+            }
+            final Set<String> nodeCategories = categories.get(entry.getKey());
+            nodes.put(entry.getKey(), new Node(entry.getKey(), entry.getValue(), nodeCategories == null ? Collections.<String>emptySet() : nodeCategories, nodeInterfaces));
+        }
+        return nodes;
+    }
+
+    private static <K> Set<String> get(final Map<K, Set<String>> map, final K key) {
+        Set<String> values = map.get(key);
+        if (values == null) {
+            values = new TreeSet<String>();
+            map.put(key, values);
+        }
+        return values;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getName() {
+        return "FilterSnapshot";
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Loads the node of the event again, and the former node of a
+     * reparented interface.
+     */
+    @Override
+    public void onEvent(final Event event) {
+        if (m_stale) {
+            // loaded in full on its next use anyway
+            return;
+        }
+        final Set<Integer> nodeIds = new TreeSet<Integer>();
+        if (event.getNodeid() != null && event.getNodeid() > 0) {
+            nodeIds.add(event.getNodeid().intValue());
+        }
+        if (EventConstants.INTERFACE_REPARENTED_EVENT_UEI.equals(event.getUei())) {
+            final Parm parm = event.getParm(EventConstants.PARM_OLD_NODEID);
+            if (parm != null && parm.getValue() != null) {
+                try {
+                    nodeIds.add(Integer.parseInt(parm.getValue().getContent()));
+                } catch (final NumberFormatException e) {
+                    LOG.warn("Parameter {} cannot be non-numeric", EventConstants.PARM_OLD_NODEID, e);
+                    invalidate();
+                    return;
+                }
+            }
+        }
+        if (nodeIds.isEmpty()) {
+            invalidate();
+            return;
+        }
+        try {
+            for (final Integer nodeId : nodeIds) {
+                loadNode(nodeId);
+            }
+        } catch (final SQLException e) {
+            LOG.warn("Unable to load node(s) {} after event {}, the filter snapshot will be loaded again", nodeIds, event.getUei(), e);
+            invalidate();
+        }
+    }
+}
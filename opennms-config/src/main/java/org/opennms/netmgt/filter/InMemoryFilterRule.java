@@ -0,0 +1,506 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.opennms.core.utils.IPLike;
+
+/**
+ * A filter rule compiled to be evaluated against a {@link FilterSnapshot}
+ * instead of the database.
+ *
+ * Only the common rules are supported: IPLIKE on the IP address, the
+ * isSERVICE, notisSERVICE and catincCATEGORY prefixes, and comparisons of
+ * ipAddr, nodeID, nodeLabel and serviceName with constants, combined with
+ * AND, OR, NOT and parentheses.  {@link #compile(String)} returns null for
+ * the others, which have to be run as SQL.
+ *
+ * The rule is evaluated the same way as the SQL WHERE clause built by
+ * {@link JdbcFilterDao}: once for each interface, or once for each service
+ * of each interface when the rule refers to the services, since the
+ * services are then joined to the interfaces.
+ */
+public class InMemoryFilterRule {
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[a-zA-Z0-9_\\-]*[a-zA-Z][a-zA-Z0-9_\\-]*");
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("-?\\d+");
+    private static final Pattern IPLIKE_PATTERN = Pattern.compile("[0-9a-fA-F.:*,%-]+");
+
+    /**
+     * A row of the join of the nodes, the interfaces and their services.
+     */
+    static class Row {
+        private final FilterSnapshot.Node m_node;
+        private final FilterSnapshot.Interface m_interface;
+        private final String m_service;
+
+        Row(final FilterSnapshot.Node node, final FilterSnapshot.Interface iface, final String service) {
+            m_node = node;
+            m_interface = iface;
+            m_service = service;
+        }
+    }
+
+    private static abstract class Expression {
+        abstract boolean matches(FilterSnapshot snapshot, Row row);
+    }
+
+    private static final Expression TRUE = new Expression() {
+        @Override
+        boolean matches(final FilterSnapshot snapshot, final Row row) {
+            return true;
+        }
+    };
+
+    private final String m_rule;
+    private final Expression m_expression;
+    private final boolean m_usesServices;
+
+    private InMemoryFilterRule(final String rule, final Expression expression, final boolean usesServices) {
+        m_rule = rule;
+        m_expression = expression;
+        m_usesServices = usesServices;
+    }
+
+    /**
+     * Compiles the rule.
+     *
+     * @param rule a filter rule
+     * @return the compiled rule, or null if it can't be evaluated in memory
+     */
+    public static InMemoryFilterRule compile(final String rule) {
+        if (rule == null || rule.trim().length() == 0) {
+            return new InMemoryFilterRule(rule, TRUE, false);
+        }
+        final List<String> tokens = tokenize(rule);
+        if (tokens == null) {
+            return null;
+        }
+        final Parser parser = new Parser(tokens);
+        final Expression expression = parser.parseOr();
+        if (expression == null || parser.m_position != tokens.size()) {
+            return null;
+        }
+        return new InMemoryFilterRule(rule, expression, parser.m_usesServices);
+    }
+
+    public String getRule() {
+        return m_rule;
+    }
+
+    /**
+     * Tells whether the rule is evaluated once for each service of each
+     * interface rather than once for each interface.
+     *
+     * @return a boolean.
+     */
+    public boolean usesServices() {
+        return m_usesServices;
+    }
+
+    /**
+     * Tells whether the rule matches one of the interfaces of the node,
+     * deleted or not.  As the nodes are always joined to their interfaces,
+     * the nodes without interfaces never match.
+     *
+     * @param snapshot the snapshot that the node comes from
+     * @param node a node
+     * @return a boolean.
+     */
+    public boolean matches(final FilterSnapshot snapshot, final FilterSnapshot.Node node) {
+        for (final FilterSnapshot.Interface iface : node.getInterfaces()) {
+            if (matches(snapshot, node, iface)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the rule matches an interface of the node, or one of
+     * the services of this interface when the rule refers to the services.
+     *
+     * @param snapshot the snapshot that the node comes from
+     * @param node a node
+     * @param iface an interface of the node
+     * @return a boolean.
+     */
+    public boolean matches(final FilterSnapshot snapshot, final FilterSnapshot.Node node, final FilterSnapshot.Interface iface) {
+        if (!m_usesServices) {
+            return m_expression.matches(snapshot, new Row(node, iface, null));
+        }
+        for (final String service : iface.getServices()) {
+            if (m_expression.matches(snapshot, new Row(node, iface, service))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the rule matches a service of an interface of the node.
+     *
+     * @param snapshot the snapshot that the node comes from
+     * @param node a node
+     * @param iface an interface of the node
+     * @param service a service of the interface
+     * @return a boolean.
+     */
+    public boolean matches(final FilterSnapshot snapshot, final FilterSnapshot.Node node, final FilterSnapshot.Interface iface, final String service) {
+        return m_expression.matches(snapshot, new Row(node, iface, service));
+    }
+
+    /**
+     * Splits the rule the way that JdbcFilterDao translates it: quoted
+     * strings, operators and their aliases, parentheses, and words.
+     *
+     * @return the tokens, or null if the rule contains anything else
+     */
+    private static List<String> tokenize(final String rule) {
+        final List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        final int length = rule.length();
+        while (i < length) {
+            final char c = rule.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                // as in SQL, a doubled quote is an escaped quote
+                final StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                while (true) {
+                    if (j >= length) {
+                        return null;
+                    }
+                    if (rule.charAt(j) == c) {
+                        if (j + 1 < length && rule.charAt(j + 1) == c) {
+                            value.append(c);
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    value.append(rule.charAt(j++));
+                }
+                tokens.add("'" + value);
+                i = j + 1;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '&' || c == '|' || c == '=') {
+                int j = i + 1;
+                if (j < length && rule.charAt(j) == c) {
+                    j++;
+                }
+                tokens.add(c == '&' ? "AND" : c == '|' ? "OR" : "=");
+                i = j;
+            } else if (c == '!') {
+                if (i + 1 < length && rule.charAt(i + 1) == '=') {
+                    tokens.add("!=");
+                    i += 2;
+                } else {
+                    tokens.add("NOT");
+                    i++;
+                }
+            } else if (c == '<' && i + 1 < length && rule.charAt(i + 1) == '>') {
+                tokens.add("!=");
+                i += 2;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '*' || c == ':' || c == ',') {
+                int j = i;
+                while (j < length) {
+                    final char d = rule.charAt(j);
+                    if (!(Character.isLetterOrDigit(d) || d == '_' || d == '-' || d == '.' || d == '*' || d == ':' || d == ',')) {
+                        break;
+                    }
+                    j++;
+                }
+                tokens.add(rule.substring(i, j));
+                i = j;
+            } else {
+                return null;
+            }
+        }
+        return tokens;
+    }
+
+    private static class Parser {
+        private final List<String> m_tokens;
+        private int m_position = 0;
+        private boolean m_usesServices = false;
+
+        private Parser(final List<String> tokens) {
+            m_tokens = tokens;
+        }
+
+        private String peek() {
+            return m_position < m_tokens.size() ? m_tokens.get(m_position) : null;
+        }
+
+        private boolean accept(final String keyword) {
+            final String token = peek();
+            if (token != null && !token.startsWith("'") && token.equalsIgnoreCase(keyword)) {
+                m_position++;
+                return true;
+            }
+            return false;
+        }
+
+        private Expression parseOr() {
+            Expression left = parseAnd();
+            while (left != null && accept("OR")) {
+                final Expression l = left;
+                final Expression r = parseAnd();
+                if (r == null) {
+                    return null;
+                }
+                left = new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return l.matches(snapshot, row) || r.matches(snapshot, row);
+                    }
+                };
+            }
+            return left;
+        }
+
+        private Expression parseAnd() {
+            Expression left = parseNot();
+            while (left != null && accept("AND")) {
+                final Expression l = left;
+                final Expression r = parseNot();
+                if (r == null) {
+                    return null;
+                }
+                left = new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return l.matches(snapshot, row) && r.matches(snapshot, row);
+                    }
+                };
+            }
+            return left;
+        }
+
+        private Expression parseNot() {
+            if (accept("NOT")) {
+                final Expression e = parseNot();
+                if (e == null) {
+                    return null;
+                }
+                return new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return !e.matches(snapshot, row);
+                    }
+                };
+            }
+            if (accept("(")) {
+                final Expression e = parseOr();
+                if (e == null || !accept(")")) {
+                    return null;
+                }
+                return e;
+            }
+            return parseTerm();
+        }
+
+        private Expression parseTerm() {
+            final String token = peek();
+            if (token == null || token.startsWith("'") || !IDENTIFIER_PATTERN.matcher(token).matches()) {
+                return null;
+            }
+            m_position++;
+
+            // the prefixes are case sensitive, as in JdbcFilterDao
+            if (token.startsWith("is")) {
+                m_usesServices = true;
+                return serviceEquals(token.substring(2));
+            } else if (token.startsWith("notis")) {
+                final String service = token.substring(5);
+                return new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return !snapshot.hasService(row.m_interface.getIpAddress(), service);
+                    }
+                };
+            } else if (token.startsWith("catinc")) {
+                final String category = token.substring(6);
+                return new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return row.m_node.getCategories().contains(category);
+                    }
+                };
+            }
+
+            final String column = token.toLowerCase();
+            if ("ipaddr".equals(column) && accept("IPLIKE")) {
+                final String pattern = peek();
+                if (pattern == null) {
+                    return null;
+                }
+                final String value = pattern.startsWith("'") ? pattern.substring(1) : pattern;
+                if (!IPLIKE_PATTERN.matcher(value).matches()) {
+                    return null;
+                }
+                m_position++;
+                return new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return ipLike(row.m_interface.getIpAddress(), value);
+                    }
+                };
+            }
+
+            final boolean equal;
+            if (accept("=")) {
+                equal = true;
+            } else if (accept("!=")) {
+                equal = false;
+            } else if ("nodelabel".equals(column) && accept("LIKE")) {
+                final String pattern = peek();
+                if (pattern == null || !pattern.startsWith("'")) {
+                    return null;
+                }
+                m_position++;
+                final Pattern regex = likeToRegex(pattern.substring(1));
+                return new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return row.m_node.getLabel() != null && regex.matcher(row.m_node.getLabel()).matches();
+                    }
+                };
+            } else {
+                return null;
+            }
+
+            final String literal = peek();
+            if (literal == null) {
+                return null;
+            }
+            final String value;
+            if (literal.startsWith("'")) {
+                value = literal.substring(1);
+            } else if (INTEGER_PATTERN.matcher(literal).matches()) {
+                value = literal;
+            } else {
+                // an unquoted word is a column
+                return null;
+            }
+            m_position++;
+
+            final Expression comparison;
+            if ("ipaddr".equals(column)) {
+                comparison = new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return value.equals(row.m_interface.getIpAddress());
+                    }
+                };
+            } else if ("nodelabel".equals(column)) {
+                comparison = new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return value.equals(row.m_node.getLabel());
+                    }
+                };
+            } else if ("nodeid".equals(column)) {
+                if (!INTEGER_PATTERN.matcher(value).matches()) {
+                    return null;
+                }
+                final long nodeId = Long.parseLong(value);
+                comparison = new Expression() {
+                    @Override
+                    boolean matches(final FilterSnapshot snapshot, final Row row) {
+                        return row.m_node.getId() == nodeId;
+                    }
+                };
+            } else if ("servicename".equals(column)) {
+                m_usesServices = true;
+                comparison = serviceEquals(value);
+            } else {
+                return null;
+            }
+
+            if (equal) {
+                return comparison;
+            }
+            // the columns are never null, so != is the negation of =
+            return new Expression() {
+                @Override
+                boolean matches(final FilterSnapshot snapshot, final Row row) {
+                    return !comparison.matches(snapshot, row);
+                }
+            };
+        }
+
+        private static Expression serviceEquals(final String service) {
+            return new Expression() {
+                @Override
+                boolean matches(final FilterSnapshot snapshot, final Row row) {
+                    return service.equals(row.m_service);
+                }
+            };
+        }
+    }
+
+    /**
+     * Matches like the IPLIKE database function, which doesn't match the
+     * addresses of the other family.
+     */
+    static boolean ipLike(final String address, final String pattern) {
+        if ((address.indexOf(':') >= 0) != (pattern.indexOf(':') >= 0)) {
+            return false;
+        }
+        try {
+            return IPLike.matches(address, pattern);
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    static Pattern likeToRegex(final String like) {
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            final char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                regex.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+            } else if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
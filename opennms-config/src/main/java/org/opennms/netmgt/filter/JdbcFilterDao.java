@@ -29,6 +29,7 @@
 package org.opennms.netmgt.filter;
 
 import static org.opennms.core.utils.InetAddressUtils.addr;
+import static org.opennms.core.utils.InetAddressUtils.str;
 
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.InetAddress;
@@ -38,6 +39,8 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,6 +56,7 @@ import org.opennms.core.utils.DBUtils;
 import org.opennms.core.utils.InetAddressComparator;
 import org.opennms.netmgt.config.api.DatabaseSchemaConfig;
 import org.opennms.netmgt.config.filter.Table;
+import org.opennms.netmgt.events.api.EventIpcManagerFactory;
 import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.filter.api.FilterParseException;
 import org.slf4j.Logger;
@@ -66,6 +70,12 @@ import org.springframework.util.Assert;
 /**
  * <p>JdbcFilterDao class.</p>
  *
+ * The SQL statements generated for the rules are cached.  When the
+ * org.opennms.filter.inMemory system property is true, the rules that
+ * {@link InMemoryFilterRule} supports are evaluated against a
+ * {@link FilterSnapshot} kept up to date with the node events, and the
+ * others are still run against the database.
+ *
  * @author <a href="mailto:dj@opennms.org">DJ Gregor</a>
  * @version $Id: $
  */
@@ -78,10 +88,39 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 	private static final Pattern SQL_VALUE_COLUMN_PATTERN = Pattern.compile("[a-zA-Z0-9_\\-]*[a-zA-Z][a-zA-Z0-9_\\-]*");
 	private static final Pattern SQL_IPLIKE_PATTERN = Pattern.compile("(\\w+)\\s+IPLIKE\\s+([0-9a-f.:*,-]+|###@\\d+@###)", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
 	private static final String SQL_IPLIKE6_RHS_REGEX = "^[0-9A-Fa-f:*,-]+$";
+    private static final int MAX_CACHED_RULES = 1000;
 
 	private DataSource m_dataSource;
     private DatabaseSchemaConfig m_databaseSchemaConfigFactory;
 
+    /**
+     * The SQL statements by kind and rule, rules that fail to parse aren't cached
+     */
+    private final Map<String, String> m_statements = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_RULES;
+        }
+    };
+
+    /**
+     * The compiled rules, or null for the rules that have to be run as SQL
+     */
+    private final Map<String, InMemoryFilterRule> m_compiledRules = new LinkedHashMap<String, InMemoryFilterRule>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, InMemoryFilterRule> eldest) {
+            return size() > MAX_CACHED_RULES;
+        }
+    };
+
+    private volatile boolean m_inMemory = Boolean.getBoolean("org.opennms.filter.inMemory");
+    private long m_snapshotMaxAge = Long.getLong("org.opennms.filter.inMemory.maxAge", 900000L);
+    private volatile FilterSnapshot m_snapshot;
+
     /**
      * <p>setDataSource</p>
      *
@@ -107,6 +146,9 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      */
     public void setDatabaseSchemaConfigFactory(final DatabaseSchemaConfig factory) {
         m_databaseSchemaConfigFactory = factory;
+        synchronized (m_statements) {
+            m_statements.clear();
+        }
     }
 
     /**
@@ -118,6 +160,43 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return m_databaseSchemaConfigFactory;
     }
 
+    /**
+     * <p>setInMemory</p>
+     *
+     * @param inMemory whether to evaluate the supported rules against a {@link FilterSnapshot}
+     */
+    public void setInMemory(final boolean inMemory) {
+        m_inMemory = inMemory;
+    }
+
+    /**
+     * <p>isInMemory</p>
+     *
+     * @return a boolean.
+     */
+    public boolean isInMemory() {
+        return m_inMemory;
+    }
+
+    /**
+     * <p>setSnapshot</p>
+     *
+     * @param snapshot the snapshot to evaluate the rules against, it must be
+     *        kept up to date by the caller
+     */
+    public void setSnapshot(final FilterSnapshot snapshot) {
+        m_snapshot = snapshot;
+    }
+
+    /**
+     * <p>setSnapshotMaxAge</p>
+     *
+     * @param maxAge the number of milliseconds after which the snapshot is loaded again in full
+     */
+    public void setSnapshotMaxAge(final long maxAge) {
+        m_snapshotMaxAge = maxAge;
+    }
+
     /**
      * <p>afterPropertiesSet</p>
      */
@@ -143,6 +222,22 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 
         LOG.debug("Filter.getNodeMap({})", rule);
 
+        final InMemoryFilterRule inMemoryRule = getInMemoryRule(rule);
+        if (inMemoryRule != null) {
+            final FilterSnapshot snapshot = getSnapshot();
+            try {
+                for (final FilterSnapshot.Node node : snapshot.getNodes()) {
+                    if (inMemoryRule.matches(snapshot, node)) {
+                        resultMap.put(node.getId(), node.getLabel());
+                    }
+                }
+            } catch (final SQLException e) {
+                LOG.warn("SQL Exception occurred getting node map.", e);
+                throw new FilterParseException("SQL Exception occurred getting node map: " + e.getLocalizedMessage(), e);
+            }
+            return Collections.unmodifiableSortedMap(resultMap);
+        }
+
         // get the database connection
         Connection conn = null;
         final DBUtils d = new DBUtils(getClass());
@@ -190,6 +285,32 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 
         LOG.debug("Filter.getIPAddressServiceMap({})", rule);
 
+        final InMemoryFilterRule inMemoryRule = getInMemoryRule(rule);
+        if (inMemoryRule != null) {
+            final FilterSnapshot snapshot = getSnapshot();
+            try {
+                for (final FilterSnapshot.Node node : snapshot.getNodes()) {
+                    for (final FilterSnapshot.Interface iface : node.getInterfaces()) {
+                        for (final String service : iface.getServices()) {
+                            if (inMemoryRule.matches(snapshot, node, iface, service)) {
+                                final InetAddress ipaddr = addr(iface.getIpAddress());
+                                if (ipaddr != null) {
+                                    if (!ipServices.containsKey(ipaddr)) {
+                                        ipServices.put(ipaddr, new TreeSet<String>());
+                                    }
+                                    ipServices.get(ipaddr).add(service);
+                                }
+                            }
+                        }
+                    }
+                }
+            } catch (final SQLException e) {
+                LOG.warn("SQL Exception occurred getting IP Service List.", e);
+                throw new FilterParseException("SQL Exception occurred getting IP Service List: " + e.getLocalizedMessage(), e);
+            }
+            return ipServices;
+        }
+
         // get the database connection
         Connection conn = null;
         final DBUtils d = new DBUtils(getClass());
@@ -269,6 +390,29 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 
         LOG.debug("Filter.getIPAddressList({})", rule);
 
+        final InMemoryFilterRule inMemoryRule = getInMemoryRule(rule);
+        if (inMemoryRule != null) {
+            final FilterSnapshot snapshot = getSnapshot();
+            final Set<String> addresses = new LinkedHashSet<String>();
+            try {
+                for (final FilterSnapshot.Node node : snapshot.getNodes()) {
+                    for (final FilterSnapshot.Interface iface : node.getInterfaces()) {
+                        if (!(filterDeleted && iface.isDeleted()) && inMemoryRule.matches(snapshot, node, iface)) {
+                            addresses.add(iface.getIpAddress());
+                        }
+                    }
+                }
+            } catch (final SQLException e) {
+                LOG.warn("SQL Exception occurred getting IP List.", e);
+                throw new FilterParseException("SQL Exception occurred getting IP List: " + e.getLocalizedMessage(), e);
+            }
+            for (final String address : addresses) {
+                resultList.add(addr(address));
+            }
+            LOG.debug("Filter.getIPAddressList({}): resultList = {}", rule, resultList);
+            return resultList;
+        }
+
         // get the database connection
         Connection conn = null;
         final DBUtils d = new DBUtils(getClass());
@@ -330,6 +474,29 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
     public boolean isValid(final String addr, final String rule) throws FilterParseException {
         if (rule.length() == 0) {
             return true;
+        }
+
+        final InMemoryFilterRule inMemoryRule = getInMemoryRule(rule);
+        if (inMemoryRule != null) {
+            // only the interfaces with this address need to be evaluated
+            final FilterSnapshot snapshot = getSnapshot();
+            final InetAddress address = addr(addr);
+            if (address == null) {
+                return false;
+            }
+            final String ipAddress = str(address);
+            try {
+                for (final FilterSnapshot.Node node : snapshot.getNodes(ipAddress)) {
+                    final FilterSnapshot.Interface iface = node.getInterface(ipAddress);
+                    if (iface != null && !iface.isDeleted() && inMemoryRule.matches(snapshot, node, iface)) {
+                        return true;
+                    }
+                }
+            } catch (final SQLException e) {
+                LOG.warn("SQL Exception occurred getting IP List.", e);
+                throw new FilterParseException("SQL Exception occurred getting IP List: " + e.getLocalizedMessage(), e);
+            }
+            return false;
         } else {
             /*
              * see if the ip address is contained in the list that the
@@ -342,6 +509,26 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
     /** {@inheritDoc} */
     @Override
     public boolean isRuleMatching(final String rule) throws FilterParseException {
+        final InMemoryFilterRule inMemoryRule = getInMemoryRule(rule);
+        if (inMemoryRule != null) {
+            LOG.debug("Filter.isRuleMatching({})", rule);
+            final FilterSnapshot snapshot = getSnapshot();
+            try {
+                for (final FilterSnapshot.Node node : snapshot.getNodes()) {
+                    if (inMemoryRule.matches(snapshot, node)) {
+                        return true;
+                    }
+                }
+            } catch (final SQLException e) {
+                LOG.warn("SQL Exception occurred testing rule \"{}\" for matching results.", rule, e);
+                throw new FilterParseException("SQL Exception occurred testing rule \""+ rule + "\" for matching results: " + e.getLocalizedMessage(), e);
+            }
+            return false;
+        }
+        return isRuleMatchingInDatabase(rule);
+    }
+
+    private boolean isRuleMatchingInDatabase(final String rule) throws FilterParseException {
         boolean matches = false;
         String sqlString;
 
@@ -390,7 +577,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
     public void validateRule(final String rule) throws FilterParseException {
         // Since parseRule does not do complete syntax checking,
         // we need to call a function that will actually execute the generated SQL
-        isRuleMatching(rule);
+        isRuleMatchingInDatabase(rule);
     }
 
     /**
@@ -401,16 +588,22 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      * @throws org.opennms.netmgt.filter.api.FilterParseException if any.
      */
     public String getNodeMappingStatement(final String rule) throws FilterParseException {
-    	final List<Table> tables = new ArrayList<Table>();
+        final String key = "nodeMapping:" + rule;
+        String statement = getCachedStatement(key);
+        if (statement == null) {
+            final List<Table> tables = new ArrayList<Table>();
 
-    	final StringBuffer columns = new StringBuffer();
-        columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "nodeID"));
-        columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "nodeLabel"));
+            final StringBuffer columns = new StringBuffer();
+            columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "nodeID"));
+            columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "nodeLabel"));
 
-        final String where = parseRule(tables, rule);
-        final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
+            final String where = parseRule(tables, rule);
+            final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
 
-        return "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
+            statement = "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
+            cacheStatement(key, statement);
+        }
+        return statement;
     }
 
     /**
@@ -421,16 +614,22 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      * @throws org.opennms.netmgt.filter.api.FilterParseException if any.
      */
     public String getIPServiceMappingStatement(final String rule) throws FilterParseException {
-    	final List<Table> tables = new ArrayList<Table>();
+        final String key = "ipServiceMapping:" + rule;
+        String statement = getCachedStatement(key);
+        if (statement == null) {
+            final List<Table> tables = new ArrayList<Table>();
 
-    	final StringBuffer columns = new StringBuffer();
-        columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
-        columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "serviceName"));
+            final StringBuffer columns = new StringBuffer();
+            columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
+            columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "serviceName"));
 
-        final String where = parseRule(tables, rule);
-        final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
+            final String where = parseRule(tables, rule);
+            final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
 
-        return "SELECT " + columns.toString() + " " + from + " " + where;
+            statement = "SELECT " + columns.toString() + " " + from + " " + where;
+            cacheStatement(key, statement);
+        }
+        return statement;
     }
 
     /**
@@ -441,17 +640,23 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      * @throws org.opennms.netmgt.filter.api.FilterParseException if any.
      */
     public String getInterfaceWithServiceStatement(final String rule) throws FilterParseException {
-    	final List<Table> tables = new ArrayList<Table>();
+        final String key = "interfaceWithService:" + rule;
+        String statement = getCachedStatement(key);
+        if (statement == null) {
+            final List<Table> tables = new ArrayList<Table>();
 
-    	final StringBuffer columns = new StringBuffer();
-        columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
-        columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "serviceName"));
-        columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "nodeID"));
+            final StringBuffer columns = new StringBuffer();
+            columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
+            columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "serviceName"));
+            columns.append(", " + m_databaseSchemaConfigFactory.addColumn(tables, "nodeID"));
 
-        final String where = parseRule(tables, rule);
-        final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
+            final String where = parseRule(tables, rule);
+            final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
 
-        return "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
+            statement = "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
+            cacheStatement(key, statement);
+        }
+        return statement;
     }
 
     /**
@@ -463,15 +668,21 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
      * @throws org.opennms.netmgt.filter.api.FilterParseException if any.
      */
     protected String getSQLStatement(final String rule) throws FilterParseException {
-    	final List<Table> tables = new ArrayList<Table>();
+        final String key = "ipAddress:" + rule;
+        String statement = getCachedStatement(key);
+        if (statement == null) {
+            final List<Table> tables = new ArrayList<Table>();
 
-    	final StringBuffer columns = new StringBuffer();
-        columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
+            final StringBuffer columns = new StringBuffer();
+            columns.append(m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr"));
 
-        final String where = parseRule(tables, rule);
-        final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
+            final String where = parseRule(tables, rule);
+            final String from = m_databaseSchemaConfigFactory.constructJoinExprForTables(tables);
 
-        return "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
+            statement = "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
+            cacheStatement(key, statement);
+        }
+        return statement;
     }
 
     /**
@@ -512,6 +723,67 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return "SELECT DISTINCT " + columns.toString() + " " + from + " " + where;
     }
 
+    private String getCachedStatement(final String key) {
+        synchronized (m_statements) {
+            return m_statements.get(key);
+        }
+    }
+
+    private void cacheStatement(final String key, final String statement) {
+        synchronized (m_statements) {
+            m_statements.put(key, statement);
+        }
+    }
+
+    /**
+     * Returns the compiled rule if the rules are evaluated in memory and
+     * this one is supported.
+     */
+    private InMemoryFilterRule getInMemoryRule(final String rule) {
+        if (!m_inMemory || getSnapshot() == null) {
+            return null;
+        }
+        synchronized (m_compiledRules) {
+            if (m_compiledRules.containsKey(rule)) {
+                return m_compiledRules.get(rule);
+            }
+        }
+        final InMemoryFilterRule compiled = InMemoryFilterRule.compile(rule);
+        if (compiled == null) {
+            LOG.debug("Filter rule \"{}\" is not supported in memory, it will be run against the database", rule);
+        }
+        synchronized (m_compiledRules) {
+            m_compiledRules.put(rule, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the snapshot, creating it and registering it for the events
+     * that it needs on first use.  Without an event manager, the rules are
+     * only run against the database.
+     */
+    private FilterSnapshot getSnapshot() {
+        FilterSnapshot snapshot = m_snapshot;
+        if (snapshot == null && m_inMemory) {
+            synchronized (this) {
+                if (m_snapshot == null) {
+                    final FilterSnapshot newSnapshot = new FilterSnapshot(m_dataSource, m_snapshotMaxAge);
+                    try {
+                        EventIpcManagerFactory.getIpcManager().addEventListener(newSnapshot, FilterSnapshot.UEIS);
+                    } catch (final IllegalStateException e) {
+                        LOG.warn("No event manager to keep the filter snapshot up to date, filter rules will be run against the database.", e);
+                        m_inMemory = false;
+                        return null;
+                    }
+                    m_snapshot = newSnapshot;
+                }
+                snapshot = m_snapshot;
+            }
+        }
+        return snapshot;
+    }
+
     /**
      * SQL Key Word regex
      *
@@ -71,6 +71,7 @@ import org.opennms.netmgt.snmp.TrapIdentity;
 import org.opennms.netmgt.xml.eventconf.AlarmData;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.InputStreamResource;
@@ -157,6 +158,76 @@ public class EventconfFactoryTest {
         assertEquals("UEI", bldr.getEvent().getUei(), eventConf.getUei());
     }
 
+    @Test
+    public void testCompiledMatcherAgreesWithScan() throws Exception {
+        final Events root = m_eventConfDao.getRootEvents();
+        final List<org.opennms.netmgt.xml.event.Event> events = root.forEachEvent(new ArrayList<org.opennms.netmgt.xml.event.Event>(), new EventCallback<List<org.opennms.netmgt.xml.event.Event>>() {
+            @Override
+            public List<org.opennms.netmgt.xml.event.Event> process(List<org.opennms.netmgt.xml.event.Event> accum, Event eventConf) {
+                accum.add(createEventMatching(eventConf));
+                return accum;
+            }
+        });
+        events.add(new EventBuilder(unknownUEI1, "testCompiledMatcherAgreesWithScan").getEvent());
+
+        assertNotNull(root.getMatcher());
+        for (org.opennms.netmgt.xml.event.Event event : events) {
+            assertEquals("matching event for " + event.getUei(), root.scanForFirstMatchingEvent(event), root.getMatcher().findFirstMatchingEvent(event));
+        }
+    }
+
+    @Test
+    public void testFindByTrapCompiledVersusScan() throws Exception {
+        final int ATTEMPTS = 10000;
+
+        final EventBuilder bldr = new EventBuilder(null, "trapd");
+        bldr.setGeneric(6);
+        bldr.setSpecific(1);
+        bldr.setEnterpriseId(".1.3.6.1.4.1.5813.1");
+        for(int i = 0; i < 19; i++) {
+            bldr.addParam(".1.3.6."+(i+1), "parm" + (i+1) );
+        }
+        final org.opennms.netmgt.xml.event.Event event = bldr.getEvent();
+
+        final Events root = loadConfiguration("eventconf-speedtest/eventconf.xml").getRootEvents();
+
+        Event scanned = null;
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < ATTEMPTS; i++) {
+            scanned = root.scanForFirstMatchingEvent(event);
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        LOG.debug("Scan: {} Attempts: Elapsed: {} ms: events per second {}.", ATTEMPTS, elapsed, ATTEMPTS*1000.0/elapsed);
+
+        Event compiled = null;
+        start = System.currentTimeMillis();
+        for(int i = 0; i < ATTEMPTS; i++) {
+            compiled = root.getMatcher().findFirstMatchingEvent(event);
+        }
+        elapsed = Math.max(1, System.currentTimeMillis() - start);
+        LOG.debug("Compiled: {} Attempts: Elapsed: {} ms: events per second {}.", ATTEMPTS, elapsed, ATTEMPTS*1000.0/elapsed);
+
+        assertNotNull(compiled);
+        assertEquals(scanned, compiled);
+    }
+
+    private static org.opennms.netmgt.xml.event.Event createEventMatching(Event eventConf) {
+        final EventBuilder bldr = new EventBuilder(eventConf.getUei(), "trapd");
+        final List<String> ids = eventConf.getMaskElementValues("id");
+        if (ids != null && !ids.isEmpty()) {
+            bldr.setEnterpriseId(ids.get(0).replace("%", "").replace("~", ""));
+        }
+        final List<String> generics = eventConf.getMaskElementValues("generic");
+        if (generics != null && !generics.isEmpty() && generics.get(0).matches("[0-9]+")) {
+            bldr.setGeneric(Integer.parseInt(generics.get(0)));
+        }
+        final List<String> specifics = eventConf.getMaskElementValues("specific");
+        if (specifics != null && !specifics.isEmpty() && specifics.get(0).matches("[0-9]+")) {
+            bldr.setSpecific(Integer.parseInt(specifics.get(0)));
+        }
+        return bldr.getEvent();
+    }
+
     public class EventCreator  {
         
         private EventBuilder m_eventBuilder;
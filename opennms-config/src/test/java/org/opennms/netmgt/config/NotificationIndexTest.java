@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+
+public class NotificationIndexTest {
+
+    @Test
+    public void testCandidatesInConfigurationOrder() {
+        final Notifications notifications = new Notifications();
+        notifications.addNotification(createNotification("nodeDown", "uei.opennms.org/nodes/nodeDown", null));
+        notifications.addNotification(createNotification("any", "MATCH-ANY-UEI", null));
+        notifications.addNotification(createNotification("nodes", "~uei\\.opennms\\.org/nodes/.*", null));
+        notifications.addNotification(createNotification("nodeUp", "uei.opennms.org/nodes/nodeUp", null));
+        notifications.addNotification(createNotification("nodeDown2", "uei.opennms.org/nodes/nodeDown", "major|critical"));
+        notifications.addNotification(createNotification("broken", "~uei.opennms.org/[", null));
+
+        final NotificationIndex index = new NotificationIndex(notifications);
+        assertTrue(index.isIndexOf(notifications));
+
+        assertEquals("[nodeDown, any, nodes, nodeDown2]", getNames(index.getCandidates("uei.opennms.org/nodes/nodeDown")));
+        assertEquals("[any, nodes, nodeUp]", getNames(index.getCandidates("uei.opennms.org/nodes/nodeUp")));
+        assertEquals("[any]", getNames(index.getCandidates("uei.opennms.org/internal/reloadDaemonConfig")));
+
+        final NotificationIndex.Candidate nodeDown2 = index.getCandidates("uei.opennms.org/nodes/nodeDown").get(3);
+        assertTrue(nodeDown2.matchesSeverity("Major"));
+        assertFalse(nodeDown2.matchesSeverity("Minor"));
+
+        notifications.addNotification(createNotification("added", "uei.opennms.org/nodes/nodeUp", null));
+        assertFalse(index.isIndexOf(notifications));
+    }
+
+    /**
+     * Compares the candidates of random UEIs with the notifications that
+     * match them by UEI, in the way they used to be matched.
+     */
+    @Test
+    public void testMatchesLinearScan() {
+        final Random random = new Random(23);
+        final Notifications notifications = new Notifications();
+        for (int i = 0; i < 500; i++) {
+            final String uei;
+            switch (random.nextInt(10)) {
+            case 0:
+                uei = "~uei\\.opennms\\.org/test/" + random.nextInt(5) + "/.*";
+                break;
+            case 1:
+                uei = "MATCH-ANY-UEI";
+                break;
+            default:
+                uei = "uei.opennms.org/test/" + random.nextInt(5) + "/" + random.nextInt(20);
+            }
+            notifications.addNotification(createNotification("notif" + i, uei, null));
+        }
+
+        final NotificationIndex index = new NotificationIndex(notifications);
+        for (int i = 0; i < 1000; i++) {
+            final String uei = "uei.opennms.org/test/" + random.nextInt(6) + "/" + random.nextInt(25);
+            final List<String> expected = new ArrayList<String>();
+            for (final Notification notif : notifications.getNotificationCollection()) {
+                if (uei.equals(notif.getUei()) || "MATCH-ANY-UEI".equals(notif.getUei())
+                        || (notif.getUei().charAt(0) == '~' && uei.matches(notif.getUei().substring(1)))) {
+                    expected.add(notif.getName());
+                }
+            }
+            assertEquals(uei, expected.toString(), getNames(index.getCandidates(uei)));
+        }
+    }
+
+    private static Notification createNotification(final String name, final String uei, final String severity) {
+        final Notification notif = new Notification();
+        notif.setName(name);
+        notif.setUei(uei);
+        notif.setEventSeverity(severity);
+        notif.setStatus("on");
+        notif.setRule("IPADDR IPLIKE *.*.*.*");
+        return notif;
+    }
+
+    private static String getNames(final List<NotificationIndex.Candidate> candidates) {
+        final List<String> names = new ArrayList<String>();
+        for (final NotificationIndex.Candidate candidate : candidates) {
+            names.add(candidate.getNotification().getName());
+        }
+        return names.toString();
+    }
+}
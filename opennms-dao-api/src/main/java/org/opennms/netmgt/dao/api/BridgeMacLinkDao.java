@@ -48,6 +48,14 @@ public interface BridgeMacLinkDao extends OnmsDao<BridgeMacLink, Integer> {
 
     void deleteByNodeIdOlderThen(Integer nodeiId, Date now);
 
+    /**
+     * Sets the last poll time of the links of the node that were last polled
+     * before the given time, without loading them.
+     *
+     * @return the number of links updated
+     */
+    int updateLastPollTimeByNodeIdOlderThen(Integer nodeId, Date now);
+
     public List<BridgeMacTopologyLink> getAllBridgeLinksToIpAddrToNodes();
 
 }
@@ -92,6 +92,20 @@ public interface ProvisiondConfigurationDao {
      */
     public Integer getWriteThreads();
     
+    /**
+     * <p>getDetectThreads</p>
+     *
+     * @return the number of threads that run the service detectors
+     */
+    public Integer getDetectThreads();
+    
+    /**
+     * <p>getSnmpThreads</p>
+     *
+     * @return the number of threads that walk the SNMP tables of the nodes being scanned
+     */
+    public Integer getSnmpThreads();
+    
     /**
      * <p>getRequisitionDir</p>
      *
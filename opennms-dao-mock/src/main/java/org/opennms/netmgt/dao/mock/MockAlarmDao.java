@@ -70,7 +70,12 @@ public class MockAlarmDao extends AbstractMockDao<OnmsAlarm, Integer> implements
 
     @Override
     public OnmsAlarm findByReductionKey(final String reductionKey) {
-        throw new UnsupportedOperationException("Not yet implemented!");
+        for (final OnmsAlarm alarm : findAll()) {
+            if (reductionKey.equals(alarm.getReductionKey())) {
+                return alarm;
+            }
+        }
+        return null;
     }
 
     @Override
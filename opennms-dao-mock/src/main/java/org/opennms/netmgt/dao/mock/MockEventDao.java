@@ -52,7 +52,14 @@ public class MockEventDao extends AbstractMockDao<OnmsEvent, Integer> implements
 
     @Override
     public int deletePreviousEventsForAlarm(final Integer id, final OnmsEvent e) {
-        throw new UnsupportedOperationException("Not yet implemented!");
+        int count = 0;
+        for (final OnmsEvent event : findAll()) {
+            if (event.getAlarm() != null && id.equals(event.getAlarm().getId()) && !event.getId().equals(e.getId())) {
+                delete(event);
+                count++;
+            }
+        }
+        return count;
     }
 
     @Override
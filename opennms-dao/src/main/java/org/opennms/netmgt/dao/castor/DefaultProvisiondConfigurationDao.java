@@ -161,5 +161,25 @@ public class DefaultProvisiondConfigurationDao extends AbstractCastorConfigDao<P
     public Integer getWriteThreads() {
         return Integer.valueOf((int)getConfig().getWriteThreads());
     }
+
+    /**
+     * <p>getDetectThreads</p>
+     *
+     * @return a {@link java.lang.Integer} object.
+     */
+    @Override
+    public Integer getDetectThreads() {
+        return Integer.valueOf((int)getConfig().getDetectThreads());
+    }
+
+    /**
+     * <p>getSnmpThreads</p>
+     *
+     * @return a {@link java.lang.Integer} object.
+     */
+    @Override
+    public Integer getSnmpThreads() {
+        return Integer.valueOf((int)getConfig().getSnmpThreads());
+    }
     
 }
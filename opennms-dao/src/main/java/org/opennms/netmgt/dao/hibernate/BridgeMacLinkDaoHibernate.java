@@ -78,6 +78,11 @@ public class BridgeMacLinkDaoHibernate extends AbstractDaoHibernate<BridgeMacLin
 		}
 	}
 
+	@Override
+	public int updateLastPollTimeByNodeIdOlderThen(Integer nodeId, Date now) {
+		return getHibernateTemplate().bulkUpdate("update BridgeMacLink set bridgeMacLinkLastPollTime = ? where node.id = ? and bridgeMacLinkLastPollTime < ?", now, nodeId, now);
+	}
+
     @Override
     public List<BridgeMacTopologyLink> getAllBridgeLinksToIpAddrToNodes(){
         List<Object[]> links =  getHibernateTemplate().execute(new HibernateCallback<List<Object[]>>() {
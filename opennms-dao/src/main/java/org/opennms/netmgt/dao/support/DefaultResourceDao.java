@@ -64,6 +64,7 @@ import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsResource;
 import org.opennms.netmgt.model.OnmsResourceType;
 import org.opennms.netmgt.model.ResourceTypeUtils;
+import org.opennms.netmgt.rrd.RrdDirectoryIndex;
 import org.opennms.netmgt.rrd.RrdFileConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,6 +86,8 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
     /** Constant <code>INTERFACE_GRAPH_TYPE="interface"</code> */
     public static final String INTERFACE_GRAPH_TYPE = "interface";
 
+    private static final String DIRECTORY_INDEX_PROPERTY = "org.opennms.rrd.directoryIndex";
+
     private NodeDao m_nodeDao;
     private LocationMonitorDao m_locationMonitorDao;
     private IpInterfaceDao m_ipInterfaceDao;
@@ -241,6 +244,25 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
         }
 
         initResourceTypes();
+        initDirectoryIndex();
+    }
+
+    /**
+     * Starts indexing the RRD directory when it is enabled, so that the
+     * resource lookups don't have to walk the directories.
+     */
+    private void initDirectoryIndex() {
+        if (!Boolean.getBoolean(DIRECTORY_INDEX_PROPERTY)) {
+            return;
+        }
+        final RrdDirectoryIndex current = RrdDirectoryIndex.getInstance();
+        if (current != null && current.getRoot().equals(m_rrdDirectory)) {
+            return;
+        }
+        LOG.info("Indexing the RRD directory {}", m_rrdDirectory);
+        final RrdDirectoryIndex index = new RrdDirectoryIndex(m_rrdDirectory);
+        RrdDirectoryIndex.setInstance(index);
+        index.startScan();
     }
     
 
@@ -566,7 +588,7 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
 
         // Get all of the non-numeric directory names in the RRD directory; these
         // are the names of the domains that have performance data
-        File[] domainDirs = snmp.listFiles(RrdFileConstants.DOMAIN_DIRECTORY_FILTER);
+        File[] domainDirs = RrdFileConstants.listDirectories(snmp, RrdFileConstants.DOMAIN_DIRECTORY_FILTER);
 
         if (domainDirs != null && domainDirs.length > 0) {
             for (File domainDir : domainDirs) {
@@ -610,7 +632,7 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
     protected OnmsResource getForeignSourceNodeEntityResource(String resource) {
         
         File idDir = new File(getRrdDirectory(), ResourceTypeUtils.SNMP_DIRECTORY + File.separator + ResourceTypeUtils.getRelativeNodeSourceDirectory(resource).toString());
-        if (idDir.isDirectory() && RrdFileConstants.NODESOURCE_DIRECTORY_FILTER.accept(idDir)) {
+        if (RrdFileConstants.isDirectory(idDir) && RrdFileConstants.NODESOURCE_DIRECTORY_FILTER.accept(idDir)) {
             return m_nodeSourceResourceType.createChildResource(resource);
         } else {
            LOG.debug("resource {} not found by foreign source/foreignId. Trying as a node resource instead...", resource);
@@ -636,7 +658,7 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
         
         File directory = new File(getRrdDirectory(), ResourceTypeUtils.SNMP_DIRECTORY);
         File domainDir = new File(directory, domain);
-        if (!domainDir.isDirectory()) {
+        if (!RrdFileConstants.isDirectory(domainDir)) {
             throw new ObjectRetrievalFailureException(OnmsResource.class, domain, "Domain not found due to domain RRD directory not existing or not a directory: " + domainDir.getAbsolutePath(), null);
         }
         
@@ -651,7 +673,7 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
         Set<Integer> nodes = new TreeSet<Integer>();
         
         File directory = new File(getRrdDirectory(), ResourceTypeUtils.SNMP_DIRECTORY);
-        File[] nodeDirs = directory.listFiles(RrdFileConstants.NODE_DIRECTORY_FILTER);
+        File[] nodeDirs = RrdFileConstants.listDirectories(directory, RrdFileConstants.NODE_DIRECTORY_FILTER);
 
         if (nodeDirs == null || nodeDirs.length == 0) {
             return nodes;
@@ -678,10 +700,10 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
        Set<String> nodeSourceDirectories = new HashSet<String>();
        File snmpDir = new File(getRrdDirectory(), ResourceTypeUtils.SNMP_DIRECTORY);
        File forSrcDir = new File(snmpDir, ResourceTypeUtils.FOREIGN_SOURCE_DIRECTORY);
-       File[] sourceDirs = forSrcDir.listFiles(); // TODO There is no need to filter by RrdFileConstants.SOURCE_DIRECTORY_FILTER
+       File[] sourceDirs = RrdFileConstants.listDirectories(forSrcDir, null); // TODO There is no need to filter by RrdFileConstants.SOURCE_DIRECTORY_FILTER
        if (sourceDirs != null && sourceDirs.length > 0) {
            for (File sourceDir : sourceDirs) {
-               File [] ids = sourceDir.listFiles(RrdFileConstants.NODESOURCE_DIRECTORY_FILTER);
+               File [] ids = RrdFileConstants.listDirectories(sourceDir, RrdFileConstants.NODESOURCE_DIRECTORY_FILTER);
                for (File id : ids) {
                    nodeSourceDirectories.add(sourceDir.getName() + ":" + id.getName());
                }
@@ -695,7 +717,7 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
     private static Set<String> findChildrenMatchingFilter(File directory, FileFilter filter) {
         Set<String> children = new HashSet<String>();
         
-        File[] nodeDirs = directory.listFiles(filter);
+        File[] nodeDirs = RrdFileConstants.listDirectories(directory, filter);
 
         if (nodeDirs == null || nodeDirs.length == 0) {
             return children;
@@ -719,13 +741,13 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
     private static Set<String> findChildrenChildrenMatchingFilter(File directory, FileFilter filter) {
         Set<String> children = new HashSet<String>();
         
-        File[] locationMonitorDirs = directory.listFiles();
+        File[] locationMonitorDirs = RrdFileConstants.listDirectories(directory, null);
         if (locationMonitorDirs == null) {
             return children;
         }
         
         for (File locationMonitorDir : locationMonitorDirs) {
-            File[] intfDirs = locationMonitorDir.listFiles(filter);
+            File[] intfDirs = RrdFileConstants.listDirectories(locationMonitorDir, filter);
 
             if (intfDirs == null || intfDirs.length == 0) {
                 continue;
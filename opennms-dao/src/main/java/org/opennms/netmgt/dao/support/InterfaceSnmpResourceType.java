@@ -108,18 +108,18 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
     
     private boolean isResourceTypeOnParentResource(String parentResource) {
         File parent = getParentResourceDirectory(parentResource, false);
-        if (!parent.isDirectory()) {
+        if (!RrdFileConstants.isDirectory(parent)) {
             return false;
         }
         
-        return parent.listFiles(RrdFileConstants.INTERFACE_DIRECTORY_FILTER).length > 0; 
+        return RrdFileConstants.listDirectories(parent, RrdFileConstants.INTERFACE_DIRECTORY_FILTER).length > 0; 
     }
     
     private File getParentResourceDirectory(String parentResource, boolean verify) {
         File snmp = new File(m_resourceDao.getRrdDirectory(verify), ResourceTypeUtils.SNMP_DIRECTORY);
         
         File parent = new File(snmp, parentResource);
-        if (verify && !parent.isDirectory()) {
+        if (verify && !RrdFileConstants.isDirectory(parent)) {
             throw new ObjectRetrievalFailureException(File.class, "No parent resource directory exists for " + parentResource + ": " + parent);
         }
         
@@ -169,7 +169,7 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
 
         // Verify that the requested resource exists
         final File resourceFolder = new File(parentFolder, name);
-        if (!resourceFolder.isDirectory()) {
+        if (!RrdFileConstants.isDirectory(resourceFolder)) {
             throw new ObjectRetrievalFailureException(OnmsResource.class, "No resource with name '" + name + "' found.");
         }
 
@@ -185,7 +185,7 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
     }
 
     private List<OnmsResource> populateResourceList(File parent, File relPath, OnmsNode node, Boolean isForeign) {
-        final File[] intfDirs = parent.listFiles(RrdFileConstants.INTERFACE_DIRECTORY_FILTER);
+        final File[] intfDirs = RrdFileConstants.listDirectories(parent, RrdFileConstants.INTERFACE_DIRECTORY_FILTER);
         return populateResourceList(parent, relPath, intfDirs, node, isForeign);
     }
 
@@ -411,11 +411,11 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
         File snmp = new File(m_resourceDao.getRrdDirectory(), ResourceTypeUtils.SNMP_DIRECTORY);
         File domainDir = new File(snmp, domain);
 
-        if (!domainDir.exists() || !domainDir.isDirectory()) {
+        if (!RrdFileConstants.isDirectory(domainDir)) {
             throw new IllegalArgumentException("No such directory: " + domainDir);
         }
 
-        File[] intfDirs = domainDir.listFiles(RrdFileConstants.DOMAIN_INTERFACE_DIRECTORY_FILTER);
+        File[] intfDirs = RrdFileConstants.listDirectories(domainDir, RrdFileConstants.DOMAIN_INTERFACE_DIRECTORY_FILTER);
 
         if (intfDirs != null && intfDirs.length > 0) {
             intfs.ensureCapacity(intfDirs.length);
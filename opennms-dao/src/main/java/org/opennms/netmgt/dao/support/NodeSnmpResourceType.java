@@ -80,7 +80,7 @@ public class NodeSnmpResourceType implements OnmsResourceType {
     /** {@inheritDoc} */
     @Override
     public boolean isResourceTypeOnNode(int nodeId) {
-        return getResourceDirectory(nodeId, false).isDirectory();
+        return RrdFileConstants.isDirectory(getResourceDirectory(nodeId, false));
     }
     
     /**
@@ -94,7 +94,7 @@ public class NodeSnmpResourceType implements OnmsResourceType {
         File snmp = new File(m_resourceDao.getRrdDirectory(verify), ResourceTypeUtils.SNMP_DIRECTORY);
         
         File node = new File(snmp, Integer.toString(nodeId));
-        if (verify && !node.isDirectory()) {
+        if (verify && !RrdFileConstants.isDirectory(node)) {
             throw new ObjectRetrievalFailureException(File.class, "No node directory exists for node " + nodeId + ": " + node);
         }
         
@@ -175,10 +175,10 @@ public class NodeSnmpResourceType implements OnmsResourceType {
     public boolean isResourceTypeOnNodeSource(String nodeSource, int nodeId) {
         File nodeSnmpDir = new File(m_resourceDao.getRrdDirectory(), ResourceTypeUtils.SNMP_DIRECTORY + File.separator
                        + ResourceTypeUtils.getRelativeNodeSourceDirectory(nodeSource).toString());
-        if (!nodeSnmpDir.isDirectory()) { // A node without performance metrics should not have a directory 
+        if (!RrdFileConstants.isDirectory(nodeSnmpDir)) { // A node without performance metrics should not have a directory 
             return false;
         }
-        return nodeSnmpDir.listFiles(RrdFileConstants.RRD_FILENAME_FILTER).length > 0; 
+        return RrdFileConstants.hasRrdFiles(nodeSnmpDir); 
     }
     
     /** {@inheritDoc} */
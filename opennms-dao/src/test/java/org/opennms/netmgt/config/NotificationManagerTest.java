@@ -52,6 +52,7 @@ import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.MonitoredServiceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ServiceTypeDao;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.filter.FilterDaoFactory;
 import org.opennms.netmgt.filter.JdbcFilterDao;
 import org.opennms.netmgt.filter.api.FilterParseException;
@@ -413,6 +414,29 @@ public class NotificationManagerTest implements InitializingBean {
                 false);
     }
     
+    @Test
+    @JUnitTemporaryDatabase // Relies on specific IDs so we need a fresh database
+    public void testRuleMatchesInvalidatedByInventoryEvents() {
+        doTestNodeInterfaceServiceWithRule("node/interface/service match",
+                                           3, "192.168.1.2", "HTTP",
+                                           "(catincCategoryOne)",
+                                           false);
+
+        final OnmsNode node = m_nodeDao.get(3);
+        node.addCategory(m_categoryDao.findByName("CategoryOne"));
+        m_nodeDao.save(node);
+        m_nodeDao.flush();
+
+        final EventBuilder builder = new EventBuilder(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI, "Test.Event");
+        builder.setNodeid(3);
+        m_notificationManager.invalidateRuleMatches(builder.getEvent());
+
+        doTestNodeInterfaceServiceWithRule("node/interface/service match",
+                                           3, "192.168.1.2", "HTTP",
+                                           "(catincCategoryOne)",
+                                           true);
+    }
+
     private void doTestNodeInterfaceServiceWithRule(String description, int nodeId, String intf, String svc, String rule, boolean matches) {
         Notification notif = new Notification();
         notif.setName("a notification");
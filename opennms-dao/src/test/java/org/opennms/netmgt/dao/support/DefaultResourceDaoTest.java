@@ -61,6 +61,7 @@ import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsLocationMonitor;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsResource;
+import org.opennms.netmgt.rrd.RrdDirectoryIndex;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
 import org.opennms.test.FileAnticipator;
@@ -295,6 +296,36 @@ public class DefaultResourceDaoTest extends TestCase {
         ta.verifyAnticipated();
     }
 
+    public void testFindDomainResourcesWithDirectoryIndex() throws IOException {
+        File snmp = m_fileAnticipator.tempDir("snmp");
+        File domain = m_fileAnticipator.tempDir(snmp, "example1");
+        File intf = m_fileAnticipator.tempDir(domain, "server1");
+        m_fileAnticipator.tempFile(intf, "ifInOctets" + RrdUtils.getExtension());
+
+        RrdDirectoryIndex index = new RrdDirectoryIndex(m_fileAnticipator.getTempDir());
+        index.scan();
+        RrdDirectoryIndex.setInstance(index);
+        try {
+            assertEquals("resources found from the index", 1, m_resourceDao.findDomainResources().size());
+
+            // a file that isn't created through RrdUtils isn't seen until it is added
+            File otherDomain = m_fileAnticipator.tempDir(snmp, "example2");
+            File otherIntf = m_fileAnticipator.tempDir(otherDomain, "server2");
+            File rrd = m_fileAnticipator.tempFile(otherIntf, "ifInOctets" + RrdUtils.getExtension());
+            assertEquals("resources found before the new file is added", 1, m_resourceDao.findDomainResources().size());
+            index.rrdFileCreated(rrd);
+            assertEquals("resources found after the new file is added", 2, m_resourceDao.findDomainResources().size());
+            assertNotNull(m_resourceDao.getTopLevelResource("domain", "example2"));
+
+            index.directoryDeleted(domain);
+            List<OnmsResource> resources = m_resourceDao.findDomainResources();
+            assertEquals("resources found after the domain is deleted", 1, resources.size());
+            assertEquals("example2", resources.get(0).getName());
+        } finally {
+            RrdDirectoryIndex.setInstance(null);
+        }
+    }
+
     public void testGetTopLevelResourceWithInvalidResourceType() {
         ThrowableAnticipator ta = new ThrowableAnticipator();
         ta.anticipate(new ObjectRetrievalFailureException("Top-level resource type of 'bogus' is unknown", "bogus"));
@@ -31,11 +31,13 @@ package org.opennms.netmgt.dao.support;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,6 +57,8 @@ import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.NodeDao;
 import org.opennms.netmgt.dao.api.ServiceTypeDao;
 import org.opennms.netmgt.filter.FilterDaoFactory;
+import org.opennms.netmgt.filter.FilterSnapshot;
+import org.opennms.netmgt.filter.InMemoryFilterRule;
 import org.opennms.netmgt.filter.JdbcFilterDao;
 import org.opennms.netmgt.model.AbstractEntityVisitor;
 import org.opennms.netmgt.model.EntityVisitor;
@@ -199,6 +203,50 @@ public class JdbcFilterDaoTest implements InitializingBean {
         assertFalse("Rule match succeeded unexpectedly: " + rule, m_dao.isRuleMatching(rule2));
     }
 
+    @Test
+    @JUnitTemporaryDatabase
+    public void testInMemoryRulesMatchDatabase() throws Exception {
+        final JdbcFilterDao inMemoryDao = new JdbcFilterDao();
+        inMemoryDao.setDataSource(m_dataSource);
+        inMemoryDao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
+        inMemoryDao.setInMemory(true);
+        inMemoryDao.setSnapshot(new FilterSnapshot(m_dataSource, 60000));
+        inMemoryDao.afterPropertiesSet();
+        m_dao.setInMemory(false);
+
+        final String node1 = m_populator.getNode1().getId().toString();
+        final String[] rules = new String[] {
+            "",
+            "IPADDR IPLIKE *.*.*.*",
+            "ipaddr iplike 192.168.1-2.*",
+            "isICMP",
+            "isSNMP | isHTTP",
+            "!isICMP",
+            "notisHTTP",
+            "catincIMP_mid & !catincDEV_AC",
+            "(catincDEV_AC | catincServers) && isHTTP",
+            "nodeLabel LIKE 'node%' & ipaddr != '192.168.3.1'",
+            "nodeId == " + node1 + " || serviceName == 'SNMP'",
+            String.format("(catincIMP_mid) & (catincDEV_AC) & (catincOPS_Online) & (nodeId == '%s') & (ipAddr == '192.168.1.1') & (serviceName == 'ICMP')", node1)
+        };
+
+        for (final String rule : rules) {
+            assertNotNull("rule should be supported in memory: " + rule, InMemoryFilterRule.compile(rule));
+            assertEquals("getNodeMap(" + rule + ")", m_dao.getNodeMap(rule), inMemoryDao.getNodeMap(rule));
+            assertEquals("getIPAddressServiceMap(" + rule + ")", m_dao.getIPAddressServiceMap(rule), inMemoryDao.getIPAddressServiceMap(rule));
+            assertEquals("getIPAddressList(" + rule + ")", new HashSet<InetAddress>(m_dao.getIPAddressList(rule)), new HashSet<InetAddress>(inMemoryDao.getIPAddressList(rule)));
+            assertEquals("isRuleMatching(" + rule + ")", m_dao.isRuleMatching(rule), inMemoryDao.isRuleMatching(rule));
+            for (final InetAddress addr : m_dao.getIPAddressList("")) {
+                assertEquals("isValid(" + addr + ", " + rule + ")", m_dao.isValid(addr.getHostAddress(), rule), inMemoryDao.isValid(addr.getHostAddress(), rule));
+            }
+        }
+
+        // not supported in memory, run against the database
+        final String rule = "nodeSysOID LIKE '.1.3.6.1.4.1.%'";
+        assertNull("unsupported rule", InMemoryFilterRule.compile(rule));
+        assertEquals(m_dao.getNodeMap(rule), inMemoryDao.getNodeMap(rule));
+    }
+
     @Test
     @Transactional
     public void testAfterPropertiesSetNoSchemaFactory() {
@@ -28,8 +28,15 @@
 
 package org.opennms.netmgt.provision.service;
 
+import java.io.File;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.bind.ValidationException;
 
 import org.opennms.core.tasks.BatchTask;
 import org.slf4j.Logger;
@@ -37,16 +44,20 @@ import org.slf4j.LoggerFactory;
 
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.provision.persist.AbstractRequisitionVisitor;
+import org.opennms.netmgt.provision.persist.ModelImportException;
 import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
 import org.opennms.netmgt.provision.persist.RequisitionVisitor;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 import org.opennms.netmgt.provision.service.lifecycle.LifeCycleInstance;
 import org.opennms.netmgt.provision.service.lifecycle.Phase;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.Activity;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.ActivityProvider;
 import org.opennms.netmgt.provision.service.operations.ImportOperation;
 import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.RequisitionHashStore;
 import org.opennms.netmgt.provision.service.operations.RequisitionImport;
+import org.opennms.netmgt.provision.service.operations.StreamingRequisition;
 import org.springframework.core.io.Resource;
 
 /**
@@ -60,9 +71,40 @@ public class CoreImportActivities {
     private static final Logger LOG = LoggerFactory.getLogger(CoreImportActivities.class);
     
     ProvisionService m_provisionService;
+
+    /**
+     * The foreign sources that are imported one node at a time.  When the
+     * existing nodes aren't rescanned, only the nodes that changed since the
+     * last import are updated.
+     */
+    private final Set<String> m_streamingForeignSources;
+
+    private final RequisitionHashStore m_hashStore;
     
     public CoreImportActivities(final ProvisionService provisionService) {
+        this(provisionService, getStreamingForeignSources(),
+             new RequisitionHashStore(new File(System.getProperty("org.opennms.provisiond.streamingImport.hashDir",
+                                                                  System.getProperty("opennms.home", "") + File.separator + "share" + File.separator + "provisiond"))));
+    }
+
+    CoreImportActivities(final ProvisionService provisionService, final Set<String> streamingForeignSources, final RequisitionHashStore hashStore) {
         m_provisionService = provisionService;
+        m_streamingForeignSources = streamingForeignSources;
+        m_hashStore = hashStore;
+    }
+
+    private static Set<String> getStreamingForeignSources() {
+        final Set<String> foreignSources = new HashSet<String>();
+        for (final String foreignSource : System.getProperty("org.opennms.provisiond.streamingImport.foreignSources", "").split(",")) {
+            if (foreignSource.trim().length() > 0) {
+                foreignSources.add(foreignSource.trim());
+            }
+        }
+        return foreignSources;
+    }
+
+    private boolean isStreaming(final String foreignSource) {
+        return foreignSource != null && (m_streamingForeignSources.contains("*") || m_streamingForeignSources.contains(foreignSource));
     }
 
     @Activity( lifecycle = "import", phase = "validate", schedulingHint="import")
@@ -71,8 +113,19 @@ public class CoreImportActivities {
 
         info("Loading requisition from resource {}", resource);
         try {
+            if (!m_streamingForeignSources.isEmpty()) {
+                final StreamingRequisition requisition = new StreamingRequisition(resource);
+                if (isStreaming(requisition.getForeignSource())) {
+                    info("Streaming requisition {} from resource {}", requisition.getForeignSource(), resource);
+                    ri.setStreamingRequisition(requisition);
+                    return ri;
+                }
+            }
+
             final Requisition specFile = m_provisionService.loadRequisition(resource);
             ri.setRequisition(specFile);
+            // the nodes may no longer match the hashes of an earlier streaming import
+            m_hashStore.delete(specFile.getForeignSource());
             debug("Finished loading requisition.");
         } catch (final Throwable t) {
             ri.abort(t);
@@ -87,6 +140,10 @@ public class CoreImportActivities {
             info("The import has been aborted, skipping audit phase import.");
             return null;
         }
+
+        if (ri.isStreaming()) {
+            return auditStreamingNodes(ri, rescanExisting);
+        }
         
         final Requisition specFile = ri.getRequisition();
 
@@ -107,6 +164,73 @@ public class CoreImportActivities {
         
         return opsMgr;
     }
+
+    private ImportOperationsManager auditStreamingNodes(final RequisitionImport ri, final String rescanExisting) {
+        final StreamingRequisition requisition = ri.getStreamingRequisition();
+        final String foreignSource = requisition.getForeignSource();
+
+        info("Auditing nodes for streaming requisition {}. The parameter {} was set to {} during import.", requisition, EventConstants.PARM_IMPORT_RESCAN_EXISTING, rescanExisting);
+
+        // @ipv6
+        m_provisionService.createDistPollerIfNecessary("localhost", "127.0.0.1");
+
+        final Map<String, Integer> foreignIdsToNodes = m_provisionService.getForeignIdToNodeIdMap(foreignSource);
+        // like the other imports, every existing node is updated and scanned again unless asked otherwise
+        final boolean skipUnchanged = rescanExisting != null && !Boolean.valueOf(rescanExisting);
+        final Map<String, Long> previousHashes = skipUnchanged ? m_hashStore.load(foreignSource) : new HashMap<String, Long>();
+
+        final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdsToNodes, m_provisionService, rescanExisting);
+        opsMgr.setForeignSource(foreignSource);
+
+        final Map<String, Long> hashes = new HashMap<String, Long>();
+        final Set<String> changed = new HashSet<String>();
+        final Set<String> duplicates = new TreeSet<String>();
+        try {
+            opsMgr.auditNodes(requisition, new StreamingRequisition.NodeFilter() {
+                @Override
+                public boolean accept(final RequisitionNode node) throws ModelImportException {
+                    final String foreignId = node.getForeignId();
+                    final Long hash = requisition.getHash(node);
+                    if (hashes.put(foreignId, hash) != null) {
+                        duplicates.add(foreignId);
+                        return false;
+                    }
+                    if (foreignIdsToNodes.containsKey(foreignId) && hash.equals(previousHashes.get(foreignId))) {
+                        // unchanged since the last import
+                        opsMgr.keepNode(foreignId);
+                        return false;
+                    }
+                    changed.add(foreignId);
+                    return true;
+                }
+            });
+            if (!duplicates.isEmpty()) {
+                throw new ValidationException("Duplicate nodes found on foreign source " + foreignSource + ": " + duplicates);
+            }
+        } catch (final Throwable t) {
+            ri.abort(t);
+            return null;
+        }
+
+        ri.setNodeHashes(hashes);
+        ri.setChangedForeignIds(changed);
+
+        info("Finished auditing nodes for streaming requisition {}: {} nodes, {} new or changed, {} to delete.", requisition, hashes.size(), changed.size(), opsMgr.getDeleteCount());
+
+        return opsMgr;
+    }
+
+    /**
+     * Remembers the nodes of a successful streaming import, so that the
+     * next import of the foreign source skips the nodes that didn't change.
+     *
+     * @param ri the finished import
+     */
+    public void saveNodeHashes(final RequisitionImport ri) {
+        if (ri.isStreaming() && !ri.isAborted() && ri.getNodeHashes() != null) {
+            m_hashStore.save(ri.getStreamingRequisition().getForeignSource(), ri.getNodeHashes());
+        }
+    }
     
     @Activity( lifecycle = "import", phase = "scan", schedulingHint="import" )
     public void scanNodes(final Phase currentPhase, final ImportOperationsManager opsMgr, final RequisitionImport ri) {
@@ -172,21 +296,39 @@ public class CoreImportActivities {
 
         info("Running relate phase");
         
-        final Requisition requisition = ri.getRequisition();
-        RequisitionVisitor visitor = new AbstractRequisitionVisitor() {
-            @Override
-            public void visitNode(final OnmsNodeRequisition nodeReq) {
-                LOG.debug("Scheduling relate of node {}", nodeReq);
-                currentPhase.add(parentSetter(m_provisionService, nodeReq, requisition.getForeignSource()));
+        if (ri.isStreaming()) {
+            final StreamingRequisition requisition = ri.getStreamingRequisition();
+            final Set<String> changed = ri.getChangedForeignIds();
+            try {
+                // the parents of the nodes that didn't change are already set
+                requisition.visit(relateVisitor(currentPhase, requisition.getForeignSource()), new StreamingRequisition.NodeFilter() {
+                    @Override
+                    public boolean accept(final RequisitionNode node) {
+                        return changed.contains(node.getForeignId());
+                    }
+                });
+            } catch (final ModelImportException e) {
+                ri.abort(e);
             }
-        };
-        
-        requisition.visit(visitor);
+        } else {
+            final Requisition requisition = ri.getRequisition();
+            requisition.visit(relateVisitor(currentPhase, requisition.getForeignSource()));
+        }
         
         LOG.info("Finished Running relate phase");
 
     }
     
+    private RequisitionVisitor relateVisitor(final BatchTask currentPhase, final String foreignSource) {
+        return new AbstractRequisitionVisitor() {
+            @Override
+            public void visitNode(final OnmsNodeRequisition nodeReq) {
+                LOG.debug("Scheduling relate of node {}", nodeReq);
+                currentPhase.add(parentSetter(m_provisionService, nodeReq, foreignSource));
+            }
+        };
+    }
+
     private static Runnable parentSetter(final ProvisionService provisionService, final OnmsNodeRequisition nodeReq, final String foreignSource) {
         return new Runnable() {
             @Override
@@ -149,26 +149,32 @@ public class IpInterfaceScan implements RunInBatch {
                 if (serviceDetected) {
 
                     currentPhase.getBuilder().addSequence(
-                            new RunInBatch() {
+                            ScanExecutors.runOn(ScanExecutors.WRITE, new RunInBatch() {
                                 @Override
                                 public void run(final BatchTask batch) {
                                     if ("SNMP".equals(serviceName)) {
                                         setupAgentInfo(currentPhase);
                                     }
                                 }
-                            }, 
-                            new RunInBatch() {
+                            }), 
+                            ScanExecutors.runOn(ScanExecutors.WRITE, new RunInBatch() {
                                 @Override
                                 public void run(final BatchTask batch) {
                                     getProvisionService().addMonitoredService(getNodeId(), hostAddress, serviceName);
                                 }
-                            });
+                            }));
 
 
                     
 
                 }
-                getProvisionService().updateMonitoredServiceState(getNodeId(), hostAddress, serviceName); // NMS-3906
+                // leave the detector threads to the detectors
+                currentPhase.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        getProvisionService().updateMonitoredServiceState(getNodeId(), hostAddress, serviceName); // NMS-3906
+                    }
+                }, ScanExecutors.WRITE);
             }
 
             @Override
@@ -217,7 +223,7 @@ public class IpInterfaceScan implements RunInBatch {
     }
 
     private Task createSyncDetectorTask(final BatchTask currentPhase, final SyncServiceDetector syncDetector) {
-        return currentPhase.getCoordinator().createTask(currentPhase, runDetector(syncDetector, servicePersister(currentPhase, syncDetector.getServiceName())));
+        return currentPhase.getCoordinator().createTask(currentPhase, runDetector(syncDetector, servicePersister(currentPhase, syncDetector.getServiceName())), ScanExecutors.DETECT);
     }
 
     /** {@inheritDoc} */
@@ -77,18 +77,18 @@ final class NodeInfoScan implements RunInBatch {
     public void run(BatchTask phase) {
         
         phase.getBuilder().addSequence(
-                new RunInBatch() {
+                ScanExecutors.runOn(ScanExecutors.SNMP, new RunInBatch() {
                     @Override
                     public void run(BatchTask batch) {
                         collectNodeInfo();
                     }
-                },
-                new RunInBatch() {
+                }),
+                ScanExecutors.runOn(ScanExecutors.WRITE, new RunInBatch() {
                     @Override
                     public void run(BatchTask phase) {
                         doPersistNodeInfo();
                     }
-                });
+                }));
     }
 
     private InetAddress getAgentAddress() {
@@ -444,7 +444,7 @@ public class NodeScan implements Scan {
                         }
 
                         if (iface != null) {
-                            currentPhase.add(ipUpdater(currentPhase, iface), "write");
+                            currentPhase.add(ipUpdater(currentPhase, iface), ScanExecutors.WRITE);
                         }
                     }
                 }
@@ -512,7 +512,7 @@ public class NodeScan implements Scan {
                         }
 
                         if (iface != null) {
-                            currentPhase.add(ipUpdater(currentPhase, iface), "write");
+                            currentPhase.add(ipUpdater(currentPhase, iface), ScanExecutors.WRITE);
                         }
                     }
                 }
@@ -554,7 +554,7 @@ public class NodeScan implements Scan {
                                 iface.setIpLastCapsdPoll(getScanStamp());
                                 iface.setIsManaged("M");
 
-                                currentPhase.add(ipUpdater(currentPhase, iface), "write");
+                                currentPhase.add(ipUpdater(currentPhase, iface), ScanExecutors.WRITE);
                             }
                         }
 
@@ -597,7 +597,7 @@ public class NodeScan implements Scan {
                                 getProvisionService().updateSnmpInterfaceAttributes(getNodeId(), snmpIfaceResult);
                             }
                         };
-                        currentPhase.add(r, "write");
+                        currentPhase.add(r, ScanExecutors.WRITE);
                     }
                 }
             };
@@ -627,24 +627,24 @@ public class NodeScan implements Scan {
         public void run(final ContainerTask<?> parent) {
             parent.getBuilder().addSequence(
                                             new NodeInfoScan(getNode(),getAgentAddress(), getForeignSource(), this, getAgentConfigFactory(), getProvisionService(), getNodeId()),
-                                            new RunInBatch() {
+                                            ScanExecutors.runOn(ScanExecutors.SNMP, new RunInBatch() {
                                                 @Override
                                                 public void run(final BatchTask phase) {
                                                     detectPhysicalInterfaces(phase);
                                                 }
-                                            },
-                                            new RunInBatch() {
+                                            }),
+                                            ScanExecutors.runOn(ScanExecutors.SNMP, new RunInBatch() {
                                                 @Override
                                                 public void run(final BatchTask phase) {
                                                     detectIpAddressTable(phase);
                                                 }
-                                            },
-                                            new RunInBatch() {
+                                            }),
+                                            ScanExecutors.runOn(ScanExecutors.SNMP, new RunInBatch() {
                                                 @Override
                                                 public void run(final BatchTask phase) {
                                                     detectIpInterfaceTable(phase);
                                                 }
-                                            },
+                                            }),
                                             new RunInBatch() {
                                                 @Override
                                                 public void run(final BatchTask phase) {
@@ -696,7 +696,7 @@ public class NodeScan implements Scan {
 
                 for(final OnmsIpInterface iface : getNode().getIpInterfaces()) {
                     iface.setIpLastCapsdPoll(getScanStamp());
-                    phase.add(ipUpdater(phase, iface), "write");
+                    phase.add(ipUpdater(phase, iface), ScanExecutors.WRITE);
 
                 }
 
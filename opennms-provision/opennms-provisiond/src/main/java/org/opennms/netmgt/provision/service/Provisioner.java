@@ -163,6 +163,15 @@ public class Provisioner implements SpringServiceDaemon {
     public void setTaskCoordinator(DefaultTaskCoordinator taskCoordinator) {
         m_taskCoordinator = taskCoordinator;
     }
+
+    /**
+     * <p>getTaskCoordinator</p>
+     *
+     * @return the task coordinator that runs the imports and the node scans
+     */
+    public DefaultTaskCoordinator getTaskCoordinator() {
+        return m_taskCoordinator;
+    }
     
 
 
@@ -423,6 +432,7 @@ public class Provisioner implements SpringServiceDaemon {
         if (ri.isAborted()) {
             throw new ModelImportException("Import failed for resource " + resource.toString(), ri.getError());
         }
+        m_importActivities.saveNodeHashes(ri);
     }
 
     /**
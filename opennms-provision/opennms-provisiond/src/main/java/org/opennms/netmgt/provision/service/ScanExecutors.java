@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service;
+
+import org.opennms.core.tasks.BatchTask;
+import org.opennms.core.tasks.RunInBatch;
+
+/**
+ * The names of the executors of the task coordinator that the phases of
+ * the node scans are run on.  Each of them is a bounded pool of its own, so
+ * the detectors and the SNMP walks of some nodes can wait on the network
+ * while the results of others are being written to the database.
+ */
+public final class ScanExecutors {
+
+    /** The executor of the node scans themselves, and of the work not assigned to another executor */
+    public static final String SCAN = "scan";
+
+    /** The executor of the service detectors */
+    public static final String DETECT = "detect";
+
+    /** The executor of the SNMP walks */
+    public static final String SNMP = "snmp";
+
+    /** The executor of the database updates */
+    public static final String WRITE = "write";
+
+    /** The executors that are reported on */
+    public static final String[] PHASES = { SCAN, DETECT, SNMP, WRITE };
+
+    private ScanExecutors() {
+    }
+
+    /**
+     * Runs the given phase on the named executor instead of the executor of
+     * the batch it is added to.  The batch completes once the phase has run.
+     *
+     * @param executor the name of the executor
+     * @param runIn the phase to run
+     * @return a {@link org.opennms.core.tasks.RunInBatch} object.
+     */
+    public static RunInBatch runOn(final String executor, final RunInBatch runIn) {
+        return new RunInBatch() {
+            @Override
+            public void run(final BatchTask batch) {
+                batch.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        runIn.run(batch);
+                    }
+                    @Override
+                    public String toString() {
+                        return String.format("%s on %s", runIn, executor);
+                    }
+                }, executor);
+            }
+            @Override
+            public String toString() {
+                return runIn.toString();
+            }
+        };
+    }
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.jmx;
+
+import org.opennms.core.tasks.ExecutorStats;
+import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
+import org.opennms.netmgt.provision.service.Provisioner;
+import org.opennms.netmgt.provision.service.ScanExecutors;
+
+/**
+ * <p>Provisiond class.</p>
+ */
+public class Provisiond extends AbstractSpringContextJmxServiceDaemon<Provisioner> implements ProvisiondMBean {
+
+    /** {@inheritDoc} */
+    @Override
+    protected String getLoggingPrefix() {
+        return "provisiond";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String getSpringContext() {
+        return "provisiondContext";
+    }
+
+    @Override
+    public long getScanQueueDepth() {
+        return getQueueDepth(ScanExecutors.SCAN);
+    }
+
+    @Override
+    public long getScanTasksCompleted() {
+        return getTasksCompleted(ScanExecutors.SCAN);
+    }
+
+    @Override
+    public long getScanActiveCount() {
+        return getActiveCount(ScanExecutors.SCAN);
+    }
+
+    @Override
+    public double getScanAvgWaitTime() {
+        return getAvgWaitTime(ScanExecutors.SCAN);
+    }
+
+    @Override
+    public long getScanMaxWaitTime() {
+        return getMaxWaitTime(ScanExecutors.SCAN);
+    }
+
+    @Override
+    public double getScanAvgRunTime() {
+        return getAvgRunTime(ScanExecutors.SCAN);
+    }
+
+    @Override
+    public long getDetectQueueDepth() {
+        return getQueueDepth(ScanExecutors.DETECT);
+    }
+
+    @Override
+    public long getDetectTasksCompleted() {
+        return getTasksCompleted(ScanExecutors.DETECT);
+    }
+
+    @Override
+    public long getDetectActiveCount() {
+        return getActiveCount(ScanExecutors.DETECT);
+    }
+
+    @Override
+    public double getDetectAvgWaitTime() {
+        return getAvgWaitTime(ScanExecutors.DETECT);
+    }
+
+    @Override
+    public long getDetectMaxWaitTime() {
+        return getMaxWaitTime(ScanExecutors.DETECT);
+    }
+
+    @Override
+    public double getDetectAvgRunTime() {
+        return getAvgRunTime(ScanExecutors.DETECT);
+    }
+
+    @Override
+    public long getSnmpQueueDepth() {
+        return getQueueDepth(ScanExecutors.SNMP);
+    }
+
+    @Override
+    public long getSnmpTasksCompleted() {
+        return getTasksCompleted(ScanExecutors.SNMP);
+    }
+
+    @Override
+    public long getSnmpActiveCount() {
+        return getActiveCount(ScanExecutors.SNMP);
+    }
+
+    @Override
+    public double getSnmpAvgWaitTime() {
+        return getAvgWaitTime(ScanExecutors.SNMP);
+    }
+
+    @Override
+    public long getSnmpMaxWaitTime() {
+        return getMaxWaitTime(ScanExecutors.SNMP);
+    }
+
+    @Override
+    public double getSnmpAvgRunTime() {
+        return getAvgRunTime(ScanExecutors.SNMP);
+    }
+
+    @Override
+    public long getWriteQueueDepth() {
+        return getQueueDepth(ScanExecutors.WRITE);
+    }
+
+    @Override
+    public long getWriteTasksCompleted() {
+        return getTasksCompleted(ScanExecutors.WRITE);
+    }
+
+    @Override
+    public long getWriteActiveCount() {
+        return getActiveCount(ScanExecutors.WRITE);
+    }
+
+    @Override
+    public double getWriteAvgWaitTime() {
+        return getAvgWaitTime(ScanExecutors.WRITE);
+    }
+
+    @Override
+    public long getWriteMaxWaitTime() {
+        return getMaxWaitTime(ScanExecutors.WRITE);
+    }
+
+    @Override
+    public double getWriteAvgRunTime() {
+        return getAvgRunTime(ScanExecutors.WRITE);
+    }
+
+    private long getQueueDepth(final String executor) {
+        final ExecutorStats stats = getStats(executor);
+        return stats == null ? 0L : stats.getQueueDepth();
+    }
+
+    private long getTasksCompleted(final String executor) {
+        final ExecutorStats stats = getStats(executor);
+        return stats == null ? 0L : stats.getCompletedCount();
+    }
+
+    private long getActiveCount(final String executor) {
+        final ExecutorStats stats = getStats(executor);
+        return stats == null ? 0L : stats.getActiveCount();
+    }
+
+    private long getMaxWaitTime(final String executor) {
+        final ExecutorStats stats = getStats(executor);
+        return stats == null ? 0L : stats.getMaxWaitTime();
+    }
+
+    private double getAvgWaitTime(final String executor) {
+        final ExecutorStats stats = getStats(executor);
+        return stats == null ? 0.0 : stats.getAverageWaitTime();
+    }
+
+    private double getAvgRunTime(final String executor) {
+        final ExecutorStats stats = getStats(executor);
+        return stats == null ? 0.0 : stats.getAverageRunTime();
+    }
+
+    private ExecutorStats getStats(final String executor) {
+        return getDaemon().getTaskCoordinator().getExecutorStats(executor);
+    }
+}
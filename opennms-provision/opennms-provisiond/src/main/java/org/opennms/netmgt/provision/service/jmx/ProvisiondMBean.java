@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.jmx;
+
+import org.opennms.netmgt.daemon.BaseOnmsMBean;
+
+/**
+ * <p>ProvisiondMBean interface.</p>
+ *
+ * The queue depth, active count and latency of each of the executors the
+ * phases of the node scans are run on.  Times are in milliseconds.
+ */
+public interface ProvisiondMBean extends BaseOnmsMBean {
+
+    /**
+     * @return The number of node scan tasks waiting for a scan thread
+     */
+    public long getScanQueueDepth();
+
+    /**
+     * @return The number of node scan tasks completed since startup
+     */
+    public long getScanTasksCompleted();
+
+    /**
+     * @return The number of node scan tasks currently running
+     */
+    public long getScanActiveCount();
+
+    /**
+     * @return The average time node scan tasks waited for a scan thread
+     */
+    public double getScanAvgWaitTime();
+
+    /**
+     * @return The longest time node scan tasks waited for a scan thread since startup
+     */
+    public long getScanMaxWaitTime();
+
+    /**
+     * @return The average time node scan tasks took to run
+     */
+    public double getScanAvgRunTime();
+
+    /**
+     * @return The number of service detectors waiting for a detect thread
+     */
+    public long getDetectQueueDepth();
+
+    /**
+     * @return The number of service detectors run since startup
+     */
+    public long getDetectTasksCompleted();
+
+    /**
+     * @return The number of service detectors currently running
+     */
+    public long getDetectActiveCount();
+
+    /**
+     * @return The average time service detectors waited for a detect thread
+     */
+    public double getDetectAvgWaitTime();
+
+    /**
+     * @return The longest time service detectors waited for a detect thread since startup
+     */
+    public long getDetectMaxWaitTime();
+
+    /**
+     * @return The average time service detectors took to run
+     */
+    public double getDetectAvgRunTime();
+
+    /**
+     * @return The number of SNMP walks waiting for an SNMP thread
+     */
+    public long getSnmpQueueDepth();
+
+    /**
+     * @return The number of SNMP walks completed since startup
+     */
+    public long getSnmpTasksCompleted();
+
+    /**
+     * @return The number of SNMP walks currently running
+     */
+    public long getSnmpActiveCount();
+
+    /**
+     * @return The average time SNMP walks waited for an SNMP thread
+     */
+    public double getSnmpAvgWaitTime();
+
+    /**
+     * @return The longest time SNMP walks waited for an SNMP thread since startup
+     */
+    public long getSnmpMaxWaitTime();
+
+    /**
+     * @return The average time SNMP walks took to run
+     */
+    public double getSnmpAvgRunTime();
+
+    /**
+     * @return The number of database updates waiting for a write thread
+     */
+    public long getWriteQueueDepth();
+
+    /**
+     * @return The number of database updates completed since startup
+     */
+    public long getWriteTasksCompleted();
+
+    /**
+     * @return The number of database updates currently running
+     */
+    public long getWriteActiveCount();
+
+    /**
+     * @return The average time database updates waited for a write thread
+     */
+    public double getWriteAvgWaitTime();
+
+    /**
+     * @return The longest time database updates waited for a write thread since startup
+     */
+    public long getWriteMaxWaitTime();
+
+    /**
+     * @return The average time database updates took to run
+     */
+    public double getWriteAvgRunTime();
+}
@@ -43,6 +43,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.provision.persist.ModelImportException;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.service.ProvisionService;
 import org.opennms.netmgt.provision.service.RequisitionAccountant;
@@ -312,6 +313,28 @@ public class ImportOperationsManager {
         requisition.visit(new RequisitionAccountant(this));
     }
 
+    /**
+     * Audits the nodes of a streaming requisition that are accepted by the
+     * filter.  The filter must call {@link #keepNode(String)} for the
+     * existing nodes that it doesn't accept, the others are deleted.
+     *
+     * @param requisition a {@link org.opennms.netmgt.provision.service.operations.StreamingRequisition} object.
+     * @param filter a {@link org.opennms.netmgt.provision.service.operations.StreamingRequisition.NodeFilter} object.
+     * @throws org.opennms.netmgt.provision.persist.ModelImportException if the requisition can't be read
+     */
+    public void auditNodes(StreamingRequisition requisition, StreamingRequisition.NodeFilter filter) throws ModelImportException {
+        requisition.visit(new RequisitionAccountant(this), filter);
+    }
+
+    /**
+     * Keeps an existing node as it is, without an operation.
+     *
+     * @param foreignId a {@link java.lang.String} object.
+     */
+    public void keepNode(String foreignId) {
+        processForeignId(foreignId);
+    }
+
     @SuppressWarnings("unused")
     private Runnable persister(final ImportOperation oper) {
         Runnable r = new Runnable() {
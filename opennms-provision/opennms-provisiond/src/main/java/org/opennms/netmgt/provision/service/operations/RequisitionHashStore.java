@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the hashes of the nodes of the last successful import of each
+ * foreign source, one file per foreign source with a line per node.
+ */
+public class RequisitionHashStore {
+    private static final Logger LOG = LoggerFactory.getLogger(RequisitionHashStore.class);
+
+    private final File m_directory;
+
+    public RequisitionHashStore(final File directory) {
+        m_directory = directory;
+    }
+
+    /**
+     * <p>load</p>
+     *
+     * @param foreignSource a {@link java.lang.String} object.
+     * @return the hashes by foreign ID, empty if the foreign source hasn't been imported yet
+     */
+    public Map<String, Long> load(final String foreignSource) {
+        final Map<String, Long> hashes = new HashMap<String, Long>();
+        final File file = getFile(foreignSource);
+        if (!file.exists()) {
+            return hashes;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    try {
+                        hashes.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+                    } catch (final NumberFormatException e) {
+                        // only this node is imported again
+                        LOG.warn("Ignoring invalid node hash '{}' of foreign source {} in {}", line, foreignSource, file);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            LOG.warn("Unable to read the node hashes of foreign source {} from {}, all of its nodes will be imported", foreignSource, file, e);
+            hashes.clear();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return hashes;
+    }
+
+    /**
+     * Replaces the hashes of the foreign source.
+     *
+     * @param foreignSource a {@link java.lang.String} object.
+     * @param hashes the hashes by foreign ID
+     */
+    public void save(final String foreignSource, final Map<String, Long> hashes) {
+        final File file = getFile(foreignSource);
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            LOG.warn("Unable to create directory {} for the node hashes of foreign source {}", m_directory, foreignSource);
+            return;
+        }
+
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+            for (final Entry<String, Long> entry : hashes.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(Long.toString(entry.getValue()));
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+            if (!tmpFile.renameTo(file)) {
+                // not atomic on every platform, try again without the target
+                if (!file.delete() || !tmpFile.renameTo(file)) {
+                    LOG.warn("Unable to replace the node hashes of foreign source {} in {}", foreignSource, file);
+                }
+            }
+        } catch (final IOException e) {
+            LOG.warn("Unable to write the node hashes of foreign source {} to {}", foreignSource, tmpFile, e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Forgets the hashes of the foreign source, so that all of its nodes are
+     * imported the next time.
+     *
+     * @param foreignSource a {@link java.lang.String} object.
+     */
+    public void delete(final String foreignSource) {
+        final File file = getFile(foreignSource);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Unable to delete the node hashes of foreign source {} in {}", foreignSource, file);
+        }
+    }
+
+    private File getFile(final String foreignSource) {
+        try {
+            return new File(m_directory, URLEncoder.encode(foreignSource, "UTF-8") + ".hashes");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -28,6 +28,9 @@
 
 package org.opennms.netmgt.provision.service.operations;
 
+import java.util.Map;
+import java.util.Set;
+
 import javax.xml.bind.ValidationException;
 
 import org.slf4j.Logger;
@@ -37,6 +40,9 @@ import org.opennms.netmgt.provision.persist.requisition.Requisition;
 public class RequisitionImport {
     private static final Logger LOG = LoggerFactory.getLogger(RequisitionImport.class);
     private Requisition m_requisition;
+    private StreamingRequisition m_streamingRequisition;
+    private Map<String, Long> m_nodeHashes;
+    private Set<String> m_changedForeignIds;
     private Throwable m_throwable;
 
     public Requisition getRequisition() {
@@ -56,6 +62,45 @@ public class RequisitionImport {
         }
     }
 
+    /**
+     * The requisition of a streaming import, which is read one node at a
+     * time.  {@link #getRequisition()} is null for these imports.
+     */
+    public StreamingRequisition getStreamingRequisition() {
+        return m_streamingRequisition;
+    }
+
+    public void setStreamingRequisition(final StreamingRequisition requisition) {
+        m_streamingRequisition = requisition;
+    }
+
+    public boolean isStreaming() {
+        return m_streamingRequisition != null;
+    }
+
+    /**
+     * The hashes of all of the nodes of a streaming import, by foreign ID.
+     */
+    public Map<String, Long> getNodeHashes() {
+        return m_nodeHashes;
+    }
+
+    public void setNodeHashes(final Map<String, Long> nodeHashes) {
+        m_nodeHashes = nodeHashes;
+    }
+
+    /**
+     * The foreign IDs of the nodes of a streaming import that are new or
+     * have changed since the last import.
+     */
+    public Set<String> getChangedForeignIds() {
+        return m_changedForeignIds;
+    }
+
+    public void setChangedForeignIds(final Set<String> changedForeignIds) {
+        m_changedForeignIds = changedForeignIds;
+    }
+
     public Throwable getError() {
         return m_throwable;
     }
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.apache.commons.io.IOUtils;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.provision.persist.ModelImportException;
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
+import org.opennms.netmgt.provision.persist.RequisitionVisitor;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.springframework.core.io.Resource;
+
+/**
+ * A requisition that is read from its resource one node at a time each time
+ * it is visited, instead of being unmarshalled as a whole, so that the size
+ * of the requisition doesn't matter.
+ */
+public class StreamingRequisition {
+
+    private static final String MODEL_IMPORT_NAMESPACE = "http://xmlns.opennms.org/xsd/config/model-import";
+
+    /**
+     * Decides which of the nodes of the requisition are visited.
+     */
+    public interface NodeFilter {
+        boolean accept(RequisitionNode node) throws ModelImportException;
+    }
+
+    private final Resource m_resource;
+    private final String m_foreignSource;
+    private final JAXBContext m_context;
+
+    /**
+     * Reads the attributes of the requisition, but none of its nodes.
+     *
+     * @param resource the requisition
+     * @throws ModelImportException if the requisition can't be read
+     */
+    public StreamingRequisition(final Resource resource) throws ModelImportException {
+        m_resource = resource;
+        try {
+            m_context = JaxbUtils.getContextFor(Requisition.class);
+        } catch (final JAXBException e) {
+            throw new ModelImportException("Unable to create a JAXB context for requisitions", e);
+        }
+
+        InputStream stream = null;
+        XMLStreamReader reader = null;
+        try {
+            stream = resource.getInputStream();
+            reader = createReader(stream);
+            reader.nextTag();
+            m_foreignSource = reader.getAttributeValue(null, "foreign-source");
+        } catch (final IOException | XMLStreamException e) {
+            throw new ModelImportException("Unable to read requisition from " + resource, e);
+        } finally {
+            close(reader);
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    public Resource getResource() {
+        return m_resource;
+    }
+
+    public String getForeignSource() {
+        return m_foreignSource;
+    }
+
+    /**
+     * Visits the nodes of the requisition that are accepted by the filter.
+     *
+     * @param visitor the visitor
+     * @param filter the nodes to visit, or null for all of the nodes
+     * @throws ModelImportException if the requisition can't be read
+     */
+    public void visit(final RequisitionVisitor visitor, final NodeFilter filter) throws ModelImportException {
+        InputStream stream = null;
+        XMLStreamReader reader = null;
+        try {
+            stream = m_resource.getInputStream();
+            reader = createReader(stream);
+            final Unmarshaller unmarshaller = m_context.createUnmarshaller();
+            while (reader.hasNext()) {
+                if (reader.isStartElement() && "node".equals(reader.getLocalName())) {
+                    final RequisitionNode node = unmarshaller.unmarshal(reader, RequisitionNode.class).getValue();
+                    if (filter == null || filter.accept(node)) {
+                        new OnmsNodeRequisition(m_foreignSource, node).visit(visitor);
+                    }
+                } else {
+                    reader.next();
+                }
+            }
+        } catch (final IOException | XMLStreamException | JAXBException e) {
+            throw new ModelImportException("Unable to read requisition from " + m_resource, e);
+        } finally {
+            close(reader);
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Returns a hash of the content of the node, which changes whenever
+     * anything that is imported for the node changes.
+     *
+     * @param node a node of this requisition
+     * @return the first 64 bits of the MD5 digest of the node
+     */
+    public long getHash(final RequisitionNode node) throws ModelImportException {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final Marshaller marshaller = m_context.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            marshaller.marshal(node, new DigestOutputStream(new OutputStream() {
+                @Override
+                public void write(final int b) {
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) {
+                }
+            }, digest));
+
+            final byte[] bytes = digest.digest();
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (bytes[i] & 0xff);
+            }
+            return hash;
+        } catch (final JAXBException | NoSuchAlgorithmException e) {
+            throw new ModelImportException("Unable to hash node " + node.getForeignId(), e);
+        }
+    }
+
+    private static XMLStreamReader createReader(final InputStream stream) throws XMLStreamException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        // like JaxbUtils, accept requisitions that don't declare the model-import namespace
+        return new StreamReaderDelegate(factory.createXMLStreamReader(stream)) {
+            @Override
+            public String getNamespaceURI() {
+                if (isStartElement() || isEndElement()) {
+                    return MODEL_IMPORT_NAMESPACE;
+                }
+                return super.getNamespaceURI();
+            }
+        };
+    }
+
+    private static void close(final XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (final XMLStreamException e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingRequisition[foreignSource=" + m_foreignSource + ", resource=" + m_resource + "]";
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.RequisitionHashStore;
+import org.opennms.netmgt.provision.service.operations.RequisitionImport;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Audits a streaming requisition whose nodes 1 and 2 exist, after node 2
+ * changed and node 3 was added since the last import.
+ */
+public class CoreImportActivitiesTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private CoreImportActivities m_activities;
+
+    @Before
+    public void setUp() throws Exception {
+        final Map<String, Integer> foreignIdsToNodes = new HashMap<String, Integer>();
+        foreignIdsToNodes.put("1", 1);
+        foreignIdsToNodes.put("2", 2);
+        final ProvisionService provisionService = (ProvisionService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ProvisionService.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("getForeignIdToNodeIdMap".equals(method.getName())) {
+                    return foreignIdsToNodes;
+                }
+                return null;
+            }
+        });
+        m_activities = new CoreImportActivities(provisionService, Collections.singleton("test"), new RequisitionHashStore(m_folder.newFolder("hashes")));
+
+        final RequisitionImport ri = m_activities.loadSpecFile(requisition("192.168.1.2", false));
+        final ImportOperationsManager opsMgr = m_activities.auditNodes(ri, Boolean.FALSE.toString());
+        assertFalse(ri.isAborted());
+        assertEquals(2, opsMgr.getUpdateCount());
+        m_activities.saveNodeHashes(ri);
+    }
+
+    @Test
+    public void testUnchangedNodesAreKeptWithoutRescan() throws Exception {
+        assertOperations(Boolean.FALSE.toString(), 1, 1);
+        assertOperations("dbonly", 1, 1);
+    }
+
+    @Test
+    public void testAllNodesAreUpdatedWithRescan() throws Exception {
+        assertOperations(Boolean.TRUE.toString(), 1, 2);
+    }
+
+    private void assertOperations(final String rescanExisting, final int inserts, final int updates) throws Exception {
+        final RequisitionImport ri = m_activities.loadSpecFile(requisition("192.168.1.3", true));
+        final ImportOperationsManager opsMgr = m_activities.auditNodes(ri, rescanExisting);
+        assertFalse(ri.isAborted());
+        assertEquals(inserts, opsMgr.getInsertCount());
+        assertEquals(updates, opsMgr.getUpdateCount());
+        assertEquals(0, opsMgr.getDeleteCount());
+    }
+
+    private static Resource requisition(final String secondAddress, final boolean thirdNode) throws Exception {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<model-import xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\" foreign-source=\"test\" date-stamp=\"2015-01-01T00:00:00.000Z\">\n" +
+            "  <node foreign-id=\"1\" node-label=\"node1\">\n" +
+            "    <interface ip-addr=\"192.168.1.1\" snmp-primary=\"P\"/>\n" +
+            "  </node>\n" +
+            "  <node foreign-id=\"2\" node-label=\"node2\">\n" +
+            "    <interface ip-addr=\"" + secondAddress + "\" snmp-primary=\"P\"/>\n" +
+            "  </node>\n" +
+            (thirdNode ? "  <node foreign-id=\"3\" node-label=\"node3\"/>\n" : "") +
+            "</model-import>\n";
+        return new ByteArrayResource(xml.getBytes("UTF-8"));
+    }
+}
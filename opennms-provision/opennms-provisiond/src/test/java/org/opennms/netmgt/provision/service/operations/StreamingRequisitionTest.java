@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.provision.persist.AbstractRequisitionVisitor;
+import org.opennms.netmgt.provision.persist.ModelImportException;
+import org.opennms.netmgt.provision.persist.OnmsIpInterfaceRequisition;
+import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+
+public class StreamingRequisitionTest {
+
+    private static class CountingVisitor extends AbstractRequisitionVisitor {
+        private int m_nodes = 0;
+        private int m_interfaces = 0;
+
+        @Override
+        public void visitNode(final OnmsNodeRequisition nodeReq) {
+            m_nodes++;
+        }
+
+        @Override
+        public void visitInterface(final OnmsIpInterfaceRequisition ifaceReq) {
+            m_interfaces++;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void testVisitMatchesUnmarshalledRequisition() throws Exception {
+        final Resource resource = new ClassPathResource("/SPC-222-a.xml");
+        final Requisition requisition = JaxbUtils.unmarshal(Requisition.class, resource);
+        final CountingVisitor expected = new CountingVisitor();
+        requisition.visit(expected);
+
+        final StreamingRequisition streaming = new StreamingRequisition(resource);
+        assertEquals(requisition.getForeignSource(), streaming.getForeignSource());
+        final CountingVisitor visitor = new CountingVisitor();
+        streaming.visit(visitor, null);
+        assertEquals(1000, visitor.m_nodes);
+        assertEquals(expected.m_nodes, visitor.m_nodes);
+        assertEquals(expected.m_interfaces, visitor.m_interfaces);
+    }
+
+    @Test
+    public void testFilterAndHashes() throws Exception {
+        final Map<String, Long> before = getHashes(requisition(true, "192.168.1.2"));
+        final Map<String, Long> after = getHashes(requisition(false, "192.168.1.3"));
+
+        assertEquals(2, before.size());
+        assertEquals(before.get("1"), after.get("1"));
+        assertFalse(before.get("2").equals(after.get("2")));
+
+        final CountingVisitor visitor = new CountingVisitor();
+        new StreamingRequisition(requisition(true, "192.168.1.2")).visit(visitor, new StreamingRequisition.NodeFilter() {
+            @Override
+            public boolean accept(final RequisitionNode node) {
+                return "2".equals(node.getForeignId());
+            }
+        });
+        assertEquals(1, visitor.m_nodes);
+        assertEquals(1, visitor.m_interfaces);
+    }
+
+    @Test
+    public void testHashStore() throws Exception {
+        final RequisitionHashStore store = new RequisitionHashStore(m_folder.newFolder("hashes"));
+        assertTrue(store.load("test").isEmpty());
+
+        final Map<String, Long> hashes = getHashes(requisition(true, "192.168.1.2"));
+        store.save("test", hashes);
+        assertEquals(hashes, store.load("test"));
+        assertTrue(store.load("other").isEmpty());
+
+        store.delete("test");
+        assertTrue(store.load("test").isEmpty());
+    }
+
+    @Test
+    public void testHashStoreKeepsNegativeHashes() throws Exception {
+        final RequisitionHashStore store = new RequisitionHashStore(m_folder.newFolder("hashes"));
+        final Map<String, Long> hashes = new HashMap<String, Long>();
+        hashes.put("1", -5L);
+        hashes.put("2", Long.MIN_VALUE);
+        hashes.put("3", Long.MAX_VALUE);
+        hashes.put("4", 0L);
+        store.save("test", hashes);
+        assertEquals(hashes, store.load("test"));
+    }
+
+    @Test
+    public void testHashStoreSkipsInvalidLines() throws Exception {
+        final File directory = m_folder.newFolder("hashes");
+        FileUtils.writeStringToFile(new File(directory, "test.hashes"), "1\t-5\n2\tfffffffffffffffb\n3\t42\n", "UTF-8");
+
+        final Map<String, Long> hashes = new RequisitionHashStore(directory).load("test");
+        assertEquals(2, hashes.size());
+        assertEquals(Long.valueOf(-5L), hashes.get("1"));
+        assertEquals(Long.valueOf(42L), hashes.get("3"));
+    }
+
+    private static Map<String, Long> getHashes(final Resource resource) throws ModelImportException {
+        final StreamingRequisition requisition = new StreamingRequisition(resource);
+        final Map<String, Long> hashes = new HashMap<String, Long>();
+        requisition.visit(new AbstractRequisitionVisitor(), new StreamingRequisition.NodeFilter() {
+            @Override
+            public boolean accept(final RequisitionNode node) throws ModelImportException {
+                hashes.put(node.getForeignId(), requisition.getHash(node));
+                return false;
+            }
+        });
+        return hashes;
+    }
+
+    private static Resource requisition(final boolean namespace, final String secondAddress) throws Exception {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<model-import " + (namespace ? "xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\" " : "") + "foreign-source=\"test\" date-stamp=\"2015-01-01T00:00:00.000Z\">\n" +
+            "  <node foreign-id=\"1\" node-label=\"node1\">\n" +
+            "    <interface ip-addr=\"192.168.1.1\" snmp-primary=\"P\">\n" +
+            "      <monitored-service service-name=\"ICMP\"/>\n" +
+            "    </interface>\n" +
+            "    <category name=\"Routers\"/>\n" +
+            "  </node>\n" +
+            "  <node foreign-id=\"2\" node-label=\"node2\">\n" +
+            "    <interface ip-addr=\"" + secondAddress + "\" snmp-primary=\"P\"/>\n" +
+            "  </node>\n" +
+            "</model-import>\n";
+        return new ByteArrayResource(xml.getBytes("UTF-8"));
+    }
+}
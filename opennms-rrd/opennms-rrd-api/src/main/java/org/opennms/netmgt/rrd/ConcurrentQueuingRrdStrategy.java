@@ -0,0 +1,654 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link QueuingRrdStrategy} that does not serialize enqueuing and
+ * dequeuing on the strategy's monitor.
+ *
+ * Every file has its own queue of pending operations guarded by its own
+ * lock, so collection threads only contend when they update the same file.
+ * Files with work are kept on lock-free significant and insignificant work
+ * lists that are sharded by file name, one shard per write thread.  A write
+ * thread takes work from its own shard first and steals from the other
+ * shards when its own is empty.  Files with significant work are always
+ * taken before files with only insignificant work, and aged insignificant
+ * files are promoted just like in the {@link QueuingRrdStrategy}.
+ *
+ * Zero valued updates are recognized without parsing the update string
+ * into a double, and are merged into the pending {@link ZeroUpdateOperation}
+ * for the file in place instead of allocating a new operation per update.
+ *
+ * The high water marks are checked against the pending operation count
+ * without a lock, so the queue can briefly exceed them by at most one
+ * operation per collection thread.
+ *
+ * This strategy is used instead of the {@link QueuingRrdStrategy} when
+ * <code>org.opennms.rrd.queuing.strategyClass</code> is set to its name.
+ *
+ * @see QueuingRrdStrategy
+ */
+public class ConcurrentQueuingRrdStrategy extends QueuingRrdStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentQueuingRrdStrategy.class);
+
+    /**
+     * The pending operations for a single file.
+     */
+    private static final class FileQueue {
+        private final String m_fileName;
+        private final LinkedList<Operation> m_operations = new LinkedList<Operation>();
+        private int m_significant = 0;
+        private boolean m_reserved = false;
+        private boolean m_removed = false;
+
+        private FileQueue(final String fileName) {
+            m_fileName = fileName;
+        }
+    }
+
+    /**
+     * A list of files with work, sharded by file name.
+     */
+    private static final class WorkList {
+        private final ConcurrentLinkedDeque<FileQueue>[] m_shards;
+        private final AtomicInteger m_size = new AtomicInteger(0);
+
+        @SuppressWarnings("unchecked")
+        private WorkList(final int shards) {
+            m_shards = new ConcurrentLinkedDeque[shards];
+            for (int i = 0; i < shards; i++) {
+                m_shards[i] = new ConcurrentLinkedDeque<FileQueue>();
+            }
+        }
+
+        private ConcurrentLinkedDeque<FileQueue> shardFor(final FileQueue queue) {
+            return m_shards[(queue.m_fileName.hashCode() & 0x7fffffff) % m_shards.length];
+        }
+
+        private void addLast(final FileQueue queue) {
+            shardFor(queue).addLast(queue);
+            m_size.incrementAndGet();
+        }
+
+        private void addFirst(final FileQueue queue) {
+            shardFor(queue).addFirst(queue);
+            m_size.incrementAndGet();
+        }
+
+        /**
+         * Takes the next file starting with the given shard and stealing
+         * from the others if that one is empty.
+         */
+        private FileQueue poll(final int shard) {
+            for (int i = 0; i < m_shards.length; i++) {
+                final FileQueue queue = m_shards[(shard + i) % m_shards.length].pollFirst();
+                if (queue != null) {
+                    m_size.decrementAndGet();
+                    return queue;
+                }
+            }
+            return null;
+        }
+
+        private int size() {
+            return m_size.get();
+        }
+    }
+
+    private final ConcurrentMap<String, FileQueue> m_fileQueues = new ConcurrentHashMap<String, FileQueue>();
+
+    private volatile WorkList m_significantWork;
+    private volatile WorkList m_insignificantWork;
+
+    private final AtomicInteger m_nextShard = new AtomicInteger(0);
+
+    private final ThreadLocal<Integer> m_shard = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return m_nextShard.getAndIncrement();
+        }
+    };
+
+    private final ThreadLocal<FileQueue> m_assignment = new ThreadLocal<FileQueue>();
+
+    private final AtomicLong m_totalOperationsPending = new AtomicLong(0);
+    private final AtomicLong m_enqueuedOperations = new AtomicLong(0);
+    private final AtomicLong m_dequeuedOperations = new AtomicLong(0);
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong(0);
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong(0);
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong(0);
+    private final AtomicLong m_dequeuedItems = new AtomicLong(0);
+    private final AtomicLong m_createsCompleted = new AtomicLong(0);
+    private final AtomicLong m_updatesCompleted = new AtomicLong(0);
+    private final AtomicLong m_errors = new AtomicLong(0);
+    private final AtomicLong m_promotionCount = new AtomicLong(0);
+    private volatile long m_startTime = 0;
+
+    /**
+     * <p>Constructor for ConcurrentQueuingRrdStrategy.</p>
+     *
+     * @param delegate a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public ConcurrentQueuingRrdStrategy(final RrdStrategy<Object, Object> delegate) {
+        super(delegate);
+    }
+
+    private WorkList getSignificantWork() {
+        if (m_significantWork == null) {
+            initializeWorkLists();
+        }
+        return m_significantWork;
+    }
+
+    private WorkList getInsignificantWork() {
+        if (m_insignificantWork == null) {
+            initializeWorkLists();
+        }
+        return m_insignificantWork;
+    }
+
+    /**
+     * The number of shards depends on the number of write threads which is
+     * only known once the properties have been set.
+     */
+    private synchronized void initializeWorkLists() {
+        if (m_significantWork == null) {
+            final int shards = Math.max(1, getWriteThreads());
+            m_insignificantWork = new WorkList(shards);
+            m_significantWork = new WorkList(shards);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(final String rrdFile, final String owner, final String data) throws Exception {
+        final long zeroTimeStamp = parseZeroUpdate(data);
+        if (zeroTimeStamp < 0) {
+            addOperation(makeUpdateOperation(rrdFile, owner, data));
+            return;
+        }
+
+        if (zeroTimeStamp == 0) {
+            LOG.debug("ZERO ERROR: created a zero update with ts=0 for file: {}, data: {}", rrdFile, data);
+        }
+        addZeroUpdate(rrdFile, zeroTimeStamp);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(final String rrdFile, final String owner, final long timestamp, final double[] values) throws Exception {
+        if (values.length != 1 || values[0] != 0.0) {
+            addOperation(makeUpdateOperation(rrdFile, owner, timestamp, values));
+            return;
+        }
+
+        if (timestamp == 0) {
+            LOG.debug("ZERO ERROR: created a zero update with ts=0 for file: {}", rrdFile);
+        }
+        addZeroUpdate(rrdFile, timestamp);
+    }
+
+    /**
+     * Merges a zero valued update into the pending {@link ZeroUpdateOperation}
+     * of the file if it can, or enqueues a new one.
+     */
+    private void addZeroUpdate(final String rrdFile, final long zeroTimeStamp) {
+        if (!checkCapacity(rrdFile, false)) {
+            return;
+        }
+
+        for (;;) {
+            final FileQueue queue = getFileQueue(rrdFile);
+            synchronized (queue) {
+                if (queue.m_removed) {
+                    continue;
+                }
+                final Operation last = queue.m_operations.isEmpty() ? null : queue.m_operations.getLast();
+                if (last instanceof ZeroUpdateOperation && ((ZeroUpdateOperation)last).tryMerge(zeroTimeStamp)) {
+                    countEnqueued(false);
+                } else {
+                    enqueue(queue, new ZeroUpdateOperation(rrdFile, zeroTimeStamp));
+                }
+            }
+            break;
+        }
+        startThreadsIfNecessary();
+    }
+
+    /**
+     * Returns the time stamp of an update of the form <code>timestamp:0</code>
+     * (any number of zeroes with an optional decimal point), or -1 if the
+     * update is anything else.  Updates that are not recognized here are
+     * handled by {@link #makeUpdateOperation(String, String, String)} which
+     * still turns any other zero valued update into a {@link ZeroUpdateOperation}.
+     */
+    static long parseZeroUpdate(final String update) {
+        final int length = update.length();
+        long timeStamp = 0;
+        int i = 0;
+        for (; i < length; i++) {
+            final char c = update.charAt(i);
+            if (c == ':') break;
+            if (c < '0' || c > '9' || i >= 18) return -1;
+            timeStamp = timeStamp * 10 + (c - '0');
+        }
+        if (i == 0 || i >= length - 1) return -1;
+
+        boolean digits = false;
+        for (i++; i < length; i++) {
+            final char c = update.charAt(i);
+            if (c == '0') {
+                digits = true;
+            } else if (c != '.') {
+                return -1;
+            }
+        }
+        return digits ? timeStamp : -1;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    void addOperation(final Operation op) {
+        if (!checkCapacity(op.getFileName(), op.isSignificant())) {
+            return;
+        }
+
+        for (;;) {
+            final FileQueue queue = getFileQueue(op.getFileName());
+            synchronized (queue) {
+                if (queue.m_removed) {
+                    continue;
+                }
+                enqueue(queue, op);
+            }
+            break;
+        }
+        startThreadsIfNecessary();
+    }
+
+    private boolean checkCapacity(final String fileName, final boolean significant) {
+        final long pending = m_totalOperationsPending.get();
+        if (getQueueHighWaterMark() > 0 && pending >= getQueueHighWaterMark()) {
+            LOG.error("RRD Data Queue is Full!! Discarding operation for file {}", fileName);
+            return false;
+        }
+        if (significant && getSigHighWaterMark() > 0 && pending >= getSigHighWaterMark()) {
+            LOG.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", fileName);
+            return false;
+        }
+        if (!significant && getInSigHighWaterMark() > 0 && pending >= getInSigHighWaterMark()) {
+            LOG.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", fileName);
+            return false;
+        }
+        return true;
+    }
+
+    private FileQueue getFileQueue(final String fileName) {
+        FileQueue queue = m_fileQueues.get(fileName);
+        if (queue == null) {
+            final FileQueue newQueue = new FileQueue(fileName);
+            queue = m_fileQueues.putIfAbsent(fileName, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Adds the operation to the file's queue and puts the file on a work
+     * list if it needs to be.  Must be called holding the queue's lock.
+     */
+    private void enqueue(final FileQueue queue, final Operation op) {
+        final boolean wasEmpty = queue.m_operations.isEmpty();
+        final boolean wasInsignificant = queue.m_significant == 0;
+
+        op.addToPendingList(queue.m_operations);
+        if (op.isSignificant()) {
+            queue.m_significant++;
+        }
+        countEnqueued(op.isSignificant());
+
+        if (queue.m_reserved) {
+            // the write thread working on this file puts it back on a work
+            // list when it is done
+            return;
+        }
+
+        if (wasEmpty) {
+            if (!prioritizeSignificantUpdates() || op.isSignificant()) {
+                getSignificantWork().addLast(queue);
+            } else {
+                getInsignificantWork().addLast(queue);
+            }
+        } else if (prioritizeSignificantUpdates() && op.isSignificant() && wasInsignificant) {
+            // promote the file to the significant list with its first
+            // significant update; the stale entry on the insignificant list
+            // is skipped once the file has been processed
+            getSignificantWork().addLast(queue);
+        }
+
+        promoteAgedFiles();
+    }
+
+    private void countEnqueued(final boolean significant) {
+        m_totalOperationsPending.incrementAndGet();
+        m_enqueuedOperations.incrementAndGet();
+        if (significant) {
+            m_significantOpsEnqueued.incrementAndGet();
+        }
+    }
+
+    private void startThreadsIfNecessary() {
+        if (threadsRunning < getWriteThreads()) {
+            ensureThreadsStarted();
+        }
+    }
+
+    /**
+     * Promotes an insignificant file to the front of the significant list
+     * at the rate needed to promote every one of them within
+     * maxInsigUpdateSeconds.
+     */
+    private void promoteAgedFiles() {
+        if (!prioritizeSignificantUpdates() || getMaxInsigUpdateSeconds() == 0) {
+            return;
+        }
+
+        final int insignificantFiles = getInsignificantWork().size();
+        if (insignificantFiles == 0) {
+            return;
+        }
+
+        final long elapsedMillis = Math.max(System.currentTimeMillis() - getStartTime(), 1);
+        final double millisPerPromotion = ((getMaxInsigUpdateSeconds() * 1000.0) / insignificantFiles);
+        final long nextPromotionMillis = (long) (millisPerPromotion * getPromotionCount());
+
+        if (elapsedMillis > nextPromotionMillis) {
+            final FileQueue queue = getInsignificantWork().poll(0);
+            if (queue != null) {
+                getSignificantWork().addFirst(queue);
+                m_promotionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        for (final String rrdFile : rrdFiles) {
+            final FileQueue queue = m_fileQueues.get(rrdFile);
+            if (queue != null) {
+                getSignificantWork().addFirst(queue);
+            }
+        }
+        getDelegate().promoteEnqueuedFiles(rrdFiles);
+    }
+
+    /**
+     * Get the operations for the next file that should be worked on, or
+     * <code>null</code> if there is nothing this thread can work on right now.
+     */
+    @Override
+    LinkedList<Operation> getNext() {
+        completeAssignment();
+
+        if (getStartTime() == 0) {
+            setStartTime(System.currentTimeMillis());
+        }
+
+        final int shard = m_shard.get();
+        FileQueue queue;
+        while ((queue = getSignificantWork().poll(shard)) != null || (queue = getInsignificantWork().poll(shard)) != null) {
+            final LinkedList<Operation> ops = takeAssignment(queue);
+            if (ops != null) {
+                return ops;
+            }
+        }
+
+        // everything pending is being written by other threads
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, getWriteThreadSleepTime())));
+        return null;
+    }
+
+    private LinkedList<Operation> takeAssignment(final FileQueue queue) {
+        final LinkedList<Operation> ops;
+        synchronized (queue) {
+            // stale entries for files that are being processed or that were
+            // already processed through another entry are skipped
+            if (queue.m_removed || queue.m_reserved || queue.m_operations.isEmpty()) {
+                return null;
+            }
+            queue.m_reserved = true;
+            ops = new LinkedList<Operation>(queue.m_operations);
+            queue.m_operations.clear();
+            queue.m_significant = 0;
+        }
+        m_assignment.set(queue);
+
+        for (final Operation op : ops) {
+            m_totalOperationsPending.addAndGet(-op.getCount());
+            m_dequeuedOperations.addAndGet(op.getCount());
+            if (op.isSignificant()) {
+                m_significantOpsDequeued.addAndGet(op.getCount());
+            }
+        }
+        m_dequeuedItems.incrementAndGet();
+        return ops;
+    }
+
+    /**
+     * Releases the file the current thread was working on, and puts it back
+     * on a work list if updates arrived while it was being written.
+     */
+    @Override
+    void completeAssignment() {
+        final FileQueue queue = m_assignment.get();
+        if (queue == null) {
+            return;
+        }
+        m_assignment.remove();
+
+        synchronized (queue) {
+            queue.m_reserved = false;
+            if (queue.m_operations.isEmpty()) {
+                queue.m_removed = true;
+                m_fileQueues.remove(queue.m_fileName, queue);
+            } else if (!prioritizeSignificantUpdates() || queue.m_significant > 0) {
+                getSignificantWork().addLast(queue);
+            } else {
+                getInsignificantWork().addLast(queue);
+            }
+        }
+    }
+
+    @Override
+    int getFilesWithSignificantWorkCount() {
+        return getSignificantWork().size();
+    }
+
+    @Override
+    int getFilesWithInsignificantWorkCount() {
+        return getInsignificantWork().size();
+    }
+
+    @Override
+    public long getTotalOperationsPending() {
+        return m_totalOperationsPending.get();
+    }
+
+    @Override
+    public void setTotalOperationsPending(final long totalOperationsPending) {
+        m_totalOperationsPending.set(totalOperationsPending);
+    }
+
+    @Override
+    public long getCreatesCompleted() {
+        return m_createsCompleted.get();
+    }
+
+    @Override
+    public void setCreatesCompleted(final long createsCompleted) {
+        m_createsCompleted.set(createsCompleted);
+    }
+
+    @Override
+    public long getUpdatesCompleted() {
+        return m_updatesCompleted.get();
+    }
+
+    @Override
+    public void setUpdatesCompleted(final long updatesCompleted) {
+        m_updatesCompleted.set(updatesCompleted);
+    }
+
+    @Override
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    @Override
+    public void setErrors(final long errors) {
+        m_errors.set(errors);
+    }
+
+    @Override
+    long incrementCreatesCompleted() {
+        return m_createsCompleted.incrementAndGet();
+    }
+
+    @Override
+    long incrementUpdatesCompleted() {
+        return m_updatesCompleted.incrementAndGet();
+    }
+
+    @Override
+    long incrementSignificantOpsCompleted() {
+        return m_significantOpsCompleted.incrementAndGet();
+    }
+
+    @Override
+    long incrementErrors() {
+        return m_errors.incrementAndGet();
+    }
+
+    @Override
+    public long getPromotionCount() {
+        return m_promotionCount.get();
+    }
+
+    @Override
+    public void setPromotionCount(final long promotionCount) {
+        m_promotionCount.set(promotionCount);
+    }
+
+    @Override
+    public long getSignificantOpsEnqueued() {
+        return m_significantOpsEnqueued.get();
+    }
+
+    @Override
+    public void setSignificantOpsEnqueued(final long significantOpsEnqueued) {
+        m_significantOpsEnqueued.set(significantOpsEnqueued);
+    }
+
+    @Override
+    public long getSignificantOpsDequeued() {
+        return m_significantOpsDequeued.get();
+    }
+
+    @Override
+    public void setSignificantOpsDequeued(final long significantOpsDequeued) {
+        m_significantOpsDequeued.set(significantOpsDequeued);
+    }
+
+    @Override
+    public long getEnqueuedOperations() {
+        return m_enqueuedOperations.get();
+    }
+
+    @Override
+    public void setEnqueuedOperations(final long enqueuedOperations) {
+        m_enqueuedOperations.set(enqueuedOperations);
+    }
+
+    @Override
+    public long getDequeuedOperations() {
+        return m_dequeuedOperations.get();
+    }
+
+    @Override
+    public void setDequeuedOperations(final long dequeuedOperations) {
+        m_dequeuedOperations.set(dequeuedOperations);
+    }
+
+    @Override
+    public long getDequeuedItems() {
+        return m_dequeuedItems.get();
+    }
+
+    @Override
+    public void setDequeuedItems(final long dequeuedItems) {
+        m_dequeuedItems.set(dequeuedItems);
+    }
+
+    @Override
+    public long getSignificantOpsCompleted() {
+        return m_significantOpsCompleted.get();
+    }
+
+    @Override
+    public void setSignificantOpsCompleted(final long significantOpsCompleted) {
+        m_significantOpsCompleted.set(significantOpsCompleted);
+    }
+
+    @Override
+    public long getStartTime() {
+        return m_startTime;
+    }
+
+    @Override
+    public void setStartTime(final long startTime) {
+        m_startTime = startTime;
+    }
+}
@@ -387,7 +387,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
     private long m_errors = 0;
 
-    int threadsRunning = 0;
+    volatile int threadsRunning = 0;
 
     private long m_startTime = 0;
 
@@ -483,7 +483,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData(), attributeMappings);
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            incrementCreatesCompleted();
 
             // return the file
             return rrd;
@@ -510,20 +510,17 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             // open the file if we need to
             if (rrd == null) rrd = m_delegate.openFile(getFileName());
 
-            final String update = (String) getData();
-
             try {
                 // process the update
-                m_delegate.updateFile(rrd, "", update);
+                update(rrd);
             } catch (final Throwable e) {
-                final String error = String.format("Error processing update for file %s: %s", getFileName(), update);
+                final String error = String.format("Error processing update for file %s: %s", getFileName(), getUpdate());
                 m_log.debug(error, e);
                 throw new Exception(error, e);
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
+            if (incrementUpdatesCompleted() % m_modulus == 0) {
                 logStats();
             }
             // return the open rrd for further processing
@@ -531,6 +528,42 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         }
 
+        void update(Object rrd) throws Exception {
+            m_delegate.updateFile(rrd, "", (String) getData());
+        }
+
+        String getUpdate() {
+            return (String) getData();
+        }
+
+    }
+
+    /**
+     * Represents an update to a rrd file that was passed as a timestamp and
+     * an array of values, which are handed to the delegate as they are.
+     */
+    public class TypedUpdateOperation extends UpdateOperation {
+
+        private final long m_timestamp;
+
+        private final double[] m_values;
+
+        TypedUpdateOperation(String fileName, long timestamp, double[] values) {
+            super(fileName, null, true);
+            m_timestamp = timestamp;
+            m_values = values;
+        }
+
+        @Override
+        void update(Object rrd) throws Exception {
+            m_delegate.updateFile(rrd, "", m_timestamp, m_values);
+        }
+
+        @Override
+        String getUpdate() {
+            return RrdUpdateFormat.format(m_timestamp, m_values);
+        }
+
     }
 
     /**
@@ -553,24 +586,24 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         @Override
         Object process(Object rrd) throws Exception {
+            final double[] zero = new double[] { 0.0 };
             long ts = getFirstTimeStamp();
             for (int i = 0; i < count; i++) {
                 // open the file if we need to
                 if (rrd == null)
                     rrd = m_delegate.openFile(getFileName());
 
-                String update = ts + ":0";
                 try {
                     // process the update
-                    m_delegate.updateFile(rrd, "", update);
+                    zero[0] = 0.0;
+                    m_delegate.updateFile(rrd, "", ts, zero);
                 } catch (Throwable e) {
-                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + update, e);
+                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + ts + ":0", e);
                 }
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
+                if (incrementUpdatesCompleted() % m_modulus == 0) {
                     logStats();
                 }
             }
@@ -625,6 +658,32 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         }
 
+        /**
+         * Merges a single zero update at the given time stamp into this
+         * operation, the same way {@link #mergeUpdates(ZeroUpdateOperation)}
+         * would merge a new operation, without creating one.
+         *
+         * @return false if the time stamp doesn't fit the interval of this operation
+         */
+        boolean tryMerge(long timeStamp) {
+            long opSpacing = timeStamp - getLastTimeStamp();
+            long tolerance = getInterval() / 5;
+
+            if (opSpacing == 0) {
+                return false;
+            }
+            if (getInterval() > 0 && Math.abs(opSpacing - getInterval()) >= tolerance) {
+                return false;
+            }
+
+            int newCount = getCount() + 1;
+            long newInterval = ((getCount() - 1) * getInterval() + opSpacing) / (newCount - 1);
+
+            setCount(newCount);
+            setInterval(newInterval);
+            return true;
+        }
+
         @Override
         void addToPendingList(LinkedList<Operation> pendingOperations) {
             if (pendingOperations.size() > 0 && pendingOperations.getLast() instanceof ZeroUpdateOperation) {
@@ -676,6 +735,24 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return new UpdateOperation(fileName, update);
     }
 
+    /**
+     * <p>makeUpdateOperation</p>
+     *
+     * @param fileName a {@link java.lang.String} object.
+     * @param owner a {@link java.lang.String} object.
+     * @param timestamp the time of the update in seconds
+     * @param values the values of the update, which are copied
+     * @return a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     */
+    Operation makeUpdateOperation(String fileName, String owner, long timestamp, double[] values) {
+        if (values.length == 1 && values[0] == 0.0) {
+            if (timestamp == 0)
+                m_log.debug("ZERO ERROR: created a zero update with ts=0 for file: {}", fileName);
+            return new ZeroUpdateOperation(fileName, timestamp);
+        }
+        return new TypedUpdateOperation(fileName, timestamp, values.clone());
+    }
+
     //
     // Queue management functions.
     //
@@ -687,7 +764,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      *
      * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
-    private void addOperation(final Operation op) {
+    void addOperation(final Operation op) {
         synchronized (this) {
             if (queueIsFull()) {
                 m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
@@ -740,7 +817,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /**
      * Ensure that we have threads started to process the queue.
      */
-    private synchronized void ensureThreadsStarted() {
+    synchronized void ensureThreadsStarted() {
         if (threadsRunning < m_writeThreads) {
             threadsRunning++;
             new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
@@ -752,7 +829,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      *
      * @return a linkedList of operations to be processed all for the same file.
      */
-    private LinkedList<Operation> getNext() {
+    LinkedList<Operation> getNext() {
         LinkedList<Operation> ops = null;
         synchronized (this) {
 
@@ -925,7 +1002,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * Record that fact that the current thread has finished process operations
      * for its current assignment
      */
-    private synchronized void completeAssignment() {
+    synchronized void completeAssignment() {
         // remove any existing reservation of the current thread
         String previousAssignment = fileAssignments.remove(Thread.currentThread());
         if (previousAssignment != null)
@@ -1023,6 +1100,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         addOperation(makeUpdateOperation((String) rrdFile, owner, data));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, long timestamp, double[] values) throws Exception {
+        addOperation(makeUpdateOperation(rrdFile, owner, timestamp, values));
+    }
+
     /** {@inheritDoc} */
     @Override
     public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
@@ -1114,7 +1197,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            incrementSignificantOpsCompleted();
                         }
 
                     }
@@ -1124,7 +1207,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                         rrd = op.process(rrd);
                     }
                 } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
+                    incrementErrors();
                     logLapTime("Error updating file " + fileName + ": " + e.getMessage());
                     m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
                 } finally {
@@ -1142,7 +1225,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             try {
                 m_delegate.closeFile(rrd);
             } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
+                incrementErrors();
                 logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
                 m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
             }
@@ -1188,8 +1271,8 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithSignificantWork=" + getFilesWithSignificantWorkCount() +
+                ", filesWithInsignificantWork=" + getFilesWithInsignificantWorkCount()
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1222,6 +1305,20 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return stats;
     }
 
+    /**
+     * Returns the number of files waiting on the significant work list.
+     */
+    int getFilesWithSignificantWorkCount() {
+        return filesWithSignificantWork.size();
+    }
+
+    /**
+     * Returns the number of files waiting on the insignificant work list.
+     */
+    int getFilesWithInsignificantWorkCount() {
+        return filesWithInsignificantWork.size();
+    }
+
     void logStats() {
         if (m_log.isDebugEnabled()) {
             logLapTime(getStats());
@@ -1352,6 +1449,43 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_updatesCompleted = updatesCompleted;
     }
 
+    /**
+     * Counts a completed create, the write threads call this concurrently.
+     *
+     * @return the number of creates completed
+     */
+    synchronized long incrementCreatesCompleted() {
+        return ++m_createsCompleted;
+    }
+
+    /**
+     * Counts a completed update, the write threads call this concurrently.
+     *
+     * @return the number of updates completed
+     */
+    synchronized long incrementUpdatesCompleted() {
+        return ++m_updatesCompleted;
+    }
+
+    /**
+     * Counts a completed significant operation, the write threads call this
+     * concurrently.
+     *
+     * @return the number of significant operations completed
+     */
+    synchronized long incrementSignificantOpsCompleted() {
+        return ++m_significantOpsCompleted;
+    }
+
+    /**
+     * Counts an error, the write threads call this concurrently.
+     *
+     * @return the number of errors
+     */
+    synchronized long incrementErrors() {
+        return ++m_errors;
+    }
+
     /**
      * <p>getErrors</p>
      *
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the directories below the RRD directory, and of the
+ * directories that hold RRD files, so that the resources can be looked up
+ * without listing the directories of the disk over and over.
+ *
+ * The index is built by a scan of the RRD directory, and it is kept up to
+ * date as the RRD files are created through {@link RrdUtils} and as the data
+ * directories are deleted.  Until the scan is done, and for the directories
+ * outside of the RRD directory, the lookups of {@link RrdFileConstants} fall
+ * back to the disk.  Since the index only sees the files that are created in
+ * this JVM, it must not be enabled where the RRD files are written by another
+ * process.
+ */
+public class RrdDirectoryIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdDirectoryIndex.class);
+
+    private static volatile RrdDirectoryIndex s_instance = null;
+
+    private static class Directory {
+        private final Set<String> m_directories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile boolean m_hasRrdFiles = false;
+    }
+
+    private final File m_root;
+
+    private final String m_rootPath;
+
+    private final ConcurrentMap<String, Directory> m_directories = new ConcurrentHashMap<String, Directory>();
+
+    private volatile boolean m_ready = false;
+
+    /**
+     * Returns the index that is used by the lookups of
+     * {@link RrdFileConstants}, if there is one.
+     *
+     * @return a {@link org.opennms.netmgt.rrd.RrdDirectoryIndex} object, or null
+     */
+    public static RrdDirectoryIndex getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * <p>setInstance</p>
+     *
+     * @param index the index to use, or null to always list the directories
+     */
+    public static void setInstance(final RrdDirectoryIndex index) {
+        s_instance = index;
+    }
+
+    /**
+     * <p>Constructor for RrdDirectoryIndex.</p>
+     *
+     * @param root the RRD directory
+     */
+    public RrdDirectoryIndex(final File root) {
+        m_root = root;
+        m_rootPath = getPath(root);
+    }
+
+    public File getRoot() {
+        return m_root;
+    }
+
+    /**
+     * <p>isReady</p>
+     *
+     * @return true once the RRD directory has been scanned
+     */
+    public boolean isReady() {
+        return m_ready;
+    }
+
+    public int getDirectoryCount() {
+        return m_directories.size();
+    }
+
+    /**
+     * Scans the RRD directory in a background thread.
+     */
+    public void startScan() {
+        final Thread thread = new Thread("RrdDirectoryIndex") {
+            @Override
+            public void run() {
+                scan();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds all of the directories below the RRD directory to the index,
+     * along with the RRD files that they hold, and then makes the index
+     * answer the lookups.  The files created during the scan are added as
+     * they are created, so they aren't missed.
+     */
+    public void scan() {
+        final long start = System.currentTimeMillis();
+        final String suffix = RrdFileConstants.getRrdSuffix();
+        int files = 0;
+
+        final Deque<File> toScan = new ArrayDeque<File>();
+        toScan.add(m_root);
+        while (!toScan.isEmpty()) {
+            final File dir = toScan.removeFirst();
+            final File[] children = dir.listFiles();
+            if (children == null) {
+                continue;
+            }
+            final Directory directory = getOrAddDirectory(getPath(dir));
+            for (final File child : children) {
+                if (child.isDirectory()) {
+                    directory.m_directories.add(child.getName());
+                    toScan.add(child);
+                } else if (child.getName().endsWith(suffix)) {
+                    directory.m_hasRrdFiles = true;
+                    files++;
+                }
+            }
+        }
+
+        m_ready = true;
+        LOG.info("Indexed {} directories and {} RRD files below {} in {} ms", m_directories.size(), files, m_root, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Tells whether the index can answer the lookups for the given file.
+     *
+     * @param file a {@link java.io.File} object.
+     * @return true if the index is ready and the file is below the RRD directory
+     */
+    public boolean covers(final File file) {
+        return m_ready && isBelowRoot(getPath(file));
+    }
+
+    /**
+     * <p>isDirectory</p>
+     *
+     * @param file a {@link java.io.File} object.
+     * @return true if the file is an indexed directory
+     */
+    public boolean isDirectory(final File file) {
+        return m_directories.containsKey(getPath(file));
+    }
+
+    /**
+     * <p>hasRrdFiles</p>
+     *
+     * @param dir a {@link java.io.File} object.
+     * @return true if the directory holds RRD files
+     */
+    public boolean hasRrdFiles(final File dir) {
+        final Directory directory = m_directories.get(getPath(dir));
+        return directory != null && directory.m_hasRrdFiles;
+    }
+
+    /**
+     * Returns the directories in the given directory.
+     *
+     * @param dir a {@link java.io.File} object.
+     * @return the names of the directories, or null if the directory isn't indexed
+     */
+    public String[] listDirectories(final File dir) {
+        final Directory directory = m_directories.get(getPath(dir));
+        if (directory == null) {
+            return null;
+        }
+        return directory.m_directories.toArray(new String[0]);
+    }
+
+    /**
+     * Adds an RRD file that was created, along with the directories that
+     * lead to it.
+     *
+     * @param rrdFile a {@link java.io.File} object.
+     */
+    public void rrdFileCreated(final File rrdFile) {
+        File dir = rrdFile.getAbsoluteFile().getParentFile();
+        String path = getPath(dir);
+        if (!isBelowRoot(path)) {
+            return;
+        }
+        getOrAddDirectory(path).m_hasRrdFiles = true;
+
+        while (!path.equals(m_rootPath)) {
+            final File parent = dir.getParentFile();
+            final String parentPath = getPath(parent);
+            if (!getOrAddDirectory(parentPath).m_directories.add(dir.getName())) {
+                break;
+            }
+            dir = parent;
+            path = parentPath;
+        }
+    }
+
+    /**
+     * Removes a directory that was deleted, along with the directories in
+     * it.
+     *
+     * @param dir a {@link java.io.File} object.
+     */
+    public void directoryDeleted(final File dir) {
+        final String path = getPath(dir);
+        if (!isBelowRoot(path) || path.equals(m_rootPath)) {
+            return;
+        }
+
+        final Directory parent = m_directories.get(getPath(dir.getAbsoluteFile().getParentFile()));
+        if (parent != null) {
+            parent.m_directories.remove(dir.getName());
+        }
+
+        final Deque<String> toRemove = new ArrayDeque<String>();
+        toRemove.add(path);
+        while (!toRemove.isEmpty()) {
+            final String removed = toRemove.removeFirst();
+            final Directory directory = m_directories.remove(removed);
+            if (directory != null) {
+                for (final String child : directory.m_directories) {
+                    toRemove.add(removed + File.separator + child);
+                }
+            }
+        }
+    }
+
+    private Directory getOrAddDirectory(final String path) {
+        Directory directory = m_directories.get(path);
+        if (directory == null) {
+            final Directory added = new Directory();
+            directory = m_directories.putIfAbsent(path, added);
+            if (directory == null) {
+                directory = added;
+            }
+        }
+        return directory;
+    }
+
+    private boolean isBelowRoot(final String path) {
+        return path.equals(m_rootPath) || path.startsWith(m_rootPath + File.separator);
+    }
+
+    private static String getPath(final File file) {
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+}
@@ -31,6 +31,8 @@ package org.opennms.netmgt.rrd;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -98,7 +100,7 @@ public class RrdFileConstants extends Object {
      * @return a boolean.
      */
     public static final boolean isValidRRDNodeDir(final File file) {
-        if (!file.isDirectory()) {
+        if (!isDirectory(file)) {
             return false;
         }
 
@@ -110,14 +112,13 @@ public class RrdFileConstants extends Object {
         }
 
         // if the node dir contains RRDs, then it is queryable
-        final File[] nodeRRDs = file.listFiles(RRD_FILENAME_FILTER);
-        if (nodeRRDs != null && nodeRRDs.length > 0) {
+        if (hasRrdFiles(file)) {
             return true;
         }
 
         // if the node dir contains queryable interface directories, then
         // it is queryable
-        final File[] intfDirs = file.listFiles(INTERFACE_DIRECTORY_FILTER);
+        final File[] intfDirs = listDirectories(file, INTERFACE_DIRECTORY_FILTER);
         if (intfDirs != null && intfDirs.length > 0) {
             return true;
         }
@@ -143,19 +144,18 @@ public class RrdFileConstants extends Object {
      * @return a boolean.
      */
      public static final boolean isValidRRDNodeSourceDir(final File file) {
-        if (!file.isDirectory()) {
+        if (!isDirectory(file)) {
             return false;
         }
     
         // if the nodeSource dir contains RRDs, then it is queryable
-        final File[] nodeRRDs = file.listFiles(RRD_FILENAME_FILTER);
-        if (nodeRRDs != null && nodeRRDs.length > 0) {
+        if (hasRrdFiles(file)) {
             return true;
         }
 
         // if the nodeSource dir contains queryable interface directories, then
         // it is queryable
-        final File[] intfDirs = file.listFiles(INTERFACE_DIRECTORY_FILTER);
+        final File[] intfDirs = listDirectories(file, INTERFACE_DIRECTORY_FILTER);
         if (intfDirs != null && intfDirs.length > 0) {
 
             return true;
@@ -184,7 +184,7 @@ public class RrdFileConstants extends Object {
 
     // FIXME This is not working and it is not being used
     public static final boolean isValidRRDSourceDir(final File file) {
-        if (!file.isDirectory()) {
+        if (!isDirectory(file)) {
             return false;
         }
 
@@ -195,7 +195,7 @@ public class RrdFileConstants extends Object {
            
             // if the source dir contains integer-named directories, then
             // it is queryable
-            final File[] idDirs = file.listFiles(NODE_DIRECTORY_FILTER);
+            final File[] idDirs = listDirectories(file, NODE_DIRECTORY_FILTER);
             if (idDirs != null && idDirs.length > 0) {
                 return true;
             }
@@ -211,7 +211,7 @@ public class RrdFileConstants extends Object {
      * @return a boolean.
      */
     public static final boolean isValidRRDDomainDir(final File file) {
-        if (!file.isDirectory()) {
+        if (!isDirectory(file)) {
             return false;
         }
 
@@ -222,7 +222,7 @@ public class RrdFileConstants extends Object {
         
             // if the domain dir contains queryable interface directories, then
             // it is queryable
-            final File[] intfDirs = file.listFiles(INTERFACE_DIRECTORY_FILTER);
+            final File[] intfDirs = listDirectories(file, INTERFACE_DIRECTORY_FILTER);
             if (intfDirs != null && intfDirs.length > 0) {
                 for (File intfDir : intfDirs) {
                     try {
@@ -246,21 +246,15 @@ public class RrdFileConstants extends Object {
      * @return a boolean.
      */
     public static final boolean isValidRRDInterfaceDir(final File file) {
-        if (!file.isDirectory()) {
+        if (!isDirectory(file)) {
             return false;
         }
 
-        final File[] intfRRDs = file.listFiles(RRD_FILENAME_FILTER);
-
-        if (intfRRDs != null && intfRRDs.length > 0) {
-            return true;
-        }
-
-        return false;
+        return hasRrdFiles(file);
     }
 
     public static final boolean isValidRRDDomainInterfaceDir(final File file) {
-        if (!file.isDirectory()) {
+        if (!isDirectory(file)) {
             return false;
         }
 
@@ -268,9 +262,7 @@ public class RrdFileConstants extends Object {
             // if the interface directory name is an integer (Long) its not part of a domain
             Long.valueOf(file.getName());
         } catch (final Throwable ee) {
-            final File[] intfRRDs = file.listFiles(RRD_FILENAME_FILTER);
-
-            if (intfRRDs != null && intfRRDs.length > 0) {
+            if (hasRrdFiles(file)) {
                 return true;
             }
         }
@@ -286,17 +278,73 @@ public class RrdFileConstants extends Object {
      * @return a boolean.
      */
     public static final boolean isValidRRDLatencyDir(final File file) {
-        if (!file.isDirectory()) {
+        if (!isDirectory(file)) {
             return false;
         }
 
         // if the directory contains RRDs, then it is queryable
-        final File[] nodeRRDs = file.listFiles(RRD_FILENAME_FILTER);
-        if (nodeRRDs != null && nodeRRDs.length > 0) {
-            return true;
+        return hasRrdFiles(file);
+    }
+
+    /**
+     * Tells whether the file is a directory, using the
+     * {@link RrdDirectoryIndex} when it covers the file.
+     *
+     * @param file a {@link java.io.File} object.
+     * @return a boolean.
+     */
+    public static boolean isDirectory(final File file) {
+        final RrdDirectoryIndex index = RrdDirectoryIndex.getInstance();
+        if (index != null && index.covers(file)) {
+            return index.isDirectory(file);
         }
+        return file.isDirectory();
+    }
 
-        return false;
+    /**
+     * Tells whether the directory holds RRD files, using the
+     * {@link RrdDirectoryIndex} when it covers the directory.
+     *
+     * @param dir a {@link java.io.File} object.
+     * @return a boolean.
+     */
+    public static boolean hasRrdFiles(final File dir) {
+        final RrdDirectoryIndex index = RrdDirectoryIndex.getInstance();
+        if (index != null && index.covers(dir)) {
+            return index.hasRrdFiles(dir);
+        }
+        final File[] rrds = dir.listFiles(RRD_FILENAME_FILTER);
+        return rrds != null && rrds.length > 0;
+    }
+
+    /**
+     * Returns the directories in the given directory that match the filter,
+     * using the {@link RrdDirectoryIndex} when it covers the directory.
+     * Without an index, this is {@link File#listFiles(FileFilter)}, so the
+     * filter has to reject the files that aren't directories.
+     *
+     * @param dir a {@link java.io.File} object.
+     * @param filter the filter, or null to return all of them
+     * @return the matching directories, or null if dir isn't a directory
+     */
+    public static File[] listDirectories(final File dir, final FileFilter filter) {
+        final RrdDirectoryIndex index = RrdDirectoryIndex.getInstance();
+        if (index == null || !index.covers(dir)) {
+            return dir.listFiles(filter);
+        }
+
+        final String[] names = index.listDirectories(dir);
+        if (names == null) {
+            return null;
+        }
+        final List<File> dirs = new ArrayList<File>(names.length);
+        for (final String name : names) {
+            final File child = new File(dir, name);
+            if (filter == null || filter.accept(child)) {
+                dirs.add(child);
+            }
+        }
+        return dirs.toArray(new File[dirs.size()]);
     }
 
     /**
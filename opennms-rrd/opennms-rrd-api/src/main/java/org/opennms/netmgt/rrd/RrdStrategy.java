@@ -130,6 +130,26 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      */
     public void updateFile(F rrd, String owner, String data) throws Exception;
 
+    /**
+     * Updates the supplied round robin database with the given values,
+     * without formatting them into a string.  The values array may be
+     * reused by the caller once this method returns, so implementations
+     * that keep it must copy it.
+     *
+     * @param rrd
+     *            an rrd object created using openFile
+     * @param owner
+     *            the owner of the rrd
+     * @param timestamp
+     *            the time of the update in seconds since the epoch
+     * @param values
+     *            the values of the data sources in order, NaN when unknown
+     * @throws java.lang.Exception
+     *             if an error occurs updating the file
+     * @see RrdUpdateFormat
+     */
+    public void updateFile(F rrd, String owner, long timestamp, double[] values) throws Exception;
+
     /**
      * This closes the supplied round robin database
      *
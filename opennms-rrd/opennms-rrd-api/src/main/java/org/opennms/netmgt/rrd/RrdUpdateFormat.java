@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+/**
+ * Converts between the two forms of an update of a round robin database:
+ * the string form <code>timestamp:value1:value2:...</code> that is passed
+ * to {@link RrdStrategy#updateFile(Object, String, String)} and the typed
+ * form passed to {@link RrdStrategy#updateFile(Object, String, long, double[])}.
+ * Unknown values are "U" in the string form and NaN in the typed form.
+ *
+ * @see RrdStrategy
+ */
+public abstract class RrdUpdateFormat {
+
+    /** The largest magnitude below which every integer is exactly a double */
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+    /**
+     * Formats a typed update as a string.  Integral values are formatted
+     * without a fraction or an exponent, since RRDtool only accepts integers
+     * for COUNTER and DERIVE data sources.
+     *
+     * @param timestamp the time of the update in seconds since the epoch
+     * @param values the values of the update, NaN when unknown
+     * @return a {@link java.lang.String} object.
+     */
+    public static String format(final long timestamp, final double[] values) {
+        final StringBuilder update = new StringBuilder(16 + 8 * values.length);
+        update.append(timestamp);
+        for (final double value : values) {
+            update.append(':');
+            appendValue(update, value);
+        }
+        return update.toString();
+    }
+
+    /**
+     * Appends a single value as it is formatted by
+     * {@link #format(long, double[])}.
+     *
+     * @param buf a {@link java.lang.StringBuilder} object.
+     * @param value a double.
+     */
+    public static void appendValue(final StringBuilder buf, final double value) {
+        if (Double.isNaN(value)) {
+            buf.append('U');
+        } else if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            buf.append((long) value);
+        } else {
+            buf.append(value);
+        }
+    }
+
+    /**
+     * Parses the timestamp of an update string.
+     *
+     * @param data a {@link java.lang.String} object.
+     * @return the time of the update in seconds since the epoch, the current
+     * time if it is "N"
+     * @throws java.lang.NumberFormatException if the timestamp is not a number
+     */
+    public static long parseTimestamp(final String data) throws NumberFormatException {
+        final int end = data.indexOf(':');
+        final String timestamp = end < 0 ? data : data.substring(0, end);
+        if ("N".equals(timestamp)) {
+            return System.currentTimeMillis() / 1000L;
+        }
+        return Long.parseLong(timestamp);
+    }
+
+    /**
+     * Parses the values of an update string, without the timestamp.  Empty
+     * values at the end are ignored, as done by {@link String#split(String)}.
+     *
+     * @param data a {@link java.lang.String} object.
+     * @return the values, NaN when unknown
+     * @throws java.lang.NumberFormatException if a value is not a number
+     */
+    public static double[] parseValues(final String data) throws NumberFormatException {
+        int length = data.length();
+        while (length > 0 && data.charAt(length - 1) == ':') {
+            length--;
+        }
+        int count = 0;
+        for (int i = data.indexOf(':'); i >= 0 && i < length; i = data.indexOf(':', i + 1)) {
+            count++;
+        }
+
+        final double[] values = new double[count];
+        // Skip the timestamp
+        int start = data.indexOf(':') + 1;
+        for (int i = 0; i < count; i++) {
+            int end = data.indexOf(':', start);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            values[i] = parseValue(data.substring(start, end));
+            start = end + 1;
+        }
+        return values;
+    }
+
+    /**
+     * Parses a single value.
+     *
+     * @param value a {@link java.lang.String} object.
+     * @return the value, NaN if it is null, "U" or "null"
+     * @throws java.lang.NumberFormatException if the value is not a number
+     */
+    public static double parseValue(final String value) throws NumberFormatException {
+        if (value == null || "U".equals(value) || "null".equals(value)) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * Tells if a value parsed by {@link #parseValue(String)} is the exact
+     * value of the string, which is not the case for integers beyond 2^53,
+     * such as large 64-bit counters.
+     *
+     * @param value a {@link java.lang.String} object.
+     * @param parsed the parsed value
+     * @return a boolean.
+     */
+    public static boolean isExact(final String value, final double parsed) {
+        if (Math.abs(parsed) < MAX_EXACT_INTEGER || Double.isNaN(parsed) || Double.isInfinite(parsed)) {
+            return true;
+        }
+        // Only integers are exact in the string form
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if ((c < '0' || c > '9') && !(i == 0 && (c == '-' || c == '+'))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
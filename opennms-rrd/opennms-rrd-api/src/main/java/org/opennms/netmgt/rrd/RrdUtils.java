@@ -288,6 +288,11 @@ public abstract class RrdUtils {
             // def can be null if the rrd-db exists already, but doesn't have to be (see MultiOutput/QueuingRrdStrategy
             getStrategy().createFile(def, attributeMappings);
 
+            final RrdDirectoryIndex index = RrdDirectoryIndex.getInstance();
+            if (index != null) {
+                index.rrdFileCreated(new File(directory, rrdName + getExtension()));
+            }
+
             return true;
         } catch (Throwable e) {
             String path = directory + File.separator + rrdName + getStrategy().getDefaultFileExtension();
@@ -353,6 +358,50 @@ public abstract class RrdUtils {
         LOG.debug("updateRRD: RRD update command completed.");
     }
 
+    /**
+     * Add datapoints to a round robin database without formatting them into
+     * an update string.
+     *
+     * @param owner the owner of the file. This is used in log messages
+     * @param repositoryDir the directory the file resides in
+     * @param rrdName the name for the rrd file.
+     * @param timestamp the timestamp in millis to use for the rrd update (this
+     * gets rounded to the nearest second)
+     * @param values the values of the datasources for this rrd in order, NaN
+     * when unknown.  The array can be reused once this method returns.
+     * @throws org.opennms.netmgt.rrd.RrdException if any.
+     */
+    public static void updateRRD(String owner, String repositoryDir, String rrdName, long timestamp, double[] values) throws RrdException {
+        // Issue the RRD update
+        String rrdFile = repositoryDir + File.separator + rrdName + getExtension();
+        long time = (timestamp + 500L) / 1000L;
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, RrdUpdateFormat.format(time, values));
+        }
+
+        Object rrd = null;
+        try {
+            rrd = getStrategy().openFile(rrdFile);
+            getStrategy().updateFile(rrd, owner, time, values);
+        } catch (Throwable e) {
+            String updateVal = RrdUpdateFormat.format(time, values);
+            LOG.error("updateRRD: Error updating RRD file {} with values '{}'", rrdFile, updateVal, e);
+            throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " with values '" + updateVal + "': " + e, e);
+        } finally {
+            try {
+                if (rrd != null) {
+                    getStrategy().closeFile(rrd);
+                }
+            } catch (Throwable e) {
+                LOG.error("updateRRD: Exception closing RRD file {}", rrdFile, e);
+                throw new org.opennms.netmgt.rrd.RrdException("Exception closing RRD file " + rrdFile + ": " + e, e);
+            }
+        }
+
+        LOG.debug("updateRRD: RRD update command completed.");
+    }
+
     /**
      * This method issues an round robin fetch command to retrieve the last
      * value of the datasource stored in the specified RRD file. The retrieved
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ConcurrentQueuingRrdStrategyTest {
+
+    private static final long TIMEOUT = 30000;
+
+    /**
+     * Records the updates handed to it per file, and fails if a file is
+     * written by two threads at the same time.
+     */
+    private static class RecordingRrdStrategy implements RrdStrategy<Object, Object> {
+        private final ConcurrentMap<String, List<Long>> m_updates = new ConcurrentHashMap<String, List<Long>>();
+        private final Set<String> m_open = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final List<String> m_overlaps = Collections.synchronizedList(new ArrayList<String>());
+
+        private List<Long> getUpdates(final String fileName) {
+            final List<Long> updates = m_updates.get(fileName);
+            return updates == null ? Collections.<Long>emptyList() : updates;
+        }
+
+        private void record(final Object rrd, final long timestamp) throws Exception {
+            final String fileName = (String) rrd;
+            if (fileName.startsWith("bad")) {
+                throw new Exception("cannot write " + fileName);
+            }
+            List<Long> updates = m_updates.get(fileName);
+            if (updates == null) {
+                m_updates.putIfAbsent(fileName, Collections.synchronizedList(new ArrayList<Long>()));
+                updates = m_updates.get(fileName);
+            }
+            updates.add(timestamp);
+        }
+
+        @Override
+        public Object openFile(final String fileName) throws Exception {
+            if (!m_open.add(fileName)) {
+                m_overlaps.add(fileName);
+            }
+            return fileName;
+        }
+
+        @Override
+        public void closeFile(final Object rrd) throws Exception {
+            m_open.remove(rrd);
+        }
+
+        @Override
+        public void updateFile(final Object rrd, final String owner, final String data) throws Exception {
+            record(rrd, Long.parseLong(data.substring(0, data.indexOf(':'))));
+        }
+
+        @Override
+        public void updateFile(final Object rrd, final String owner, final long timestamp, final double[] values) throws Exception {
+            record(rrd, timestamp);
+        }
+
+        @Override
+        public void setConfigurationProperties(final Properties props) {
+        }
+
+        @Override
+        public String getDefaultFileExtension() {
+            return ".rrd";
+        }
+
+        @Override
+        public Object createDefinition(final String creator, final String directory, final String rrdName, final int step, final List<RrdDataSource> dataSources, final List<String> rraList) throws Exception {
+            return null;
+        }
+
+        @Override
+        public void createFile(final Object rrdDef, final Map<String, String> attributeMappings) throws Exception {
+        }
+
+        @Override
+        public Double fetchLastValue(final String rrdFile, final String ds, final int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValue(final String rrdFile, final String ds, final String consolidationFunction, final int interval) {
+            return null;
+        }
+
+        @Override
+        public Double fetchLastValueInRange(final String rrdFile, final String ds, final int interval, final int range) {
+            return null;
+        }
+
+        @Override
+        public InputStream createGraph(final String command, final File workDir) {
+            return null;
+        }
+
+        @Override
+        public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) {
+            return null;
+        }
+
+        @Override
+        public int getGraphLeftOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphRightOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getGraphTopOffsetWithText() {
+            return 0;
+        }
+
+        @Override
+        public String getStats() {
+            return "";
+        }
+
+        @Override
+        public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        }
+    }
+
+    private static ConcurrentQueuingRrdStrategy createStrategy(final RrdStrategy<Object, Object> delegate) {
+        final ConcurrentQueuingRrdStrategy strategy = new ConcurrentQueuingRrdStrategy(delegate);
+        strategy.setWriteThreads(4);
+        strategy.setPrioritizeSignificantUpdates(true);
+        strategy.setModulus(10000);
+        strategy.setWriteThreadSleepTime(5);
+        strategy.setWriteThreadExitDelay(200);
+        return strategy;
+    }
+
+    /**
+     * Several threads update their own files while the write threads drain
+     * the queue; every file must see its updates in the order in which they
+     * were enqueued, and no file may be written by two threads at once.
+     */
+    @Test
+    public void testOrderingPerFile() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        final ConcurrentQueuingRrdStrategy strategy = createStrategy(delegate);
+
+        final int producers = 8;
+        final int filesPerProducer = 25;
+        final int updatesPerFile = 200;
+        runProducers(strategy, producers, filesPerProducer, updatesPerFile);
+
+        final long total = (long) producers * filesPerProducer * updatesPerFile;
+        waitForUpdates(strategy, total);
+
+        assertTrue("files written concurrently: " + delegate.m_overlaps, delegate.m_overlaps.isEmpty());
+        for (int p = 0; p < producers; p++) {
+            for (int f = 0; f < filesPerProducer; f++) {
+                final List<Long> updates = delegate.getUpdates(fileName(p, f));
+                assertEquals(fileName(p, f), updatesPerFile, updates.size());
+                for (int i = 0; i < updatesPerFile; i++) {
+                    assertEquals(fileName(p, f), (long) i + 1, (long) updates.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * The counters must not lose any of the increments made by the write
+     * threads.
+     */
+    @Test
+    public void testCounters() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        final ConcurrentQueuingRrdStrategy strategy = createStrategy(delegate);
+
+        final int producers = 8;
+        final int filesPerProducer = 25;
+        final int updatesPerFile = 200;
+        runProducers(strategy, producers, filesPerProducer, updatesPerFile);
+
+        // zero updates at a regular interval are merged into one operation
+        for (int i = 0; i < 100; i++) {
+            strategy.updateFile("zero", "test", (1000 + i * 300) + ":0");
+        }
+
+        // every bad file is written in a single assignment which fails once
+        final int badFiles = 10;
+        for (int i = 0; i < badFiles; i++) {
+            strategy.updateFile("bad-" + i, "test", 1000, new double[] { 1.0 });
+        }
+
+        final long significant = (long) producers * filesPerProducer * updatesPerFile;
+        waitForUpdates(strategy, significant + 100);
+        waitForErrors(strategy, badFiles);
+
+        assertEquals(significant + 100, strategy.getUpdatesCompleted());
+        assertEquals(badFiles, strategy.getErrors());
+        assertEquals(significant + 100 + badFiles, strategy.getEnqueuedOperations());
+        assertEquals(significant + 100 + badFiles, strategy.getDequeuedOperations());
+        assertEquals(significant + badFiles, strategy.getSignificantOpsEnqueued());
+        assertEquals(significant + badFiles, strategy.getSignificantOpsDequeued());
+        assertEquals(significant + badFiles, strategy.getSignificantOpsCompleted());
+        assertEquals(0, strategy.getTotalOperationsPending());
+        assertEquals(100, delegate.getUpdates("zero").size());
+        assertEquals(1000 + 99 * 300, (long) delegate.getUpdates("zero").get(99));
+    }
+
+    /**
+     * The write threads exit once the queue has been idle for the exit
+     * delay, and are started again by the next update.
+     */
+    @Test
+    public void testShutdown() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy();
+        final ConcurrentQueuingRrdStrategy strategy = createStrategy(delegate);
+
+        runProducers(strategy, 4, 10, 50);
+        waitForUpdates(strategy, 4 * 10 * 50);
+        waitForThreads(strategy, 0);
+
+        assertEquals(0, strategy.getTotalOperationsPending());
+        assertEquals(0, strategy.getFilesWithSignificantWorkCount());
+        assertEquals(0, strategy.getFilesWithInsignificantWorkCount());
+
+        strategy.updateFile("again", "test", 2000, new double[] { 1.0 });
+        waitForUpdates(strategy, 4 * 10 * 50 + 1);
+        assertEquals(1, delegate.getUpdates("again").size());
+        waitForThreads(strategy, 0);
+    }
+
+    private static String fileName(final int producer, final int file) {
+        return "file-" + producer + "-" + file;
+    }
+
+    /**
+     * Enqueues the updates of each producer's files from its own thread,
+     * alternating between string and typed updates.
+     */
+    private static void runProducers(final ConcurrentQueuingRrdStrategy strategy, final int producers, final int filesPerProducer, final int updatesPerFile) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread("producer-" + p) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < updatesPerFile; i++) {
+                            for (int f = 0; f < filesPerProducer; f++) {
+                                if (i % 2 == 0) {
+                                    strategy.updateFile(fileName(producer, f), "test", (i + 1) + ":" + (i + 1));
+                                } else {
+                                    strategy.updateFile(fileName(producer, f), "test", i + 1, new double[] { i + 1 });
+                                }
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    private static void waitForUpdates(final QueuingRrdStrategy strategy, final long updates) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (strategy.getUpdatesCompleted() < updates && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(updates, strategy.getUpdatesCompleted());
+    }
+
+    private static void waitForErrors(final QueuingRrdStrategy strategy, final long errors) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (strategy.getErrors() < errors && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(errors, strategy.getErrors());
+    }
+
+    private static void waitForThreads(final QueuingRrdStrategy strategy, final int threads) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (strategy.threadsRunning != threads && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(threads, strategy.threadsRunning);
+    }
+}
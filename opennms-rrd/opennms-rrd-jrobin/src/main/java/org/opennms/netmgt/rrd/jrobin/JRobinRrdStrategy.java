@@ -73,6 +73,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAX_OPEN_FILES_PROPERTY = "org.opennms.rrd.jrobin.maxOpenFiles";
+    private static final String MAX_IDLE_TIME_PROPERTY = "org.opennms.rrd.jrobin.maxIdleTime";
+    private static final long DEFAULT_MAX_IDLE_TIME = 300000;
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -82,6 +85,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    /**
+     * The open files, or null when every update and fetch opens the file
+     */
+    private volatile RrdDbCache m_cache;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -138,17 +146,57 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+
+        int maxOpenFiles = 0;
+        long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+        if (m_configurationProperties != null) {
+            maxOpenFiles = Integer.parseInt(m_configurationProperties.getProperty(MAX_OPEN_FILES_PROPERTY, "0"));
+            maxIdleTime = Long.parseLong(m_configurationProperties.getProperty(MAX_IDLE_TIME_PROPERTY, String.valueOf(DEFAULT_MAX_IDLE_TIME)));
+        }
+        setCache(maxOpenFiles > 0 ? new RrdDbCache(maxOpenFiles, maxIdleTime) : null);
+    }
+
+    /**
+     * Replaces the cache of the open files, closing the files of the
+     * previous one.
+     *
+     * @param cache the new cache, or null to open the files on each use
+     */
+    public void setCache(final RrdDbCache cache) {
+        final RrdDbCache previous = m_cache;
+        m_cache = cache;
+        if (previous != null) {
+            previous.clear();
+        }
+        if (cache != null) {
+            LOG.info("Keeping up to {} JRobin files open", cache.getMaxOpenFiles());
+        }
+    }
+
+    /**
+     * <p>getCache</p>
+     *
+     * @return the cache of the open files, or null if there is none
+     */
+    public RrdDbCache getCache() {
+        return m_cache;
     }
 
     /**
-     * Closes the JRobin RrdDb.
+     * Closes the JRobin RrdDb, or hands it back to the cache of the open
+     * files.
      *
      * @param rrdFile a {@link org.jrobin.core.RrdDb} object.
      * @throws java.lang.Exception if any.
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        final RrdDbCache cache = m_cache;
+        if (cache == null) {
+            rrdFile.close();
+        } else {
+            cache.release(rrdFile);
+        }
     }
 
     /** {@inheritDoc} */
@@ -203,6 +251,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        // a file that was deleted and is created again must not be updated through a stale handle
+        final RrdDbCache cache = m_cache;
+        if (cache != null) {
+            cache.invalidate(rrdDef.getPath());
+        }
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
 
@@ -219,11 +273,16 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     /**
      * {@inheritDoc}
      *
-     * Opens the JRobin RrdDb by name and returns it.
+     * Opens the JRobin RrdDb by name and returns it, or takes it from the
+     * cache of the open files.
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
-        return new RrdDb(fileName);
+        final RrdDbCache cache = m_cache;
+        if (cache == null) {
+            return new RrdDb(fileName);
+        }
+        return cache.acquire(fileName);
     }
 
     /**
@@ -237,6 +296,18 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         sample.setAndUpdate(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The values are copied into the sample, so the array is not kept.
+     */
+    @Override
+    public void updateFile(final RrdDb rrdFile, final String owner, final long timestamp, final double[] values) throws Exception {
+        Sample sample = rrdFile.createSample(timestamp);
+        sample.setValues(values);
+        sample.update();
+    }
+
     /**
      * Initialized the RrdDb to use the FILE factory because the NIO factory
      * uses too much memory for our implementation.
@@ -266,7 +337,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         try {
             long now = System.currentTimeMillis();
             long collectTime = (now - (now % interval)) / 1000L;
-            rrd = new RrdDb(fileName, true);
+            rrd = openFileForFetch(fileName);
             FetchData data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
             LOG.debug(data.toString());
             double[] vals = data.getValues(ds);
@@ -281,7 +352,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    closeFileForFetch(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -294,7 +365,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
         RrdDb rrd = null;
         try {
-        	rrd = new RrdDb(fileName, true);
+        	rrd = openFileForFetch(fileName);
          	long now = System.currentTimeMillis();
             long latestUpdateTime = (now - (now % interval)) / 1000L;
             long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
@@ -323,7 +394,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         } finally {
             if (rrd != null) {
                 try {
-                    rrd.close();
+                    closeFileForFetch(rrd);
                 } catch (IOException e) {
                     LOG.error("Failed to close rrd file: {}", fileName, e);
                 }
@@ -331,6 +402,27 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    /**
+     * Opens the file read-only, unless it can be taken from the cache of the
+     * open files, in which case it is shared with the updates.
+     */
+    private RrdDb openFileForFetch(final String fileName) throws IOException, RrdException {
+        final RrdDbCache cache = m_cache;
+        if (cache == null) {
+            return new RrdDb(fileName, true);
+        }
+        return cache.acquire(fileName);
+    }
+
+    private void closeFileForFetch(final RrdDb rrd) throws IOException {
+        final RrdDbCache cache = m_cache;
+        if (cache == null) {
+            rrd.close();
+        } else {
+            cache.release(rrd);
+        }
+    }
+
     private Color getColor(final String colorValue) {
         int rVal = Integer.parseInt(colorValue.substring(0, 2), 16);
         int gVal = Integer.parseInt(colorValue.substring(2, 4), 16);
@@ -870,13 +962,23 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     }
 
     /**
-     * This implementation does not track any stats.
+     * Returns the stats of the cache of the open files, if there is one.
      *
      * @return a {@link java.lang.String} object.
      */
     @Override
     public String getStats() {
-        return "";
+        final RrdDbCache cache = m_cache;
+        if (cache == null) {
+            return "";
+        }
+        StringBuffer stats = new StringBuffer();
+        stats.append("open files: ").append(cache.getSize());
+        stats.append(" (max ").append(cache.getMaxOpenFiles()).append(")");
+        stats.append(", hits: ").append(cache.getHits());
+        stats.append(", misses: ").append(cache.getMisses());
+        stats.append(", evictions: ").append(cache.getEvictions());
+        return stats.toString();
     }
 
     /*
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of the open JRobin files, so that the header and the archive
+ * definitions of a file aren't read again each time it is updated or fetched.
+ *
+ * A file that is acquired must be released once it isn't used anymore.  The
+ * same {@link RrdDb} is handed out to all of the threads that acquire the
+ * file, which is fine since JRobin serializes the updates and the fetches of
+ * a file.  When there are more than the maximum number of files open, the
+ * least recently used files that aren't acquired are closed, and the files
+ * that haven't been used for the maximum idle time are closed as well.
+ */
+public class RrdDbCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdDbCache.class);
+
+    private static class Entry {
+        private final RrdDb m_rrdDb;
+        private int m_references = 0;
+        private long m_lastUsed;
+        private boolean m_evicted = false;
+
+        private Entry(final RrdDb rrdDb) {
+            m_rrdDb = rrdDb;
+        }
+    }
+
+    private final int m_maxOpenFiles;
+
+    private final long m_maxIdleTime;
+
+    /**
+     * The cached files by path, from the least to the most recently used
+     */
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * The acquired files, including the ones that were evicted while in use
+     */
+    private final Map<RrdDb, Entry> m_acquired = new IdentityHashMap<RrdDb, Entry>();
+
+    private long m_lastSweep = System.currentTimeMillis();
+
+    private long m_hits = 0;
+
+    private long m_misses = 0;
+
+    private long m_evictions = 0;
+
+    /**
+     * <p>Constructor for RrdDbCache.</p>
+     *
+     * @param maxOpenFiles the maximum number of files to keep open
+     * @param maxIdleTime the number of milliseconds after which an unused file is closed, or 0 to keep it open
+     */
+    public RrdDbCache(final int maxOpenFiles, final long maxIdleTime) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles must be at least 1");
+        }
+        m_maxOpenFiles = maxOpenFiles;
+        m_maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Returns the open file with the given path, opening it if it isn't
+     * cached.  The file is opened outside of the lock of the cache, so a
+     * slow disk only holds up the threads that want the same file.
+     *
+     * @param path the path of the file
+     * @return the open file, which must be given to {@link #release(RrdDb)}
+     * @throws java.io.IOException if any.
+     * @throws org.jrobin.core.RrdException if any.
+     */
+    public RrdDb acquire(final String path) throws IOException, RrdException {
+        synchronized (this) {
+            final Entry entry = m_entries.get(path);
+            if (entry != null) {
+                m_hits++;
+                return acquire(entry);
+            }
+            m_misses++;
+        }
+
+        final RrdDb rrdDb = new RrdDb(path);
+        final List<RrdDb> toClose = new ArrayList<RrdDb>();
+        try {
+            synchronized (this) {
+                Entry entry = m_entries.get(path);
+                if (entry == null) {
+                    entry = new Entry(rrdDb);
+                    m_entries.put(path, entry);
+                } else {
+                    // another thread opened the file in the meantime
+                    toClose.add(rrdDb);
+                }
+                final RrdDb acquired = acquire(entry);
+                evict(System.currentTimeMillis(), toClose);
+                return acquired;
+            }
+        } finally {
+            close(toClose);
+        }
+    }
+
+    /**
+     * Releases a file that was acquired.  A file that doesn't come from
+     * this cache is closed.
+     *
+     * @param rrdDb the file to release
+     * @throws java.io.IOException if any.
+     */
+    public void release(final RrdDb rrdDb) throws IOException {
+        final List<RrdDb> toClose = new ArrayList<RrdDb>();
+        try {
+            synchronized (this) {
+                final Entry entry = m_acquired.get(rrdDb);
+                if (entry == null) {
+                    toClose.add(rrdDb);
+                    return;
+                }
+                final long now = System.currentTimeMillis();
+                entry.m_lastUsed = now;
+                if (--entry.m_references == 0) {
+                    m_acquired.remove(rrdDb);
+                    if (entry.m_evicted) {
+                        toClose.add(rrdDb);
+                    }
+                }
+                evict(now, toClose);
+            }
+        } finally {
+            close(toClose);
+        }
+    }
+
+    /**
+     * Drops the file with the given path from the cache, so that it is
+     * opened again the next time it is acquired.  This must be called when
+     * the file is created or deleted.
+     *
+     * @param path the path of the file
+     */
+    public void invalidate(final String path) {
+        final List<RrdDb> toClose = new ArrayList<RrdDb>();
+        synchronized (this) {
+            final Entry entry = m_entries.remove(path);
+            if (entry != null) {
+                remove(entry, toClose);
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Closes all of the files that aren't acquired, the others are closed
+     * when they are released.
+     */
+    public void clear() {
+        final List<RrdDb> toClose = new ArrayList<RrdDb>();
+        synchronized (this) {
+            for (final Entry entry : m_entries.values()) {
+                remove(entry, toClose);
+            }
+            m_entries.clear();
+        }
+        close(toClose);
+    }
+
+    public int getMaxOpenFiles() {
+        return m_maxOpenFiles;
+    }
+
+    public long getMaxIdleTime() {
+        return m_maxIdleTime;
+    }
+
+    public synchronized int getSize() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    public synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    private RrdDb acquire(final Entry entry) {
+        if (entry.m_references++ == 0) {
+            m_acquired.put(entry.m_rrdDb, entry);
+        }
+        return entry.m_rrdDb;
+    }
+
+    /**
+     * Evicts the least recently used files while there are too many of them,
+     * and the idle files when it is time to look for them.
+     */
+    private void evict(final long now, final List<RrdDb> toClose) {
+        final boolean sweep = m_maxIdleTime > 0 && now - m_lastSweep >= m_maxIdleTime / 2;
+        if (sweep) {
+            m_lastSweep = now;
+        }
+        if (!sweep && m_entries.size() <= m_maxOpenFiles) {
+            return;
+        }
+
+        int excess = m_entries.size() - m_maxOpenFiles;
+        final Iterator<Entry> it = m_entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.m_references > 0) {
+                continue;
+            }
+            final boolean idle = sweep && now - entry.m_lastUsed >= m_maxIdleTime;
+            if (excess > 0 || idle) {
+                it.remove();
+                remove(entry, toClose);
+                m_evictions++;
+                excess--;
+            } else if (!sweep) {
+                break;
+            }
+        }
+    }
+
+    private void remove(final Entry entry, final List<RrdDb> toClose) {
+        if (entry.m_references == 0) {
+            toClose.add(entry.m_rrdDb);
+        } else {
+            entry.m_evicted = true;
+        }
+    }
+
+    private static void close(final List<RrdDb> toClose) {
+        for (final RrdDb rrdDb : toClose) {
+            try {
+                rrdDb.close();
+            } catch (final IOException e) {
+                LOG.error("Failed to close rrd file: {}", rrdDb.getPath(), e);
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ package org.opennms.netmgt.rrd.jrobin;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -173,6 +174,45 @@ public class JRobinRrdStrategyTest {
         m_strategy.closeFile(openedFile);
     }
 
+    @Test
+    public void testUpdateWithValues() throws Exception {
+        File rrdFile = createRrdFile();
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        long now = System.currentTimeMillis() / 1000;
+        double[] values = new double[] { 1.5 };
+        m_strategy.updateFile(openedFile, "huh?", now - 1, values);
+
+        // The caller can reuse the array
+        values[0] = 2.5;
+        m_strategy.updateFile(openedFile, "huh?", now, values);
+
+        assertEquals("last update time", now, openedFile.getLastUpdateTime());
+        assertEquals("last value", 2.5, openedFile.getLastDatasourceValue("bar"), 0.0);
+        m_strategy.closeFile(openedFile);
+    }
+
+    @Test
+    public void testUpdateAndFetchWithCache() throws Exception {
+        ((JRobinRrdStrategy) m_strategy).setCache(new RrdDbCache(10, 0));
+        File rrdFile = createRrdFile();
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(openedFile, "huh?", System.currentTimeMillis() / 1000, new double[] { 1.5 });
+        m_strategy.closeFile(openedFile);
+        assertFalse("the file should be kept open", openedFile.isClosed());
+
+        // the fetch and the next update use the same file
+        m_strategy.fetchLastValue(rrdFile.getAbsolutePath(), "bar", 300000);
+        assertSame(openedFile, m_strategy.openFile(rrdFile.getAbsolutePath()));
+        m_strategy.closeFile(openedFile);
+
+        assertEquals("open files: 1 (max 10), hits: 2, misses: 1, evictions: 0", m_strategy.getStats());
+
+        ((JRobinRrdStrategy) m_strategy).setCache(null);
+        assertTrue("the file should be closed with the cache", openedFile.isClosed());
+    }
+
     @Test
     public void testSampleSetFloatingPointValueGood() throws Exception {
         File rrdFile = createRrdFile();
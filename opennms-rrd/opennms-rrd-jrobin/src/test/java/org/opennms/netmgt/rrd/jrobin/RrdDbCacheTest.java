@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.test.FileAnticipator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RrdDbCacheTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdDbCacheTest.class);
+
+    private FileAnticipator m_fileAnticipator;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging(true, "DEBUG");
+        m_fileAnticipator = new FileAnticipator();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_fileAnticipator.deleteExpected();
+        m_fileAnticipator.tearDown();
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        final String path = createRrdFile("foo");
+        final RrdDbCache cache = new RrdDbCache(2, 0);
+
+        final RrdDb first = cache.acquire(path);
+        final RrdDb second = cache.acquire(path);
+        assertSame(first, second);
+        cache.release(first);
+        cache.release(second);
+        assertFalse(first.isClosed());
+
+        assertSame(first, cache.acquire(path));
+        cache.release(first);
+
+        assertEquals(1, cache.getSize());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+
+        cache.clear();
+        assertTrue(first.isClosed());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        final String foo = createRrdFile("foo");
+        final String bar = createRrdFile("bar");
+        final String baz = createRrdFile("baz");
+        final RrdDbCache cache = new RrdDbCache(2, 0);
+
+        final RrdDb fooDb = cache.acquire(foo);
+        cache.release(fooDb);
+        final RrdDb barDb = cache.acquire(bar);
+        cache.release(barDb);
+
+        // foo is now more recently used than bar
+        cache.release(cache.acquire(foo));
+        final RrdDb bazDb = cache.acquire(baz);
+        cache.release(bazDb);
+
+        assertTrue(barDb.isClosed());
+        assertFalse(fooDb.isClosed());
+        assertFalse(bazDb.isClosed());
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testAcquiredFilesAreNotClosed() throws Exception {
+        final String foo = createRrdFile("foo");
+        final String bar = createRrdFile("bar");
+        final RrdDbCache cache = new RrdDbCache(1, 0);
+
+        final RrdDb fooDb = cache.acquire(foo);
+        final RrdDb barDb = cache.acquire(bar);
+        assertEquals(2, cache.getSize());
+
+        // foo is evicted once it is released
+        cache.release(fooDb);
+        assertTrue(fooDb.isClosed());
+        assertFalse(barDb.isClosed());
+
+        // a file that is invalidated while in use is closed when it is released
+        cache.invalidate(bar);
+        assertFalse(barDb.isClosed());
+        final RrdDb newBarDb = cache.acquire(bar);
+        assertNotSame(barDb, newBarDb);
+        cache.release(barDb);
+        assertTrue(barDb.isClosed());
+        assertFalse(newBarDb.isClosed());
+        cache.release(newBarDb);
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        final String foo = createRrdFile("foo");
+        final String bar = createRrdFile("bar");
+        final RrdDbCache cache = new RrdDbCache(10, 100);
+
+        final RrdDb fooDb = cache.acquire(foo);
+        cache.release(fooDb);
+        Thread.sleep(150);
+
+        cache.release(cache.acquire(bar));
+        assertTrue(fooDb.isClosed());
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    /**
+     * Updates and fetches a few files from several threads with fewer open
+     * files than there are files.
+     */
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final int threads = 4;
+        final int updates = 2000;
+        final List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            paths.add(createRrdFile("file" + i));
+        }
+        final RrdDbCache cache = new RrdDbCache(4, 0);
+        final long start = System.currentTimeMillis() / 1000 - updates * threads;
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread("updater-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < updates; i++) {
+                            final RrdDb rrdDb = cache.acquire(paths.get((i + offset) % paths.size()));
+                            try {
+                                synchronized (rrdDb) {
+                                    final Sample sample = rrdDb.createSample(Math.max(start + i * threads + offset, rrdDb.getLastUpdateTime() + 1));
+                                    sample.setValues(new double[] { i });
+                                    sample.update();
+                                }
+                                rrdDb.createFetchRequest("AVERAGE", start, start + updates * threads).fetchData();
+                            } finally {
+                                cache.release(rrdDb);
+                            }
+                        }
+                    } catch (final Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        final long elapsed = System.nanoTime() - begin;
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(cache.getSize() <= 4);
+        assertEquals(threads * updates, cache.getHits() + cache.getMisses());
+        LOG.debug("{} updates and fetches in {} ms, {} misses, {} evictions", threads * updates, elapsed / 1000000, cache.getMisses(), cache.getEvictions());
+        cache.clear();
+    }
+
+    private String createRrdFile(final String name) throws Exception {
+        final File file = m_fileAnticipator.expecting(name + ".jrb");
+        final RrdDef def = new RrdDef(file.getAbsolutePath());
+        def.setStartTime(1000);
+        def.setStep(1);
+        def.addDatasource("bar", "GAUGE", 3000, Double.NaN, Double.NaN);
+        def.addArchive("RRA:AVERAGE:0.5:1:2016");
+        new RrdDb(def).close();
+        return file.getAbsolutePath();
+    }
+}
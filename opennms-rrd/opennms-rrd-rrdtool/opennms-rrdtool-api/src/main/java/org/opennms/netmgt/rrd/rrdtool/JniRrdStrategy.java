@@ -45,6 +45,7 @@ import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdGraphDetails;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUpdateFormat;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -219,6 +220,18 @@ public class JniRrdStrategy implements RrdStrategy<JniRrdStrategy.CreateCommand
         rrd.append(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * RRDtool only takes update strings, so the values are formatted into
+     * the update command.
+     */
+    @Override
+    public void updateFile(StringBuffer rrd, String owner, long timestamp, double[] values) throws Exception {
+        rrd.append(' ');
+        rrd.append(RrdUpdateFormat.format(timestamp, values));
+    }
+
     /**
      * Initialized the JNI Interface
      *
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Long-lived connection to the receiver of the performance data.
+ * <p>
+ * Each batch of readings is written as a frame prefixed with its length as
+ * a varint, as done by <code>writeDelimitedTo()</code>, so the receiver
+ * reads them with <code>PerformanceDataReadings.parseDelimitedFrom()</code>
+ * until the connection is closed.
+ * </p>
+ * <p>
+ * While the receiver can't be reached, the frames are kept in a spool that
+ * is bounded by its size in bytes, dropping the oldest frames first, and the
+ * connection is attempted again with an exponential backoff.  This class is
+ * meant to be used by a single writer thread; the statistics can be read
+ * from any thread.
+ * </p>
+ */
+public class PersistentRrdOutputConnection {
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentRrdOutputConnection.class);
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private static final long MIN_RECONNECT_DELAY = 100;
+
+    /** The maximum number of frames handed to a single gathering write. */
+    private static final int MAX_FRAMES_PER_WRITE = 64;
+
+    private static class Frame {
+        private final ByteBuffer m_buffer;
+        private final int m_readings;
+
+        private Frame(final ByteBuffer buffer, final int readings) {
+            m_buffer = buffer;
+            m_readings = readings;
+        }
+    }
+
+    private final String m_host;
+    private final int m_port;
+    private final long m_maxSpoolBytes;
+    private final long m_maxReconnectDelay;
+
+    private final Deque<Frame> m_spool = new ArrayDeque<Frame>();
+    private final ByteBuffer m_probe = ByteBuffer.allocate(256);
+    private final ByteBuffer[] m_gather = new ByteBuffer[MAX_FRAMES_PER_WRITE];
+
+    private SocketChannel m_channel;
+    private long m_reconnectDelay = 0;
+    private long m_nextConnect = 0;
+
+    private long m_spooledBytes = 0;
+    private int m_spooledReadings = 0;
+    private long m_sentReadings = 0;
+    private long m_droppedReadings = 0;
+    private long m_connects = 0;
+
+    /**
+     * <p>Constructor for PersistentRrdOutputConnection.</p>
+     *
+     * @param host the host name or address of the receiver
+     * @param port the port of the receiver
+     * @param maxSpoolBytes the maximum number of bytes to keep while the receiver can't be reached
+     * @param maxReconnectDelay the maximum number of milliseconds to wait between connection attempts
+     */
+    public PersistentRrdOutputConnection(final String host, final int port, final long maxSpoolBytes, final long maxReconnectDelay) {
+        m_host = host;
+        m_port = port;
+        m_maxSpoolBytes = maxSpoolBytes;
+        m_maxReconnectDelay = Math.max(MIN_RECONNECT_DELAY, maxReconnectDelay);
+    }
+
+    public String getHost() {
+        return m_host;
+    }
+
+    public int getPort() {
+        return m_port;
+    }
+
+    /**
+     * Spools the readings as a single frame and writes everything that is
+     * spooled if the receiver can be reached.
+     *
+     * @param readings a {@link org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings} object.
+     * @return true if nothing is left in the spool
+     */
+    public synchronized boolean write(final PerformanceDataReadings readings) {
+        final int size = readings.getSerializedSize();
+        final byte[] frame = new byte[CodedOutputStream.computeRawVarint32Size(size) + size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(frame);
+        try {
+            out.writeRawVarint32(size);
+            readings.writeTo(out);
+            out.checkNoSpaceLeft();
+        } catch (final IOException e) {
+            // Only thrown when the array is too small
+            throw new IllegalStateException("Unable to serialize " + readings.getMessageCount() + " performance data messages", e);
+        }
+
+        m_spool.addLast(new Frame(ByteBuffer.wrap(frame), readings.getMessageCount()));
+        m_spooledBytes += frame.length;
+        m_spooledReadings += readings.getMessageCount();
+        trimSpool();
+
+        return flush();
+    }
+
+    /**
+     * Writes everything that is spooled, connecting to the receiver first if
+     * needed and if the reconnection delay has expired.
+     *
+     * @return true if nothing is left in the spool
+     */
+    public synchronized boolean flush() {
+        if (m_spool.isEmpty()) {
+            return true;
+        }
+        if (m_channel == null && !connect()) {
+            return false;
+        }
+
+        try {
+            if (isClosedByPeer()) {
+                throw new IOException("connection closed by the receiver");
+            }
+            while (!m_spool.isEmpty()) {
+                int count = 0;
+                for (final Frame frame : m_spool) {
+                    m_gather[count++] = frame.m_buffer;
+                    if (count == MAX_FRAMES_PER_WRITE) {
+                        break;
+                    }
+                }
+                // Blocking channels write all of the remaining bytes
+                write(m_channel, m_gather, count);
+                for (int i = 0; i < count; i++) {
+                    final Frame frame = m_spool.removeFirst();
+                    m_spooledBytes -= frame.m_buffer.capacity();
+                    m_spooledReadings -= frame.m_readings;
+                    m_sentReadings += frame.m_readings;
+                    m_gather[i] = null;
+                }
+            }
+            return true;
+        } catch (final IOException e) {
+            LOG.warn("Error when writing performance data to {}:{}, spooling {} messages: {}", m_host, m_port, m_spooledReadings, e.getMessage());
+            disconnect();
+            scheduleReconnect();
+            // Any of the frames of the failed write may have been written
+            // partially or completely, they are all sent again as a whole
+            // on the next connection
+            for (int i = 0; i < m_gather.length; i++) {
+                if (m_gather[i] != null) {
+                    m_gather[i].rewind();
+                    m_gather[i] = null;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Writes the first <code>count</code> buffers to the channel with a
+     * single gathering write.
+     */
+    long write(final SocketChannel channel, final ByteBuffer[] buffers, final int count) throws IOException {
+        return channel.write(buffers, 0, count);
+    }
+
+    /**
+     * Closes the connection.  Spooled frames are kept and written on the
+     * next call to {@link #write(PerformanceDataReadings)} or {@link #flush()}.
+     */
+    public synchronized void close() {
+        disconnect();
+    }
+
+    public synchronized boolean isConnected() {
+        return m_channel != null;
+    }
+
+    public synchronized long getSpooledBytes() {
+        return m_spooledBytes;
+    }
+
+    public synchronized int getSpooledReadings() {
+        return m_spooledReadings;
+    }
+
+    public synchronized long getSentReadings() {
+        return m_sentReadings;
+    }
+
+    public synchronized long getDroppedReadings() {
+        return m_droppedReadings;
+    }
+
+    public synchronized long getConnects() {
+        return m_connects;
+    }
+
+    private void trimSpool() {
+        int droppedReadings = 0;
+        // Always keep the newest frame, even if it is larger than the spool
+        while (m_spooledBytes > m_maxSpoolBytes && m_spool.size() > 1) {
+            final Frame frame = m_spool.removeFirst();
+            m_spooledBytes -= frame.m_buffer.capacity();
+            m_spooledReadings -= frame.m_readings;
+            droppedReadings += frame.m_readings;
+        }
+        if (droppedReadings > 0) {
+            m_droppedReadings += droppedReadings;
+            LOG.warn("Performance data spool for {}:{} is full, dropped {} messages", m_host, m_port, droppedReadings);
+        }
+    }
+
+    private boolean connect() {
+        final long now = System.currentTimeMillis();
+        if (now < m_nextConnect) {
+            return false;
+        }
+
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.socket().setKeepAlive(true);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(new InetSocketAddress(InetAddressUtils.addr(m_host), m_port), CONNECT_TIMEOUT);
+        } catch (final IOException e) {
+            LOG.warn("Error when trying to open connection to {}:{}, spooling {} performance messages: {}", m_host, m_port, m_spooledReadings, e.getMessage());
+            closeQuietly(channel);
+            scheduleReconnect();
+            return false;
+        }
+
+        LOG.info("Connected to performance data receiver {}:{}", m_host, m_port);
+        m_channel = channel;
+        m_reconnectDelay = 0;
+        m_connects++;
+        return true;
+    }
+
+    private void scheduleReconnect() {
+        m_reconnectDelay = m_reconnectDelay == 0 ? MIN_RECONNECT_DELAY : Math.min(m_reconnectDelay * 2, m_maxReconnectDelay);
+        m_nextConnect = System.currentTimeMillis() + m_reconnectDelay;
+    }
+
+    /**
+     * The receiver never writes anything, so a read that hits the end of the
+     * stream means that it has closed the connection.  Writing to it would
+     * succeed once and lose the frame.
+     */
+    private boolean isClosedByPeer() throws IOException {
+        m_channel.configureBlocking(false);
+        try {
+            int read;
+            do {
+                m_probe.clear();
+                read = m_channel.read(m_probe);
+            } while (read > 0);
+            return read < 0;
+        } finally {
+            m_channel.configureBlocking(true);
+        }
+    }
+
+    private void disconnect() {
+        if (m_channel != null) {
+            closeQuietly(m_channel);
+            m_channel = null;
+        }
+    }
+
+    private static void closeQuietly(final SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOG.warn("IOException when closing TCP performance data socket: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -54,6 +54,12 @@ import org.opennms.netmgt.rrd.tcp.TcpRrdStrategy.RrdDefinition;
  * The receiver of this strategy is not defined in any way. This is just a fire
  * and forget strategy. There is no way to read data back into opennms.
  * </p>
+ * <p>
+ * The update strings are parsed when they are enqueued.  If the delegate is
+ * persistent, the readings are streamed over a single long-lived connection
+ * that spools them while the receiver can't be reached, see
+ * {@link PersistentRrdOutputConnection}.
+ * </p>
  * 
  * @author ranger
  * @version $Id: $
@@ -63,16 +69,19 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
 
     private final BlockingQueue<PerformanceDataReading> m_queue;
     private final TcpRrdStrategy m_delegate;
+    private final ConsumerThread m_consumerThread;
     private int m_skippedReadings = 0;
 
     private static class PerformanceDataReading {
-        private String m_filename;
-        private String m_owner;
-        private String m_data;
-        public PerformanceDataReading(String filename, String owner, String data) {
+        private final String m_filename;
+        private final String m_owner;
+        private final long m_timestamp;
+        private final double[] m_values;
+        public PerformanceDataReading(String filename, String owner, long timestamp, double[] values) {
             m_filename = filename;
             m_owner = owner;
-            m_data = data;
+            m_timestamp = timestamp;
+            m_values = values;
         }
         public String getFilename() {
             return m_filename;
@@ -80,32 +89,48 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
         public String getOwner() {
             return m_owner;
         }
-        public String getData() {
-            return m_data;
+        public long getTimestamp() {
+            return m_timestamp;
+        }
+        public double[] getValues() {
+            return m_values;
         }
     }
 
     private static class ConsumerThread extends Thread {
         private final BlockingQueue<PerformanceDataReading> m_myQueue;
         private final TcpRrdStrategy m_strategy;
+        private volatile PersistentRrdOutputConnection m_connection;
         public ConsumerThread(final TcpRrdStrategy strategy, final BlockingQueue<PerformanceDataReading> queue) {
             m_strategy = strategy;
             m_myQueue = queue;
             this.setName(this.getClass().getSimpleName());
         }
 
+        public PersistentRrdOutputConnection getConnection() {
+            return m_connection;
+        }
+
         @Override
         public void run() {
             try {
+                if (m_strategy.isPersistent()) {
+                    m_connection = new PersistentRrdOutputConnection(m_strategy.getHost(), m_strategy.getPort(), m_strategy.getSpoolSize(), m_strategy.getMaxReconnectDelay());
+                }
+                List<PerformanceDataReading> sendMe = new ArrayList<PerformanceDataReading>();
                 while (true) {
-                    Collection<PerformanceDataReading> sendMe = new ArrayList<PerformanceDataReading>();
                     if (m_myQueue.drainTo(sendMe) > 0) {
-                        RrdOutputSocket socket = new RrdOutputSocket(m_strategy.getHost(), m_strategy.getPort());
+                        RrdOutputSocket socket = m_connection == null ? new RrdOutputSocket(m_strategy.getHost(), m_strategy.getPort()) : new RrdOutputSocket(m_connection);
                         for (PerformanceDataReading reading : sendMe) {
-                            socket.addData(reading.getFilename(), reading.getOwner(), reading.getData());
+                            socket.addData(reading.getFilename(), reading.getOwner(), reading.getTimestamp(), reading.getValues());
                         }
                         socket.writeData();
+                        sendMe.clear();
                     } else {
+                        if (m_connection != null) {
+                            // Retry what was spooled during an outage
+                            m_connection.flush();
+                        }
                         Thread.sleep(1000);
                     }
                 }
@@ -113,6 +138,10 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
                 LOG.warn("InterruptedException caught in QueuingTcpRrdStrategy$ConsumerThread, closing thread");
             } catch (Throwable e) {
                 LOG.error("Unexpected exception caught in QueuingTcpRrdStrategy$ConsumerThread, closing thread", e);
+            } finally {
+                if (m_connection != null) {
+                    m_connection.close();
+                }
             }
         }
     }
@@ -125,8 +154,8 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
     public QueuingTcpRrdStrategy(TcpRrdStrategy delegate, int queueSize) {
         m_delegate = delegate;
         m_queue = new LinkedBlockingQueue<PerformanceDataReading>(queueSize);
-        ConsumerThread consumerThread = new ConsumerThread(delegate, m_queue);
-        consumerThread.start();
+        m_consumerThread = new ConsumerThread(delegate, m_queue);
+        m_consumerThread.start();
     }
 
     /** {@inheritDoc} */
@@ -172,7 +201,18 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
     /** {@inheritDoc} */
     @Override
     public void updateFile(String fileName, String owner, String data) throws Exception {
-        if (m_queue.offer(new PerformanceDataReading(fileName, owner, data), 500, TimeUnit.MILLISECONDS)) {
+        enqueue(new PerformanceDataReading(fileName, owner, RrdOutputSocket.parseRrdTimestamp(data), RrdOutputSocket.parseRrdValues(data)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String fileName, String owner, long timestamp, double[] values) throws Exception {
+        // RRD timestamps are in seconds, the readings are in milliseconds
+        enqueue(new PerformanceDataReading(fileName, owner, timestamp * 1000, values.clone()));
+    }
+
+    private void enqueue(PerformanceDataReading reading) throws InterruptedException {
+        if (m_queue.offer(reading, 500, TimeUnit.MILLISECONDS)) {
             if (m_skippedReadings > 0) {
                 LOG.warn("Skipped {} performance data message(s) because of queue overflow", m_skippedReadings);
                 m_skippedReadings = 0;
@@ -260,6 +300,18 @@ public class QueuingTcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefi
      */
     @Override
     public String getStats() {
+        PersistentRrdOutputConnection connection = m_consumerThread.getConnection();
+        if (connection != null) {
+            StringBuffer stats = new StringBuffer();
+            stats.append("connected: ").append(connection.isConnected());
+            stats.append(", connects: ").append(connection.getConnects());
+            stats.append(", sent: ").append(connection.getSentReadings());
+            stats.append(", spooled: ").append(connection.getSpooledReadings());
+            stats.append(" (").append(connection.getSpooledBytes()).append(" bytes)");
+            stats.append(", dropped: ").append(connection.getDroppedReadings());
+            stats.append(", queued: ").append(m_queue.size());
+            return stats.toString();
+        }
         return m_delegate.getStats();
     }
 
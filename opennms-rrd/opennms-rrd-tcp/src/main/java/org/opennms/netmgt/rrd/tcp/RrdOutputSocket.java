@@ -31,13 +31,12 @@ package org.opennms.netmgt.rrd.tcp;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.rrd.RrdUpdateFormat;
 import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
 
 /**
@@ -52,6 +51,7 @@ public class RrdOutputSocket {
     // private final RrdDefinition m_def;
     private final String m_host;
     private final int m_port;
+    private final PersistentRrdOutputConnection m_connection;
     private final PerformanceDataProtos.PerformanceDataReadings.Builder m_messages;
     private int m_messageCount = 0;
 
@@ -64,6 +64,20 @@ public class RrdOutputSocket {
     public RrdOutputSocket(String host, int port) {
         m_host = host;
         m_port = port;
+        m_connection = null;
+        m_messages = PerformanceDataProtos.PerformanceDataReadings.newBuilder();
+    }
+
+    /**
+     * <p>Constructor for RrdOutputSocket that writes the data to a long-lived
+     * connection instead of opening a new one.</p>
+     *
+     * @param connection a {@link org.opennms.netmgt.rrd.tcp.PersistentRrdOutputConnection} object.
+     */
+    public RrdOutputSocket(PersistentRrdOutputConnection connection) {
+        m_host = connection.getHost();
+        m_port = connection.getPort();
+        m_connection = connection;
         m_messages = PerformanceDataProtos.PerformanceDataReadings.newBuilder();
     }
 
@@ -75,14 +89,26 @@ public class RrdOutputSocket {
      * @param data a {@link java.lang.String} object.
      */
     public void addData(String filename, String owner, String data) {
-        Long timestamp = parseRrdTimestamp(data);
-        List<Double> values = parseRrdValues(data);
-        m_messages.addMessage(PerformanceDataReading.newBuilder()
+        addData(filename, owner, parseRrdTimestamp(data), parseRrdValues(data));
+    }
+
+    /**
+     * <p>addData</p>
+     *
+     * @param filename a {@link java.lang.String} object.
+     * @param owner a {@link java.lang.String} object.
+     * @param timestamp the time of the reading in milliseconds
+     * @param values the values of the reading, NaN when unknown
+     */
+    public void addData(String filename, String owner, long timestamp, double[] values) {
+        PerformanceDataReading.Builder message = PerformanceDataReading.newBuilder()
                 .setPath(filename)
                 .setOwner(owner)
-                .setTimestamp(timestamp).
-                addAllValue(values)
-        );
+                .setTimestamp(timestamp);
+        for (double value : values) {
+            message.addValue(value);
+        }
+        m_messages.addMessage(message);
         m_messageCount++;
     }
 
@@ -90,6 +116,12 @@ public class RrdOutputSocket {
      * <p>writeData</p>
      */
     public void writeData() {
+        if (m_connection != null) {
+            // Spooled by the connection if the receiver can't be reached
+            m_connection.write(m_messages.build());
+            return;
+        }
+
         Socket socket = null;
         try {
             socket = new Socket(InetAddressUtils.addr(m_host), m_port);
@@ -111,31 +143,30 @@ public class RrdOutputSocket {
         }
     };
 
-    private Long parseRrdTimestamp(String data) {
+    /**
+     * Parses the timestamp of an RRD update string like "N:1.0:U" or
+     * "1400000000:1.0:2.0".
+     *
+     * @param data a {@link java.lang.String} object.
+     * @return the timestamp in milliseconds
+     */
+    static long parseRrdTimestamp(String data) {
         if (data.startsWith("N:")) {
             return System.currentTimeMillis();
         } else {
-            String timestamp = data.split(":")[0];
             // RRD timestamps are in seconds, we want to return milliseconds
-            return Long.valueOf(timestamp) * 1000;
+            return RrdUpdateFormat.parseTimestamp(data) * 1000;
         }
     }
 
-    private List<Double> parseRrdValues(String data) {
-        List<Double> retval = new ArrayList<Double>();
-        String[] values = data.split(":");
-        // Skip index zero, that's the timestamp
-        for (int i = 1; i < values.length; i++) {
-            if (values[i] == null || "null".equals(values[i])) {
-                // Handle null values
-                retval.add(Double.NaN);
-            } else if ("U".equals(values[i])) {
-                // Parse the RRD value for "unknown"
-                retval.add(Double.NaN);
-            } else {
-                retval.add(new Double(values[i]));
-            }
-        }
-        return retval;
+    /**
+     * Parses the values of an RRD update string, without the timestamp.
+     * "U" and "null" are parsed as NaN.
+     *
+     * @param data a {@link java.lang.String} object.
+     * @return the values
+     */
+    static double[] parseRrdValues(String data) {
+        return RrdUpdateFormat.parseValues(data);
     }
 }
@@ -132,6 +132,69 @@ public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,
         this.m_port = port;
     }
 
+    private boolean m_persistent = false;
+
+    /**
+     * <p>isPersistent</p>
+     *
+     * @return true if the readings are streamed over a long-lived connection
+     */
+    public boolean isPersistent() {
+        return m_persistent;
+    }
+
+    /**
+     * Streams the readings over a long-lived connection as length-delimited
+     * frames instead of opening a connection for each batch.  This is only
+     * used by the {@link QueuingTcpRrdStrategy}, and the receiver must read
+     * the frames with <code>parseDelimitedFrom()</code>.
+     *
+     * @param persistent a boolean.
+     */
+    public void setPersistent(boolean persistent) {
+        m_persistent = persistent;
+    }
+
+    private long m_spoolSize = 16L * 1024L * 1024L;
+
+    /**
+     * <p>getSpoolSize</p>
+     *
+     * @return a long.
+     */
+    public long getSpoolSize() {
+        return m_spoolSize;
+    }
+
+    /**
+     * <p>setSpoolSize</p>
+     *
+     * @param spoolSize the maximum number of bytes kept while the receiver can't be reached
+     */
+    public void setSpoolSize(long spoolSize) {
+        m_spoolSize = spoolSize;
+    }
+
+    private long m_maxReconnectDelay = 30000;
+
+    /**
+     * <p>getMaxReconnectDelay</p>
+     *
+     * @return a long.
+     */
+    public long getMaxReconnectDelay() {
+        return m_maxReconnectDelay;
+    }
+
+    /**
+     * <p>setMaxReconnectDelay</p>
+     *
+     * @param maxReconnectDelay the maximum number of milliseconds between connection attempts
+     */
+    public void setMaxReconnectDelay(long maxReconnectDelay) {
+        m_maxReconnectDelay = maxReconnectDelay;
+    }
+
     /**
      * <p>getDefaultFileExtension</p>
      *
@@ -172,6 +235,13 @@ public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,
         rrd.getSocket().addData(rrd.getFilename(), owner, data);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(RrdOutputSocketWithFilename rrd, String owner, long timestamp, double[] values) throws Exception {
+        // RRD timestamps are in seconds, the readings are in milliseconds
+        rrd.getSocket().addData(rrd.getFilename(), owner, timestamp * 1000, values);
+    }
+
     /**
      * <p>closeFile</p>
      *
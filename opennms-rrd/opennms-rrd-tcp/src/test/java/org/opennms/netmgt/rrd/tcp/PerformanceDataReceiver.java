@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stand-in for a receiver of the performance data that reads the
+ * length-delimited frames written by {@link PersistentRrdOutputConnection}
+ * and keeps the readings.  It can be stopped and started again on the same
+ * port to simulate an outage.
+ */
+public class PerformanceDataReceiver {
+    private static final Logger LOG = LoggerFactory.getLogger(PerformanceDataReceiver.class);
+
+    private final List<PerformanceDataReading> m_readings = Collections.synchronizedList(new ArrayList<PerformanceDataReading>());
+    private final List<Socket> m_sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final AtomicInteger m_connections = new AtomicInteger();
+    private final AtomicInteger m_frames = new AtomicInteger();
+    private volatile ServerSocket m_serverSocket;
+    private int m_port = 0;
+
+    /**
+     * Starts listening, on an ephemeral port the first time and on the same
+     * port afterwards.
+     */
+    public synchronized void start() throws IOException {
+        final ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress("127.0.0.1", m_port));
+        m_port = serverSocket.getLocalPort();
+        m_serverSocket = serverSocket;
+
+        final Thread acceptor = new Thread("PerformanceDataReceiver-" + m_port) {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        m_connections.incrementAndGet();
+                        m_sockets.add(socket);
+                        read(socket);
+                    }
+                } catch (final SocketException e) {
+                    // stopped
+                } catch (final IOException e) {
+                    LOG.warn("Error accepting connection", e);
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops listening and closes the connections.
+     */
+    public synchronized void stop() throws IOException {
+        if (m_serverSocket != null) {
+            m_serverSocket.close();
+            m_serverSocket = null;
+        }
+        synchronized (m_sockets) {
+            for (final Socket socket : m_sockets) {
+                socket.close();
+            }
+            m_sockets.clear();
+        }
+    }
+
+    public synchronized int getPort() {
+        return m_port;
+    }
+
+    public int getConnections() {
+        return m_connections.get();
+    }
+
+    public int getFrames() {
+        return m_frames.get();
+    }
+
+    public List<PerformanceDataReading> getReadings() {
+        synchronized (m_readings) {
+            return new ArrayList<PerformanceDataReading>(m_readings);
+        }
+    }
+
+    public int getReadingCount() {
+        return m_readings.size();
+    }
+
+    /**
+     * Waits until the given number of readings has been received.
+     *
+     * @return true if they were received before the timeout
+     */
+    public boolean waitForReadings(final int count, final long timeout) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+        while (m_readings.size() < count) {
+            if (System.currentTimeMillis() > end) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void read(final Socket socket) {
+        final Thread reader = new Thread("PerformanceDataReceiver-" + socket.getRemoteSocketAddress()) {
+            @Override
+            public void run() {
+                try {
+                    final InputStream in = new BufferedInputStream(socket.getInputStream());
+                    PerformanceDataReadings readings;
+                    while ((readings = PerformanceDataReadings.parseDelimitedFrom(in)) != null) {
+                        m_frames.incrementAndGet();
+                        m_readings.addAll(readings.getMessageList());
+                    }
+                } catch (final IOException e) {
+                    // closed
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (final IOException e) {
+                        LOG.warn("Error closing connection", e);
+                    }
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReading;
+import org.opennms.netmgt.rrd.tcp.PerformanceDataProtos.PerformanceDataReadings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PersistentRrdOutputConnectionTest {
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentRrdOutputConnectionTest.class);
+
+    private PerformanceDataReceiver m_receiver;
+
+    private PersistentRrdOutputConnection m_connection;
+
+    @Before
+    public void setUp() throws Exception {
+        MockLogAppender.setupLogging();
+        m_receiver = new PerformanceDataReceiver();
+        m_receiver.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_connection != null) {
+            m_connection.close();
+        }
+        m_receiver.stop();
+    }
+
+    @Test
+    public void testStreamOverOneConnection() throws Exception {
+        m_connection = new PersistentRrdOutputConnection("127.0.0.1", m_receiver.getPort(), 1024 * 1024, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(m_connection.write(readings(i * 10, 10)));
+        }
+
+        assertTrue(m_receiver.waitForReadings(1000, 5000));
+        assertEquals(1, m_receiver.getConnections());
+        assertEquals(100, m_receiver.getFrames());
+        assertEquals(1000, m_connection.getSentReadings());
+        assertEquals(0, m_connection.getSpooledReadings());
+
+        final List<PerformanceDataReading> received = m_receiver.getReadings();
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals("/rrd/snmp/1/" + i + ".jrb", received.get(i).getPath());
+            assertEquals(i * 1000L, received.get(i).getTimestamp());
+            assertEquals(2, received.get(i).getValueCount());
+            assertTrue(Double.isNaN(received.get(i).getValue(1)));
+        }
+    }
+
+    @Test
+    public void testSpoolDuringOutage() throws Exception {
+        m_connection = new PersistentRrdOutputConnection("127.0.0.1", m_receiver.getPort(), 1024 * 1024, 200);
+        assertTrue(m_connection.write(readings(0, 10)));
+        assertTrue(m_receiver.waitForReadings(10, 5000));
+
+        m_receiver.stop();
+        // The first write after the outage notices the closed connection
+        for (int i = 1; i < 10; i++) {
+            assertFalse(m_connection.write(readings(i * 10, 10)));
+        }
+        assertFalse(m_connection.isConnected());
+        assertEquals(90, m_connection.getSpooledReadings());
+        assertEquals(0, m_connection.getDroppedReadings());
+
+        m_receiver.start();
+        final long end = System.currentTimeMillis() + 5000;
+        while (!m_connection.flush() && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertTrue(m_receiver.waitForReadings(100, 5000));
+        assertEquals(0, m_connection.getSpooledReadings());
+        assertEquals(0, m_connection.getSpooledBytes());
+        assertEquals(100, m_connection.getSentReadings());
+        assertEquals(2, m_connection.getConnects());
+
+        // Nothing is lost or sent twice, and the order is kept
+        final List<PerformanceDataReading> received = m_receiver.getReadings();
+        assertEquals(100, received.size());
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(i * 1000L, received.get(i).getTimestamp());
+        }
+    }
+
+    /**
+     * Fails a gathering write of several frames after the first frame and
+     * half of the second one were written; all of them must be sent again
+     * as a whole on the next connection.
+     */
+    @Test
+    public void testFailureDuringGatheringWrite() throws Exception {
+        m_receiver.stop();
+        m_connection = new PersistentRrdOutputConnection("127.0.0.1", m_receiver.getPort(), 1024 * 1024, 200) {
+            private boolean m_failed = false;
+
+            @Override
+            long write(final SocketChannel channel, final ByteBuffer[] buffers, final int count) throws IOException {
+                if (m_failed || count < 5) {
+                    return super.write(channel, buffers, count);
+                }
+                m_failed = true;
+                long written = channel.write(buffers[0]);
+                final int limit = buffers[1].limit();
+                buffers[1].limit(buffers[1].position() + buffers[1].remaining() / 2);
+                written += channel.write(buffers[1]);
+                buffers[1].limit(limit);
+                throw new IOException("failed after writing " + written + " bytes");
+            }
+        };
+        for (int i = 0; i < 5; i++) {
+            assertFalse(m_connection.write(readings(i * 10, 10)));
+        }
+        assertEquals(50, m_connection.getSpooledReadings());
+
+        m_receiver.start();
+        final long end = System.currentTimeMillis() + 5000;
+        while (!m_connection.flush() && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertTrue(m_receiver.waitForReadings(60, 5000));
+        assertEquals(2, m_connection.getConnects());
+        assertEquals(2, m_receiver.getConnections());
+        assertEquals(50, m_connection.getSentReadings());
+        assertEquals(0, m_connection.getSpooledBytes());
+
+        // The first frame made it over the first connection, and every frame
+        // is received intact over the second one
+        final List<PerformanceDataReading> received = m_receiver.getReadings();
+        assertEquals(60, received.size());
+        assertEquals(6, m_receiver.getFrames());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 1000L, received.get(i).getTimestamp());
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i * 1000L, received.get(10 + i).getTimestamp());
+            assertEquals("/rrd/snmp/1/" + i + ".jrb", received.get(10 + i).getPath());
+        }
+    }
+
+    @Test
+    public void testSpoolIsBounded() throws Exception {
+        m_receiver.stop();
+        m_connection = new PersistentRrdOutputConnection("127.0.0.1", m_receiver.getPort(), 4096, 60000);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(m_connection.write(readings(i * 10, 10)));
+        }
+
+        assertTrue(m_connection.getSpooledBytes() <= 4096);
+        assertTrue(m_connection.getSpooledReadings() > 0);
+        assertEquals(1000, m_connection.getSpooledReadings() + m_connection.getDroppedReadings());
+        assertEquals(0, m_connection.getConnects());
+    }
+
+    @Test
+    public void testParseRrdData() throws Exception {
+        assertEquals(1400000000000L, RrdOutputSocket.parseRrdTimestamp("1400000000:1.5"));
+        assertTrue(Math.abs(RrdOutputSocket.parseRrdTimestamp("N:1.5") - System.currentTimeMillis()) < 1000);
+
+        double[] values = RrdOutputSocket.parseRrdValues("1400000000:1.5:U:null:-2E3");
+        assertEquals(4, values.length);
+        assertEquals(1.5, values[0], 0.0);
+        assertTrue(Double.isNaN(values[1]));
+        assertTrue(Double.isNaN(values[2]));
+        assertEquals(-2000.0, values[3], 0.0);
+
+        assertEquals(0, RrdOutputSocket.parseRrdValues("N:").length);
+        assertEquals(1, RrdOutputSocket.parseRrdValues("N:3::").length);
+    }
+
+    @Test
+    public void testPrimitiveUpdateThroughput() throws Exception {
+        m_connection = new PersistentRrdOutputConnection("127.0.0.1", m_receiver.getPort(), 64 * 1024 * 1024, 1000);
+        final int batches = 200;
+        final int batchSize = 1000;
+        final double[] values = new double[] { 1.0, 2.0, 3.0, 4.0 };
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < batches; i++) {
+            final RrdOutputSocket socket = new RrdOutputSocket(m_connection);
+            for (int j = 0; j < batchSize; j++) {
+                socket.addData("/rrd/snmp/1/ifInOctets.jrb", "collectd", i * batchSize + j, values);
+            }
+            socket.writeData();
+        }
+        assertTrue(m_receiver.waitForReadings(batches * batchSize, 30000));
+        final long elapsed = System.nanoTime() - start;
+
+        assertEquals(1, m_receiver.getConnections());
+        LOG.debug("{} readings in {} ms over one connection", batches * batchSize, elapsed / 1000000);
+    }
+
+    private static PerformanceDataReadings readings(final int first, final int count) {
+        final PerformanceDataReadings.Builder builder = PerformanceDataReadings.newBuilder();
+        for (int i = first; i < first + count; i++) {
+            builder.addMessage(PerformanceDataReading.newBuilder()
+                    .setPath("/rrd/snmp/1/" + i + ".jrb")
+                    .setOwner("test")
+                    .setTimestamp(i * 1000L)
+                    .addValue(i)
+                    .addValue(Double.NaN));
+        }
+        return builder.build();
+    }
+}
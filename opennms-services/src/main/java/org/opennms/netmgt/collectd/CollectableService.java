@@ -67,7 +67,7 @@ import org.springframework.transaction.PlatformTransactionManager;
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
  * 
  */
-final class CollectableService implements ReadyRunnable {
+class CollectableService implements ReadyRunnable {
     
     private static final Logger LOG = LoggerFactory.getLogger(CollectableService.class);
     
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The collectable services of Collectd, indexed by node and by interface
+ * address, so that the events handled by Collectd only visit the services
+ * they affect.
+ *
+ * The services are registered under the node and the address they had when
+ * they were added. A reparented interface is moved to its new node right
+ * away, even though its services only pick up the new node the next time
+ * they are run.
+ *
+ * Lookups don't lock. Changes are serialized, but they only take as long as
+ * it takes to change the affected services.
+ */
+class CollectableServiceRegistry {
+
+    private static final List<CollectableService> NONE = Collections.emptyList();
+
+    /**
+     * The services of each node, by interface address
+     */
+    private final ConcurrentMap<Integer, ConcurrentMap<InetAddress, List<CollectableService>>> m_servicesByNode = new ConcurrentHashMap<Integer, ConcurrentMap<InetAddress, List<CollectableService>>>();
+
+    /**
+     * The nodes with services on each interface address
+     */
+    private final ConcurrentMap<InetAddress, Set<Integer>> m_nodesByAddress = new ConcurrentHashMap<InetAddress, Set<Integer>>();
+
+    private final AtomicInteger m_size = new AtomicInteger();
+
+    /**
+     * Adds the given service, under its current node and address.
+     *
+     * @param cSvc a {@link org.opennms.netmgt.collectd.CollectableService} object.
+     */
+    public synchronized void add(final CollectableService cSvc) {
+        add(cSvc.getNodeId(), (InetAddress) cSvc.getAddress(), Collections.singletonList(cSvc));
+    }
+
+    /**
+     * Returns true if a service with the given name and package is
+     * registered for the given interface.
+     */
+    public boolean contains(final int nodeId, final InetAddress addr, final String svcName, final String pkgName) {
+        for (final CollectableService cSvc : getServices(nodeId, addr)) {
+            if (cSvc.getServiceName().equals(svcName) && cSvc.getPackageName().equals(pkgName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the services of the given interface.
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public List<CollectableService> getServices(final int nodeId, final InetAddress addr) {
+        final Map<InetAddress, List<CollectableService>> services = m_servicesByNode.get(nodeId);
+        if (services == null || addr == null) {
+            return NONE;
+        }
+        final List<CollectableService> svcs = services.get(addr);
+        return svcs == null ? NONE : svcs;
+    }
+
+    /**
+     * Returns the services of the given address, on any node.
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public List<CollectableService> getServices(final InetAddress addr) {
+        final Set<Integer> nodeIds = addr == null ? null : m_nodesByAddress.get(addr);
+        if (nodeIds == null) {
+            return NONE;
+        }
+        final List<CollectableService> svcs = new ArrayList<CollectableService>();
+        for (final Integer nodeId : nodeIds) {
+            svcs.addAll(getServices(nodeId, addr));
+        }
+        return svcs;
+    }
+
+    /**
+     * Returns all of the services.
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public List<CollectableService> getServices() {
+        final List<CollectableService> svcs = new ArrayList<CollectableService>(m_size.get());
+        for (final Map<InetAddress, List<CollectableService>> services : m_servicesByNode.values()) {
+            for (final List<CollectableService> s : services.values()) {
+                svcs.addAll(s);
+            }
+        }
+        return svcs;
+    }
+
+    /**
+     * Removes the services of the given node.
+     *
+     * @return the removed services
+     */
+    public synchronized List<CollectableService> removeNode(final int nodeId) {
+        final Map<InetAddress, List<CollectableService>> services = m_servicesByNode.remove(nodeId);
+        if (services == null) {
+            return NONE;
+        }
+        final List<CollectableService> removed = new ArrayList<CollectableService>();
+        for (final Map.Entry<InetAddress, List<CollectableService>> entry : services.entrySet()) {
+            removeNodeFromAddress(entry.getKey(), nodeId);
+            removed.addAll(entry.getValue());
+        }
+        m_size.addAndGet(-removed.size());
+        return removed;
+    }
+
+    /**
+     * Removes the services of the given interface.
+     *
+     * @return the removed services
+     */
+    public synchronized List<CollectableService> removeInterface(final int nodeId, final InetAddress addr) {
+        return remove(nodeId, addr, null);
+    }
+
+    /**
+     * Removes the services of the given address, on any node.
+     *
+     * @return the removed services
+     */
+    public synchronized List<CollectableService> removeInterface(final InetAddress addr) {
+        final Set<Integer> nodeIds = addr == null ? null : m_nodesByAddress.get(addr);
+        if (nodeIds == null) {
+            return NONE;
+        }
+        final List<CollectableService> removed = new ArrayList<CollectableService>();
+        for (final Integer nodeId : new ArrayList<Integer>(nodeIds)) {
+            removed.addAll(remove(nodeId, addr, null));
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the services with the given name of the given interface.
+     *
+     * @return the removed services
+     */
+    public synchronized List<CollectableService> removeService(final int nodeId, final InetAddress addr, final String svcName) {
+        return remove(nodeId, addr, svcName);
+    }
+
+    /**
+     * Moves the services of the given interface to another node.
+     *
+     * @return the moved services
+     */
+    public synchronized List<CollectableService> reparent(final InetAddress addr, final int oldNodeId, final int newNodeId) {
+        final List<CollectableService> moved = remove(oldNodeId, addr, null);
+        if (!moved.isEmpty()) {
+            add(newNodeId, addr, moved);
+        }
+        return moved;
+    }
+
+    /**
+     * Returns the nodes that have services.
+     */
+    Set<Integer> getNodeIds() {
+        return Collections.unmodifiableSet(m_servicesByNode.keySet());
+    }
+
+    /**
+     * Returns the nodes that have services on the given address.
+     */
+    Set<Integer> getNodeIds(final InetAddress addr) {
+        final Set<Integer> nodeIds = m_nodesByAddress.get(addr);
+        return nodeIds == null ? Collections.<Integer>emptySet() : Collections.unmodifiableSet(nodeIds);
+    }
+
+    /**
+     * Returns the number of services.
+     *
+     * @return a int.
+     */
+    public int size() {
+        return m_size.get();
+    }
+
+    private void add(final int nodeId, final InetAddress addr, final List<CollectableService> svcs) {
+        ConcurrentMap<InetAddress, List<CollectableService>> services = m_servicesByNode.get(nodeId);
+        if (services == null) {
+            services = new ConcurrentHashMap<InetAddress, List<CollectableService>>();
+            m_servicesByNode.put(nodeId, services);
+        }
+        List<CollectableService> existing = services.get(addr);
+        if (existing == null) {
+            existing = new CopyOnWriteArrayList<CollectableService>();
+            services.put(addr, existing);
+        }
+        existing.addAll(svcs);
+
+        Set<Integer> nodeIds = m_nodesByAddress.get(addr);
+        if (nodeIds == null) {
+            nodeIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+            m_nodesByAddress.put(addr, nodeIds);
+        }
+        nodeIds.add(nodeId);
+        m_size.addAndGet(svcs.size());
+    }
+
+    private List<CollectableService> remove(final int nodeId, final InetAddress addr, final String svcName) {
+        final Map<InetAddress, List<CollectableService>> services = m_servicesByNode.get(nodeId);
+        final List<CollectableService> svcs = services == null || addr == null ? null : services.get(addr);
+        if (svcs == null) {
+            return NONE;
+        }
+        final List<CollectableService> removed = new ArrayList<CollectableService>();
+        for (final CollectableService cSvc : svcs) {
+            if (svcName == null || cSvc.getServiceName().equals(svcName)) {
+                removed.add(cSvc);
+            }
+        }
+        svcs.removeAll(removed);
+        if (svcs.isEmpty()) {
+            services.remove(addr);
+            if (services.isEmpty()) {
+                m_servicesByNode.remove(nodeId);
+            }
+            removeNodeFromAddress(addr, nodeId);
+        }
+        m_size.addAndGet(-removed.size());
+        return removed;
+    }
+
+    private void removeNodeFromAddress(final InetAddress addr, final int nodeId) {
+        final Set<Integer> nodeIds = m_nodesByAddress.get(addr);
+        if (nodeIds != null) {
+            nodeIds.remove(nodeId);
+            if (nodeIds.isEmpty()) {
+                m_nodesByAddress.remove(addr);
+            }
+        }
+    }
+}
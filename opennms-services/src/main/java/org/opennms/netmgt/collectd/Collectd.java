@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.collectd;
 
+import static org.opennms.core.utils.InetAddressUtils.addr;
 import static org.opennms.core.utils.InetAddressUtils.str;
 
 import java.net.InetAddress;
@@ -36,10 +37,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -72,9 +71,9 @@ import org.opennms.netmgt.model.OnmsMonitoredService;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.model.events.EventUtils;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.SchedulerFactory;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -129,9 +128,9 @@ public class Collectd extends AbstractServiceDaemon implements
     private final Map<String,ServiceCollector> m_collectors = new HashMap<String,ServiceCollector>(4);
 
     /**
-     * List of all CollectableService objects.
+     * All CollectableService objects, by node and interface.
      */
-    private final List<CollectableService> m_collectableServices;
+    private final CollectableServiceRegistry m_collectableServices;
 
     /**
      * Reference to the collection scheduler
@@ -180,7 +179,7 @@ public class Collectd extends AbstractServiceDaemon implements
     public Collectd() {
         super(LOG4J_CATEGORY);
 
-        m_collectableServices = Collections.synchronizedList(new LinkedList<CollectableService>());
+        m_collectableServices = new CollectableServiceRegistry();
     }
 
     /**
@@ -308,7 +307,7 @@ public class Collectd extends AbstractServiceDaemon implements
                 // Create a scheduler
                 try {
                     LOG.debug("init: Creating collectd scheduler");
-                    setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                    setScheduler(SchedulerFactory.newScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
                 } catch (final RuntimeException e) {
                     LOG.error("init: Failed to create collectd scheduler", e);
                     throw e;
@@ -614,18 +613,7 @@ public class Collectd extends AbstractServiceDaemon implements
             sb.append(" is already scheduled.");
         }
         
-        synchronized (m_collectableServices) {
-        	for (CollectableService cSvc : m_collectableServices) {
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                if (cSvc.getNodeId() == iface.getNode().getId()
-                        && str(addr).equals(ipAddress)
-                        && cSvc.getPackageName().equals(pkgName)
-                        && cSvc.getServiceName().equals(svcName)) {
-                    isScheduled = true;
-                    break;
-                }
-            }
-        }
+        isScheduled = m_collectableServices.contains(iface.getNode().getId(), iface.getIpAddress(), svcName, pkgName);
 
         if (LOG.isDebugEnabled()) {
             sb = new StringBuffer();
@@ -646,15 +634,30 @@ public class Collectd extends AbstractServiceDaemon implements
     }
 
     private void refreshServicePackages() {
-    	for (CollectableService thisService : m_collectableServices) {
+    	for (CollectableService thisService : m_collectableServices.getServices()) {
             thisService.refreshPackage(m_collectdConfigFactory);
         }
     }
 
-    private List<CollectableService> getCollectableServices() {
+    private CollectableServiceRegistry getCollectableServices() {
         return m_collectableServices;
     }
 
+    /**
+     * Marks the given services, which have been removed from the collectable
+     * services, for deletion. The next time one of them is selected for
+     * execution by the scheduler the collection will be skipped and the
+     * service will not be rescheduled.
+     */
+    private static void markForDeletion(final List<CollectableService> removed, final String reason) {
+        for (CollectableService cSvc : removed) {
+            synchronized (cSvc) {
+                LOG.debug("Marking CollectableService for deletion because {}: Service nodeid={}, service address:{}, service servicename:{}", reason, cSvc.getNodeId(), str((InetAddress) cSvc.getAddress()), cSvc.getServiceName());
+                cSvc.getCollectorUpdates().markForDeletion();
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -803,39 +806,9 @@ public class Collectd extends AbstractServiceDaemon implements
 
         Long nodeId = event.getNodeid();
 
-        // Iterate over the collectable services list and mark any entries
-        // which match the deleted nodeId/IP address pair for deletion
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId and IP
-                // address
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                if (!(cSvc.getNodeId() == nodeId && addr.getHostName().equals(ipAddr)))
-                    continue;
-
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated with
-                    // this CollectableService if one exists.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because an interface was deleted:  Service nodeid={}, deleted node:{}service address:{}deleted interface:{}", cSvc.getNodeId(), nodeId, addr.getHostName(), ipAddr);
-
-                    updates.markForDeletion();
-                }
-
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
-            }
-        }
+        // Remove the collectable services of the deleted nodeId/IP address
+        // pair and mark them for deletion
+        markForDeletion(getCollectableServices().removeInterface(nodeId.intValue(), event.getInterfaceAddress()), "an interface was deleted");
 
             LOG.debug("interfaceDeletedHandler: processing of interfaceDeleted event for {}/{} completed", nodeId, ipAddr);
     }
@@ -911,34 +884,32 @@ public class Collectd extends AbstractServiceDaemon implements
         // subsequent collections will then be updating the appropriate RRDs.
         //
         OnmsIpInterface iface = null;
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            Iterator<CollectableService> iter = getCollectableServices().iterator();
-            while (iter.hasNext()) {
-                cSvc = iter.next();
-
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-				if (addr.equals(event.getInterfaceAddress())) {
-                    synchronized (cSvc) {
-                        // Got a match!
-                        LOG.debug("interfaceReparentedHandler: got a CollectableService match for {}", event.getInterface());
-
-                        // Retrieve the CollectorUpdates object associated
-                        // with
-                        // this CollectableService.
-                        CollectorUpdates updates = cSvc.getCollectorUpdates();
-                        if (iface == null) {
-                        	iface = getIpInterface(event.getNodeid().intValue(), event.getInterface());
-                        }
-
-                        // Now set the reparenting flag
-                        updates.markForReparenting(oldNodeIdStr, newNodeIdStr, iface);
-                        LOG.debug("interfaceReparentedHandler: marking {} for reparenting for service SNMP.", event.getInterface());
-                    }
+        for (CollectableService cSvc : getCollectableServices().getServices(event.getInterfaceAddress())) {
+            synchronized (cSvc) {
+                // Got a match!
+                LOG.debug("interfaceReparentedHandler: got a CollectableService match for {}", event.getInterface());
+
+                // Retrieve the CollectorUpdates object associated
+                // with
+                // this CollectableService.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
+                if (iface == null) {
+                	iface = getIpInterface(event.getNodeid().intValue(), event.getInterface());
                 }
+
+                // Now set the reparenting flag
+                updates.markForReparenting(oldNodeIdStr, newNodeIdStr, iface);
+                LOG.debug("interfaceReparentedHandler: marking {} for reparenting for service SNMP.", event.getInterface());
             }
         }
 
+        // File the services of the interface under their new node
+        try {
+            getCollectableServices().reparent(event.getInterfaceAddress(), Integer.parseInt(oldNodeIdStr), Integer.parseInt(newNodeIdStr));
+        } catch (NumberFormatException e) {
+            LOG.warn("interfaceReparentedHandler: unable to convert old nodeId {} or new nodeId {} to an int", oldNodeIdStr, newNodeIdStr);
+        }
+
         LOG.debug("interfaceReparentedHandler: processing of interfaceReparented event for interface {} completed.", event.getInterface());
     }
 
@@ -1016,36 +987,9 @@ public class Collectd extends AbstractServiceDaemon implements
     }
 
     private void unscheduleNodeAndMarkForDeletion(Long nodeId) {
-		// Iterate over the collectable service list and mark any entries
-        // which match the deleted nodeId for deletion.
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            final ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId
-                if (!(cSvc.getNodeId() == nodeId))
-                    continue;
-
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated
-                    // with this CollectableService.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because a node was deleted:  Service nodeid={}, deleted node:{}", cSvc.getNodeId(), nodeId);
-                    updates.markForDeletion();
-                }
-
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
-            }
-        }
+		// Remove the collectable services of the deleted nodeId and mark
+        // them for deletion.
+        markForDeletion(getCollectableServices().removeNode(nodeId.intValue()), "a node was deleted");
 	}
 
     /**
@@ -1101,10 +1045,8 @@ public class Collectd extends AbstractServiceDaemon implements
                 getEventIpcManager().sendNow(ebldr.getEvent());
                 // Updating thresholding visitors to use the new configuration
                 LOG.debug("handleReloadDaemonConfig: Reloading thresholding configuration in collectd");
-                synchronized (m_collectableServices) {
-                    for(CollectableService service: m_collectableServices) {
-                        service.reinitializeThresholding();
-                    }
+                for(CollectableService service: m_collectableServices.getServices()) {
+                    service.reinitializeThresholding();
                 }
                 // Preparing successful event
                 ebldr = new EventBuilder(EventConstants.RELOAD_DAEMON_CONFIG_SUCCESSFUL_UEI, "Collectd");
@@ -1258,33 +1200,14 @@ public class Collectd extends AbstractServiceDaemon implements
             // primary SNMP interface and a service name of "SNMP" for
             // deletion.
             //
-            synchronized (getCollectableServices()) {
-                CollectableService cSvc = null;
-                ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-                while (liter.hasNext()) {
-                    cSvc = liter.next();
-
-                    final InetAddress addr = (InetAddress) cSvc.getAddress();
-                    final String addrString = str(addr);
-					if (addrString != null && addrString.equals(oldPrimaryIfAddr)) {
-                        synchronized (cSvc) {
-                            // Got a match! Retrieve the CollectorUpdates
-                            // object
-                            // associated
-                            // with this CollectableService.
-                            CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                            // Now set the deleted flag
-                            updates.markForDeletion();
-                            LOG.debug("primarySnmpInterfaceChangedHandler: marking {} as deleted for service SNMP.", oldPrimaryIfAddr);
-                        }
-
-                        // Now safe to remove the collectable service from
-                        // the collectable services list
-                        liter.remove();
-                    }
-                }
+            InetAddress oldPrimaryAddr = null;
+            try {
+                oldPrimaryAddr = addr(oldPrimaryIfAddr);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("primarySnmpInterfaceChangedHandler: unable to convert old primary SNMP address {}", oldPrimaryIfAddr);
             }
+            markForDeletion(getCollectableServices().removeInterface(oldPrimaryAddr), "the primary SNMP interface changed");
+            LOG.debug("primarySnmpInterfaceChangedHandler: marking {} as deleted for service SNMP.", oldPrimaryIfAddr);
         }
 
         // Now we can schedule the new service...
@@ -1330,29 +1253,19 @@ public class Collectd extends AbstractServiceDaemon implements
         // address for reinitialization
         //
         OnmsIpInterface iface = null;
-        synchronized (getCollectableServices()) {
-            Iterator<CollectableService> iter = getCollectableServices().iterator();
-            while (iter.hasNext()) {
-                CollectableService cSvc = iter.next();
-        
-                final InetAddress addr = (InetAddress) cSvc.getAddress();
-                final String addrString = str(addr);
-                LOG.debug("Comparing CollectableService ip address = {} and event ip interface = {}", addrString, ipAddress);
-                if (addrString != null && addrString.equals(ipAddress) && cSvc.getNodeId() == nodeid.intValue()) {
-                    synchronized (cSvc) {
-                    	if (iface == null) {
-                            iface = getIpInterface(nodeid.intValue(), ipAddress);
-                    	}
-                        // Got a match! Retrieve the CollectorUpdates object
-                        // associated
-                        // with this CollectableService.
-                        CollectorUpdates updates = cSvc.getCollectorUpdates();
-        
-                        // Now set the reinitialization flag
-                        updates.markForReinitialization(iface);
-                        LOG.debug("reinitializePrimarySnmpInterfaceHandler: marking {} for reinitialization for service SNMP.", ipAddress);
-                    }
-                }
+        for (CollectableService cSvc : getCollectableServices().getServices(nodeid.intValue(), event.getInterfaceAddress())) {
+            synchronized (cSvc) {
+            	if (iface == null) {
+                    iface = getIpInterface(nodeid.intValue(), ipAddress);
+            	}
+                // Got a match! Retrieve the CollectorUpdates object
+                // associated
+                // with this CollectableService.
+                CollectorUpdates updates = cSvc.getCollectorUpdates();
+
+                // Now set the reinitialization flag
+                updates.markForReinitialization(iface);
+                LOG.debug("reinitializePrimarySnmpInterfaceHandler: marking {} for reinitialization for service SNMP.", ipAddress);
             }
         }
     }
@@ -1383,43 +1296,9 @@ public class Collectd extends AbstractServiceDaemon implements
         String ipAddr = event.getInterface();
         String svcName = event.getService();
 
-        // Iterate over the collectable services list and mark any entries
-        // which match the nodeId/ipAddr of the deleted service
-        // for deletion.
-        synchronized (getCollectableServices()) {
-            CollectableService cSvc = null;
-            ListIterator<CollectableService> liter = getCollectableServices().listIterator();
-            while (liter.hasNext()) {
-                cSvc = liter.next();
-
-                // Only interested in entries with matching nodeId, IP address
-                // and service
-                InetAddress addr = (InetAddress) cSvc.getAddress();
-                
-                //WATCH the brackets; there used to be an extra close bracket after the ipAddr comparison which borked this whole expression
-                if (!(cSvc.getNodeId() == nodeId && 
-                        addr.getHostName().equals(ipAddr) && 
-                        cSvc.getServiceName().equals(svcName))) 
-                    continue;
-
-                synchronized (cSvc) {
-                    // Retrieve the CollectorUpdates object associated with
-                    // this CollectableService if one exists.
-                    CollectorUpdates updates = cSvc.getCollectorUpdates();
-
-                    // Now set the update's deletion flag so the next
-                    // time it is selected for execution by the scheduler
-                    // the collection will be skipped and the service will not
-                    // be rescheduled.
-                    LOG.debug("Marking CollectableService for deletion because a service was deleted:  Service nodeid={}, deleted node:{}, service address:{}, deleted interface:{}, service servicename:{}, deleted service name:{}, event source {}", cSvc.getNodeId(), nodeId, addr.getHostName(), ipAddr, cSvc.getServiceName(), svcName, event.getSource());
-                    updates.markForDeletion();
-                }
-
-                // Now safe to remove the collectable service from
-                // the collectable services list
-                liter.remove();
-            }
-        }
+        // Remove the collectable services which match the nodeId/ipAddr
+        // of the deleted service and mark them for deletion.
+        markForDeletion(getCollectableServices().removeService(nodeId.intValue(), event.getInterfaceAddress(), svcName), "a service was deleted (event source " + event.getSource() + ")");
 
         LOG.debug("serviceDeletedHandler: processing of serviceDeleted event for {}/{}/{} completed.", nodeId, ipAddr, svcName);
     }
@@ -206,6 +206,16 @@ public class OnmsSnmpCollection {
         return m_params.getSnmpMaxRepetitions(current);
     }
 
+    /**
+     * <p>getSnmpMaxConcurrentWalks</p>
+     *
+     * @param current a int.
+     * @return a int.
+     */
+    public int getSnmpMaxConcurrentWalks(int current) {
+        return m_params.getSnmpMaxConcurrentWalks(current);
+    }
+
     /**
      * <p>getSnmpMaxRequestSize</p>
      *
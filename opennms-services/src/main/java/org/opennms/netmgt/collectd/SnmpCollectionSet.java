@@ -43,13 +43,13 @@ import org.opennms.netmgt.collection.api.CollectionResource;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.CollectionSetVisitor;
 import org.opennms.netmgt.collection.api.ServiceCollector;
+import org.opennms.netmgt.snmp.AbstractSnmpWalker;
 import org.opennms.netmgt.snmp.AggregateTracker;
 import org.opennms.netmgt.snmp.Collectable;
 import org.opennms.netmgt.snmp.CollectionTracker;
 import org.opennms.netmgt.snmp.SnmpAgentConfig;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpUtils;
-import org.opennms.netmgt.snmp.SnmpWalker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -334,11 +334,12 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     /**
      * <p>createWalker</p>
      *
-     * @return a {@link org.opennms.netmgt.snmp.SnmpWalker} object.
+     * @return a {@link org.opennms.netmgt.snmp.AbstractSnmpWalker} object.
      */
-    protected SnmpWalker createWalker() {
+    protected AbstractSnmpWalker createWalker() {
         CollectionAgent agent = getCollectionAgent();
-        return SnmpUtils.createWalker(getAgentConfig(), "SnmpCollectors for " + agent.getHostAddress(), getTracker());
+        int maxConcurrentWalks = m_snmpCollection.getSnmpMaxConcurrentWalks(Integer.getInteger("org.opennms.netmgt.collectd.SnmpCollector.maxConcurrentWalks", 1));
+        return SnmpUtils.createWalker(getAgentConfig(), "SnmpCollectors for " + agent.getHostAddress(), getTracker(), maxConcurrentWalks);
     }
 
     private void logStartedWalker() {
@@ -355,7 +356,7 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
      * @param walker
      * @throws CollectionWarning
      */
-    void verifySuccessfulWalk(SnmpWalker walker) throws CollectionException {
+    void verifySuccessfulWalk(AbstractSnmpWalker walker) throws CollectionException {
         if (!walker.failed()) {
             return;
         }
@@ -375,7 +376,7 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
         // XXX Should we have a call to hasDataToCollect here?
         try {
             // now collect the data
-            SnmpWalker walker = createWalker();
+            AbstractSnmpWalker walker = createWalker();
             walker.start();
 
             logStartedWalker();
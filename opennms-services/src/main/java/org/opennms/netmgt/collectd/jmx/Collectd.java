@@ -29,7 +29,7 @@
 package org.opennms.netmgt.collectd.jmx;
 
 import java.util.concurrent.ThreadPoolExecutor;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.SchedulerFactory;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 
@@ -125,12 +125,36 @@ public class Collectd extends AbstractSpringContextJmxServiceDaemon<org.opennms.
     public long getCollectableServiceCount() {
         return getDaemon().getCollectableServiceCount();
     }
-    
-    private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+
+    /** {@inheritDoc} */
+    @Override
+    public long getScheduledTasks() {
+        return SchedulerFactory.getScheduled(getDaemon().getScheduler());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulerLag() {
+        return SchedulerFactory.getLag(getDaemon().getScheduler());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulerMaxLag() {
+        return SchedulerFactory.getMaxLag(getDaemon().getScheduler());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulerBacklog() {
+        return SchedulerFactory.getBacklog(getDaemon().getScheduler());
     }
 
+    private ThreadPoolExecutor getExecutor() {
+        return (ThreadPoolExecutor) SchedulerFactory.getRunner(getDaemon().getScheduler());
+    }
+    
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (SchedulerFactory.getRunner(getDaemon().getScheduler()) instanceof ThreadPoolExecutor);
     }
 }
@@ -76,4 +76,24 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of collectable services currently seen by Collectd
      */
     public long getCollectableServiceCount();
+
+    /**
+     * @return The number of tasks currently waiting in the scheduler
+     */
+    public long getScheduledTasks();
+
+    /**
+     * @return How late, in milliseconds, the most recent task was started by the scheduler
+     */
+    public long getSchedulerLag();
+
+    /**
+     * @return The largest scheduler lag, in milliseconds, since startup
+     */
+    public long getSchedulerMaxLag();
+
+    /**
+     * @return The number of tasks that are due but have not been started yet
+     */
+    public long getSchedulerBacklog();
 }
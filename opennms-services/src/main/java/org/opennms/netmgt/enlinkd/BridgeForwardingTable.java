@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Compact, immutable bridge forwarding table of a node.
+ *
+ * Each entry packs the MAC address (48 bits) and the bridge port (16 bits,
+ * the range of dot1dBasePort) into a single long; the entries are kept
+ * sorted, so that all the ports of a MAC address are adjacent and a MAC
+ * address is looked up with a binary search. An ifIndex may be attached to
+ * each entry.
+ */
+final class BridgeForwardingTable {
+
+    static final int NO_IFINDEX = Integer.MIN_VALUE;
+
+    static final BridgeForwardingTable EMPTY = new BridgeForwardingTable(new long[0], null);
+
+    private static final long PORT_MASK = 0xFFFFL;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long[] m_entries;
+
+    /**
+     * null if no entry has an ifIndex
+     */
+    private final int[] m_ifIndexes;
+
+    private BridgeForwardingTable(final long[] entries, final int[] ifIndexes) {
+        m_entries = entries;
+        m_ifIndexes = ifIndexes;
+    }
+
+    /**
+     * Builds the table from the forwarding table collected from a bridge,
+     * keyed by bridge port. Entries that cannot be packed are skipped.
+     */
+    static BridgeForwardingTable fromMap(final Map<Integer, Set<String>> bft) {
+        final Builder builder = new Builder();
+        for (final Entry<Integer, Set<String>> entry : bft.entrySet()) {
+            for (final String mac : entry.getValue()) {
+                builder.add(entry.getKey(), mac, null);
+            }
+        }
+        return builder.build();
+    }
+
+    static boolean isValidEntry(final Integer port, final String mac) {
+        if (port == null || port < 0 || port > PORT_MASK || mac == null || mac.length() != 12) {
+            return false;
+        }
+        for (int i = 0; i < 12; i++) {
+            final char c = mac.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long pack(final int port, final String mac) {
+        return (Long.parseLong(mac, 16) << 16) | port;
+    }
+
+    static String toMacAddress(final long entry) {
+        final char[] mac = new char[12];
+        long value = entry >>> 16;
+        for (int i = 11; i >= 0; i--) {
+            mac[i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return new String(mac);
+    }
+
+    static int toPort(final long entry) {
+        return (int) (entry & PORT_MASK);
+    }
+
+    private static long macKey(final long entry) {
+        return entry & ~PORT_MASK;
+    }
+
+    int size() {
+        return m_entries.length;
+    }
+
+    boolean isEmpty() {
+        return m_entries.length == 0;
+    }
+
+    long getEntry(final int i) {
+        return m_entries[i];
+    }
+
+    int getPort(final int i) {
+        return toPort(m_entries[i]);
+    }
+
+    String getMacAddress(final int i) {
+        return toMacAddress(m_entries[i]);
+    }
+
+    /**
+     * @return the ifIndex of the i-th entry, or null if it has none
+     */
+    Integer getIfIndex(final int i) {
+        return m_ifIndexes == null || m_ifIndexes[i] == NO_IFINDEX ? null : m_ifIndexes[i];
+    }
+
+    /**
+     * @return the position of the entry, or a negative value if it isn't in the table
+     */
+    int indexOf(final long entry) {
+        return Arrays.binarySearch(m_entries, entry);
+    }
+
+    /**
+     * Returns the MAC addresses of the table, in the form of entries
+     * without port, sorted and without duplicates.
+     */
+    long[] getMacKeys() {
+        final long[] keys = new long[m_entries.length];
+        int n = 0;
+        for (final long entry : m_entries) {
+            final long key = macKey(entry);
+            if (n == 0 || keys[n - 1] != key) {
+                keys[n++] = key;
+            }
+        }
+        return n == keys.length ? keys : Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * @param macKeys MAC addresses as returned by {@link #getMacKeys()}
+     * @return true if any MAC address of the table is in the given ones
+     */
+    boolean intersects(final long[] macKeys) {
+        if (m_entries.length == 0 || macKeys.length == 0) {
+            return false;
+        }
+        long last = 0;
+        for (int i = 0; i < m_entries.length; i++) {
+            final long key = macKey(m_entries[i]);
+            if (i > 0 && key == last) {
+                continue;
+            }
+            if (Arrays.binarySearch(macKeys, key) >= 0) {
+                return true;
+            }
+            last = key;
+        }
+        return false;
+    }
+
+    /**
+     * Merges two sorted arrays of MAC addresses as returned by
+     * {@link #getMacKeys()}.
+     */
+    static long[] union(final long[] a, final long[] b) {
+        final long[] union = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            final long next;
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                next = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j++;
+            }
+            union[n++] = next;
+        }
+        return n == union.length ? union : Arrays.copyOf(union, n);
+    }
+
+    /**
+     * @return the table as the bridge port to MAC addresses map used by
+     *         {@link org.opennms.netmgt.model.topology.BridgeTopology}
+     */
+    Map<Integer, Set<String>> toMap() {
+        final Map<Integer, Set<String>> bft = new HashMap<Integer, Set<String>>();
+        for (final long entry : m_entries) {
+            final Integer port = toPort(entry);
+            Set<String> macs = bft.get(port);
+            if (macs == null) {
+                macs = new HashSet<String>();
+                bft.put(port, macs);
+            }
+            macs.add(toMacAddress(entry));
+        }
+        return bft;
+    }
+
+    static final class Builder {
+        private long[] m_entries = new long[16];
+        private int[] m_ifIndexes = new int[16];
+        private int m_size = 0;
+        private boolean m_hasIfIndexes = false;
+
+        /**
+         * Adds an entry, unless it cannot be packed.
+         *
+         * @return false if the entry has been skipped
+         */
+        boolean add(final Integer port, final String mac, final Integer ifIndex) {
+            if (!isValidEntry(port, mac)) {
+                return false;
+            }
+            if (m_size == m_entries.length) {
+                m_entries = Arrays.copyOf(m_entries, m_size * 2);
+                m_ifIndexes = Arrays.copyOf(m_ifIndexes, m_size * 2);
+            }
+            m_entries[m_size] = pack(port, mac);
+            m_ifIndexes[m_size] = ifIndex == null ? NO_IFINDEX : ifIndex;
+            m_hasIfIndexes |= ifIndex != null;
+            m_size++;
+            return true;
+        }
+
+        /**
+         * Sorts the entries; of duplicated entries the last one added is kept.
+         */
+        BridgeForwardingTable build() {
+            if (m_size == 0) {
+                return EMPTY;
+            }
+            if (!m_hasIfIndexes) {
+                // the common case: nothing to carry along with the entries
+                final long[] entries = Arrays.copyOf(m_entries, m_size);
+                Arrays.sort(entries);
+                int n = 0;
+                for (int i = 0; i < entries.length; i++) {
+                    if (n == 0 || entries[n - 1] != entries[i]) {
+                        entries[n++] = entries[i];
+                    }
+                }
+                return new BridgeForwardingTable(n == entries.length ? entries : Arrays.copyOf(entries, n), null);
+            }
+            final Integer[] order = new Integer[m_size];
+            for (int i = 0; i < m_size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer a, final Integer b) {
+                    final int c = Long.compare(m_entries[a], m_entries[b]);
+                    return c != 0 ? c : a.compareTo(b);
+                }
+            });
+            final long[] entries = new long[m_size];
+            final int[] ifIndexes = new int[m_size];
+            int n = 0;
+            for (int i = 0; i < m_size; i++) {
+                final int k = order[i];
+                if (n > 0 && entries[n - 1] == m_entries[k]) {
+                    ifIndexes[n - 1] = m_ifIndexes[k];
+                    continue;
+                }
+                entries[n] = m_entries[k];
+                ifIndexes[n] = m_ifIndexes[k];
+                n++;
+            }
+            return new BridgeForwardingTable(n == m_size ? entries : Arrays.copyOf(entries, n),
+                                             n == m_size ? ifIndexes : Arrays.copyOf(ifIndexes, n));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the bridge forwarding tables saved for each node and splits the
+ * bridges into broadcast domains, so that the topology of a domain is
+ * reconciled without looking at the others.
+ *
+ * Two bridges are in the same domain if their forwarding tables share a MAC
+ * address, directly or through other bridges of the domain. A domain is
+ * locked while it is reconciled, one node at a time in ascending order, so
+ * the reconciliations of independent domains run in parallel while the ones
+ * of the same domain are serialized. The forwarding table collected from the
+ * reconciled node is taken into account too, so that two nodes whose new
+ * tables overlap are never reconciled at the same time.
+ */
+class BridgeTopologyEngine {
+
+    /**
+     * Loads the saved forwarding table of a node.
+     */
+    interface TableLoader {
+        BridgeForwardingTable load(int nodeId);
+    }
+
+    private final ConcurrentMap<Integer, BridgeForwardingTable> m_tables = new ConcurrentHashMap<Integer, BridgeForwardingTable>();
+
+    private final ConcurrentMap<Integer, BridgeForwardingTable> m_collected = new ConcurrentHashMap<Integer, BridgeForwardingTable>();
+
+    private final ConcurrentMap<Integer, ReentrantLock> m_locks = new ConcurrentHashMap<Integer, ReentrantLock>();
+
+    private volatile boolean m_loaded = false;
+
+    boolean isLoaded() {
+        return m_loaded;
+    }
+
+    /**
+     * Adds the given tables, unless a table has been set in the meantime.
+     */
+    void load(final Map<Integer, BridgeForwardingTable> tables) {
+        for (final Entry<Integer, BridgeForwardingTable> entry : tables.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                m_tables.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        m_loaded = true;
+    }
+
+    BridgeForwardingTable getTable(final int nodeId) {
+        final BridgeForwardingTable table = m_tables.get(nodeId);
+        return table == null ? BridgeForwardingTable.EMPTY : table;
+    }
+
+    void setTable(final int nodeId, final BridgeForwardingTable table) {
+        if (table == null || table.isEmpty()) {
+            m_tables.remove(nodeId);
+        } else {
+            m_tables.put(nodeId, table);
+        }
+    }
+
+    void removeNode(final int nodeId) {
+        m_tables.remove(nodeId);
+        m_collected.remove(nodeId);
+    }
+
+    /**
+     * Returns the broadcast domain of the node, made of the node itself, the
+     * given peers and all the nodes sharing a MAC address with them.
+     */
+    SortedSet<Integer> getDomain(final int nodeId, final Collection<Integer> peers) {
+        final SortedSet<Integer> domain = new TreeSet<Integer>();
+        domain.add(nodeId);
+        domain.addAll(peers);
+
+        long[] macs = new long[0];
+        for (final Integer node : domain) {
+            macs = addMacs(macs, node);
+        }
+        final SortedSet<Integer> nodes = new TreeSet<Integer>(m_tables.keySet());
+        nodes.addAll(m_collected.keySet());
+        nodes.removeAll(domain);
+
+        boolean grown = true;
+        while (grown && !nodes.isEmpty()) {
+            grown = false;
+            for (final Iterator<Integer> it = nodes.iterator(); it.hasNext();) {
+                final Integer node = it.next();
+                if (getTable(node).intersects(macs) || getCollected(node).intersects(macs)) {
+                    it.remove();
+                    domain.add(node);
+                    macs = addMacs(macs, node);
+                    grown = true;
+                }
+            }
+        }
+        return domain;
+    }
+
+    /**
+     * Locks the broadcast domain of the node for the reconciliation of the
+     * given collected forwarding table. The saved tables of the domain are
+     * refreshed with the loader, if any, while they are locked.
+     *
+     * @return the locked domain, to be released with {@link #unlockDomain(int, Collection)}
+     */
+    SortedSet<Integer> lockDomain(final int nodeId, final BridgeForwardingTable collected, final Collection<Integer> peers, final TableLoader loader) {
+        m_collected.put(nodeId, collected);
+        final SortedSet<Integer> domain = getDomain(nodeId, peers);
+        while (true) {
+            lock(domain);
+            if (loader != null) {
+                for (final Integer node : domain) {
+                    setTable(node, loader.load(node));
+                }
+            }
+            final SortedSet<Integer> current = getDomain(nodeId, peers);
+            if (domain.containsAll(current)) {
+                domain.removeAll(current);
+                unlock(domain);
+                return current;
+            }
+            // the domain has grown while it was locked
+            unlock(domain);
+            domain.addAll(current);
+        }
+    }
+
+    void unlockDomain(final int nodeId, final Collection<Integer> domain) {
+        m_collected.remove(nodeId);
+        unlock(domain);
+    }
+
+    private BridgeForwardingTable getCollected(final int nodeId) {
+        final BridgeForwardingTable table = m_collected.get(nodeId);
+        return table == null ? BridgeForwardingTable.EMPTY : table;
+    }
+
+    private long[] addMacs(final long[] macs, final int nodeId) {
+        return BridgeForwardingTable.union(BridgeForwardingTable.union(macs, getTable(nodeId).getMacKeys()), getCollected(nodeId).getMacKeys());
+    }
+
+    private void lock(final SortedSet<Integer> nodes) {
+        for (final Integer node : nodes) {
+            ReentrantLock lock = m_locks.get(node);
+            if (lock == null) {
+                final ReentrantLock newLock = new ReentrantLock();
+                lock = m_locks.putIfAbsent(node, newLock);
+                if (lock == null) {
+                    lock = newLock;
+                }
+            }
+            lock.lock();
+        }
+    }
+
+    private void unlock(final Collection<Integer> nodes) {
+        for (final Integer node : nodes) {
+            m_locks.get(node).unlock();
+        }
+    }
+}
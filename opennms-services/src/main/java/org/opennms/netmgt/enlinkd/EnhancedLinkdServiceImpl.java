@@ -36,6 +36,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.core.criteria.Alias;
 import org.opennms.core.criteria.Criteria;
@@ -75,12 +77,22 @@ import org.opennms.netmgt.model.PrimaryType;
 import org.opennms.netmgt.model.topology.BridgeTopology;
 import org.opennms.netmgt.model.topology.BridgeTopology.BridgeTopologyLink;
 import org.opennms.netmgt.model.topology.LinkableSnmpNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 		
-//	private final static Logger LOG = LoggerFactory.getLogger(EnhancedLinkdServiceImpl.class);
+	private final static Logger LOG = LoggerFactory.getLogger(EnhancedLinkdServiceImpl.class);
+
+	/**
+	 * The number of new bridge mac links written to the database at once
+	 */
+	private static final int BRIDGE_MAC_LINK_BATCH_SIZE = 1000;
 
     @Autowired
     private PlatformTransactionManager m_transactionManager;
@@ -113,9 +125,11 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 	
 	private BridgeStpLinkDao m_bridgeStpLinkDao; 
 	
-	volatile Map<Integer,Map<Integer,Set<String>>> m_bftMap = new HashMap<Integer, Map<Integer,Set<String>>>();
+	final Map<Integer,Map<Integer,Set<String>>> m_bftMap = new ConcurrentHashMap<Integer, Map<Integer,Set<String>>>();
+
+	final Map<Integer,Map<Integer,Integer>> m_nodebridgeportifindex = new ConcurrentHashMap<Integer, Map<Integer,Integer>>();
 
-	volatile Map<Integer,Map<Integer,Integer>> m_nodebridgeportifindex = new HashMap<Integer, Map<Integer,Integer>>();
+	private final BridgeTopologyEngine m_bridgeTopologyEngine = new BridgeTopologyEngine();
 
 	private void addBridgePortIfIndexEntry(Integer nodeid,Integer bridgeport, Integer ifindex) {
 		Map<Integer,Integer>bridgeportifindex = new HashMap<Integer, Integer>();
@@ -182,6 +196,9 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 		reconcileOspf(nodeId, now);
 		reconcileIpNetToMedia(nodeId, now);
 		reconcileBridge(nodeId, now);
+		m_bftMap.remove(nodeId);
+		m_nodebridgeportifindex.remove(nodeId);
+		m_bridgeTopologyEngine.removeNode(nodeId);
 	}
 
 	@Override
@@ -574,7 +591,7 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 	}
 
 	@Override
-	public synchronized void reconcileBridge(int nodeId, Date now) {
+	public void reconcileBridge(final int nodeId, Date now) {
 		m_bridgeElementDao.deleteByNodeIdOlderThen(nodeId, now);
 		m_bridgeElementDao.flush();
 
@@ -582,78 +599,143 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 		m_bridgeStpLinkDao.flush();
 		
 		Map<Integer,Integer> bridgeportifindex = m_nodebridgeportifindex.get(nodeId);
+		if (bridgeportifindex == null)
+			bridgeportifindex = new HashMap<Integer, Integer>();
 		Map<Integer,Set<String>> bft = m_bftMap.remove(nodeId);
 		if (bft == null || bft.isEmpty())
 			return;
-		Set<String> macs = new HashSet<String>();
-		for (Set<String> portmacs: bft.values()) 
-			macs.addAll(portmacs);
-		
-		Map<Integer,Map<Integer,Set<String>>> savedtopology = new HashMap<Integer, Map<Integer,Set<String>>>();
-		for (BridgeMacLink maclink: m_bridgeMacLinkDao.findAll()) {
-			if (maclink.getNode().getId().intValue() == nodeId)
-				continue;
-			Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
-			if (savedtopology.containsKey(maclink.getNode().getId())) 
-				nodesavedtopology = savedtopology.get(maclink.getNode().getId());
-			Set<String> macsonport = new HashSet<String>();
-			if (nodesavedtopology.containsKey(maclink.getBridgePort()))
-				macsonport = nodesavedtopology.get(maclink.getBridgePort());
-			macsonport.add(maclink.getMacAddress());
-			nodesavedtopology.put(maclink.getBridgePort(), macsonport);
-			savedtopology.put(maclink.getNode().getId(), nodesavedtopology);
-		}
-		
-		BridgeTopology topology = new BridgeTopology();
-		Set<Integer> targets = new HashSet<Integer>();
-		targets.add(nodeId);
-		for (BridgeBridgeLink bblink: m_bridgeBridgeLinkDao.findByNodeId(nodeId)) {
-			Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
-			nodesavedtopology.put(bblink.getDesignatedPort(), new HashSet<String>());
-			topology.addTopology(bblink.getDesignatedNode().getId(), nodesavedtopology, targets);
-		}
-		for (BridgeBridgeLink bblink: m_bridgeBridgeLinkDao.findByDesignatedNodeId(nodeId)) {
-			Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
-			nodesavedtopology.put(bblink.getBridgePort(), new HashSet<String>());
-			topology.addTopology(bblink.getNode().getId(), nodesavedtopology, targets);
-		}
-		for (Integer savednode: savedtopology.keySet()) {
-			topology.parseBFT(savednode, savedtopology.get(savednode));
+
+		loadBridgeTopology();
+
+		List<BridgeBridgeLink> bblinks = m_bridgeBridgeLinkDao.findByNodeId(nodeId);
+		List<BridgeBridgeLink> designatedbblinks = m_bridgeBridgeLinkDao.findByDesignatedNodeId(nodeId);
+		Set<Integer> peers = new HashSet<Integer>();
+		for (BridgeBridgeLink bblink: bblinks)
+			peers.add(bblink.getDesignatedNode().getId());
+		for (BridgeBridgeLink bblink: designatedbblinks)
+			peers.add(bblink.getNode().getId());
+
+		// only the broadcast domain of the node is reconciled, with the links
+		// saved for its nodes
+		final Map<Integer,List<BridgeMacLink>> savedlinks = new HashMap<Integer, List<BridgeMacLink>>();
+		final SortedSet<Integer> domain = m_bridgeTopologyEngine.lockDomain(nodeId, BridgeForwardingTable.fromMap(bft), peers, new BridgeTopologyEngine.TableLoader() {
+			@Override
+			public BridgeForwardingTable load(int curNodeId) {
+				List<BridgeMacLink> maclinks = m_bridgeMacLinkDao.findByNodeId(curNodeId);
+				savedlinks.put(curNodeId, maclinks);
+				return getBridgeForwardingTable(curNodeId, maclinks);
+			}
+		});
+		try {
+			LOG.debug("reconcileBridge: node {}: broadcast domain {}", nodeId, domain);
+			BridgeTopology topology = new BridgeTopology();
+			Set<Integer> targets = new HashSet<Integer>();
+			targets.add(nodeId);
+			for (BridgeBridgeLink bblink: bblinks) {
+				Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
+				nodesavedtopology.put(bblink.getDesignatedPort(), new HashSet<String>());
+				topology.addTopology(bblink.getDesignatedNode().getId(), nodesavedtopology, targets);
+			}
+			for (BridgeBridgeLink bblink: designatedbblinks) {
+				Map<Integer,Set<String>> nodesavedtopology = new HashMap<Integer, Set<String>>();
+				nodesavedtopology.put(bblink.getBridgePort(), new HashSet<String>());
+				topology.addTopology(bblink.getNode().getId(), nodesavedtopology, targets);
+			}
+			for (Integer savednode: domain) {
+				if (savednode.intValue() == nodeId)
+					continue;
+				BridgeForwardingTable savedbft = m_bridgeTopologyEngine.getTable(savednode);
+				if (!savedbft.isEmpty())
+					topology.parseBFT(savednode, savedbft.toMap());
+			}
+			topology.parseBFT(nodeId, bft);
+
+			// now check the topology with the old one
+			// and save the changes only
+			Map<Integer,OnmsNode> nodes = new HashMap<Integer, OnmsNode>();
+			Map<Integer,BridgeForwardingTable.Builder> maclinks = new HashMap<Integer, BridgeForwardingTable.Builder>();
+			List<BridgeBridgeLink> links = new ArrayList<BridgeBridgeLink>();
+			for (BridgeTopologyLink btl: topology.getTopology()) {
+				addLink(btl, nodeId, bridgeportifindex, nodes, maclinks, links);
+			}
+			saveBridgeMacLinks(domain, savedlinks, maclinks, nodes);
+			for (BridgeBridgeLink link: links) {
+				saveBridgeBridgeLink(link);
+			}
+
+			// What about bridge bridge topology
+			// The changes could only be regarding the nodeId
+			m_bridgeBridgeLinkDao.deleteByNodeIdOlderThen(nodeId, now);
+			m_bridgeBridgeLinkDao.deleteByDesignatedNodeIdOlderThen(nodeId, now);
+			m_bridgeBridgeLinkDao.flush();
+		} finally {
+			m_bridgeTopologyEngine.unlockDomain(nodeId, domain);
 		}
-		topology.parseBFT(nodeId, bft);
+	}
 
-		// now check the topology with the old one
-		// delete the not found links
-		for (BridgeTopologyLink btl: topology.getTopology()) {
-			saveLink(btl, nodeId, bridgeportifindex);
+	/**
+	 * Loads the saved bridge forwarding tables of all nodes, the first time
+	 * a bridge is reconciled.
+	 */
+	private void loadBridgeTopology() {
+		if (m_bridgeTopologyEngine.isLoaded())
+			return;
+		synchronized (m_bridgeTopologyEngine) {
+			if (m_bridgeTopologyEngine.isLoaded())
+				return;
+			Map<Integer,List<BridgeMacLink>> savedlinks = new HashMap<Integer, List<BridgeMacLink>>();
+			for (BridgeMacLink maclink: m_bridgeMacLinkDao.findAll()) {
+				List<BridgeMacLink> nodelinks = savedlinks.get(maclink.getNode().getId());
+				if (nodelinks == null) {
+					nodelinks = new ArrayList<BridgeMacLink>();
+					savedlinks.put(maclink.getNode().getId(), nodelinks);
+				}
+				nodelinks.add(maclink);
+			}
+			Map<Integer,BridgeForwardingTable> tables = new HashMap<Integer, BridgeForwardingTable>();
+			for (Integer curNodeId: savedlinks.keySet()) {
+				tables.put(curNodeId, getBridgeForwardingTable(curNodeId, savedlinks.get(curNodeId)));
+			}
+			m_bridgeTopologyEngine.load(tables);
+			LOG.info("loadBridgeTopology: loaded the bridge forwarding tables of {} nodes", tables.size());
 		}
-		
-		for (Integer curNodeId: savedtopology.keySet()) {
-			m_bridgeMacLinkDao.deleteByNodeIdOlderThen(curNodeId, now);
+	}
+
+	private static BridgeForwardingTable getBridgeForwardingTable(int nodeId, List<BridgeMacLink> maclinks) {
+		BridgeForwardingTable.Builder builder = new BridgeForwardingTable.Builder();
+		for (BridgeMacLink maclink: maclinks) {
+			if (!builder.add(maclink.getBridgePort(), maclink.getMacAddress(), null))
+				LOG.warn("getBridgeForwardingTable: node {}: skipping invalid bridge port {} mac {}", nodeId, maclink.getBridgePort(), maclink.getMacAddress());
 		}
-		m_bridgeMacLinkDao.deleteByNodeIdOlderThen(nodeId, now);
-		m_bridgeMacLinkDao.flush();
+		return builder.build();
+	}
 
-		// What about bridge bridge topology
-		// The changes could only be regarding the nodeId
-		m_bridgeBridgeLinkDao.deleteByNodeIdOlderThen(nodeId, now);
-		m_bridgeBridgeLinkDao.deleteByDesignatedNodeIdOlderThen(nodeId, now);
-		m_bridgeBridgeLinkDao.flush();
+	private OnmsNode getNode(Integer nodeId, Map<Integer,OnmsNode> nodes) {
+		if (!nodes.containsKey(nodeId))
+			nodes.put(nodeId, m_nodeDao.get(nodeId));
+		return nodes.get(nodeId);
+	}
 
+	private static void addMacLink(Map<Integer,BridgeForwardingTable.Builder> maclinks, Integer nodeId, Integer bridgePort, String mac, Integer bridgePortIfIndex) {
+		BridgeForwardingTable.Builder builder = maclinks.get(nodeId);
+		if (builder == null) {
+			builder = new BridgeForwardingTable.Builder();
+			maclinks.put(nodeId, builder);
+		}
+		if (!builder.add(bridgePort, mac, bridgePortIfIndex))
+			LOG.warn("addMacLink: node {}: skipping invalid bridge port {} mac {}", nodeId, bridgePort, mac);
 	}
-	
-	protected void saveLink(final BridgeTopologyLink bridgelink, Integer nodeId, Map<Integer,Integer> bridgeportIfIndex) {
+
+	protected void addLink(final BridgeTopologyLink bridgelink, Integer nodeId, Map<Integer,Integer> bridgeportIfIndex, Map<Integer,OnmsNode> nodes, Map<Integer,BridgeForwardingTable.Builder> maclinks, List<BridgeBridgeLink> bblinks) {
 		if (bridgelink == null)
 			return;
-		if (bridgeportIfIndex == null)
-			return;
 		
-		OnmsNode node = m_nodeDao.get(bridgelink.getBridgeTopologyPort().getNodeid());
+		OnmsNode node = getNode(bridgelink.getBridgeTopologyPort().getNodeid(), nodes);
 		if (node == null)
 			return;
 		OnmsNode designatenode = null;
 		if (bridgelink.getDesignateBridgePort() != null) {
-			designatenode = m_nodeDao.get(bridgelink.getDesignateBridgePort().getNodeid());
+			designatenode = getNode(bridgelink.getDesignateBridgePort().getNodeid(), nodes);
 		}
 		if (bridgelink.getMacs().isEmpty() && designatenode != null) {
 			BridgeBridgeLink link = new BridgeBridgeLink();
@@ -667,60 +749,98 @@ public class EnhancedLinkdServiceImpl implements EnhancedLinkdService {
 			if (designatenode.getId().intValue() == nodeId.intValue() && bridgeportIfIndex.containsKey(bridgelink.getDesignateBridgePort().getBridgePort())) {
 				link.setDesignatedPortIfIndex(bridgeportIfIndex.get(bridgelink.getDesignateBridgePort().getBridgePort()));
 			}
-			saveBridgeBridgeLink(link);
+			bblinks.add(link);
 			return;
 		} 
 		for (String mac: bridgelink.getMacs()) {
-			BridgeMacLink maclink1 = new BridgeMacLink();
-			maclink1.setNode(node);
-			maclink1.setBridgePort(bridgelink.getBridgeTopologyPort().getBridgePort());
-			if (node.getId().intValue() == nodeId.intValue() && bridgelink.getBridgeTopologyPort() != null && bridgeportIfIndex.containsKey(bridgelink.getBridgeTopologyPort().getBridgePort())) {
-				maclink1.setBridgePortIfIndex(bridgeportIfIndex.get(bridgelink.getBridgeTopologyPort().getBridgePort()));
-			}
-			maclink1.setMacAddress(mac);
-			saveBridgeMacLink(maclink1);
+			Integer ifindex1 = null;
+			if (node.getId().intValue() == nodeId.intValue() && bridgeportIfIndex.containsKey(bridgelink.getBridgeTopologyPort().getBridgePort())) {
+				ifindex1 = bridgeportIfIndex.get(bridgelink.getBridgeTopologyPort().getBridgePort());
+			}
+			addMacLink(maclinks, node.getId(), bridgelink.getBridgeTopologyPort().getBridgePort(), mac, ifindex1);
 			if (designatenode == null)
 				continue;
-			BridgeMacLink maclink2 = new BridgeMacLink();
-			maclink2.setNode(designatenode);
-			maclink2.setBridgePort(bridgelink.getDesignateBridgePort().getBridgePort());
-			if (designatenode.getId().intValue() == nodeId.intValue() && bridgelink.getDesignateBridgePort() != null && bridgeportIfIndex.containsKey(bridgelink.getDesignateBridgePort().getBridgePort())) {
-				maclink2.setBridgePortIfIndex(bridgeportIfIndex.get(bridgelink.getDesignateBridgePort().getBridgePort()));
-			}
-			maclink2.setMacAddress(mac);
-			saveBridgeMacLink(maclink2);
+			Integer ifindex2 = null;
+			if (designatenode.getId().intValue() == nodeId.intValue() && bridgeportIfIndex.containsKey(bridgelink.getDesignateBridgePort().getBridgePort())) {
+				ifindex2 = bridgeportIfIndex.get(bridgelink.getDesignateBridgePort().getBridgePort());
+			}
+			addMacLink(maclinks, designatenode.getId(), bridgelink.getDesignateBridgePort().getBridgePort(), mac, ifindex2);
 		}
 	}
 
-	@Transactional
-    protected void saveBridgeMacLink(final BridgeMacLink saveMe) {
-		new UpsertTemplate<BridgeMacLink, BridgeMacLinkDao>(m_transactionManager,m_bridgeMacLinkDao) {
+	/**
+	 * Brings the saved bridge mac links of the nodes of the domain to the
+	 * given ones, inserting, updating and deleting only the links that
+	 * changed, in a single transaction. The last poll time of the links that
+	 * didn't change is refreshed with one update per node.
+	 */
+	protected void saveBridgeMacLinks(final Set<Integer> domain, final Map<Integer,List<BridgeMacLink>> savedlinks, final Map<Integer,BridgeForwardingTable.Builder> maclinks, final Map<Integer,OnmsNode> nodes) {
+		final Map<Integer,BridgeForwardingTable> tables = new HashMap<Integer, BridgeForwardingTable>();
+		for (Integer curNodeId: domain) {
+			BridgeForwardingTable.Builder builder = maclinks.get(curNodeId);
+			tables.put(curNodeId, builder == null ? BridgeForwardingTable.EMPTY : builder.build());
+		}
 
+		new TransactionTemplate(m_transactionManager).execute(new TransactionCallbackWithoutResult() {
 			@Override
-			protected BridgeMacLink query() {
-				return m_dao.getByNodeIdBridgePortMac(saveMe.getNode().getId(),saveMe.getBridgePort(),saveMe.getMacAddress());
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				final Date now = new Date();
+				int inserted = 0, updated = 0, deleted = 0, polled = 0;
+				for (Integer curNodeId: domain) {
+					BridgeForwardingTable table = tables.get(curNodeId);
+					boolean[] saved = new boolean[table.size()];
+					List<BridgeMacLink> curlinks = savedlinks.get(curNodeId);
+					if (curlinks == null)
+						curlinks = m_bridgeMacLinkDao.findByNodeId(curNodeId);
+					for (BridgeMacLink maclink: curlinks) {
+						int i = -1;
+						if (BridgeForwardingTable.isValidEntry(maclink.getBridgePort(), maclink.getMacAddress()))
+							i = table.indexOf(BridgeForwardingTable.pack(maclink.getBridgePort(), maclink.getMacAddress()));
+						if (i < 0 || saved[i]) {
+							m_bridgeMacLinkDao.delete(maclink);
+							deleted++;
+							continue;
+						}
+						saved[i] = true;
+						Integer ifindex = table.getIfIndex(i);
+						if ((ifindex == null ? maclink.getBridgePortIfIndex() != null : !ifindex.equals(maclink.getBridgePortIfIndex()))
+								|| maclink.getBridgePortIfName() != null || maclink.getVlan() != null) {
+							maclink.setBridgePortIfIndex(ifindex);
+							maclink.setBridgePortIfName(null);
+							maclink.setVlan(null);
+							maclink.setBridgeMacLinkLastPollTime(now);
+							m_bridgeMacLinkDao.update(maclink);
+							updated++;
+						}
+					}
+					for (int i = 0; i < table.size(); i++) {
+						if (saved[i])
+							continue;
+						BridgeMacLink maclink = new BridgeMacLink();
+						maclink.setNode(nodes.get(curNodeId));
+						maclink.setBridgePort(table.getPort(i));
+						maclink.setMacAddress(table.getMacAddress(i));
+						maclink.setBridgePortIfIndex(table.getIfIndex(i));
+						maclink.setBridgeMacLinkLastPollTime(maclink.getBridgeMacLinkCreateTime());
+						m_bridgeMacLinkDao.save(maclink);
+						if (++inserted % BRIDGE_MAC_LINK_BATCH_SIZE == 0)
+							m_bridgeMacLinkDao.flush();
+					}
+				}
+				m_bridgeMacLinkDao.flush();
+				// the links that didn't change were still seen by this poll
+				for (Integer curNodeId: domain) {
+					polled += m_bridgeMacLinkDao.updateLastPollTimeByNodeIdOlderThen(curNodeId, now);
+				}
+				LOG.debug("saveBridgeMacLinks: domain {}: {} links inserted, {} updated, {} deleted, {} unchanged", domain, inserted, updated, deleted, polled);
 			}
+		});
 
-			@Override
-			protected BridgeMacLink doUpdate(BridgeMacLink link) {
-				link.merge(saveMe);
-				m_dao.update(link);
-				m_dao.flush();
-				return link;
-			}
-
-			@Override
-			protected BridgeMacLink doInsert() {
-				saveMe.setBridgeMacLinkLastPollTime(saveMe.getBridgeMacLinkCreateTime());
-				m_dao.saveOrUpdate(saveMe);
-				m_dao.flush();
-				return saveMe;
-			}
-			
-		}.execute();
+		for (Integer curNodeId: domain) {
+			m_bridgeTopologyEngine.setTable(curNodeId, tables.get(curNodeId));
+		}
 	}
 
-	
 	@Transactional
     protected void saveBridgeBridgeLink(final BridgeBridgeLink saveMe) {
 		new UpsertTemplate<BridgeBridgeLink, BridgeBridgeLinkDao>(m_transactionManager,m_bridgeBridgeLinkDao) {
@@ -170,6 +170,9 @@ public final class BroadcastEventProcessor implements EventListener {
     public void onEvent(Event event) {
         if (event == null) return;
 
+        // Changes to the inventory invalidate the results of the notification filter rules
+        m_notificationManager.invalidateRuleMatches(event);
+
         if (isReloadConfigEvent(event)) {
             LOG.info("onEvent: handling reload configuration event...");
             EventBuilder ebldr = null;
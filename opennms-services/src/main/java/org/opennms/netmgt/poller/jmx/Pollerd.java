@@ -31,7 +31,7 @@ package org.opennms.netmgt.poller.jmx;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.SchedulerFactory;
 
 /**
  * <p>Pollerd class.</p>
@@ -121,12 +121,35 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
         }
     }
 
-    
+    /** {@inheritDoc} */
+    @Override
+    public long getScheduledTasks() {
+        return SchedulerFactory.getScheduled(getDaemon().getScheduler());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulerLag() {
+        return SchedulerFactory.getLag(getDaemon().getScheduler());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulerMaxLag() {
+        return SchedulerFactory.getMaxLag(getDaemon().getScheduler());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSchedulerBacklog() {
+        return SchedulerFactory.getBacklog(getDaemon().getScheduler());
+    }
+
     private ThreadPoolExecutor getExecutor() {
-        return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
+        return (ThreadPoolExecutor) SchedulerFactory.getRunner(getDaemon().getScheduler());
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (SchedulerFactory.getRunner(getDaemon().getScheduler()) instanceof ThreadPoolExecutor);
     }
 }
@@ -74,4 +74,24 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The maximum number of threads allowed in the poller's thread pool
      */
     public long getMaxPoolThreads();
+
+    /**
+     * @return The number of tasks currently waiting in the scheduler
+     */
+    public long getScheduledTasks();
+
+    /**
+     * @return How late, in milliseconds, the most recent task was started by the scheduler
+     */
+    public long getSchedulerLag();
+
+    /**
+     * @return The largest scheduler lag, in milliseconds, since startup
+     */
+    public long getSchedulerMaxLag();
+
+    /**
+     * @return The number of tasks that are due but have not been started yet
+     */
+    public long getSchedulerBacklog();
 }
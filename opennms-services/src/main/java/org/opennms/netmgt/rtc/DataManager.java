@@ -39,7 +39,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -49,6 +48,7 @@ import org.opennms.netmgt.dao.api.MonitoredServiceDao;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.filter.api.FilterDao;
 import org.opennms.netmgt.filter.api.FilterParseException;
+import org.opennms.netmgt.rtc.datablock.CategoryAvailability;
 import org.opennms.netmgt.rtc.datablock.RTCCategory;
 import org.opennms.netmgt.rtc.datablock.RTCHashMap;
 import org.opennms.netmgt.rtc.datablock.RTCNode;
@@ -78,6 +78,13 @@ import org.springframework.transaction.support.TransactionTemplate;
  * 'nodeGainedService' event would result in the 'nodeGainedService()' method
  * being called by the DataUpdater(s).
  *
+ * Outages are applied while holding the monitor of the affected 'RTCNode'
+ * only, and each category keeps a 'CategoryAvailability' that is updated
+ * with them, so the value of a category is read without locking and without
+ * visiting its services. Changes to the structure of the map and the
+ * categories (rescans, deleted services, reparented interfaces) are still
+ * serialized on the DataManager.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -178,12 +185,17 @@ public class DataManager implements AvailabilityService, InitializingBean {
      */
     private Map<String, RTCCategory> m_categories;
 
+    /**
+     * The down time of the services of each category, keyed by category label
+     */
+    private Map<String, CategoryAvailability> m_availability;
+
     /**
      * map keyed using the RTCNodeKey or node ID or node ID/IP address
      */
     private RTCHashMap m_map;
 
-	private static void addOutageToRTCNode(RTCNode rtcN, Timestamp lostTimeTS, Timestamp regainedTimeTS) {
+	private void addOutageToRTCNode(RTCNode rtcN, Timestamp lostTimeTS, Timestamp regainedTimeTS) {
 		if (lostTimeTS == null) return;
 		long lostTime = lostTimeTS.getTime();
 		long regainedTime = -1;
@@ -194,17 +206,27 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
 		LOG.debug("regained time for nodeid/ip/svc: {}/{}/{}: {}/{}", rtcN.getNodeID(), rtcN.getIP(), rtcN.getSvcName(), regainedTimeTS, regainedTime);
 
-		rtcN.addSvcTime(lostTime, regainedTime);
+		synchronized (rtcN) {
+			if (rtcN.addSvcTime(lostTime, regainedTime)) {
+				for (String catLabel : rtcN.getCategories()) {
+					m_availability.get(catLabel).outageAdded(lostTime, regainedTime);
+				}
+			}
+		}
 	}
 
 	private void addRTCNode(RTCNode rtcN) {
 		m_map.add(rtcN);
 	}
 
-	private static void addNodeToCategory(RTCCategory cat, RTCNode rtcN) {
+	private void addNodeToCategory(RTCCategory cat, RTCNode rtcN) {
 
-		// add the category info to the node
-        rtcN.addCategory(cat.getLabel());
+		// add the category info to the node, along with its outages
+		synchronized (rtcN) {
+			if (rtcN.addCategory(cat.getLabel())) {
+				m_availability.get(cat.getLabel()).addService(rtcN.getSvcTimes());
+			}
+		}
 
 		// Add node to category
 		cat.addNode(rtcN);
@@ -212,6 +234,40 @@ public class DataManager implements AvailabilityService, InitializingBean {
 		LOG.debug("rtcN : {}/{}/{} added to cat: {}", rtcN.getNodeID(), rtcN.getIP(), rtcN.getSvcName(), cat.getLabel());
 	}
 
+	/**
+	 * Remove the node from all of its categories, along with its outages.
+	 */
+	private void removeNodeFromCategories(RTCNode rtcN) {
+		synchronized (rtcN) {
+			for (String catLabel : rtcN.getCategories()) {
+				if (rtcN.removeCategory(catLabel)) {
+					m_availability.get(catLabel).removeService(rtcN.getSvcTimes());
+				}
+			}
+		}
+	}
+
+	private void lostService(RTCNode rtcN, long t) {
+		synchronized (rtcN) {
+			if (rtcN.nodeLostService(t)) {
+				for (String catLabel : rtcN.getCategories()) {
+					m_availability.get(catLabel).outageAdded(t, -1);
+				}
+			}
+		}
+	}
+
+	private void regainedService(RTCNode rtcN, long t) {
+		synchronized (rtcN) {
+			long lostTime = rtcN.nodeRegainedService(t);
+			if (lostTime >= 0) {
+				for (String catLabel : rtcN.getCategories()) {
+					m_availability.get(catLabel).outageClosed(lostTime, t);
+				}
+			}
+		}
+	}
+
     /**
      * Populates nodes from the database. For each category in the categories
      * list, this reads the services and outage tables to get the initial data,
@@ -311,6 +367,11 @@ public class DataManager implements AvailabilityService, InitializingBean {
 
     	LOG.debug("Number of categories read: {}", m_categories.size());
 
+    	m_availability = new HashMap<String, CategoryAvailability>();
+    	for (String catLabel : m_categories.keySet()) {
+    		m_availability.put(catLabel, new CategoryAvailability(m_configFactory.getRollingWindow()));
+    	}
+
     	// create data holder
     	m_map = new RTCHashMap(30000);
 
@@ -404,7 +465,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was lost
      */
-    public synchronized void nodeLostService(int nodeid, InetAddress ip, String svcName, long t) {
+    public void nodeLostService(int nodeid, InetAddress ip, String svcName, long t) {
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
         RTCNode rtcN = m_map.getRTCNode(key);
         if (rtcN == null) {
@@ -414,7 +475,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
         }
 
         // inform node
-        rtcN.nodeLostService(t);
+        lostService(rtcN, t);
 
     }
 
@@ -428,9 +489,9 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was lost
      */
-    public synchronized void interfaceDown(int nodeid, InetAddress ip, long t) {
+    public void interfaceDown(int nodeid, InetAddress ip, long t) {
         for (RTCNode rtcN : (List<RTCNode>) m_map.getRTCNodes(nodeid, ip)) {
-            rtcN.nodeLostService(t);
+            lostService(rtcN, t);
         }
     }
 
@@ -442,9 +503,9 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was lost
      */
-    public synchronized void nodeDown(int nodeid, long t) {
+    public void nodeDown(int nodeid, long t) {
     	for (RTCNode rtcN : (List<RTCNode>) m_map.getRTCNodes(nodeid)) {
-            rtcN.nodeLostService(t);
+            lostService(rtcN, t);
         }
     }
 
@@ -456,9 +517,9 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was regained
      */
-    public synchronized void nodeUp(int nodeid, long t) {
+    public void nodeUp(int nodeid, long t) {
     	for (RTCNode rtcN : (List<RTCNode>) m_map.getRTCNodes(nodeid)) {
-            rtcN.nodeRegainedService(t);
+            regainedService(rtcN, t);
         }
     }
 
@@ -472,9 +533,9 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was regained
      */
-    public synchronized void interfaceUp(int nodeid, InetAddress ip, long t) {
+    public void interfaceUp(int nodeid, InetAddress ip, long t) {
         for (RTCNode rtcN : (List<RTCNode>) m_map.getRTCNodes(nodeid, ip)) {
-            rtcN.nodeRegainedService(t);
+            regainedService(rtcN, t);
         }
     }
 
@@ -490,7 +551,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was regained
      */
-    public synchronized void nodeRegainedService(int nodeid, InetAddress ip, String svcName, long t) {
+    public void nodeRegainedService(int nodeid, InetAddress ip, String svcName, long t) {
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
         RTCNode rtcN = m_map.getRTCNode(key);
         if (rtcN == null) {
@@ -500,7 +561,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
         }
 
         // inform node
-        rtcN.nodeRegainedService(t);
+        regainedService(rtcN, t);
     }
 
     /**
@@ -529,30 +590,22 @@ public class DataManager implements AvailabilityService, InitializingBean {
         // Go through from all the categories this node belongs to
         // and delete the service
         //
-        List<String> categories = rtcN.getCategories();
-        ListIterator<String> catIter = categories.listIterator();
-        while (catIter.hasNext()) {
-            String catlabel = (String) catIter.next();
-
+        for (String catlabel : rtcN.getCategories()) {
             RTCCategory cat = (RTCCategory) m_categories.get(catlabel);
 
-            // get nodes in this category
-            List<Integer> catNodes = cat.getNodes();
-
             // check if the category contains this node
-            int nIndex = catNodes.indexOf(rtcN.getNodeID());
-            if (nIndex != -1) {
+            if (cat.getNodes().contains(rtcN.getNodeID())) {
                 // remove from the category if it is the only service left.
                 if (m_map.getServiceCount(nodeid, catlabel) == 1) {
-                    catNodes.remove(nIndex);
+                    cat.deleteNode(rtcN.getNodeID());
                     LOG.info("Removing node from category: {}", catlabel);
                 }
-
-                // let the node know that this category is out
-                catIter.remove();
             }
         }
 
+        // let the node know that its categories are out
+        removeNodeFromCategories(rtcN);
+
         // finally remove from map
         
         m_map.delete(rtcN);
@@ -621,7 +674,10 @@ public class DataManager implements AvailabilityService, InitializingBean {
     	for (RTCCategory cat : m_categories.values()) {
 			cat.deleteNode(nodeid);
 		}
-    	
+
+    	for (RTCNode rtcN : m_map.getRTCNodes(nodeid)) {
+    		removeNodeFromCategories(rtcN);
+    	}
     	m_map.deleteNode(nodeid);
     	
     	populateNodesFromDB("ifsvc.nodeid = ?", new Object[] { Long.valueOf(nodeid) });
@@ -686,7 +742,12 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *         starting at current time
      */
     @Override
-    public synchronized double getValue(RTCCategory category, long curTime, long rollingWindow) {
+    public double getValue(RTCCategory category, long curTime, long rollingWindow) {
+        CategoryAvailability availability = m_availability.get(category.getLabel());
+        if (availability != null && availability.getRollingWindow() == rollingWindow) {
+            return availability.getValue(curTime);
+        }
+        // the aggregates only cover the configured window
         return m_map.getValue(category.getLabel(), curTime, rollingWindow);
     }
 
@@ -706,7 +767,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *         starting at current time in the context of the passed category
      */
     @Override
-    public synchronized double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
+    public double getValue(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
         return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
     }
 
@@ -722,7 +783,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *         category
      */
     @Override
-    public synchronized int getServiceCount(int nodeid, RTCCategory category) {
+    public int getServiceCount(int nodeid, RTCCategory category) {
         return m_map.getServiceCount(nodeid, category.getLabel());
     }
 
@@ -738,7 +799,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *         passed category
      */
     @Override
-    public synchronized int getServiceDownCount(int nodeid, RTCCategory category) {
+    public int getServiceDownCount(int nodeid, RTCCategory category) {
         return m_map.getServiceDownCount(nodeid, category.getLabel());
     }
 
@@ -748,7 +809,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @return the categories
      */
     @Override
-    public synchronized Map<String, RTCCategory> getCategories() {
+    public Map<String, RTCCategory> getCategories() {
         return m_categories;
     }
 
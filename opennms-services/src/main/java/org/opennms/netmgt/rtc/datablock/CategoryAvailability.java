@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.opennms.netmgt.rtc.RTCUtils;
+
+/**
+ * The down time of the services of a category over the rolling window,
+ * maintained incrementally as outages are opened and closed.
+ * <p>
+ * The rolling window is split into fixed time buckets held in a ring. Each
+ * bucket holds the down time of the closed outages that fell in it, along
+ * with the number of open outages that began in it and the sum of their
+ * lost times. The value of the category is computed from the buckets alone,
+ * so it doesn't depend on the number of services or outages.
+ * </p>
+ * <p>
+ * Updates are serialized on this object and publish a new copy of the
+ * buckets they change, so that {@link #getValue(long)} never waits, even
+ * during an outage storm. The buckets are copied in small chunks so that an
+ * update only copies a few of them. The only approximation is for the bucket that straddles the
+ * start of the window, whose closed down time is counted in proportion to
+ * the part of the bucket that is within the window.
+ * </p>
+ */
+public class CategoryAvailability {
+
+    /**
+     * The number of buckets the rolling window is split into.
+     */
+    private static final int BUCKETS_PER_WINDOW = 1440;
+
+    /**
+     * The number of buckets that are copied together.
+     */
+    private static final int CHUNK_SIZE = 32;
+
+    private static final long NO_BUCKET = Long.MIN_VALUE;
+
+    private static final class Chunk {
+        private final long[] m_epochs;
+        private final long[] m_closedDownTime;
+        private final long[] m_openCount;
+        private final long[] m_openLostTimeSum;
+
+        private Chunk() {
+            m_epochs = new long[CHUNK_SIZE];
+            Arrays.fill(m_epochs, NO_BUCKET);
+            m_closedDownTime = new long[CHUNK_SIZE];
+            m_openCount = new long[CHUNK_SIZE];
+            m_openLostTimeSum = new long[CHUNK_SIZE];
+        }
+
+        private Chunk(final Chunk chunk) {
+            m_epochs = chunk.m_epochs.clone();
+            m_closedDownTime = chunk.m_closedDownTime.clone();
+            m_openCount = chunk.m_openCount.clone();
+            m_openLostTimeSum = chunk.m_openLostTimeSum.clone();
+        }
+    }
+
+    private static final class State {
+        private int m_serviceCount;
+
+        /**
+         * The most recent bucket, all of the buckets in the ring are more
+         * recent than m_head minus the number of buckets
+         */
+        private long m_head;
+
+        /**
+         * Open outages that began before the oldest bucket in the ring
+         */
+        private long m_oldOpenCount;
+
+        private final Chunk[] m_chunks;
+
+        /**
+         * The chunks that have already been copied by the update that is
+         * building this state
+         */
+        private final boolean[] m_copied;
+
+        private State(final int numChunks, final long head) {
+            m_head = head;
+            m_chunks = new Chunk[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                m_chunks[i] = new Chunk();
+            }
+            m_copied = new boolean[numChunks];
+        }
+
+        private State(final State state) {
+            m_serviceCount = state.m_serviceCount;
+            m_head = state.m_head;
+            m_oldOpenCount = state.m_oldOpenCount;
+            m_chunks = state.m_chunks.clone();
+            m_copied = new boolean[m_chunks.length];
+        }
+
+        private Chunk getChunkForUpdate(final int slot) {
+            final int index = slot / CHUNK_SIZE;
+            if (!m_copied[index]) {
+                m_chunks[index] = new Chunk(m_chunks[index]);
+                m_copied[index] = true;
+            }
+            return m_chunks[index];
+        }
+    }
+
+    private final long m_rollingWindow;
+
+    private final long m_bucketSize;
+
+    private final int m_numBuckets;
+
+    private volatile State m_state;
+
+    /**
+     * <p>Constructor for CategoryAvailability.</p>
+     *
+     * @param rollingWindow the rolling window in milliseconds
+     */
+    public CategoryAvailability(final long rollingWindow) {
+        if (rollingWindow <= 0) {
+            throw new IllegalArgumentException("The rolling window must be positive: " + rollingWindow);
+        }
+        m_rollingWindow = rollingWindow;
+        m_bucketSize = (rollingWindow + BUCKETS_PER_WINDOW - 1) / BUCKETS_PER_WINDOW;
+        // one extra bucket for the partial bucket at each end of the window
+        m_numBuckets = (int) ((rollingWindow + m_bucketSize - 1) / m_bucketSize) + 2;
+        m_state = new State((m_numBuckets + CHUNK_SIZE - 1) / CHUNK_SIZE, bucket(System.currentTimeMillis()));
+    }
+
+    /**
+     * <p>getRollingWindow</p>
+     *
+     * @return the rolling window in milliseconds
+     */
+    public long getRollingWindow() {
+        return m_rollingWindow;
+    }
+
+    /**
+     * <p>getServiceCount</p>
+     *
+     * @return the number of services in the category
+     */
+    public int getServiceCount() {
+        return m_state.m_serviceCount;
+    }
+
+    /**
+     * Adds a service and its outages to the category.
+     *
+     * @param svcTimes the outages of the service
+     */
+    public synchronized void addService(final Collection<RTCNodeSvcTime> svcTimes) {
+        final State state = new State(m_state);
+        state.m_serviceCount++;
+        for (final RTCNodeSvcTime svcTime : svcTimes) {
+            addOutage(state, svcTime.getLostTime(), svcTime.getRegainedTime(), 1);
+        }
+        m_state = state;
+    }
+
+    /**
+     * Removes a service and its outages from the category.
+     *
+     * @param svcTimes the outages of the service
+     */
+    public synchronized void removeService(final Collection<RTCNodeSvcTime> svcTimes) {
+        final State state = new State(m_state);
+        state.m_serviceCount--;
+        for (final RTCNodeSvcTime svcTime : svcTimes) {
+            addOutage(state, svcTime.getLostTime(), svcTime.getRegainedTime(), -1);
+        }
+        m_state = state;
+    }
+
+    /**
+     * Adds an outage of a service that already belongs to the category.
+     *
+     * @param lostTime the time at which the service was lost
+     * @param regainedTime the time at which the service was regained, or -1
+     *            if it is still down
+     */
+    public synchronized void outageAdded(final long lostTime, final long regainedTime) {
+        final State state = new State(m_state);
+        addOutage(state, lostTime, regainedTime, 1);
+        m_state = state;
+    }
+
+    /**
+     * Closes an open outage of a service of the category.
+     *
+     * @param lostTime the time at which the service was lost
+     * @param regainedTime the time at which the service was regained
+     */
+    public synchronized void outageClosed(final long lostTime, final long regainedTime) {
+        final State state = new State(m_state);
+        addOpen(state, lostTime, -1);
+        addClosed(state, lostTime, regainedTime, 1);
+        m_state = state;
+    }
+
+    /**
+     * Get the value (uptime) of the category in the rolling window ending at
+     * curTime.
+     *
+     * @param curTime the end of the rolling window
+     * @return the value (uptime) as a percentage
+     */
+    public double getValue(final long curTime) {
+        final State state = m_state;
+        return RTCUtils.getOutagePercentage(getDownTime(state, curTime), m_rollingWindow, state.m_serviceCount);
+    }
+
+    /**
+     * Get the total down time of the services of the category in the
+     * rolling window ending at curTime.
+     *
+     * @param curTime the end of the rolling window
+     * @return the down time in milliseconds
+     */
+    public double getDownTime(final long curTime) {
+        return getDownTime(m_state, curTime);
+    }
+
+    private double getDownTime(final State state, final long curTime) {
+        final long startTime = curTime - m_rollingWindow;
+
+        double downTime = state.m_oldOpenCount * (double) m_rollingWindow;
+        for (int slot = 0; slot < m_numBuckets; slot++) {
+            final Chunk chunk = state.m_chunks[slot / CHUNK_SIZE];
+            final int i = slot % CHUNK_SIZE;
+            final long epoch = chunk.m_epochs[i];
+            if (epoch == NO_BUCKET) {
+                continue;
+            }
+            final long bucketStart = epoch * m_bucketSize;
+            final long bucketEnd = bucketStart + m_bucketSize;
+
+            final long openCount = chunk.m_openCount[i];
+            if (openCount > 0) {
+                if (bucketEnd <= startTime) {
+                    // these have been down throughout the window
+                    downTime += openCount * (double) m_rollingWindow;
+                } else {
+                    // each one has been down since the later of its lost time and the start of the window
+                    final long since = Math.max(chunk.m_openLostTimeSum[i], openCount * startTime);
+                    downTime += Math.max(0, openCount * curTime - since);
+                }
+            }
+
+            final long closedDownTime = chunk.m_closedDownTime[i];
+            if (closedDownTime > 0 && bucketEnd > startTime && bucketStart < curTime) {
+                if (bucketStart >= startTime) {
+                    downTime += closedDownTime;
+                } else {
+                    downTime += closedDownTime * (double) (bucketEnd - startTime) / m_bucketSize;
+                }
+            }
+        }
+        return downTime;
+    }
+
+    private long bucket(final long time) {
+        return time / m_bucketSize;
+    }
+
+    private void addOutage(final State state, final long lostTime, final long regainedTime, final int sign) {
+        if (regainedTime <= 0) {
+            addOpen(state, lostTime, sign);
+        } else {
+            addClosed(state, lostTime, regainedTime, sign);
+        }
+    }
+
+    private void addOpen(final State state, final long lostTime, final int sign) {
+        final long epoch = bucket(lostTime);
+        final int slot = slot(state, epoch);
+        if (slot < 0) {
+            state.m_oldOpenCount += sign;
+        } else {
+            final Chunk chunk = state.getChunkForUpdate(slot);
+            chunk.m_openCount[slot % CHUNK_SIZE] += sign;
+            chunk.m_openLostTimeSum[slot % CHUNK_SIZE] += sign * lostTime;
+        }
+    }
+
+    private void addClosed(final State state, final long lostTime, final long regainedTime, final int sign) {
+        if (regainedTime < lostTime) {
+            return;
+        }
+        advance(state, bucket(regainedTime));
+        final long first = Math.max(bucket(lostTime), state.m_head - m_numBuckets + 1);
+        for (long epoch = first; epoch <= bucket(regainedTime); epoch++) {
+            final long bucketStart = epoch * m_bucketSize;
+            final long overlap = Math.min(regainedTime, bucketStart + m_bucketSize) - Math.max(lostTime, bucketStart);
+            if (overlap > 0) {
+                final int slot = slot(state, epoch);
+                state.getChunkForUpdate(slot).m_closedDownTime[slot % CHUNK_SIZE] += sign * overlap;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of the bucket, moving the ring forward if needed.
+     *
+     * @return the slot, or -1 if the bucket is older than the ring
+     */
+    private int slot(final State state, final long epoch) {
+        advance(state, epoch);
+        if (epoch <= state.m_head - m_numBuckets) {
+            return -1;
+        }
+        final int slot = (int) (epoch % m_numBuckets);
+        if (state.m_chunks[slot / CHUNK_SIZE].m_epochs[slot % CHUNK_SIZE] != epoch) {
+            recycle(state, slot, epoch);
+        }
+        return slot;
+    }
+
+    private void advance(final State state, final long epoch) {
+        if (epoch <= state.m_head) {
+            return;
+        }
+        // every slot is recycled at most once
+        for (long e = Math.max(state.m_head + 1, epoch - m_numBuckets + 1); e <= epoch; e++) {
+            recycle(state, (int) (e % m_numBuckets), e);
+        }
+        state.m_head = epoch;
+    }
+
+    private void recycle(final State state, final int slot, final long epoch) {
+        final Chunk chunk = state.getChunkForUpdate(slot);
+        final int i = slot % CHUNK_SIZE;
+        if (chunk.m_epochs[i] != NO_BUCKET) {
+            // the open outages of the bucket that is dropped are now older than the ring
+            state.m_oldOpenCount += chunk.m_openCount[i];
+        }
+        chunk.m_epochs[i] = epoch;
+        chunk.m_closedDownTime[i] = 0;
+        chunk.m_openCount[i] = 0;
+        chunk.m_openLostTimeSum[i] = 0;
+    }
+}
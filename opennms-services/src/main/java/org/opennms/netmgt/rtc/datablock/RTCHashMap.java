@@ -31,11 +31,12 @@ package org.opennms.netmgt.rtc.datablock;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.opennms.netmgt.rtc.NodeNotInCategoryException;
 import org.opennms.netmgt.rtc.RTCUtils;
@@ -45,6 +46,8 @@ import org.opennms.netmgt.rtc.RTCUtils;
  * convenience methods to add and remove 'RTCNodes' with these values - each key
  * points to a list of 'RTCNode's
  *
+ * The map and the lists can be read while nodes are added and deleted.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Kumaraswamy </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -52,7 +55,7 @@ import org.opennms.netmgt.rtc.RTCUtils;
 // FIXME: 2011-05-18 Seth: OK it is less insane now... but still insane
 public class RTCHashMap {
 	
-    private final Map<RTCNodeKey,List<RTCNode>> m_map;
+    private final ConcurrentMap<RTCNodeKey,List<RTCNode>> m_map;
 	
     /**
      * constructor
@@ -60,16 +63,33 @@ public class RTCHashMap {
      * @param initialCapacity a int.
      */
     public RTCHashMap(int initialCapacity) {
-        m_map = new HashMap<RTCNodeKey,List<RTCNode>>(initialCapacity);
+        m_map = new ConcurrentHashMap<RTCNodeKey,List<RTCNode>>(initialCapacity);
     }
 
-    private List<Integer> getNodeIDs() {
-    	List<Integer> nodes = new LinkedList<Integer>();
-    	for (Iterator<RTCNodeKey> it = m_map.keySet().iterator(); it.hasNext();) {
-			RTCNodeKey key = it.next();
-			nodes.add(key.getNodeID());
-		}
-    	return nodes;
+    /**
+     * Every node has a key for the node, one for each of its interfaces and
+     * one for each of its services, so the node IDs are collected in a set
+     * to visit each node once.
+     */
+    private Set<Integer> getNodeIDs() {
+        Set<Integer> nodes = new LinkedHashSet<Integer>();
+        for (RTCNodeKey key : m_map.keySet()) {
+            nodes.add(key.getNodeID());
+        }
+        return nodes;
+    }
+
+    private void addToList(RTCNodeKey key, RTCNode rtcN) {
+        List<RTCNode> nodesList = m_map.get(key);
+        if (nodesList == null) {
+            // add a new list to the map, unless another one was just added
+            List<RTCNode> newList = new CopyOnWriteArrayList<RTCNode>();
+            nodesList = m_map.putIfAbsent(key, newList);
+            if (nodesList == null) {
+                nodesList = newList;
+            }
+        }
+        nodesList.add(rtcN);
     }
     
     /**
@@ -81,19 +101,7 @@ public class RTCHashMap {
      *            the RTCNode to add
      */
     private void add(int nodeid, RTCNode rtcN) {
-        RTCNodeKey key = new RTCNodeKey(nodeid, null, null);
-
-        List<RTCNode> nodesList = m_map.get(key);
-        if (nodesList != null) {
-            nodesList.add(rtcN);
-        } else {
-            // add current node to list
-            nodesList = new ArrayList<RTCNode>();
-            nodesList.add(rtcN);
-
-            // add list to map
-            m_map.put(key, nodesList);
-        }
+        addToList(new RTCNodeKey(nodeid, null, null), rtcN);
     }
 
     /**
@@ -107,19 +115,7 @@ public class RTCHashMap {
      *            the RTCNode to add
      */
     private void add(int nodeid, InetAddress inetAddress, RTCNode rtcN) {
-        RTCNodeKey key = new RTCNodeKey(nodeid, inetAddress, null);
-
-        List<RTCNode> nodesList = m_map.get(key);
-        if (nodesList != null) {
-            nodesList.add(rtcN);
-        } else {
-            // add current node to list
-            nodesList = new ArrayList<RTCNode>();
-            nodesList.add(rtcN);
-
-            // add list to map
-            m_map.put(key, nodesList);
-        }
+        addToList(new RTCNodeKey(nodeid, inetAddress, null), rtcN);
     }
     
     private void add(int nodeid, InetAddress ip, String svcName, RTCNode rtcN) {
@@ -29,8 +29,9 @@
 package org.opennms.netmgt.rtc.datablock;
 
 import java.net.InetAddress;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.opennms.netmgt.rtc.NodeNotInCategoryException;
@@ -49,6 +50,11 @@ import org.opennms.netmgt.rtc.NodeNotInCategoryException;
  * belongs to
  * </p>
  *
+ * <p>
+ * Outages are added while holding the node's monitor; the service times and
+ * the categories can be read concurrently without it.
+ * </p>
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Kumaraswamy </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  * 
@@ -59,7 +65,7 @@ public class RTCNode {
     /**
      * The node ID.
      */
-    private int m_nodeID;
+    private volatile int m_nodeID;
 
     /**
      * The ip address of the interface of the node.
@@ -74,12 +80,12 @@ public class RTCNode {
     /**
      * List of the lost/regained service times for this node.
      */
-    private RTCNodeSvcTimesList m_svcTimesList;
+    private final RTCNodeSvcTimesList m_svcTimesList;
 
     /**
      * List of the categories this node belongs to
      */
-    private final List<String> m_categories = new ArrayList<String>();
+    private final CopyOnWriteArrayList<String> m_categories = new CopyOnWriteArrayList<String>();
 
     /**
      * <p>Constructor for RTCNode.</p>
@@ -127,9 +133,10 @@ public class RTCNode {
      *            time at which service was lost
      * @param regainedtime
      *            time at which service was regained
+     * @return true if the entry was added, false if it was rejected
      */
-    public void addSvcTime(long losttime, long regainedtime) {
-        m_svcTimesList.addSvcTime(losttime, regainedtime);
+    public synchronized boolean addSvcTime(long losttime, long regainedtime) {
+        return m_svcTimesList.addSvcTime(losttime, regainedtime) != null;
     }
 
     /**
@@ -137,12 +144,10 @@ public class RTCNode {
      *
      * @param catLabel
      *            category label of the category this node has been added to
+     * @return true if the node didn't already belong to the category
      */
-    public void addCategory(String catLabel) {
-        int index = m_categories.indexOf(catLabel);
-        if (index == -1) {
-            m_categories.add(catLabel);
-        }
+    public boolean addCategory(String catLabel) {
+        return m_categories.addIfAbsent(catLabel);
     }
 
     /**
@@ -150,13 +155,10 @@ public class RTCNode {
      *
      * @param catLabel
      *            category label of the category this node has been added to
+     * @return true if the node belonged to the category
      */
-    public void removeCategory(String catLabel) {
-        int index = m_categories.indexOf(catLabel);
-        if (index != -1) {
-            m_categories.remove(catLabel);
-
-        }
+    public boolean removeCategory(String catLabel) {
+        return m_categories.remove(catLabel);
     }
 
     /**
@@ -165,8 +167,10 @@ public class RTCNode {
      *
      * @param t
      *            the time at which service was lost
+     * @return true if a new outage was opened, false if the service was
+     *         already down
      */
-    public synchronized void nodeLostService(long t) {
+    public synchronized boolean nodeLostService(long t) {
         // check if the last element in the times list is 'open'
         // i.e. is waiting for a regained service - if yes,
         // don't add anything
@@ -178,13 +182,13 @@ public class RTCNode {
             if (stime.getRegainedTime() == -1) {
                 // last event was a 'lostService'
                 // ignore this event
-                return;
+                return false;
             }
         }
 
         // create a new entry
-        RTCNodeSvcTime newStime = new RTCNodeSvcTime(t);
-        m_svcTimesList.add(newStime);
+        m_svcTimesList.addSvcTime(t);
+        return true;
     }
 
     /**
@@ -194,8 +198,10 @@ public class RTCNode {
      *
      * @param t
      *            the time at which node regained service
+     * @return the time at which the outage that was closed began, or -1 if
+     *         the service wasn't down
      */
-    public synchronized void nodeRegainedService(long t) {
+    public synchronized long nodeRegainedService(long t) {
         int listsize = m_svcTimesList.size();
         if (listsize > 0) {
             RTCNodeSvcTime stime = (RTCNodeSvcTime) m_svcTimesList.get(listsize - 1);
@@ -203,11 +209,13 @@ public class RTCNode {
             if (stime.getRegainedTime() != -1) {
                 // last event was a 'regainedService'
                 // ignore this event
-                return;
+                return -1;
             }
 
             stime.setRegainedTime(t);
+            return stime.getLostTime();
         }
+        return -1;
     }
 
     /**
@@ -261,6 +269,16 @@ public class RTCNode {
         return m_categories;
     }
 
+    /**
+     * Return the lost/regained service times of this node. The list can be
+     * iterated while outages are being added.
+     *
+     * @return the service times, oldest first
+     */
+    public List<RTCNodeSvcTime> getSvcTimes() {
+        return Collections.unmodifiableList(m_svcTimesList);
+    }
+
     /**
      * Get the down time. Return the total outage time for this node in the
      * 'rollingWindow' milliseconds since 'curTime' for the category
@@ -292,13 +310,12 @@ public class RTCNode {
      * @return true if the service is currently down
      */
     public boolean isServiceCurrentlyDown() {
-        int size = m_svcTimesList.size();
-        if (size == 0) {
+        RTCNodeSvcTime svctime = m_svcTimesList.getLastSvcTime();
+        if (svctime == null) {
             return false;
         }
 
-        // else get last entry
-        RTCNodeSvcTime svctime = (RTCNodeSvcTime) m_svcTimesList.get(size - 1);
+        // else check the last entry
         if (svctime.getRegainedTime() != -1) {
             // node has regained service - so service not currently down
             return false;
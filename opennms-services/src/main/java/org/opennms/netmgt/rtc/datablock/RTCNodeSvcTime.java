@@ -42,9 +42,10 @@ public class RTCNodeSvcTime {
     private final long m_svcLostTime;
 
     /**
-     * Time at which service was regained
+     * Time at which service was regained, set once the outage is closed
+     * while the service times may be read concurrently
      */
-    private long m_svcRegainedTime;
+    private volatile long m_svcRegainedTime;
 
     /**
      * Creates a time with the lost time
@@ -142,7 +143,10 @@ public class RTCNodeSvcTime {
         // the start of the rolling window
         long startTime = curTime - rollingWindow;
 
-        if (m_svcRegainedTime < 0 || m_svcRegainedTime >= curTime) {
+        // read once, the outage may be closed concurrently
+        long regainedTime = m_svcRegainedTime;
+
+        if (regainedTime < 0 || regainedTime >= curTime) {
             // node yet to regain service
             if (m_svcLostTime < startTime) {
                 // if svclosttime is less than the rolling window
@@ -151,12 +155,15 @@ public class RTCNodeSvcTime {
             } else {
                 return curTime - m_svcLostTime;
             }
+        } else if (regainedTime < startTime) {
+            // outage ended before the rolling window, it has expired
+            return 0;
         } else {
             // node has regained service
             if (m_svcLostTime < startTime) {
-                return m_svcRegainedTime - startTime;
+                return regainedTime - startTime;
             } else {
-                return m_svcRegainedTime - m_svcLostTime;
+                return regainedTime - m_svcLostTime;
             }
         }
     }
@@ -28,8 +28,9 @@
 
 package org.opennms.netmgt.rtc.datablock;
 
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,12 +44,14 @@ import org.slf4j.LoggerFactory;
  * window is calculated, the same calculations are not done on the node multiple
  * times.
  *
- * 'Expired' outages are removed during 'add' and 'getDownTime' operations.
+ * 'Expired' outages are removed during 'add' operations. The list is copied
+ * on write so that the down time can be calculated while outages are being
+ * added; expired outages are ignored by 'getDownTime'.
  *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Kumaraswamy </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
-public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
+public class RTCNodeSvcTimesList extends CopyOnWriteArrayList<RTCNodeSvcTime> {
     private static final Logger LOG = LoggerFactory.getLogger(RTCNodeSvcTimesList.class);
     private static final long serialVersionUID = 2606739258065019820L;
 
@@ -80,9 +83,8 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
         // the start of the rolling window
         long startTime = curTime - rollingWindow;
 
-        for (ListIterator<RTCNodeSvcTime> iter = listIterator(); iter.hasNext();) {
-            RTCNodeSvcTime svcTime = (RTCNodeSvcTime) iter.next();
-
+        List<RTCNodeSvcTime> expired = null;
+        for (RTCNodeSvcTime svcTime : this) {
             // since new outages are added at the end, if this outage
             // has not expired we can safely break from the loop
             if (svcTime.getLostTime() >= startTime) {
@@ -90,9 +92,17 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
             }
 
             if (svcTime.hasExpired(startTime)) {
-                iter.remove();
+                if (expired == null) {
+                    expired = new ArrayList<RTCNodeSvcTime>();
+                }
+                expired.add(svcTime);
             }
         }
+
+        // remove them at once rather than copying the list for each one
+        if (expired != null) {
+            removeAll(expired);
+        }
     }
 
     /**
@@ -111,18 +121,21 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
      *            time at which service was lost
      * @param regainedtime
      *            time at which service was regained
+     * @return the new entry, or null if it was rejected
      */
-    public void addSvcTime(long losttime, long regainedtime) {
+    public RTCNodeSvcTime addSvcTime(long losttime, long regainedtime) {
         // remove expired outages
         removeExpiredOutages();
 
         if (regainedtime > 0 && regainedtime < losttime) {
             LOG.warn("RTCNodeSvcTimesList: Rejecting service time pair since regained time {}\tregainedtime in milliseconds: {}", regainedtime, "less than lost time -> losttime in milliseconds: {}", losttime);
 
-            return;
+            return null;
         }
 
-        addLast(new RTCNodeSvcTime(losttime, regainedtime));
+        RTCNodeSvcTime svcTime = new RTCNodeSvcTime(losttime, regainedtime);
+        add(svcTime);
+        return svcTime;
     }
 
     /**
@@ -130,12 +143,29 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
      *
      * @param losttime
      *            time at which service was lost
+     * @return the new entry
      */
-    public void addSvcTime(long losttime) {
+    public RTCNodeSvcTime addSvcTime(long losttime) {
         // remove expired outages
         removeExpiredOutages();
 
-        addLast(new RTCNodeSvcTime(losttime));
+        RTCNodeSvcTime svcTime = new RTCNodeSvcTime(losttime);
+        add(svcTime);
+        return svcTime;
+    }
+
+    /**
+     * Return the most recent service time entry. Unlike get(size() - 1), this
+     * is safe while entries are being removed.
+     *
+     * @return the last entry, or null if the list is empty
+     */
+    public RTCNodeSvcTime getLastSvcTime() {
+        RTCNodeSvcTime last = null;
+        for (RTCNodeSvcTime svcTime : this) {
+            last = svcTime;
+        }
+        return last;
     }
 
     /**
@@ -149,10 +179,6 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
      * @return total down time for all outages for this service
      */
     public long getDownTime(long curTime, long rollingWindow) {
-
-        // remove expired outages
-        removeExpiredOutages(curTime, rollingWindow);
-
         long outTime = 0;
 
         for (RTCNodeSvcTime svcTime : this) {
@@ -94,32 +94,32 @@ public class EuiLevelMapper extends Object {
 
         org.opennms.netmgt.xml.rtc.Category levelCat = new org.opennms.netmgt.xml.rtc.Category();
 
-        // get a handle to data
-        synchronized (m_dataMgr) {
-            // category label
-            levelCat.setCatlabel(rtcCat.getLabel());
+        // the availability service can be read while it is being updated,
+        // there is no need to lock it
 
-            // availability value for this category
-            levelCat.setCatvalue(m_dataMgr.getValue(rtcCat, curTime, rWindow));
+        // category label
+        levelCat.setCatlabel(rtcCat.getLabel());
 
-            // nodes in this category
-            for (int nodeID : m_dataMgr.getNodes(rtcCat)) {
+        // availability value for this category
+        levelCat.setCatvalue(m_dataMgr.getValue(rtcCat, curTime, rWindow));
 
-                Node levelNode = new Node();
-                levelNode.setNodeid(nodeID);
+        // nodes in this category
+        for (int nodeID : m_dataMgr.getNodes(rtcCat)) {
 
-                // value for this node for this category
-                levelNode.setNodevalue(m_dataMgr.getValue(nodeID, rtcCat, curTime, rWindow));
+            Node levelNode = new Node();
+            levelNode.setNodeid(nodeID);
 
-                // node service count
-                levelNode.setNodesvccount(m_dataMgr.getServiceCount(nodeID, rtcCat));
+            // value for this node for this category
+            levelNode.setNodevalue(m_dataMgr.getValue(nodeID, rtcCat, curTime, rWindow));
 
-                // node service down count
-                levelNode.setNodesvcdowncount(m_dataMgr.getServiceDownCount(nodeID, rtcCat));
+            // node service count
+            levelNode.setNodesvccount(m_dataMgr.getServiceCount(nodeID, rtcCat));
 
-                // add the node
-                levelCat.addNode(levelNode);
-            }
+            // node service down count
+            levelNode.setNodesvcdowncount(m_dataMgr.getServiceDownCount(nodeID, rtcCat));
+
+            // add the node
+            levelCat.addNode(levelNode);
         }
 
         // add category
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link Scheduler} used by a daemon.
+ *
+ * The implementation is chosen with the
+ * <code>org.opennms.netmgt.scheduler.&lt;daemon&gt;.type</code> system
+ * property, falling back to <code>org.opennms.netmgt.scheduler.type</code>.
+ * Supported values are <code>legacy</code> (the default) for the
+ * {@link LegacyScheduler} and <code>timingwheel</code> for the
+ * {@link TimingWheelScheduler}.  The tick and spread of the timing wheel
+ * are set with <code>org.opennms.netmgt.scheduler.timingwheel.tick</code>
+ * and <code>org.opennms.netmgt.scheduler.timingwheel.spread</code>.
+ *
+ * @see LegacyScheduler
+ * @see TimingWheelScheduler
+ */
+public abstract class SchedulerFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchedulerFactory.class);
+
+    public static final String TYPE_PROPERTY = "org.opennms.netmgt.scheduler.type";
+    public static final String TICK_PROPERTY = "org.opennms.netmgt.scheduler.timingwheel.tick";
+    public static final String SPREAD_PROPERTY = "org.opennms.netmgt.scheduler.timingwheel.spread";
+
+    public static final String LEGACY = "legacy";
+    public static final String TIMING_WHEEL = "timingwheel";
+
+    /**
+     * Creates the configured scheduler for the given daemon.
+     *
+     * @param parent
+     *            the name of the daemon, also used for the thread names
+     * @param maxSize
+     *            the maximum size of the thread pool
+     * @return a new, unstarted scheduler
+     */
+    public static Scheduler newScheduler(final String parent, final int maxSize) {
+        final String type = getType(parent);
+        if (TIMING_WHEEL.equalsIgnoreCase(type)) {
+            final long tick = Long.getLong(TICK_PROPERTY, TimingWheelScheduler.DEFAULT_TICK);
+            final long spread = Long.getLong(SPREAD_PROPERTY, TimingWheelScheduler.DEFAULT_SPREAD);
+            LOG.info("Using a timing wheel scheduler for {} with a tick of {}ms and a spread of {}ms", parent, tick, spread);
+            return new TimingWheelScheduler(parent, maxSize, tick, spread);
+        } else if (type != null && !LEGACY.equalsIgnoreCase(type)) {
+            LOG.warn("Unknown scheduler type '{}' for {}, using the legacy scheduler", type, parent);
+        }
+        return new LegacyScheduler(parent, maxSize);
+    }
+
+    private static String getType(final String parent) {
+        final String daemonType = System.getProperty("org.opennms.netmgt.scheduler." + parent.toLowerCase() + ".type");
+        return daemonType == null ? System.getProperty(TYPE_PROPERTY) : daemonType;
+    }
+
+    /**
+     * Returns the thread pool of the given scheduler, or <code>null</code>
+     * if it is not one created by this factory.
+     */
+    public static ExecutorService getRunner(final Scheduler scheduler) {
+        if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler)scheduler).getRunner();
+        } else if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler)scheduler).getRunner();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of runnables waiting in the given scheduler.
+     */
+    public static long getScheduled(final Scheduler scheduler) {
+        if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler)scheduler).getScheduled();
+        } else if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler)scheduler).getScheduled();
+        }
+        return 0L;
+    }
+
+    /**
+     * Returns the most recent lag of the given scheduler in milliseconds.
+     * Only the {@link TimingWheelScheduler} keeps track of this.
+     */
+    public static long getLag(final Scheduler scheduler) {
+        return scheduler instanceof TimingWheelScheduler ? ((TimingWheelScheduler)scheduler).getLastLag() : 0L;
+    }
+
+    /**
+     * Returns the largest lag of the given scheduler in milliseconds.
+     * Only the {@link TimingWheelScheduler} keeps track of this.
+     */
+    public static long getMaxLag(final Scheduler scheduler) {
+        return scheduler instanceof TimingWheelScheduler ? ((TimingWheelScheduler)scheduler).getMaxLag() : 0L;
+    }
+
+    /**
+     * Returns the number of due runnables that are waiting to be run.
+     * Only the {@link TimingWheelScheduler} keeps track of this.
+     */
+    public static long getBacklog(final Scheduler scheduler) {
+        return scheduler instanceof TimingWheelScheduler ? ((TimingWheelScheduler)scheduler).getBacklog() : 0L;
+    }
+}
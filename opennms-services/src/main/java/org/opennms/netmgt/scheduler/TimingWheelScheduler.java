@@ -0,0 +1,515 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} built on a hierarchical timing wheel.
+ *
+ * Scheduling a runnable only appends it to a lock-free queue.  The worker
+ * thread moves new entries into the wheel, and advances the wheel one tick
+ * at a time.  Each level has {@link #WHEEL_SIZE} buckets, and every bucket
+ * of a level covers a whole rotation of the level below it.  An entry is
+ * placed at the lowest level that can hold its deadline, and is cascaded
+ * down one level each time the wheel reaches its bucket.  Both inserting
+ * and expiring an entry are O(1) no matter how many entries or distinct
+ * intervals are scheduled.
+ *
+ * Runnables that are scheduled to run immediately are spread over a
+ * configurable window.  When a daemon starts and schedules thousands of
+ * services at once, their first runs, and so every run after that, do
+ * not all fall in the same millisecond.
+ *
+ * A runnable that is due but not {@link ReadyRunnable#isReady() ready} is
+ * checked again after {@link #NOT_READY_RETRY} milliseconds, like the
+ * {@link LegacyScheduler} does when it finds nothing ready to run.
+ *
+ * @see LegacyScheduler
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The default duration of a tick in milliseconds.
+     */
+    public static final long DEFAULT_TICK = 10;
+
+    /**
+     * The default window, in milliseconds, over which immediate schedules are spread.
+     */
+    public static final long DEFAULT_SPREAD = 5000;
+
+    /**
+     * How long to wait before checking a runnable that was due but not ready again.
+     */
+    static final long NOT_READY_RETRY = 1000;
+
+    private static final int WHEEL_BITS = 8;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private static final class Entry {
+        private final ReadyRunnable m_runnable;
+        private final long m_expiration;
+        private final long m_deadlineTick;
+
+        private Entry(ReadyRunnable runnable, long expiration, long deadlineTick) {
+            m_runnable = runnable;
+            m_expiration = expiration;
+            m_deadlineTick = deadlineTick;
+        }
+    }
+
+    /**
+     * The buckets of the wheel, by level and then slot.  They are only ever
+     * touched by the worker thread.
+     */
+    private final ArrayDeque<Entry>[][] m_wheel;
+
+    /**
+     * Entries that have been scheduled but not yet placed in the wheel.
+     */
+    private final ConcurrentLinkedQueue<Entry> m_incoming = new ConcurrentLinkedQueue<Entry>();
+
+    private final long m_tick;
+    private final long m_spread;
+    private final long m_startTime;
+
+    /**
+     * The last tick that has been expired by the worker.
+     */
+    private volatile long m_currentTick;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+    private final AtomicLong m_numTasksExecuted = new AtomicLong(0);
+    private final AtomicLong m_spreadCounter = new AtomicLong(0);
+
+    private volatile long m_lastLag;
+    private volatile long m_maxLag;
+    private volatile int m_notReady;
+
+    private final ExecutorService m_runner;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    /**
+     * Constructs a new scheduler with the default tick and spread.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK, DEFAULT_SPREAD);
+    }
+
+    /**
+     * Constructs a new scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tick
+     *            The resolution of the wheel in milliseconds.
+     * @param spread
+     *            The window in milliseconds over which runnables scheduled
+     *            to run immediately are spread, 0 to disable.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tick, final long spread) {
+        Assert.isTrue(tick > 0, "tick must be positive");
+        Assert.isTrue(spread >= 0, "spread must not be negative");
+
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tick = tick;
+        m_spread = spread;
+        m_startTime = getCurrentTime();
+        m_currentTick = 0;
+
+        m_wheel = new ArrayDeque[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                m_wheel[level][slot] = new ArrayDeque<Entry>();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        long delay = interval;
+        if (delay <= 0 && m_spread > 0) {
+            // step through the spread window in tick sized increments so
+            // a burst of immediate schedules is evenly distributed
+            delay = (m_spreadCounter.getAndIncrement() * m_tick) % m_spread;
+        }
+
+        final long expiration = getCurrentTime() + Math.max(0, delay);
+        m_incoming.add(new Entry(runnable, expiration, toTick(expiration)));
+        m_scheduled.incrementAndGet();
+    }
+
+    private long toTick(long time) {
+        final long elapsed = time - m_startTime;
+        // round up so an entry never expires early
+        return elapsed <= 0 ? 0 : (elapsed + m_tick - 1) / m_tick;
+    }
+
+    private long toTime(long tick) {
+        return m_startTime + tick * m_tick;
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of runnables waiting in the wheel
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns how late, in milliseconds, the most recently expired runnable
+     * was handed to the thread pool compared to the time it was scheduled for.
+     *
+     * @return the most recent lag
+     */
+    public long getLastLag() {
+        return m_lastLag;
+    }
+
+    /**
+     * Returns the largest lag seen since the scheduler was started.
+     *
+     * @return the largest lag in milliseconds
+     */
+    public long getMaxLag() {
+        return m_maxLag;
+    }
+
+    /**
+     * Returns the number of runnables that are due but are waiting for the
+     * thread pool or for their {@link ReadyRunnable#isReady()} to be true.
+     *
+     * @return the backlog
+     */
+    public int getBacklog() {
+        final int queued = m_runner instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)m_runner).getQueue().size() : 0;
+        return queued + m_notReady;
+    }
+
+    /**
+     * The main method of the scheduler. This method advances the wheel and
+     * hands the runnables that are due and ready to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        // exit
+                        break;
+                    }
+                }
+
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+
+                if (m_status != RUNNING) {
+                    continue;
+                }
+            }
+
+            try {
+                advance(getCurrentTime());
+            } catch (RejectedExecutionException e) {
+                throw new UndeclaredThrowableException(e);
+            }
+
+            synchronized (this) {
+                final long sleep = toTime(m_currentTick + 1) - getCurrentTime();
+                if (sleep > 0) {
+                    try {
+                        wait(sleep);
+                    } catch (InterruptedException ex) {
+                        break; // exit for loop
+                    }
+                }
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Places new entries into the wheel and expires every tick up to the
+     * given time.  Only called from the worker thread.
+     */
+    void advance(final long now) {
+        transferIncoming();
+
+        final long targetTick = toTick(now + 1) - 1;
+        int notReady = 0;
+        while (m_currentTick < targetTick) {
+            final long tick = m_currentTick + 1;
+            m_currentTick = tick;
+
+            // cascade the higher levels down, starting with the highest
+            for (int level = LEVELS - 1; level > 0; level--) {
+                final int shift = WHEEL_BITS * level;
+                if ((tick & ((1L << shift) - 1)) == 0) {
+                    final ArrayDeque<Entry> bucket = m_wheel[level][(int)((tick >>> shift) & WHEEL_MASK)];
+                    Entry entry;
+                    while ((entry = bucket.poll()) != null) {
+                        // the lower levels for this tick are handled next
+                        place(entry, tick);
+                    }
+                }
+            }
+
+            final ArrayDeque<Entry> bucket = m_wheel[0][(int)(tick & WHEEL_MASK)];
+            int count = bucket.size();
+            while (count-- > 0) {
+                final Entry entry = bucket.poll();
+                if (entry.m_deadlineTick > tick) {
+                    // beyond the horizon of the wheel when it was placed
+                    place(entry, tick + 1);
+                } else if (!expire(entry, now)) {
+                    notReady++;
+                }
+            }
+            // entries scheduled while we were catching up
+            transferIncoming();
+        }
+        m_notReady = notReady;
+    }
+
+    private void transferIncoming() {
+        Entry entry;
+        while ((entry = m_incoming.poll()) != null) {
+            place(entry, m_currentTick + 1);
+        }
+    }
+
+    /**
+     * Puts an entry into the bucket for its deadline, or for the given
+     * earliest tick that has not been expired yet if it is already due.
+     */
+    private void place(final Entry entry, final long earliestTick) {
+        final long current = m_currentTick;
+        final long deadline = Math.max(entry.m_deadlineTick, earliestTick);
+        final long delta = deadline - current;
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        final long slotTick = Math.min(deadline, current + (1L << (WHEEL_BITS * (level + 1))) - 1);
+        m_wheel[level][(int)((slotTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(entry);
+    }
+
+    private boolean expire(final Entry entry, final long now) {
+        final ReadyRunnable runnable = entry.m_runnable;
+        if (!runnable.isReady()) {
+            final long expiration = now + NOT_READY_RETRY;
+            place(new Entry(runnable, entry.m_expiration, toTick(expiration)), m_currentTick + 1);
+            return false;
+        }
+
+        LOG.debug("run: found ready runnable {}", runnable);
+
+        final long lag = Math.max(0, now - entry.m_expiration);
+        m_lastLag = lag;
+        if (lag > m_maxLag) {
+            m_maxLag = lag;
+        }
+
+        m_scheduled.decrementAndGet();
+        m_runner.execute(runnable);
+        m_numTasksExecuted.incrementAndGet();
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted.get();
+    }
+}
@@ -35,6 +35,7 @@ import java.lang.reflect.Method;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -47,7 +48,6 @@ import org.opennms.core.utils.InetAddressUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opennms.netmgt.config.SyslogdConfigFactory;
-import org.opennms.netmgt.config.syslogd.HideMatch;
 import org.opennms.netmgt.config.syslogd.HideMessage;
 import org.opennms.netmgt.config.syslogd.HostaddrMatch;
 import org.opennms.netmgt.config.syslogd.HostnameMatch;
@@ -97,7 +97,7 @@ final class ConvertToEvent {
 
     private Event m_event;
 
-    private static Class<? extends SyslogParser> m_parserClass = null;
+    private static volatile ParserFactory m_parserFactory = null;
 
     private static Map<String,Pattern> m_patterns = new ConcurrentHashMap<String,Pattern>();
 
@@ -116,8 +116,69 @@ final class ConvertToEvent {
     }
 
     public static void invalidate() {
-        m_parserClass = null;
+        m_parserFactory = null;
         m_patterns.clear();
+        SyslogMatchIndex.invalidate();
+    }
+
+    /**
+     * Creates the parsers of the configured class, which is only looked up
+     * once.  The parsers that come with syslogd are created without
+     * reflection.
+     */
+    private static final class ParserFactory {
+        private final Class<? extends SyslogParser> m_parserClass;
+        private final Method m_getParser;
+
+        private ParserFactory(final Class<? extends SyslogParser> parserClass) throws NoSuchMethodException {
+            m_parserClass = parserClass;
+            m_getParser = parserClass.getDeclaredMethod("getParser", String.class);
+            m_getParser.setAccessible(true);
+        }
+
+        private SyslogParser getParser(final String text) throws Exception {
+            if (m_parserClass == CustomSyslogParser.class) {
+                return CustomSyslogParser.getParser(text);
+            } else if (m_parserClass == SyslogNGParser.class) {
+                return SyslogNGParser.getParser(text);
+            } else if (m_parserClass == Rfc5424SyslogParser.class) {
+                return Rfc5424SyslogParser.getParser(text);
+            } else if (m_parserClass == JuniperSyslogParser.class) {
+                return JuniperSyslogParser.getParser(text);
+            }
+            return (SyslogParser)m_getParser.invoke(null, text);
+        }
+
+        /**
+         * Whether the pattern of the parser can only match a line that
+         * starts with a &lt;PRI&gt;.
+         */
+        private boolean requiresPriority() {
+            return m_parserClass == SyslogNGParser.class || m_parserClass == Rfc5424SyslogParser.class || m_parserClass == JuniperSyslogParser.class;
+        }
+
+        private String getName() {
+            return m_parserClass.getName();
+        }
+    }
+
+    private static ParserFactory getParserFactory() throws MessageDiscardedException {
+        ParserFactory factory = m_parserFactory;
+        if (factory == null) {
+            final String parser = SyslogdConfigFactory.getInstance().getParser();
+            try {
+                factory = new ParserFactory(Class.forName(parser).asSubclass(SyslogParser.class));
+            } catch (final Exception ex) {
+                LOG.debug("Unable to instantiate Syslog parser class specified in config: {}", parser, ex);
+                try {
+                    factory = new ParserFactory(CustomSyslogParser.class);
+                } catch (final NoSuchMethodException e) {
+                    throw new MessageDiscardedException(e);
+                }
+            }
+            m_parserFactory = factory;
+        }
+        return factory;
     }
 
     /**
@@ -154,32 +215,22 @@ final class ConvertToEvent {
                                final int len, final String matchPattern, final int hostGroup, final int messageGroup,
                                final UeiList ueiList, final HideMessage hideMessage, final String discardUei)
             throws UnsupportedEncodingException, MessageDiscardedException {
-        if (m_parserClass == null) {
-            final String parser = SyslogdConfigFactory.getInstance().getParser();
-            try {
-                m_parserClass = Class.forName(parser).asSubclass(SyslogParser.class);
-            } catch (final Exception ex) {
-                LOG.debug("Unable to instantiate Syslog parser class specified in config: {}", parser, ex);
-                m_parserClass = CustomSyslogParser.class;
-            }
-        }
+        final ParserFactory parserFactory = getParserFactory();
 
-        String deZeroedData = new String(data, 0, len, "US-ASCII");
-        if (deZeroedData.endsWith("\0")) {
-            deZeroedData = deZeroedData.substring(0, deZeroedData.length() - 1);
+        final SyslogHeaderTokenizer header = new SyslogHeaderTokenizer(data, 0, len);
+        if (parserFactory.requiresPriority() && !header.hasPriority() && !header.isMultiLine()) {
+            throw new MessageDiscardedException("message does not match");
         }
 
-        final ConvertToEvent e = new ConvertToEvent(addr, port, deZeroedData);
+        final ConvertToEvent e = new ConvertToEvent(addr, port, header.getText());
 
         LOG.debug("Converting to event: {}", e);
 
         final SyslogParser parser;
         try {
-            Method m = m_parserClass.getDeclaredMethod("getParser", String.class);
-            Object[] args = new Object[] { e.m_eventXML };
-            parser = (SyslogParser)m.invoke(ConvertToEvent.class, args);
+            parser = parserFactory.getParser(e.m_eventXML);
         } catch (final Exception ex) {
-            LOG.debug("Unable to get parser for class '{}'", m_parserClass.getName(), ex);
+            LOG.debug("Unable to get parser for class '{}'", parserFactory.getName(), ex);
             throw new MessageDiscardedException(ex);
         }
 
@@ -239,8 +290,7 @@ final class ConvertToEvent {
         * node to match against nodeId.
          */
 
-        Pattern msgPat = null;
-        Matcher msgMat = null;
+        final SyslogMatchIndex matchIndex = SyslogMatchIndex.getInstance(ueiList, hideMessage);
 
         // Time to verify UEI matching.
 
@@ -251,7 +301,10 @@ final class ConvertToEvent {
         if (ueiMatch == null) {
             LOG.warn("No ueiList configured.");
         } else {
-            for (final UeiMatch uei : ueiMatch) {
+            // the substrings of all of the entries are looked up at once, when needed
+            BitSet substrings = null;
+            for (int i = 0; i < ueiMatch.size(); i++) {
+                final UeiMatch uei = ueiMatch.get(i);
                 final boolean otherStuffMatches = matchFacility(uei.getFacilityCollection(), facilityTxt) &&
                                                   matchSeverity(uei.getSeverityCollection(), priorityTxt) &&
                                                   matchProcess(uei.getProcessMatch(), message.getProcessName()) && 
@@ -259,7 +312,10 @@ final class ConvertToEvent {
                                                   matchHostAddr(uei.getHostaddrMatch(), message.getHostAddress());
                 
                 if (otherStuffMatches && uei.getMatch().getType().equals("substr")) {
-                    if (matchSubstring(discardUei, bldr, matchedText, uei)) {
+                    if (substrings == null) {
+                        substrings = matchIndex.matchUeiSubstrings(matchedText);
+                    }
+                    if (matchSubstring(discardUei, bldr, substrings.get(i), uei)) {
                         break;
                     }
                 } else if (otherStuffMatches && (uei.getMatch().getType().startsWith("regex"))) {
@@ -271,37 +327,11 @@ final class ConvertToEvent {
         }
 
         // Time to verify if we need to hide the message
-        boolean doHide = false;
-        final List<HideMatch> hideMatch = hideMessage == null? null : hideMessage.getHideMatchCollection();
-        if (hideMatch == null) {
+        if (hideMessage == null || hideMessage.getHideMatchCollection() == null) {
             LOG.warn("No hideMessage configured.");
-        } else {
-            for (final HideMatch hide : hideMatch) {
-                if (hide.getMatch().getType().equals("substr")) {
-                    if (fullText.contains(hide.getMatch().getExpression())) {
-                        // We should hide the message based on this match
-                    	doHide = true;
-                    }            	
-                } else if (hide.getMatch().getType().equals("regex")) {
-                	try {
-                    	msgPat = Pattern.compile(hide.getMatch().getExpression(), Pattern.MULTILINE);
-                    	msgMat = msgPat.matcher(fullText);            		
-                	} catch (PatternSyntaxException pse) {
-			    LOG.warn("Failed to compile regex pattern '{}'", hide.getMatch().getExpression(), pse);
-                		msgMat = null;
-                	}
-                	if ((msgMat != null) && (msgMat.find())) {
-                        // We should hide the message based on this match
-                		doHide = true;
-                	}
-                }
-                if (doHide) {
-                    LOG.debug("Hiding syslog message from Event - May contain sensitive data");
-                    message.setMessage(HIDDEN_MESSAGE);
-    	            // We want to stop here, no point in checking further hideMatches
-    	            break;
-                }
-            }
+        } else if (matchIndex.hide(fullText)) {
+            LOG.debug("Hiding syslog message from Event - May contain sensitive data");
+            message.setMessage(HIDDEN_MESSAGE);
         }
 
         // Using parms provides configurability.
@@ -405,10 +435,10 @@ final class ConvertToEvent {
         return msgPat;
     }
 
-    private static boolean matchSubstring(final String discardUei, final EventBuilder bldr, String message, final UeiMatch uei) throws MessageDiscardedException {
+    private static boolean matchSubstring(final String discardUei, final EventBuilder bldr, final boolean contains, final UeiMatch uei) throws MessageDiscardedException {
         boolean doIMatch = false;
         boolean traceEnabled = LOG.isTraceEnabled();
-        if (message.contains(uei.getMatch().getExpression())) {
+        if (contains) {
             if (discardUei.equals(uei.getUei())) {
                 if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
                 throw new MessageDiscardedException();
@@ -43,6 +43,9 @@ public class CustomSyslogParser extends SyslogParser {
     private static final Pattern m_datePattern = Pattern.compile("^((\\d\\d\\d\\d-\\d\\d-\\d\\d)\\s+)");
     private static final Pattern m_oldDatePattern = Pattern.compile("^\\s*(\\S\\S\\S\\s+\\d{1,2}\\s+\\d\\d:\\d\\d:\\d\\d)\\s+");
 
+    /** The last compiled forwarding regexp, which only changes with the configuration */
+    private static volatile Pattern m_lastForwardingPattern = null;
+
     private Pattern m_forwardingPattern;
     private int m_matchingGroupHost;
     private int m_matchingGroupMessage;
@@ -55,7 +58,11 @@ public class CustomSyslogParser extends SyslogParser {
         if (forwardingRegexp == null || forwardingRegexp.length() == 0) {
             throw new SyslogParserException("no forwarding regular expression defined");
         }
-        m_forwardingPattern = Pattern.compile(forwardingRegexp, Pattern.MULTILINE);
+        m_forwardingPattern = m_lastForwardingPattern;
+        if (m_forwardingPattern == null || !m_forwardingPattern.pattern().equals(forwardingRegexp)) {
+            m_forwardingPattern = Pattern.compile(forwardingRegexp, Pattern.MULTILINE);
+            m_lastForwardingPattern = m_forwardingPattern;
+        }
         m_matchingGroupHost = config.getMatchingGroupHost();
         m_matchingGroupMessage = config.getMatchingGroupMessage();
     }
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds which of a fixed set of substrings are contained in a text, in a
+ * single pass over the text (Aho-Corasick).  This is used to check all of the
+ * <code>substr</code> matches of the syslogd configuration at once instead of
+ * calling {@link String#contains(CharSequence)} for each of them.
+ */
+final class MultiSubstringMatcher {
+
+    private static final int[] NONE = new int[0];
+
+    /** The sorted characters of the transitions out of each state */
+    private final char[][] m_keys;
+
+    /** The target state of each transition, in the order of m_keys */
+    private final int[][] m_targets;
+
+    /** The state to continue from when there is no transition */
+    private final int[] m_fail;
+
+    /** The substrings that end in each state, including the ones found through m_fail */
+    private final int[][] m_outputs;
+
+    /** The empty substrings, which are contained in any text */
+    private final int[] m_empty;
+
+    private final int m_count;
+
+    /**
+     * <p>Constructor for MultiSubstringMatcher.</p>
+     *
+     * @param substrings the substrings to look for, identified by their
+     *        index; null ones are never found
+     */
+    MultiSubstringMatcher(final List<String> substrings) {
+        m_count = substrings.size();
+
+        // build the trie
+        final List<TreeMap<Character, Integer>> gotos = new ArrayList<TreeMap<Character, Integer>>();
+        final List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+        final List<Integer> empty = new ArrayList<Integer>();
+        gotos.add(new TreeMap<Character, Integer>());
+        outputs.add(new ArrayList<Integer>());
+        for (int i = 0; i < m_count; i++) {
+            final String substring = substrings.get(i);
+            if (substring == null) {
+                continue;
+            } else if (substring.length() == 0) {
+                empty.add(i);
+                continue;
+            }
+            int state = 0;
+            for (int j = 0; j < substring.length(); j++) {
+                final Character c = substring.charAt(j);
+                Integer next = gotos.get(state).get(c);
+                if (next == null) {
+                    next = gotos.size();
+                    gotos.add(new TreeMap<Character, Integer>());
+                    outputs.add(new ArrayList<Integer>());
+                    gotos.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(i);
+        }
+
+        // compute the failure transitions breadth first, so that the
+        // failure state of a state is complete before it is used
+        final int states = gotos.size();
+        m_fail = new int[states];
+        final LinkedList<Integer> queue = new LinkedList<Integer>(gotos.get(0).values());
+        while (!queue.isEmpty()) {
+            final int state = queue.removeFirst();
+            for (final Map.Entry<Character, Integer> entry : gotos.get(state).entrySet()) {
+                final int next = entry.getValue();
+                int fail = m_fail[state];
+                while (fail != 0 && !gotos.get(fail).containsKey(entry.getKey())) {
+                    fail = m_fail[fail];
+                }
+                final Integer target = gotos.get(fail).get(entry.getKey());
+                m_fail[next] = (target == null || target == next) ? 0 : target;
+                outputs.get(next).addAll(outputs.get(m_fail[next]));
+                queue.addLast(next);
+            }
+        }
+
+        m_keys = new char[states][];
+        m_targets = new int[states][];
+        m_outputs = new int[states][];
+        for (int state = 0; state < states; state++) {
+            final TreeMap<Character, Integer> transitions = gotos.get(state);
+            m_keys[state] = new char[transitions.size()];
+            m_targets[state] = new int[transitions.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> entry : transitions.entrySet()) {
+                m_keys[state][i] = entry.getKey();
+                m_targets[state][i] = entry.getValue();
+                i++;
+            }
+            m_outputs[state] = toArray(outputs.get(state));
+        }
+        m_empty = toArray(empty);
+    }
+
+    /**
+     * Returns the indexes of the substrings that the text contains.
+     *
+     * @param text a {@link java.lang.CharSequence} object.
+     * @return a {@link java.util.BitSet} object.
+     */
+    BitSet match(final CharSequence text) {
+        final BitSet found = new BitSet(m_count);
+        for (final int i : m_empty) {
+            found.set(i);
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = next(state, c);
+            while (next < 0 && state != 0) {
+                state = m_fail[state];
+                next = next(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (final int output : m_outputs[state]) {
+                found.set(output);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns whether the text contains any of the substrings.
+     *
+     * @param text a {@link java.lang.CharSequence} object.
+     * @return a boolean.
+     */
+    boolean matchesAny(final CharSequence text) {
+        if (m_empty.length > 0) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = next(state, c);
+            while (next < 0 && state != 0) {
+                state = m_fail[state];
+                next = next(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            if (m_outputs[state].length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return m_count;
+    }
+
+    private int next(final int state, final char c) {
+        final int i = Arrays.binarySearch(m_keys[state], c);
+        return i < 0 ? -1 : m_targets[state][i];
+    }
+
+    private static int[] toArray(final List<Integer> values) {
+        if (values.isEmpty()) {
+            return NONE;
+        }
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -30,10 +30,8 @@ package org.opennms.netmgt.syslogd;
 
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.Callable;
 
@@ -121,35 +119,27 @@ public class SyslogConnection implements Callable<Callable<?>> {
 
     private static DatagramPacket copyPacket(final DatagramPacket packet) {
         byte[] message = new byte[packet.getLength()];
-        System.arraycopy(packet.getData(), 0, message, 0, packet.getLength());
-        InetAddress addr = null;
-        try {
-            addr = InetAddress.getByAddress(packet.getAddress().getHostName(), packet.getAddress().getAddress());
-            DatagramPacket retPacket = new DatagramPacket(
-                                                          message,
-                                                          packet.getOffset(),
-                                                          packet.getLength(),
-                                                          addr,
-                                                          packet.getPort()
-                                                      );
-                                                      return retPacket;
-        } catch (UnknownHostException e) {
-            LOG.warn("unable to clone InetAddress object for {}", packet.getAddress());
-        }
-        return null;
+        System.arraycopy(packet.getData(), packet.getOffset(), message, 0, packet.getLength());
+        // InetAddress is immutable so it can be shared, and looking up its
+        // host name here would cost a reverse DNS lookup for every packet
+        DatagramPacket retPacket = new DatagramPacket(
+            message,
+            0,
+            packet.getLength(),
+            packet.getAddress(),
+            packet.getPort()
+        );
+        return retPacket;
     }
 
     private static DatagramPacket copyPacket(final InetSocketAddress source, final ByteBuffer buffer) {
-        byte[] message = new byte[0xffff];
-        int i = 0;
-        // Copy the buffer into the byte array
-        while (buffer.hasRemaining()) {
-            message[i++] = buffer.get();
-        }
+        // Copy the buffer, which may be a direct one that is reused, into a byte array
+        byte[] message = new byte[buffer.remaining()];
+        buffer.get(message);
         DatagramPacket retPacket = new DatagramPacket(
             message,
             0,
-            i,
+            message.length,
             source.getAddress(),
             source.getPort()
         );
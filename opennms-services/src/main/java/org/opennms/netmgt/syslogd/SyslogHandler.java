@@ -56,7 +56,13 @@ import org.slf4j.LoggerFactory;
 public final class SyslogHandler implements Fiber {
     private static final Logger LOG = LoggerFactory.getLogger(SyslogHandler.class);
 
-    private final boolean USE_NIO = false;
+    /**
+     * Receive with {@link SyslogReceiverNioThreadPoolImpl}, which has several
+     * threads receiving from the syslog port, instead of a single one.
+     */
+    public static final String NIO_PROPERTY = "org.opennms.syslogd.nio";
+
+    private final boolean USE_NIO = Boolean.getBoolean(NIO_PROPERTY);
     private final boolean USE_NETTY = false;
 
     /**
@@ -165,6 +171,8 @@ public final class SyslogHandler implements Fiber {
                 // NIO SyslogReceiver implementation
 
                 DatagramChannel channel = DatagramChannel.open();
+                // allow syslogd to be restarted while datagrams are still queued on the port
+                channel.socket().setReuseAddress(true);
                 if (m_dgIp != null && m_dgIp.length() != 0) {
                     channel.socket().bind(new InetSocketAddress(InetAddressUtils.addr(m_dgIp), m_dgPort));
                 } else {
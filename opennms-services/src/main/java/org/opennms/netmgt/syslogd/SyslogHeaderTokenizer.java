@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reads the header of a received syslog datagram at the byte level, before
+ * it is decoded and handed to a {@link SyslogParser}.
+ *
+ * Only the parts that all of the RFC 3164 and RFC 5424 formats start with are
+ * tokenized: the <code>&lt;PRI&gt;</code> and the optional RFC 5424 version.
+ * This is enough to tell, without running any regular expression, that a
+ * single line datagram can't match a parser whose pattern is anchored on the
+ * priority.
+ */
+final class SyslogHeaderTokenizer {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final byte[] m_data;
+
+    private final int m_offset;
+
+    private final int m_length;
+
+    private int m_priority = -1;
+
+    private int m_version = -1;
+
+    private boolean m_multiLine = false;
+
+    /**
+     * <p>Constructor for SyslogHeaderTokenizer.</p>
+     *
+     * @param data the datagram data
+     * @param offset the offset of the datagram in the data
+     * @param length the length of the datagram
+     */
+    SyslogHeaderTokenizer(final byte[] data, final int offset, final int length) {
+        m_data = data;
+        m_offset = offset;
+        // the datagram may be terminated by a NUL
+        m_length = (length > 0 && data[offset + length - 1] == 0) ? length - 1 : length;
+        tokenize();
+    }
+
+    private void tokenize() {
+        final int end = m_offset + m_length;
+        int i = m_offset;
+        if (i < end && m_data[i] == '<') {
+            int priority = 0;
+            int digits = 0;
+            for (i++; i < end && isDigit(m_data[i]); i++, digits++) {
+                priority = digits < 9 ? priority * 10 + (m_data[i] - '0') : priority;
+            }
+            if (digits > 0 && i < end && m_data[i] == '>') {
+                m_priority = priority;
+                i++;
+                int version = 0;
+                int j = i;
+                for (; j < end && j - i < 2 && isDigit(m_data[j]); j++) {
+                    version = version * 10 + (m_data[j] - '0');
+                }
+                if (j > i && j < end && m_data[j] == ' ') {
+                    m_version = version;
+                }
+            }
+        }
+        for (i = m_offset; i < end; i++) {
+            if (m_data[i] == '\n' || m_data[i] == '\r') {
+                m_multiLine = true;
+                break;
+            }
+        }
+    }
+
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Returns the <code>PRI</code> of the header, if the datagram starts
+     * with one.
+     *
+     * @return the priority, or -1
+     */
+    int getPriority() {
+        return m_priority;
+    }
+
+    /**
+     * Returns the version that follows the <code>PRI</code> in the RFC 5424
+     * format.
+     *
+     * @return the version, or -1
+     */
+    int getVersion() {
+        return m_version;
+    }
+
+    /**
+     * <p>hasPriority</p>
+     *
+     * @return whether the datagram starts with a <code>&lt;PRI&gt;</code>
+     */
+    boolean hasPriority() {
+        return m_priority >= 0;
+    }
+
+    /**
+     * <p>isMultiLine</p>
+     *
+     * @return whether the datagram contains a line terminator
+     */
+    boolean isMultiLine() {
+        return m_multiLine;
+    }
+
+    /**
+     * Decodes the datagram, without the terminating NUL, using the US-ASCII
+     * encoding.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    String getText() {
+        return new String(m_data, m_offset, m_length, US_ASCII);
+    }
+}
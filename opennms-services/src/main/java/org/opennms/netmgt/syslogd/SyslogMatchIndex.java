@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>uei-match</code> and <code>hide-match</code> entries of the
+ * syslogd configuration, compiled once so that a message is checked against
+ * all of the substring matches in a single pass and against all of the hide
+ * expressions with a single regular expression.
+ *
+ * The regular expressions of the <code>uei-match</code> entries are still
+ * tried one by one, in order, since the first entry that matches wins and
+ * its groups are mapped to parameters.
+ */
+final class SyslogMatchIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogMatchIndex.class);
+
+    /** Back references, quoting and comments don't survive being wrapped in an alternation */
+    private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\(?:[1-9]|k<|Q)|\\(\\?[a-z\\-]*x");
+
+    private static volatile SyslogMatchIndex m_instance = null;
+
+    private final UeiList m_ueiList;
+
+    private final HideMessage m_hideMessage;
+
+    /** The number of entries, in case more are added to the same lists */
+    private final int m_size;
+
+    /** The substrings of the substr uei-match entries, by index of the entry */
+    private final MultiSubstringMatcher m_ueiSubstrings;
+
+    private final MultiSubstringMatcher m_hideSubstrings;
+
+    /** The regex hide-match expressions, combined where possible */
+    private final List<Pattern> m_hidePatterns;
+
+    private SyslogMatchIndex(final UeiList ueiList, final HideMessage hideMessage) {
+        m_ueiList = ueiList;
+        m_hideMessage = hideMessage;
+        m_size = size(ueiList, hideMessage);
+
+        final List<String> ueiSubstrings = new ArrayList<String>();
+        final List<UeiMatch> ueiMatches = ueiList == null ? null : ueiList.getUeiMatchCollection();
+        if (ueiMatches != null) {
+            for (final UeiMatch uei : ueiMatches) {
+                // keep the indexes of the entries, the other ones never match
+                ueiSubstrings.add("substr".equals(uei.getMatch().getType()) ? uei.getMatch().getExpression() : null);
+            }
+        }
+        m_ueiSubstrings = new MultiSubstringMatcher(ueiSubstrings);
+
+        final List<String> hideSubstrings = new ArrayList<String>();
+        final List<Pattern> hidePatterns = new ArrayList<Pattern>();
+        final List<HideMatch> hideMatches = hideMessage == null ? null : hideMessage.getHideMatchCollection();
+        if (hideMatches != null) {
+            for (final HideMatch hide : hideMatches) {
+                final String expression = hide.getMatch().getExpression();
+                if ("substr".equals(hide.getMatch().getType())) {
+                    hideSubstrings.add(expression);
+                } else if ("regex".equals(hide.getMatch().getType())) {
+                    try {
+                        hidePatterns.add(Pattern.compile(expression, Pattern.MULTILINE));
+                    } catch (final PatternSyntaxException pse) {
+                        LOG.warn("Failed to compile regex pattern '{}'", expression, pse);
+                    }
+                }
+            }
+        }
+        m_hideSubstrings = new MultiSubstringMatcher(hideSubstrings);
+        m_hidePatterns = combine(hidePatterns);
+    }
+
+    /**
+     * Returns the compiled form of the given configuration, which is only
+     * built again when the configuration changes.
+     *
+     * @param ueiList a {@link org.opennms.netmgt.config.syslogd.UeiList} object.
+     * @param hideMessage a {@link org.opennms.netmgt.config.syslogd.HideMessage} object.
+     * @return a {@link org.opennms.netmgt.syslogd.SyslogMatchIndex} object.
+     */
+    static SyslogMatchIndex getInstance(final UeiList ueiList, final HideMessage hideMessage) {
+        SyslogMatchIndex index = m_instance;
+        if (index == null || index.m_ueiList != ueiList || index.m_hideMessage != hideMessage || index.m_size != size(ueiList, hideMessage)) {
+            index = new SyslogMatchIndex(ueiList, hideMessage);
+            m_instance = index;
+        }
+        return index;
+    }
+
+    private static int size(final UeiList ueiList, final HideMessage hideMessage) {
+        return (ueiList == null ? 0 : ueiList.getUeiMatchCount()) + (hideMessage == null ? 0 : hideMessage.getHideMatchCount());
+    }
+
+    static void invalidate() {
+        m_instance = null;
+    }
+
+    /**
+     * Returns the substr <code>uei-match</code> entries that the text
+     * contains.
+     *
+     * @param text the matched message
+     * @return the indexes of the entries in the uei-list
+     */
+    BitSet matchUeiSubstrings(final String text) {
+        return text == null ? new BitSet() : m_ueiSubstrings.match(text);
+    }
+
+    /**
+     * <p>hide</p>
+     *
+     * @param text the full text of the message
+     * @return whether any of the <code>hide-match</code> entries matches
+     */
+    boolean hide(final String text) {
+        if (m_hideSubstrings.matchesAny(text)) {
+            return true;
+        }
+        for (final Pattern pattern : m_hidePatterns) {
+            if (pattern.matcher(text).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Combines the patterns into an alternation, except for the ones that
+     * would mean something else once combined.  Patterns that compile on
+     * their own can still fail to compile together, for example when they
+     * use the same group name, in which case they are all kept separate.
+     */
+    private static List<Pattern> combine(final List<Pattern> patterns) {
+        if (patterns.size() < 2) {
+            return patterns;
+        }
+        final List<Pattern> combined = new ArrayList<Pattern>();
+        final List<Pattern> combinable = new ArrayList<Pattern>();
+        final StringBuilder alternation = new StringBuilder();
+        for (final Pattern pattern : patterns) {
+            if (NOT_COMBINABLE.matcher(pattern.pattern()).find()) {
+                combined.add(pattern);
+            } else {
+                combinable.add(pattern);
+                alternation.append(alternation.length() == 0 ? "" : "|").append("(?:").append(pattern.pattern()).append(')');
+            }
+        }
+        if (combinable.size() == 1) {
+            combined.add(0, combinable.get(0));
+        } else if (combinable.size() > 1) {
+            try {
+                combined.add(0, Pattern.compile(alternation.toString(), Pattern.MULTILINE));
+            } catch (final PatternSyntaxException pse) {
+                LOG.debug("Failed to combine the hide-match patterns, matching them one by one", pse);
+                combined.addAll(0, combinable);
+            }
+        }
+        return Collections.unmodifiableList(combined);
+    }
+}
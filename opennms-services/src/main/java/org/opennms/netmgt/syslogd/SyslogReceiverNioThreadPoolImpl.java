@@ -34,6 +34,7 @@ import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -60,6 +61,14 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
 
     private static final int SOCKET_TIMEOUT = 500;
 
+    /**
+     * The number of threads that receive from the syslog port, which defaults
+     * to the number of processors.
+     */
+    public static final String RECEIVE_THREADS_PROPERTY = "org.opennms.syslogd.receiveThreads";
+
+    private final int m_receiveThreads = Integer.getInteger(RECEIVE_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+
     /**
      * The Fiber's status.
      */
@@ -120,8 +129,8 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
         // on the syslog port. By using multiple threads, we can optimize the receipt of
         // packet data from the syslog port and avoid discarding UDP syslog packets.
         m_socketReceivers = new ThreadPoolExecutor(
-            Runtime.getRuntime().availableProcessors(),
-            Runtime.getRuntime().availableProcessors(),
+            m_receiveThreads,
+            m_receiveThreads,
             1000L,
             TimeUnit.MILLISECONDS,
             new LinkedBlockingQueue<Runnable>(),
@@ -138,6 +147,14 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
     public void stop() throws InterruptedException {
         m_stop = true;
 
+        // The socket timeout doesn't apply to DatagramChannel.receive() so close the
+        // channel to release the threads that are waiting on a datagram
+        try {
+            m_channel.close();
+        } catch (IOException e) {
+            LOG.warn("An I/O error occured while closing the syslog channel", e);
+        }
+
         // Shut down the thread pool that is processing DatagramChannel.receive() calls
         m_socketReceivers.shutdown();
 
@@ -187,15 +204,18 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
             LOG.info("Failed to set the receive buffer to {}", Integer.MAX_VALUE, e);
         }
 
-        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+        LOG.debug("Starting {} threads to receive from the syslog port", m_receiveThreads);
+        for (int i = 0; i < m_receiveThreads; i++) {
             m_socketReceivers.execute(new Runnable() {
                 public void run() {
 
                     // set to avoid numerous tracing message
                     boolean ioInterrupted = false;
 
-                    // Allocate a buffer that's big enough to handle any sane syslog message
-                    ByteBuffer buffer = ByteBuffer.allocate(0xffff);
+                    // Allocate a buffer that's big enough to handle any sane syslog message.
+                    // It is a direct buffer, which is reused for every datagram, so that the
+                    // channel doesn't have to copy the datagram through a temporary one.
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(0xffff);
                     buffer.clear();
 
                     // now start processing incoming requests
@@ -235,6 +255,9 @@ class SyslogReceiverNioThreadPoolImpl implements SyslogReceiver {
                         } catch (InterruptedException e) {
                             LOG.error("Task interrupted in {}", this.getClass().getSimpleName(), e);
                             break;
+                        } catch (ClosedChannelException e) {
+                            LOG.debug("The datagram receipt port was closed, exiting");
+                            break;
                         } catch (IOException e) {
                             LOG.error("An I/O exception occured on the datagram receipt port, exiting", e);
                             break;
@@ -0,0 +1,737 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A threshold expression compiled to a tree of nodes that are evaluated on
+ * primitive doubles, so that the common expressions don't need JEXL, its
+ * boxing or a context at every collection.
+ *
+ * Only the arithmetic subset of JEXL is supported: numbers, data sources
+ * (by name or as <code>datasources['name']</code>), the arithmetic,
+ * comparison and logical operators, the conditional operator and the
+ * functions of the <code>math</code> binding.  {@link #compile(String)}
+ * returns null for any other expression, and also for the ones whose
+ * result would depend on the integer arithmetic of JEXL.
+ *
+ * Evaluation throws {@link Fallback} whenever the result could differ from
+ * the one of JEXL (missing or NaN values, division by zero, ...), in which
+ * case the expression must be evaluated by JEXL instead.
+ */
+final class DoubleExpression {
+
+    /**
+     * Thrown when an expression must be evaluated by JEXL.  It is
+     * preallocated and has no stack trace, since it is only used for
+     * control flow.
+     */
+    static final class Fallback extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Fallback() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Fallback FALLBACK = new Fallback();
+
+    private static final class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private Unsupported(final String message) {
+            super(message);
+        }
+    }
+
+    private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList(
+            "null", "true", "false", "empty", "size", "new", "var", "function", "return",
+            "if", "else", "for", "foreach", "while", "in", "math", "datasources"));
+
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private enum Type {
+        /** A floating point value */
+        NUMBER,
+        /** A value that may be an integer for JEXL, and would then use integer arithmetic */
+        INTEGER,
+        BOOLEAN
+    }
+
+    private abstract static class Node {
+        private final Type m_type;
+
+        private Node(final Type type) {
+            m_type = type;
+        }
+
+        boolean isNumeric() {
+            return m_type != Type.BOOLEAN;
+        }
+
+        /** @return the value of an integer literal, or null */
+        BigInteger getConstant() {
+            return null;
+        }
+
+        double eval(final Map<String, Double> values) {
+            throw new IllegalStateException("not a numeric expression");
+        }
+
+        boolean test(final Map<String, Double> values) {
+            throw new IllegalStateException("not a boolean expression");
+        }
+    }
+
+    private static final class Constant extends Node {
+        private final double m_value;
+        private final BigInteger m_constant;
+
+        private Constant(final double value) {
+            super(Type.NUMBER);
+            m_value = value;
+            m_constant = null;
+        }
+
+        private Constant(final BigInteger constant) {
+            super(Type.INTEGER);
+            m_value = constant.doubleValue();
+            m_constant = constant;
+        }
+
+        @Override
+        BigInteger getConstant() {
+            return m_constant;
+        }
+
+        @Override
+        double eval(final Map<String, Double> values) {
+            return m_value;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final String m_name;
+
+        private Variable(final String name) {
+            super(Type.NUMBER);
+            m_name = name;
+        }
+
+        @Override
+        double eval(final Map<String, Double> values) {
+            final Double value = values.get(m_name);
+            if (value == null || value.isNaN()) {
+                throw FALLBACK;
+            }
+            return value.doubleValue();
+        }
+    }
+
+    private static final class Arithmetic extends Node {
+        private final char m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Arithmetic(final char operator, final Node left, final Node right) {
+            super(Type.NUMBER);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        double eval(final Map<String, Double> values) {
+            final double left = m_left.eval(values);
+            final double right = m_right.eval(values);
+            switch (m_operator) {
+            case '+': return left + right;
+            case '-': return left - right;
+            case '*': return left * right;
+            case '/':
+                if (right == 0.0) {
+                    throw FALLBACK;
+                }
+                return left / right;
+            default:
+                if (right == 0.0) {
+                    throw FALLBACK;
+                }
+                return left % right;
+            }
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node m_operand;
+
+        private Negate(final Node operand) {
+            super(operand.m_type);
+            m_operand = operand;
+        }
+
+        @Override
+        double eval(final Map<String, Double> values) {
+            return -m_operand.eval(values);
+        }
+    }
+
+    private enum Operator { EQ, NE, LT, LE, GT, GE }
+
+    private static final class Comparison extends Node {
+        private final Operator m_operator;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Comparison(final Operator operator, final Node left, final Node right) {
+            super(Type.BOOLEAN);
+            m_operator = operator;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean test(final Map<String, Double> values) {
+            final double left = m_left.eval(values);
+            final double right = m_right.eval(values);
+            if (Double.isNaN(left) || Double.isNaN(right)) {
+                // JEXL doesn't follow IEEE 754 for these
+                throw FALLBACK;
+            }
+            switch (m_operator) {
+            case EQ: return left == right;
+            case NE: return left != right;
+            case LT: return left < right;
+            case LE: return left <= right;
+            case GT: return left > right;
+            default: return left >= right;
+            }
+        }
+    }
+
+    private static final class Logical extends Node {
+        private final boolean m_and;
+        private final Node m_left;
+        private final Node m_right;
+
+        private Logical(final boolean and, final Node left, final Node right) {
+            super(Type.BOOLEAN);
+            m_and = and;
+            m_left = left;
+            m_right = right;
+        }
+
+        @Override
+        boolean test(final Map<String, Double> values) {
+            if (m_and) {
+                return m_left.test(values) && m_right.test(values);
+            } else {
+                return m_left.test(values) || m_right.test(values);
+            }
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node m_operand;
+
+        private Not(final Node operand) {
+            super(Type.BOOLEAN);
+            m_operand = operand;
+        }
+
+        @Override
+        boolean test(final Map<String, Double> values) {
+            return !m_operand.test(values);
+        }
+    }
+
+    private static final class Conditional extends Node {
+        private final Node m_condition;
+        private final Node m_then;
+        private final Node m_else;
+
+        private Conditional(final Node condition, final Node then, final Node otherwise) {
+            super(then.m_type == Type.NUMBER && otherwise.m_type == Type.NUMBER ? Type.NUMBER : Type.INTEGER);
+            m_condition = condition;
+            m_then = then;
+            m_else = otherwise;
+        }
+
+        @Override
+        double eval(final Map<String, Double> values) {
+            return m_condition.test(values) ? m_then.eval(values) : m_else.eval(values);
+        }
+    }
+
+    /**
+     * The functions of {@link ExpressionConfigWrapper.MathBinding}, in the
+     * overloads JEXL calls when at least one of the arguments is a double.
+     */
+    private enum MathFunction {
+        abs(1) { @Override double apply(final double a, final double b) { return Math.abs(a); } },
+        acos(1) { @Override double apply(final double a, final double b) { return Math.acos(a); } },
+        asin(1) { @Override double apply(final double a, final double b) { return Math.asin(a); } },
+        atan(1) { @Override double apply(final double a, final double b) { return Math.atan(a); } },
+        atan2(2) { @Override double apply(final double a, final double b) { return Math.atan2(a, b); } },
+        cbrt(1) { @Override double apply(final double a, final double b) { return Math.cbrt(a); } },
+        ceil(1) { @Override double apply(final double a, final double b) { return Math.ceil(a); } },
+        cos(1) { @Override double apply(final double a, final double b) { return Math.cos(a); } },
+        cosh(1) { @Override double apply(final double a, final double b) { return Math.cosh(a); } },
+        exp(1) { @Override double apply(final double a, final double b) { return Math.exp(a); } },
+        expm1(1) { @Override double apply(final double a, final double b) { return Math.expm1(a); } },
+        floor(1) { @Override double apply(final double a, final double b) { return Math.floor(a); } },
+        hypot(2) { @Override double apply(final double a, final double b) { return Math.hypot(a, b); } },
+        IEEEremainder(2) { @Override double apply(final double a, final double b) { return Math.IEEEremainder(a, b); } },
+        log(1) { @Override double apply(final double a, final double b) { return Math.log(a); } },
+        log10(1) { @Override double apply(final double a, final double b) { return Math.log10(a); } },
+        log1p(1) { @Override double apply(final double a, final double b) { return Math.log1p(a); } },
+        max(2) { @Override double apply(final double a, final double b) { return Math.max(a, b); } },
+        min(2) { @Override double apply(final double a, final double b) { return Math.min(a, b); } },
+        pow(2) { @Override double apply(final double a, final double b) { return Math.pow(a, b); } },
+        rint(1) { @Override double apply(final double a, final double b) { return Math.rint(a); } },
+        // returns a long, so it is typed as an integer
+        round(1) { @Override double apply(final double a, final double b) { return Math.round(a); } },
+        signum(1) { @Override double apply(final double a, final double b) { return Math.signum(a); } },
+        sin(1) { @Override double apply(final double a, final double b) { return Math.sin(a); } },
+        sinh(1) { @Override double apply(final double a, final double b) { return Math.sinh(a); } },
+        sqrt(1) { @Override double apply(final double a, final double b) { return Math.sqrt(a); } },
+        tan(1) { @Override double apply(final double a, final double b) { return Math.tan(a); } },
+        tanh(1) { @Override double apply(final double a, final double b) { return Math.tanh(a); } },
+        toDegrees(1) { @Override double apply(final double a, final double b) { return Math.toDegrees(a); } },
+        toRadians(1) { @Override double apply(final double a, final double b) { return Math.toRadians(a); } },
+        ulp(1) { @Override double apply(final double a, final double b) { return Math.ulp(a); } };
+
+        private final int m_arity;
+
+        private MathFunction(final int arity) {
+            m_arity = arity;
+        }
+
+        abstract double apply(double a, double b);
+    }
+
+    private static final class Call extends Node {
+        private final MathFunction m_function;
+        private final Node m_first;
+        private final Node m_second;
+
+        private Call(final MathFunction function, final Node first, final Node second) {
+            super(function == MathFunction.round ? Type.INTEGER : Type.NUMBER);
+            m_function = function;
+            m_first = first;
+            m_second = second;
+        }
+
+        @Override
+        double eval(final Map<String, Double> values) {
+            return m_function.apply(m_first.eval(values), m_second == null ? 0.0 : m_second.eval(values));
+        }
+    }
+
+    private final String m_expression;
+
+    private final Node m_root;
+
+    private DoubleExpression(final String expression, final Node root) {
+        m_expression = expression;
+        m_root = root;
+    }
+
+    /**
+     * Compiles the expression.
+     *
+     * @param expression a JEXL expression
+     * @return the compiled expression, or null if it must be left to JEXL
+     */
+    static DoubleExpression compile(final String expression) {
+        try {
+            final Parser parser = new Parser(expression);
+            final Node root = parser.parseExpression();
+            parser.expectEnd();
+            if (!root.isNumeric()) {
+                return null;
+            }
+            return new DoubleExpression(expression, root);
+        } catch (final Unsupported e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param values the values of the data sources, by name
+     * @return the value of the expression
+     * @throws Fallback if the expression must be evaluated by JEXL
+     */
+    double evaluate(final Map<String, Double> values) throws Fallback {
+        return m_root.eval(values);
+    }
+
+    @Override
+    public String toString() {
+        return m_expression;
+    }
+
+    /**
+     * A recursive descent parser that follows the precedence of the JEXL
+     * grammar, and gives up on anything outside of the supported subset.
+     */
+    private static final class Parser {
+        private final String m_text;
+        private final List<String> m_tokens = new ArrayList<String>();
+        private int m_position = 0;
+
+        private Parser(final String text) throws Unsupported {
+            m_text = text;
+            tokenize();
+        }
+
+        private void tokenize() throws Unsupported {
+            final String s = m_text;
+            int i = 0;
+            while (i < s.length()) {
+                final char c = s.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c >= '0' && c <= '9') {
+                    int j = i;
+                    while (j < s.length() && isDigit(s.charAt(j))) j++;
+                    if (j + 1 < s.length() && s.charAt(j) == '.' && isDigit(s.charAt(j + 1))) {
+                        j++;
+                        while (j < s.length() && isDigit(s.charAt(j))) j++;
+                        if (j < s.length() && (s.charAt(j) == 'e' || s.charAt(j) == 'E')) {
+                            j++;
+                            if (j < s.length() && (s.charAt(j) == '+' || s.charAt(j) == '-')) j++;
+                            if (j >= s.length() || !isDigit(s.charAt(j))) {
+                                throw new Unsupported("malformed exponent");
+                            }
+                            while (j < s.length() && isDigit(s.charAt(j))) j++;
+                        }
+                    } else if (c == '0' && j - i > 1) {
+                        throw new Unsupported("octal literal");
+                    }
+                    if (j < s.length() && (isLetter(s.charAt(j)) || s.charAt(j) == '.')) {
+                        // typed or hexadecimal literals, method calls on numbers...
+                        throw new Unsupported("number suffix");
+                    }
+                    m_tokens.add(s.substring(i, j));
+                    i = j;
+                } else if (isLetter(c)) {
+                    int j = i;
+                    while (j < s.length() && (isLetter(s.charAt(j)) || isDigit(s.charAt(j)))) j++;
+                    m_tokens.add(s.substring(i, j));
+                    i = j;
+                } else if (c == '\'' || c == '"') {
+                    final int end = s.indexOf(c, i + 1);
+                    if (end < 0 || s.substring(i, end).indexOf('\\') >= 0) {
+                        throw new Unsupported("string literal");
+                    }
+                    m_tokens.add(s.substring(i, end + 1));
+                    i = end + 1;
+                } else {
+                    final String two = i + 1 < s.length() ? s.substring(i, i + 2) : "";
+                    if (two.equals("==") || two.equals("!=") || two.equals("<=") || two.equals(">=") || two.equals("&&") || two.equals("||")) {
+                        m_tokens.add(two);
+                        i += 2;
+                    } else if (two.equals("=~") || two.equals("!~")) {
+                        throw new Unsupported("pattern matching");
+                    } else if ("+-*/%()?:,.[]<>!".indexOf(c) >= 0) {
+                        m_tokens.add(String.valueOf(c));
+                        i++;
+                    } else {
+                        throw new Unsupported("operator " + c);
+                    }
+                }
+            }
+        }
+
+        private static boolean isDigit(final char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isLetter(final char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private String peek() {
+            return m_position < m_tokens.size() ? m_tokens.get(m_position) : null;
+        }
+
+        private boolean accept(final String... tokens) {
+            final String next = peek();
+            for (final String token : tokens) {
+                if (token.equals(next)) {
+                    m_position++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String next() throws Unsupported {
+            final String next = peek();
+            if (next == null) {
+                throw new Unsupported("unexpected end");
+            }
+            m_position++;
+            return next;
+        }
+
+        private void expect(final String token) throws Unsupported {
+            if (!accept(token)) {
+                throw new Unsupported("expected " + token);
+            }
+        }
+
+        private void expectEnd() throws Unsupported {
+            if (peek() != null) {
+                throw new Unsupported("unexpected " + peek());
+            }
+        }
+
+        private Node parseExpression() throws Unsupported {
+            final Node condition = parseOr();
+            if (accept("?")) {
+                final Node then = parseExpression();
+                expect(":");
+                final Node otherwise = parseExpression();
+                if (condition.m_type != Type.BOOLEAN || !then.isNumeric() || !otherwise.isNumeric()) {
+                    throw new Unsupported("conditional");
+                }
+                return new Conditional(condition, then, otherwise);
+            }
+            return condition;
+        }
+
+        private Node parseOr() throws Unsupported {
+            Node left = parseAnd();
+            while (accept("||", "or")) {
+                left = logical(false, left, parseAnd());
+            }
+            return left;
+        }
+
+        private Node parseAnd() throws Unsupported {
+            Node left = parseEquality();
+            while (accept("&&", "and")) {
+                left = logical(true, left, parseEquality());
+            }
+            return left;
+        }
+
+        private Node parseEquality() throws Unsupported {
+            Node left = parseRelational();
+            while (true) {
+                if (accept("==", "eq")) {
+                    left = comparison(Operator.EQ, left, parseRelational());
+                } else if (accept("!=", "ne")) {
+                    left = comparison(Operator.NE, left, parseRelational());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseRelational() throws Unsupported {
+            Node left = parseAdditive();
+            while (true) {
+                if (accept("<", "lt")) {
+                    left = comparison(Operator.LT, left, parseAdditive());
+                } else if (accept("<=", "le")) {
+                    left = comparison(Operator.LE, left, parseAdditive());
+                } else if (accept(">", "gt")) {
+                    left = comparison(Operator.GT, left, parseAdditive());
+                } else if (accept(">=", "ge")) {
+                    left = comparison(Operator.GE, left, parseAdditive());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseAdditive() throws Unsupported {
+            Node left = parseMultiplicative();
+            while (true) {
+                if (accept("+")) {
+                    left = arithmetic('+', left, parseMultiplicative());
+                } else if (accept("-")) {
+                    left = arithmetic('-', left, parseMultiplicative());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseMultiplicative() throws Unsupported {
+            Node left = parseUnary();
+            while (true) {
+                if (accept("*")) {
+                    left = arithmetic('*', left, parseUnary());
+                } else if (accept("/", "div")) {
+                    left = arithmetic('/', left, parseUnary());
+                } else if (accept("%", "mod")) {
+                    left = arithmetic('%', left, parseUnary());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private Node parseUnary() throws Unsupported {
+            if (accept("-")) {
+                final Node operand = parseUnary();
+                if (!operand.isNumeric()) {
+                    throw new Unsupported("negation of a boolean");
+                }
+                final BigInteger constant = operand.getConstant();
+                return constant == null ? new Negate(operand) : integer(constant.negate());
+            } else if (accept("!", "not")) {
+                final Node operand = parseUnary();
+                if (operand.m_type != Type.BOOLEAN) {
+                    throw new Unsupported("not of a number");
+                }
+                return new Not(operand);
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() throws Unsupported {
+            final String token = next();
+            final char c = token.charAt(0);
+            if (token.equals("(")) {
+                final Node node = parseExpression();
+                expect(")");
+                return node;
+            } else if (isDigit(c)) {
+                if (token.indexOf('.') >= 0) {
+                    // JEXL makes floats of the real literals
+                    return new Constant((double) Float.parseFloat(token));
+                }
+                return integer(new BigInteger(token));
+            } else if (token.equals("datasources")) {
+                expect("[");
+                final String name = next();
+                if (name.charAt(0) != '\'' && name.charAt(0) != '"') {
+                    throw new Unsupported("datasources index");
+                }
+                expect("]");
+                return variable(name.substring(1, name.length() - 1));
+            } else if (token.equals("math")) {
+                expect(".");
+                final MathFunction function;
+                try {
+                    function = MathFunction.valueOf(next());
+                } catch (final IllegalArgumentException e) {
+                    throw new Unsupported("math function");
+                }
+                expect("(");
+                final Node first = parseExpression();
+                final Node second = function.m_arity == 2 && accept(",") ? parseExpression() : null;
+                expect(")");
+                if (!first.isNumeric() || (function.m_arity == 2 && (second == null || !second.isNumeric()))) {
+                    throw new Unsupported("math arguments");
+                }
+                // with integers only, JEXL would pick another overload
+                if (first.m_type != Type.NUMBER && (second == null || second.m_type != Type.NUMBER)) {
+                    throw new Unsupported("math with integers");
+                }
+                return new Call(function, first, second);
+            } else if (isLetter(c) && !RESERVED.contains(token) && !isOperatorWord(token)) {
+                return variable(token);
+            }
+            throw new Unsupported("unexpected " + token);
+        }
+
+        private static boolean isOperatorWord(final String token) {
+            return token.equals("and") || token.equals("or") || token.equals("not") || token.equals("eq") || token.equals("ne")
+                    || token.equals("lt") || token.equals("le") || token.equals("gt") || token.equals("ge")
+                    || token.equals("div") || token.equals("mod");
+        }
+
+        private Node variable(final String name) throws Unsupported {
+            final String next = peek();
+            if (next != null && (next.equals(".") || next.equals("[") || next.equals("("))) {
+                throw new Unsupported("property or method of " + name);
+            }
+            return new Variable(name);
+        }
+
+        private static Node integer(final BigInteger value) throws Unsupported {
+            if (value.compareTo(LONG_MIN) < 0 || value.compareTo(LONG_MAX) > 0) {
+                throw new Unsupported("big integer");
+            }
+            return new Constant(value);
+        }
+
+        private static Node arithmetic(final char operator, final Node left, final Node right) throws Unsupported {
+            if (!left.isNumeric() || !right.isNumeric()) {
+                throw new Unsupported("arithmetic on booleans");
+            }
+            if (left.m_type == Type.INTEGER && right.m_type == Type.INTEGER) {
+                // JEXL would use integer arithmetic, which is only done here for constants
+                final BigInteger l = left.getConstant();
+                final BigInteger r = right.getConstant();
+                if (l == null || r == null) {
+                    throw new Unsupported("integer arithmetic");
+                }
+                switch (operator) {
+                case '+': return integer(l.add(r));
+                case '-': return integer(l.subtract(r));
+                case '*': return integer(l.multiply(r));
+                default: throw new Unsupported("integer division");
+                }
+            }
+            return new Arithmetic(operator, left, right);
+        }
+
+        private static Node comparison(final Operator operator, final Node left, final Node right) throws Unsupported {
+            if (!left.isNumeric() || !right.isNumeric()) {
+                throw new Unsupported("comparison of booleans");
+            }
+            return new Comparison(operator, left, right);
+        }
+
+        private static Node logical(final boolean and, final Node left, final Node right) throws Unsupported {
+            if (left.m_type != Type.BOOLEAN || right.m_type != Type.BOOLEAN) {
+                throw new Unsupported("logical operator on numbers");
+            }
+            return new Logical(and, left, right);
+        }
+    }
+}
@@ -30,13 +30,15 @@ package org.opennms.netmgt.threshd;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,33 +52,124 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * The engine is thread safe once configured, so all of the expressions
+     * are parsed and evaluated by the same one.
+     */
+    private static final JexlEngine JEXL_ENGINE = new JexlEngine();
+
+    private static final MathBinding MATH = new MathBinding();
+
+    private static final int MAX_COMPILED_EXPRESSIONS = 1024;
+
+    /**
+     * The compiled expressions, by expression, shared by all of the
+     * thresholds that use the same expression.
+     */
+    private static final Map<String, CompiledExpression> s_compiledExpressions = new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CompiledExpression> eldest) {
+            return size() > MAX_COMPILED_EXPRESSIONS;
+        }
+    };
+
+    /**
+     * An expression parsed by JEXL, along with the data sources it uses and
+     * its compiled form, if it has one.
+     */
+    private static class CompiledExpression {
+        private final org.apache.commons.jexl2.Expression m_jexlExpression;
+        private final List<String> m_datasources;
+        private final DoubleExpression m_doubleExpression;
+
+        private CompiledExpression(final String expression) throws ThresholdExpressionException {
+            final List<String> datasources = new ArrayList<String>();
+            try {
+                ExpressionImpl e = (ExpressionImpl) JEXL_ENGINE.createExpression(expression);
+                LOG.trace("List of Variables on the Expression: {}", e.getVariables());
+                for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
+                    if (list.get(0).equalsIgnoreCase("math")) {
+                        continue;
+                    }
+                    if (list.get(0).equalsIgnoreCase("datasources")) {
+                        // Include the internal parameter. See NMS-5019
+                        datasources.add(list.get(1).intern());
+                    } else {
+                        // Include the first element, because datasources and math are the only composite elements
+                        datasources.add(list.get(0).intern());
+                    }
+                }
+                m_jexlExpression = e;
+            } catch (Throwable e) {
+                throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
+            }
+            m_datasources = Collections.unmodifiableList(datasources);
+            m_doubleExpression = DoubleExpression.compile(expression);
+            LOG.debug("Threshold expression {} is {}", expression, m_doubleExpression == null ? "evaluated by JEXL" : "compiled");
+        }
+    }
+
+    /**
+     * The context of an evaluation, which reads the values of the data sources
+     * from the map they are given in instead of copying them.
+     */
+    private static class ValuesContext implements JexlContext {
+        private final Map<String, Double> m_values;
+        private Map<String, Object> m_variables;
+
+        private ValuesContext(final Map<String, Double> values) {
+            m_values = values;
+        }
+
+        @Override
+        public Object get(final String name) {
+            if (m_variables != null && m_variables.containsKey(name)) {
+                return m_variables.get(name);
+            } else if ("math".equals(name)) {
+                return MATH;
+            } else if ("datasources".equals(name)) {
+                // To workaround NMS-5019
+                return Collections.unmodifiableMap(m_values);
+            }
+            return m_values.get(name);
+        }
+
+        @Override
+        public void set(final String name, final Object value) {
+            if (m_variables == null) {
+                m_variables = new HashMap<String, Object>();
+            }
+            m_variables.put(name, value);
+        }
+
+        @Override
+        public boolean has(final String name) {
+            return (m_variables != null && m_variables.containsKey(name)) || "math".equals(name) || "datasources".equals(name) || m_values.containsKey(name);
+        }
+    }
+
     private final Expression m_expression;
+    private final CompiledExpression m_compiled;
     private final Collection<String> m_datasources;
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
+        m_compiled = getCompiledExpression(m_expression.getExpression());
+        m_datasources = new ArrayList<String>(m_compiled.m_datasources);
+        LOG.trace("Threshold Variables: {}", m_datasources);
+    }
 
-        JexlEngine expressionParser = new JexlEngine();
-        m_datasources = new ArrayList<String>();
-        try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
-            LOG.trace("List of Variables on the Expression: {}", e.getVariables());
-            for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
-                if (list.get(0).equalsIgnoreCase("math")) {
-                    continue;
-                }
-                if (list.get(0).equalsIgnoreCase("datasources")) {
-                    // Include the internal parameter. See NMS-5019
-                    m_datasources.add(list.get(1).intern());
-                } else {
-                    // Include the first element, because datasources and math are the only composite elements
-                    m_datasources.add(list.get(0).intern());
-                }
+    private static CompiledExpression getCompiledExpression(final String expression) throws ThresholdExpressionException {
+        synchronized (s_compiledExpressions) {
+            CompiledExpression compiled = s_compiledExpressions.get(expression);
+            if (compiled == null) {
+                compiled = new CompiledExpression(expression);
+                s_compiledExpressions.put(expression, compiled);
             }
-        } catch (Throwable e) {
-            throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
+            return compiled;
         }
-        LOG.trace("Threshold Variables: {}", m_datasources);
     }
 
     @Override
@@ -142,15 +235,17 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
 
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
+        final DoubleExpression doubleExpression = m_compiled.m_doubleExpression;
+        if (doubleExpression != null) {
+            try {
+                return doubleExpression.evaluate(values);
+            } catch (DoubleExpression.Fallback e) {
+                // JEXL decides what happens with the missing values, divisions by zero, ...
+            }
+        }
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_compiled.m_jexlExpression.evaluate(new ValuesContext(values));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
@@ -31,12 +31,17 @@ package org.opennms.netmgt.threshd;
 import java.io.File;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdUtils;
@@ -61,9 +66,17 @@ public final class ThresholdEntity implements Cloneable {
     
     private static List<ThresholdEvaluator> s_thresholdEvaluators;
     
-    //Contains a list of evaluators for each used "instance".  Is populated with the list for the "default" instance (the "null" key)
-    // in the Constructor.  Note that this means we must use a null-key capable map like HashMap
-    private Map<String,List<ThresholdEvaluatorState>> m_thresholdEvaluatorStates = new HashMap<String,List<ThresholdEvaluatorState>>();
+    //Contains the list of evaluators for the "default" instance (the "null" instance), which is only changed when the thresholds are added
+    private final List<ThresholdEvaluatorState> m_defaultEvaluatorStates = new CopyOnWriteArrayList<ThresholdEvaluatorState>();
+
+    //Contains a list of evaluators for each other used "instance", which are evaluated concurrently
+    private final ConcurrentMap<String,List<ThresholdEvaluatorState>> m_thresholdEvaluatorStates = new ConcurrentHashMap<String,List<ThresholdEvaluatorState>>();
+
+    //Evaluations share the read lock; a merge or delete on reload takes the write lock, so the
+    //states are not rearmed and the configuration is not replaced in the middle of an evaluation
+    private final ReadWriteLock m_stateLock = new ReentrantReadWriteLock();
+    private final Lock m_readLock = m_stateLock.readLock();
+    private final Lock m_writeLock = m_stateLock.writeLock();
 
     // the commands for these need to be listed in ThresholdController as well
     static {
@@ -78,8 +91,6 @@ public final class ThresholdEntity implements Cloneable {
      * Constructor.
      */
     public ThresholdEntity() {
-        //Put in a default list for the "null" key (the default evaluators)
-        m_thresholdEvaluatorStates.put(null, new LinkedList<ThresholdEvaluatorState>());
     }
 
     /**
@@ -88,11 +99,11 @@ public final class ThresholdEntity implements Cloneable {
      * @return a {@link org.opennms.netmgt.threshd.BaseThresholdDefConfigWrapper} object.
      */
     public BaseThresholdDefConfigWrapper getThresholdConfig() {
-        return m_thresholdEvaluatorStates.get(null).get(0).getThresholdConfig();
+        return m_defaultEvaluatorStates.get(0).getThresholdConfig();
     }
     
     private boolean hasThresholds() {
-        return m_thresholdEvaluatorStates.get(null).size()!=0;
+        return m_defaultEvaluatorStates.size()!=0;
     }
     /**
      * Get datasource name
@@ -232,6 +243,15 @@ public final class ThresholdEntity implements Cloneable {
      * @param resource a {@link org.opennms.netmgt.threshd.CollectionResourceWrapper} object.
      */
     public List<Event> evaluateAndCreateEvents(CollectionResourceWrapper resource, Map<String, Double> values, Date date) {
+        m_readLock.lock();
+        try {
+            return doEvaluateAndCreateEvents(resource, values, date);
+        } finally {
+            m_readLock.unlock();
+        }
+    }
+
+    private List<Event> doEvaluateAndCreateEvents(CollectionResourceWrapper resource, Map<String, Double> values, Date date) {
         List<Event> events = new LinkedList<Event>();
         double dsValue=0.0;
         String instance = resource != null ? resource.getInstance() : null;
@@ -317,8 +337,8 @@ public final class ThresholdEntity implements Cloneable {
      */
     public void addThreshold(BaseThresholdDefConfigWrapper threshold) {
         ThresholdEvaluator evaluator = getEvaluatorForThreshold(threshold);
-        //Get the default list of evaluators (the null key)
-        List<ThresholdEvaluatorState> defaultList=m_thresholdEvaluatorStates.get(null);
+        //Get the default list of evaluators (the null instance)
+        List<ThresholdEvaluatorState> defaultList=m_defaultEvaluatorStates;
 
         for (ThresholdEvaluatorState item : defaultList) {
             if (threshold.getType().equals(item.getThresholdConfig().getType())) {
@@ -349,10 +369,13 @@ public final class ThresholdEntity implements Cloneable {
      * @return a {@link java.util.List} object.
      */
     public List<ThresholdEvaluatorState> getThresholdEvaluatorStates(String instance) {
+        if(instance==null) {
+            return m_defaultEvaluatorStates;
+        }
         List<ThresholdEvaluatorState> result= m_thresholdEvaluatorStates.get(instance);
         if(result==null) {
             //There is no set of evaluators for this instance; create a list by copying the base ones
-            List<ThresholdEvaluatorState> defaultList=m_thresholdEvaluatorStates.get(null);
+            List<ThresholdEvaluatorState> defaultList=m_defaultEvaluatorStates;
           
             //Create the new list
             result=new LinkedList<ThresholdEvaluatorState>();
@@ -360,8 +383,11 @@ public final class ThresholdEntity implements Cloneable {
                 result.add(state.getCleanClone());
             }
             
-            //Store the new list with the instance as the key
-            m_thresholdEvaluatorStates.put(instance == null ? null : instance.intern(), result);
+            //Store the new list with the instance as the key, unless another thread got there first
+            final List<ThresholdEvaluatorState> existing = m_thresholdEvaluatorStates.putIfAbsent(instance.intern(), result);
+            if(existing!=null) {
+                result=existing;
+            }
         }
         return result;
     }
@@ -372,9 +398,14 @@ public final class ThresholdEntity implements Cloneable {
      * @param entity a {@link org.opennms.netmgt.threshd.ThresholdEntity} object.
      */
     public void merge(ThresholdEntity entity) {
-        if (getThresholdConfig().equals(entity.getThresholdConfig()) == false) {
-            sendRearmForTriggeredStates();
-            getThresholdConfig().merge(entity.getThresholdConfig());
+        m_writeLock.lock();
+        try {
+            if (getThresholdConfig().equals(entity.getThresholdConfig()) == false) {
+                sendRearmForTriggeredStates();
+                getThresholdConfig().merge(entity.getThresholdConfig());
+            }
+        } finally {
+            m_writeLock.unlock();
         }
     }
 
@@ -382,24 +413,34 @@ public final class ThresholdEntity implements Cloneable {
      * Delete this will check states and will send rearm for all triggered.
      */
     public void delete() {
-        sendRearmForTriggeredStates();
+        m_writeLock.lock();
+        try {
+            sendRearmForTriggeredStates();
+        } finally {
+            m_writeLock.unlock();
+        }
     }
     
     private void sendRearmForTriggeredStates() {
-        for (String instance : m_thresholdEvaluatorStates.keySet()) {
-            for (ThresholdEvaluatorState state : m_thresholdEvaluatorStates.get(instance)) {
-                if (state.isTriggered()) {
-                    Event e = state.getEventForState(Status.RE_ARMED, new Date(), Double.NaN, null);
-                    Parm p = new Parm();
-                    p.setParmName("reason");
-                    Value v = new Value();
-                    v.setContent("Configuration has been changed");
-                    p.setValue(v);
-                    e.addParm(p);
-                    LOG.info("sendRearmForTriggeredStates: sending rearm for {}", e);
-                    ThresholdingEventProxyFactory.getFactory().getProxy().add(e);
-                    state.clearState();
-                }
+        sendRearmForTriggeredStates(m_defaultEvaluatorStates);
+        for (List<ThresholdEvaluatorState> states : m_thresholdEvaluatorStates.values()) {
+            sendRearmForTriggeredStates(states);
+        }
+    }
+
+    private static void sendRearmForTriggeredStates(List<ThresholdEvaluatorState> states) {
+        for (ThresholdEvaluatorState state : states) {
+            if (state.isTriggered()) {
+                Event e = state.getEventForState(Status.RE_ARMED, new Date(), Double.NaN, null);
+                Parm p = new Parm();
+                p.setParmName("reason");
+                Value v = new Value();
+                v.setContent("Configuration has been changed");
+                p.setValue(v);
+                e.addParm(p);
+                LOG.info("sendRearmForTriggeredStates: sending rearm for {}", e);
+                ThresholdingEventProxyFactory.getFactory().getProxy().add(e);
+                state.clearState();
             }
         }
     }
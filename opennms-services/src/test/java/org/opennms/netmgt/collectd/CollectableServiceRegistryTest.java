@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opennms.core.utils.InetAddressUtils.addr;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CollectableServiceRegistryTest {
+
+    private static final int[] NODES = { 1, 2, 3 };
+
+    private static final InetAddress[] ADDRESSES = { addr("10.0.0.1"), addr("10.0.0.2"), addr("10.0.0.3") };
+
+    private CollectableServiceRegistry m_registry;
+
+    /**
+     * The node each registered service is expected under, which is not the
+     * node of the service itself once its interface was reparented
+     */
+    private Map<CollectableService, Integer> m_expected;
+
+    private CollectableService m_snmp1;
+    private CollectableService m_jmx1;
+    private CollectableService m_snmp1b;
+    private CollectableService m_snmp2;
+
+    @Before
+    public void setUp() {
+        m_registry = new CollectableServiceRegistry();
+        m_expected = new IdentityHashMap<CollectableService, Integer>();
+
+        m_snmp1 = add(1, ADDRESSES[0], "SNMP", "example1");
+        m_jmx1 = add(1, ADDRESSES[0], "JMX", "example1");
+        m_snmp1b = add(1, ADDRESSES[1], "SNMP", "example1");
+        // the same address on another node
+        m_snmp2 = add(2, ADDRESSES[0], "SNMP", "example1");
+    }
+
+    @Test
+    public void testAdd() {
+        assertIndexed();
+        assertTrue(m_registry.contains(1, ADDRESSES[0], "JMX", "example1"));
+        assertFalse(m_registry.contains(1, ADDRESSES[0], "JMX", "example2"));
+        assertFalse(m_registry.contains(2, ADDRESSES[0], "JMX", "example1"));
+        assertFalse(m_registry.contains(1, ADDRESSES[2], "SNMP", "example1"));
+
+        // a second package collecting the same service
+        add(1, ADDRESSES[0], "SNMP", "example2");
+        assertIndexed();
+        assertTrue(m_registry.contains(1, ADDRESSES[0], "SNMP", "example2"));
+    }
+
+    @Test
+    public void testRemoveNode() {
+        assertRemoved(m_registry.removeNode(1), m_snmp1, m_jmx1, m_snmp1b);
+        assertIndexed();
+        assertServices(m_registry.getServices(ADDRESSES[0]), m_snmp2);
+
+        assertRemoved(m_registry.removeNode(1));
+        assertRemoved(m_registry.removeNode(3));
+        assertIndexed();
+    }
+
+    @Test
+    public void testRemoveInterface() {
+        assertRemoved(m_registry.removeInterface(1, ADDRESSES[0]), m_snmp1, m_jmx1);
+        assertIndexed();
+        assertServices(m_registry.getServices(1, ADDRESSES[1]), m_snmp1b);
+        assertServices(m_registry.getServices(ADDRESSES[0]), m_snmp2);
+
+        assertRemoved(m_registry.removeInterface(1, ADDRESSES[0]));
+        assertRemoved(m_registry.removeInterface(1, ADDRESSES[2]));
+        assertIndexed();
+    }
+
+    @Test
+    public void testRemoveInterfaceOnAnyNode() {
+        assertRemoved(m_registry.removeInterface(ADDRESSES[0]), m_snmp1, m_jmx1, m_snmp2);
+        assertIndexed();
+        assertServices(m_registry.getServices(), m_snmp1b);
+
+        assertRemoved(m_registry.removeInterface(ADDRESSES[0]));
+        assertRemoved(m_registry.removeInterface(ADDRESSES[2]));
+        assertIndexed();
+    }
+
+    @Test
+    public void testRemoveService() {
+        assertRemoved(m_registry.removeService(1, ADDRESSES[0], "SNMP"), m_snmp1);
+        assertIndexed();
+        assertServices(m_registry.getServices(1, ADDRESSES[0]), m_jmx1);
+
+        // removing the last service removes the interface
+        assertRemoved(m_registry.removeService(1, ADDRESSES[0], "JMX"), m_jmx1);
+        assertIndexed();
+        assertServices(m_registry.getServices(ADDRESSES[0]), m_snmp2);
+
+        assertRemoved(m_registry.removeService(1, ADDRESSES[0], "JMX"));
+        assertRemoved(m_registry.removeService(1, ADDRESSES[1], "HTTP"));
+        assertIndexed();
+    }
+
+    @Test
+    public void testReparent() {
+        assertServices(m_registry.reparent(ADDRESSES[0], 1, 3), m_snmp1, m_jmx1);
+        m_expected.put(m_snmp1, 3);
+        m_expected.put(m_jmx1, 3);
+        assertIndexed();
+        assertServices(m_registry.getServices(1, ADDRESSES[1]), m_snmp1b);
+        assertServices(m_registry.getServices(ADDRESSES[0]), m_snmp1, m_jmx1, m_snmp2);
+
+        // onto a node that has the same address already
+        assertServices(m_registry.reparent(ADDRESSES[0], 3, 2), m_snmp1, m_jmx1);
+        m_expected.put(m_snmp1, 2);
+        m_expected.put(m_jmx1, 2);
+        assertIndexed();
+        assertServices(m_registry.getServices(2, ADDRESSES[0]), m_snmp1, m_jmx1, m_snmp2);
+
+        // nothing left on the old node
+        assertServices(m_registry.reparent(ADDRESSES[0], 3, 1));
+        assertIndexed();
+
+        // the moved services are removed from their new node
+        assertRemoved(m_registry.removeNode(2), m_snmp1, m_jmx1, m_snmp2);
+        assertIndexed();
+        assertServices(m_registry.getServices(), m_snmp1b);
+    }
+
+    private CollectableService add(final int nodeId, final InetAddress addr, final String svcName, final String pkgName) {
+        final CollectableService cSvc = EasyMock.createMock(CollectableService.class);
+        expect(cSvc.getNodeId()).andReturn(nodeId).anyTimes();
+        expect(cSvc.getAddress()).andReturn(addr).anyTimes();
+        expect(cSvc.getServiceName()).andReturn(svcName).anyTimes();
+        expect(cSvc.getPackageName()).andReturn(pkgName).anyTimes();
+        EasyMock.replay(cSvc);
+
+        m_registry.add(cSvc);
+        m_expected.put(cSvc, nodeId);
+        return cSvc;
+    }
+
+    /**
+     * Checks that every lookup of the registry returns exactly the expected
+     * services, whether by node and address, by address or all of them, and
+     * that the node and address indexes hold no node without services.
+     */
+    private void assertIndexed() {
+        assertEquals(m_expected.size(), m_registry.size());
+        assertServices(m_registry.getServices(), m_expected.keySet().toArray(new CollectableService[0]));
+        assertEquals(new HashSet<Integer>(m_expected.values()), m_registry.getNodeIds());
+
+        for (final InetAddress addr : ADDRESSES) {
+            final Set<CollectableService> onAddress = new HashSet<CollectableService>();
+            final Set<Integer> nodesOnAddress = new HashSet<Integer>();
+            for (final int nodeId : NODES) {
+                final Set<CollectableService> onInterface = new HashSet<CollectableService>();
+                for (final Map.Entry<CollectableService, Integer> entry : m_expected.entrySet()) {
+                    if (entry.getValue() == nodeId && addr.equals(entry.getKey().getAddress())) {
+                        onInterface.add(entry.getKey());
+                        nodesOnAddress.add(nodeId);
+                        assertTrue(m_registry.contains(nodeId, addr, entry.getKey().getServiceName(), entry.getKey().getPackageName()));
+                    }
+                }
+                assertServices(m_registry.getServices(nodeId, addr), onInterface.toArray(new CollectableService[0]));
+                onAddress.addAll(onInterface);
+            }
+            assertServices(m_registry.getServices(addr), onAddress.toArray(new CollectableService[0]));
+            assertEquals(nodesOnAddress, m_registry.getNodeIds(addr));
+        }
+    }
+
+    /**
+     * Asserts that the given services were removed, and no longer expects
+     * them in the registry.
+     */
+    private void assertRemoved(final Collection<CollectableService> removed, final CollectableService... expected) {
+        assertServices(removed, expected);
+        for (final CollectableService cSvc : expected) {
+            m_expected.remove(cSvc);
+        }
+    }
+
+    /**
+     * Asserts that the given services are the expected ones, in any order.
+     * The mocks are only equal to themselves.
+     */
+    private static void assertServices(final Collection<CollectableService> actual, final CollectableService... expected) {
+        assertEquals(expected.length, actual.size());
+        final Set<CollectableService> actualSet = new HashSet<CollectableService>();
+        actualSet.addAll(actual);
+        final Set<CollectableService> expectedSet = new HashSet<CollectableService>();
+        expectedSet.addAll(Arrays.asList(expected));
+        assertEquals(expectedSet, actualSet);
+    }
+}
@@ -29,6 +29,8 @@
 package org.opennms.netmgt.collectd;
 
 import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.aryEq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.isNull;
@@ -57,6 +59,7 @@ import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUpdateFormat;
 import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpResult;
@@ -137,7 +140,13 @@ public class SnmpAttributeTest extends TestCase {
         m_rrdStrategy.createFile(isA(Object.class), (Map<String, String>) isNull());
 
         expect(m_rrdStrategy.openFile(isA(String.class))).andReturn(new Object());
-        m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        double value = Double.parseDouble(matchValue);
+        if (RrdUpdateFormat.isExact(matchValue, value)) {
+            m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), anyLong(), aryEq(new double[] { value }));
+        } else {
+            // Counters beyond 2^53 are passed as they were collected
+            m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        }
         m_rrdStrategy.closeFile(isA(Object.class));
 
         m_mocks.replayAll();
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BridgeTopologyEngineTest {
+
+    private static final Set<Integer> NO_PEERS = Collections.emptySet();
+
+    @Test
+    public void testForwardingTable() {
+        final Map<Integer, Set<String>> bft = new HashMap<Integer, Set<String>>();
+        bft.put(1, new HashSet<String>(Arrays.asList("000c29dcc076", "ffffffffffff")));
+        bft.put(24, new HashSet<String>(Arrays.asList("000c29dcc076", "0012cf68f800")));
+        bft.put(65535, new HashSet<String>(Arrays.asList("8000000000fe")));
+
+        final BridgeForwardingTable table = BridgeForwardingTable.fromMap(bft);
+        assertEquals(5, table.size());
+        assertEquals(bft, table.toMap());
+        assertEquals(4, table.getMacKeys().length);
+        for (int i = 0; i < table.size(); i++) {
+            assertNull(table.getIfIndex(i));
+            assertEquals(i, table.indexOf(BridgeForwardingTable.pack(table.getPort(i), table.getMacAddress(i))));
+        }
+        assertTrue(table.indexOf(BridgeForwardingTable.pack(2, "000c29dcc076")) < 0);
+    }
+
+    @Test
+    public void testInvalidEntries() {
+        final BridgeForwardingTable.Builder builder = new BridgeForwardingTable.Builder();
+        assertFalse(builder.add(1, "000C29DCC076", null));
+        assertFalse(builder.add(1, "000c29dcc07", null));
+        assertFalse(builder.add(65536, "000c29dcc076", null));
+        assertFalse(builder.add(null, "000c29dcc076", null));
+        assertTrue(builder.add(3, "000c29dcc076", 10));
+        assertTrue(builder.add(3, "000c29dcc076", 11));
+        assertTrue(builder.add(2, "000c29dcc076", null));
+
+        final BridgeForwardingTable table = builder.build();
+        assertEquals(2, table.size());
+        assertEquals(2, table.getPort(0));
+        assertNull(table.getIfIndex(0));
+        assertEquals(3, table.getPort(1));
+        assertEquals(Integer.valueOf(11), table.getIfIndex(1));
+    }
+
+    @Test
+    public void testDomains() {
+        final BridgeTopologyEngine engine = new BridgeTopologyEngine();
+        final Map<Integer, BridgeForwardingTable> tables = new HashMap<Integer, BridgeForwardingTable>();
+        tables.put(1, table(1, "000000000001", "000000000002"));
+        tables.put(2, table(5, "000000000002", "000000000003"));
+        tables.put(3, table(7, "000000000003"));
+        tables.put(4, table(1, "000000000010"));
+        tables.put(5, table(1, "000000000011"));
+        engine.load(tables);
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), engine.getDomain(1, NO_PEERS));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), engine.getDomain(3, NO_PEERS));
+        assertEquals(new HashSet<Integer>(Arrays.asList(4)), engine.getDomain(4, NO_PEERS));
+        assertEquals(new HashSet<Integer>(Arrays.asList(4, 5)), engine.getDomain(4, Collections.singleton(5)));
+        assertEquals(new HashSet<Integer>(Arrays.asList(6)), engine.getDomain(6, NO_PEERS));
+
+        // the table collected from a node joins the domains it overlaps
+        final SortedSet<Integer> domain = engine.lockDomain(6, table(2, "000000000001", "000000000010"), NO_PEERS, null);
+        try {
+            assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3, 4, 6)), domain);
+        } finally {
+            engine.unlockDomain(6, domain);
+        }
+
+        engine.setTable(2, BridgeForwardingTable.EMPTY);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1)), engine.getDomain(1, NO_PEERS));
+        engine.removeNode(4);
+        assertEquals(new HashSet<Integer>(Arrays.asList(5)), engine.getDomain(5, NO_PEERS));
+    }
+
+    @Test
+    public void testIndependentDomainsAreNotSerialized() throws Exception {
+        final BridgeTopologyEngine engine = new BridgeTopologyEngine();
+        final Map<Integer, BridgeForwardingTable> tables = new HashMap<Integer, BridgeForwardingTable>();
+        tables.put(1, table(1, "000000000001"));
+        tables.put(2, table(1, "000000000002"));
+        engine.load(tables);
+
+        final SortedSet<Integer> domain = engine.lockDomain(1, table(2, "000000000001"), NO_PEERS, null);
+        boolean locked = true;
+        try {
+            final CountDownLatch independent = new CountDownLatch(1);
+            final CountDownLatch overlapping = new CountDownLatch(1);
+            new Thread() {
+                @Override
+                public void run() {
+                    final SortedSet<Integer> other = engine.lockDomain(2, table(2, "000000000002"), NO_PEERS, null);
+                    engine.unlockDomain(2, other);
+                    independent.countDown();
+                }
+            }.start();
+            new Thread() {
+                @Override
+                public void run() {
+                    final SortedSet<Integer> other = engine.lockDomain(3, table(2, "000000000001"), NO_PEERS, null);
+                    engine.unlockDomain(3, other);
+                    overlapping.countDown();
+                }
+            }.start();
+            assertTrue(independent.await(10, TimeUnit.SECONDS));
+            assertFalse(overlapping.await(200, TimeUnit.MILLISECONDS));
+            engine.unlockDomain(1, domain);
+            locked = false;
+            assertTrue(overlapping.await(10, TimeUnit.SECONDS));
+        } finally {
+            if (locked) {
+                engine.unlockDomain(1, domain);
+            }
+        }
+    }
+
+    private static BridgeForwardingTable table(final int port, final String... macs) {
+        final BridgeForwardingTable.Builder builder = new BridgeForwardingTable.Builder();
+        for (final String mac : macs) {
+            builder.add(port, mac, null);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.opennms.netmgt.rtc.RTCUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CategoryAvailabilityTest {
+    private static final Logger LOG = LoggerFactory.getLogger(CategoryAvailabilityTest.class);
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private static final long BUCKET = DAY / 1440;
+
+    @Test
+    public void testOpenAndClosedOutages() {
+        final long now = System.currentTimeMillis();
+        final CategoryAvailability availability = new CategoryAvailability(DAY);
+        final List<RTCNodeSvcTime> none = Collections.emptyList();
+        availability.addService(none);
+        availability.addService(none);
+        assertEquals(2, availability.getServiceCount());
+        assertEquals(100.0, availability.getValue(now), 0.0);
+
+        // down for an hour and back up
+        availability.outageAdded(now - 3 * 3600000L, -1);
+        availability.outageClosed(now - 3 * 3600000L, now - 2 * 3600000L);
+        assertEquals(3600000.0, availability.getDownTime(now), 0.0);
+
+        // down for the last half hour
+        availability.outageAdded(now - 1800000L, -1);
+        assertEquals(5400000.0, availability.getDownTime(now), 0.0);
+        assertEquals(RTCUtils.getOutagePercentage(5400000.0, DAY, 2), availability.getValue(now), 0.0);
+
+        // a day later, only the open outage is left and it covers the whole window
+        assertEquals(DAY, availability.getDownTime(now + DAY), 0.0);
+        assertEquals(DAY, availability.getDownTime(now + 3 * DAY), 0.0);
+    }
+
+    @Test
+    public void testAddAndRemoveService() {
+        final long now = System.currentTimeMillis();
+        final CategoryAvailability availability = new CategoryAvailability(DAY);
+
+        final List<RTCNodeSvcTime> svcTimes = new ArrayList<RTCNodeSvcTime>();
+        svcTimes.add(new RTCNodeSvcTime(now - 2 * DAY, now - DAY - 3600000L));
+        svcTimes.add(new RTCNodeSvcTime(now - DAY - 3600000L, now - DAY + 3600000L));
+        svcTimes.add(new RTCNodeSvcTime(now - 600000L));
+
+        availability.addService(svcTimes);
+        assertEquals(1, availability.getServiceCount());
+        assertEquals(getDownTime(svcTimes, now), availability.getDownTime(now), BUCKET);
+
+        availability.removeService(svcTimes);
+        assertEquals(0, availability.getServiceCount());
+        assertEquals(0.0, availability.getDownTime(now), 0.0);
+        assertEquals(100.0, availability.getValue(now), 0.0);
+    }
+
+    /**
+     * Plays a few days of random outages of a number of services and
+     * compares the down time with the one computed from the service times,
+     * which can only differ for the bucket at the start of the window.
+     */
+    @Test
+    public void testMatchesServiceTimes() {
+        final Random random = new Random(42);
+        final int services = 50;
+        final long start = System.currentTimeMillis();
+
+        final CategoryAvailability availability = new CategoryAvailability(DAY);
+        final List<List<RTCNodeSvcTime>> svcTimes = new ArrayList<List<RTCNodeSvcTime>>();
+        for (int i = 0; i < services; i++) {
+            svcTimes.add(new ArrayList<RTCNodeSvcTime>());
+            availability.addService(Collections.<RTCNodeSvcTime>emptyList());
+        }
+
+        long time = start;
+        for (int step = 0; step < 5000; step++) {
+            time += random.nextInt(120000);
+            final List<RTCNodeSvcTime> times = svcTimes.get(random.nextInt(services));
+            final RTCNodeSvcTime last = times.isEmpty() ? null : times.get(times.size() - 1);
+            if (last == null || last.getRegainedTime() != -1) {
+                times.add(new RTCNodeSvcTime(time));
+                availability.outageAdded(time, -1);
+            } else {
+                last.setRegainedTime(time);
+                availability.outageClosed(last.getLostTime(), time);
+            }
+
+            if (step % 100 == 0) {
+                long expected = 0;
+                for (final List<RTCNodeSvcTime> t : svcTimes) {
+                    expected += getDownTime(t, time);
+                }
+                assertEquals("down time at step " + step, expected, availability.getDownTime(time), services * BUCKET);
+            }
+        }
+    }
+
+    /**
+     * Reads the value of the category while outages are added and closed as
+     * fast as possible by several threads.
+     */
+    @Test
+    public void testReadsDuringOutageStorm() throws Exception {
+        final int threads = 4;
+        final int services = 10000;
+        final int outagesPerThread = 100000;
+        final long now = System.currentTimeMillis();
+
+        final CategoryAvailability availability = new CategoryAvailability(DAY);
+        for (int i = 0; i < services; i++) {
+            availability.addService(Collections.<RTCNodeSvcTime>emptyList());
+        }
+
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        final Thread reader = new Thread("reader") {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    final double value = availability.getValue(System.currentTimeMillis());
+                    if (value < 0.0 || value > 100.0) {
+                        errors.add(new AssertionError("value out of range: " + value));
+                    }
+                    reads.incrementAndGet();
+                }
+            }
+        };
+        reader.start();
+
+        final long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread("writer-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < outagesPerThread; i++) {
+                            final long lostTime = now - (i % 3600) * 1000L;
+                            availability.outageAdded(lostTime, -1);
+                            availability.outageClosed(lostTime, lostTime + 1000L);
+                        }
+                    } catch (final Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        final long elapsed = System.nanoTime() - begin;
+        running.set(false);
+        reader.join();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals((double) threads * outagesPerThread * 1000L, availability.getDownTime(now + 1000L), 0.0);
+        LOG.debug("{} outages in {} ms, {} reads of the category value meanwhile", threads * outagesPerThread, elapsed / 1000000, reads.get());
+    }
+
+    private static long getDownTime(final List<RTCNodeSvcTime> svcTimes, final long curTime) {
+        long downTime = 0;
+        for (final RTCNodeSvcTime svcTime : svcTimes) {
+            downTime += svcTime.getDownTime(curTime, DAY);
+        }
+        return downTime;
+    }
+}
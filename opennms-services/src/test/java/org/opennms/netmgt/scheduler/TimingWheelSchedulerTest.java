@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+
+public class TimingWheelSchedulerTest {
+
+    /**
+     * A scheduler whose clock is moved by the test instead of the worker thread.
+     */
+    private static class ManualTimingWheelScheduler extends TimingWheelScheduler {
+        private volatile long m_now;
+
+        public ManualTimingWheelScheduler(long spread) {
+            super("Test", 2, 10, spread);
+        }
+
+        @Override
+        public long getCurrentTime() {
+            return m_now;
+        }
+
+        public void setTime(long now) {
+            m_now = now;
+            advance(now);
+        }
+    }
+
+    private static class CountingRunnable implements ReadyRunnable {
+        private final CountDownLatch m_latch;
+        private volatile boolean m_ready = true;
+
+        public CountingRunnable(CountDownLatch latch) {
+            m_latch = latch;
+        }
+
+        @Override
+        public boolean isReady() {
+            return m_ready;
+        }
+
+        @Override
+        public void run() {
+            m_latch.countDown();
+        }
+    }
+
+    private ManualTimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.getRunner().shutdownNow();
+        MockLogAppender.assertNoWarningsOrGreater();
+    }
+
+    @Test
+    public void testRunsAtDeadline() throws Exception {
+        m_scheduler = new ManualTimingWheelScheduler(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(1000, new CountingRunnable(latch));
+
+        m_scheduler.setTime(990);
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+        assertEquals(1, m_scheduler.getScheduled());
+
+        m_scheduler.setTime(1000);
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCascadesLongIntervals() throws Exception {
+        m_scheduler = new ManualTimingWheelScheduler(0);
+        final CountDownLatch latch = new CountDownLatch(3);
+        // these land on the first, second and third level of the wheel
+        m_scheduler.schedule(2000, new CountingRunnable(latch));
+        m_scheduler.schedule(300000, new CountingRunnable(latch));
+        m_scheduler.schedule(3600000, new CountingRunnable(latch));
+
+        m_scheduler.setTime(2000);
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+
+        m_scheduler.setTime(299990);
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        m_scheduler.setTime(300000);
+        assertEquals(2, m_scheduler.getNumTasksExecuted());
+
+        m_scheduler.setTime(3599990);
+        assertEquals(2, m_scheduler.getNumTasksExecuted());
+        m_scheduler.setTime(3600000);
+        assertEquals(3, m_scheduler.getNumTasksExecuted());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, m_scheduler.getMaxLag());
+    }
+
+    @Test
+    public void testSchedulesDuringCatchUp() throws Exception {
+        m_scheduler = new ManualTimingWheelScheduler(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(100, new CountingRunnable(latch));
+
+        // the worker fell behind, so the runnable is late
+        m_scheduler.setTime(750);
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        assertEquals(650, m_scheduler.getLastLag());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSpreadsImmediateSchedules() throws Exception {
+        m_scheduler = new ManualTimingWheelScheduler(1000);
+        final CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            m_scheduler.schedule(0, new CountingRunnable(latch));
+        }
+
+        m_scheduler.setTime(490);
+        assertEquals(50, m_scheduler.getNumTasksExecuted());
+
+        m_scheduler.setTime(1000);
+        assertEquals(100, m_scheduler.getNumTasksExecuted());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRetriesWhenNotReady() throws Exception {
+        m_scheduler = new ManualTimingWheelScheduler(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountingRunnable runnable = new CountingRunnable(latch);
+        runnable.m_ready = false;
+        m_scheduler.schedule(100, runnable);
+
+        m_scheduler.setTime(100);
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+        assertEquals(1, m_scheduler.getBacklog());
+
+        runnable.m_ready = true;
+        m_scheduler.setTime(100 + TimingWheelScheduler.NOT_READY_RETRY - 10);
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+
+        m_scheduler.setTime(100 + TimingWheelScheduler.NOT_READY_RETRY);
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.HideMessage;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiList;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+
+public class SyslogMatchIndexTest {
+
+    @Test
+    public void testOverlappingSubstrings() {
+        final MultiSubstringMatcher matcher = new MultiSubstringMatcher(Arrays.asList("he", "she", "his", "hers", null, "rs"));
+        assertEquals(bits(0, 1, 3, 5), matcher.match("ushers"));
+        assertEquals(bits(2), matcher.match("this"));
+        assertEquals(bits(), matcher.match("nothing to see"));
+        assertTrue(matcher.matchesAny("ahishe"));
+        assertFalse(matcher.matchesAny("hi"));
+    }
+
+    @Test
+    public void testEmptySubstring() {
+        final MultiSubstringMatcher matcher = new MultiSubstringMatcher(Arrays.asList("foo", ""));
+        assertEquals(bits(1), matcher.match(""));
+        assertTrue(matcher.matchesAny("bar"));
+    }
+
+    /**
+     * Compares the matcher with {@link String#contains(CharSequence)} for
+     * random substrings of a small alphabet, which overlap a lot.
+     */
+    @Test
+    public void testMatchesContains() {
+        final Random random = new Random(42);
+        final List<String> substrings = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            substrings.add(randomString(random, 1 + random.nextInt(5)));
+        }
+        final MultiSubstringMatcher matcher = new MultiSubstringMatcher(substrings);
+        for (int n = 0; n < 1000; n++) {
+            final String text = randomString(random, random.nextInt(40));
+            final BitSet expected = new BitSet();
+            for (int i = 0; i < substrings.size(); i++) {
+                if (text.contains(substrings.get(i))) {
+                    expected.set(i);
+                }
+            }
+            assertEquals(text, expected, matcher.match(text));
+            assertEquals(text, !expected.isEmpty(), matcher.matchesAny(text));
+        }
+    }
+
+    @Test
+    public void testHide() {
+        final HideMessage hideMessage = new HideMessage();
+        hideMessage.addHideMatch(hideMatch("substr", "password"));
+        hideMessage.addHideMatch(hideMatch("regex", "secret(\\d+)"));
+        hideMessage.addHideMatch(hideMatch("regex", "(a+)b\\1"));
+        hideMessage.addHideMatch(hideMatch("regex", "^key: .*$"));
+        hideMessage.addHideMatch(hideMatch("regex", "[unbalanced"));
+
+        final SyslogMatchIndex index = SyslogMatchIndex.getInstance(null, hideMessage);
+        assertTrue(index.hide("the password is foo"));
+        assertTrue(index.hide("the secret123 is foo"));
+        assertTrue(index.hide("aaabaaa"));
+        assertTrue(index.hide("first line\nkey: foo"));
+        assertFalse(index.hide("aab"));
+        assertFalse(index.hide("the secret is foo"));
+        assertFalse(index.hide("the key: foo"));
+    }
+
+    /**
+     * Patterns that use the same group name compile on their own but not
+     * once combined, so they must be matched one by one.
+     */
+    @Test
+    public void testHideWithPatternsThatCannotBeCombined() {
+        final HideMessage hideMessage = new HideMessage();
+        hideMessage.addHideMatch(hideMatch("regex", "user=(?<name>\\w+) denied"));
+        hideMessage.addHideMatch(hideMatch("regex", "login (?<name>\\w+) failed"));
+        hideMessage.addHideMatch(hideMatch("regex", "^token: .*$"));
+
+        final SyslogMatchIndex index = SyslogMatchIndex.getInstance(null, hideMessage);
+        assertTrue(index.hide("user=bob denied"));
+        assertTrue(index.hide("login bob failed"));
+        assertTrue(index.hide("first line\ntoken: foo"));
+        assertFalse(index.hide("user=bob allowed"));
+        assertFalse(index.hide("login failed"));
+    }
+
+    @Test
+    public void testIndexIsRebuiltWhenTheConfigurationChanges() {
+        final UeiList ueiList = new UeiList();
+        ueiList.addUeiMatch(ueiMatch("regex", "foo"));
+        ueiList.addUeiMatch(ueiMatch("substr", "bar"));
+        final SyslogMatchIndex index = SyslogMatchIndex.getInstance(ueiList, null);
+        assertEquals(bits(1), index.matchUeiSubstrings("foo bar"));
+        assertSame(index, SyslogMatchIndex.getInstance(ueiList, null));
+
+        ueiList.addUeiMatch(ueiMatch("substr", "foo"));
+        assertEquals(bits(1, 2), SyslogMatchIndex.getInstance(ueiList, null).matchUeiSubstrings("foo bar"));
+        assertEquals(bits(), SyslogMatchIndex.getInstance(new UeiList(), null).matchUeiSubstrings("foo bar"));
+    }
+
+    @Test
+    public void testHeaderTokenizer() {
+        SyslogHeaderTokenizer header = tokenize("<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - message\0");
+        assertEquals(34, header.getPriority());
+        assertEquals(1, header.getVersion());
+        assertFalse(header.isMultiLine());
+        assertEquals("<34>1 2003-10-11T22:14:15.003Z mymachine.example.com su - ID47 - message", header.getText());
+
+        header = tokenize("<173>Dec  7 12:02:06 10.13.110.116 mgmtd[8326]: saved");
+        assertEquals(173, header.getPriority());
+        assertEquals(-1, header.getVersion());
+
+        header = tokenize("Dec  7 12:02:06 10.13.110.116 mgmtd[8326]: saved\n<6>second line");
+        assertFalse(header.hasPriority());
+        assertTrue(header.isMultiLine());
+
+        assertFalse(tokenize("<>foo").hasPriority());
+        assertFalse(tokenize("<12").hasPriority());
+        assertEquals("", tokenize("\0").getText());
+    }
+
+    /**
+     * Checks a message against a few hundred substring matches, one by one
+     * and with the automaton.
+     */
+    @Test
+    public void testSubstringThroughput() {
+        final int entries = 500;
+        final int messages = 100000;
+        final List<String> substrings = new ArrayList<String>();
+        for (int i = 0; i < entries; i++) {
+            substrings.add(String.format("%%ASA-%d-%06d", i % 7, 100000 + i));
+        }
+        final String text = "Dec  7 12:02:06 10.13.110.116 : %ASA-6-302016: Teardown UDP connection 806353 for outside:172.18.123.243/24057 to identity:172.18.124.136/161 duration 0:02:01 bytes 313";
+
+        long start = System.nanoTime();
+        int found = 0;
+        for (int n = 0; n < messages; n++) {
+            for (final String substring : substrings) {
+                if (text.contains(substring)) {
+                    found++;
+                }
+            }
+        }
+        final long contains = System.nanoTime() - start;
+
+        final MultiSubstringMatcher matcher = new MultiSubstringMatcher(substrings);
+        start = System.nanoTime();
+        int matched = 0;
+        for (int n = 0; n < messages; n++) {
+            matched += matcher.match(text).cardinality();
+        }
+        final long automaton = System.nanoTime() - start;
+
+        assertEquals(found, matched);
+        System.err.printf("%d messages against %d substrings: %d ms with contains(), %d ms with the automaton%n", messages, entries, contains / 1000000, automaton / 1000000);
+    }
+
+    private static SyslogHeaderTokenizer tokenize(final String text) {
+        final byte[] data = text.getBytes();
+        return new SyslogHeaderTokenizer(data, 0, data.length);
+    }
+
+    private static BitSet bits(final int... indexes) {
+        final BitSet bits = new BitSet();
+        for (final int i : indexes) {
+            bits.set(i);
+        }
+        return bits;
+    }
+
+    private static String randomString(final Random random, final int length) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append((char)('a' + random.nextInt(3)));
+        }
+        return builder.toString();
+    }
+
+    private static Match match(final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        return match;
+    }
+
+    private static HideMatch hideMatch(final String type, final String expression) {
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match(type, expression));
+        return hideMatch;
+    }
+
+    private static UeiMatch ueiMatch(final String type, final String expression) {
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setMatch(match(type, expression));
+        ueiMatch.setUei("uei.opennms.org/test");
+        return ueiMatch;
+    }
+}
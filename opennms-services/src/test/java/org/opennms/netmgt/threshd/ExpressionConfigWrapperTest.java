@@ -30,7 +30,10 @@ package org.opennms.netmgt.threshd;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
 import org.junit.Assert;
 
 import org.junit.After;
@@ -171,4 +174,87 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    @Test
+    public void testCompiledExpressions() throws Exception {
+        Assert.assertNotNull(DoubleExpression.compile(FORMULA));
+        Assert.assertNotNull(DoubleExpression.compile("jnxOperatingState == 2.0 || jnxOperatingState == 3.0 || jnxOperatingState == 7.0 ? 1.0 : 0.0"));
+        Assert.assertNotNull(DoubleExpression.compile("datasources['ns-dskTotal'] - datasources['ns-dskUsed']"));
+        Assert.assertNotNull(DoubleExpression.compile("math.max((ifInOctets*8/ifSpeed), (ifOutOctets*8/ifSpeed))"));
+        Assert.assertNotNull(DoubleExpression.compile("not (a lt 0) && -b mod 3 ne 1 ? a * (1000 * 1000) : -a"));
+
+        // left to JEXL
+        Assert.assertNull(DoubleExpression.compile("a > 0"));
+        Assert.assertNull(DoubleExpression.compile("a / (1 / 2)"));
+        Assert.assertNull(DoubleExpression.compile("a + 'b'"));
+        Assert.assertNull(DoubleExpression.compile("a =~ 'b'"));
+        Assert.assertNull(DoubleExpression.compile("a = 1"));
+        Assert.assertNull(DoubleExpression.compile("size(a)"));
+        Assert.assertNull(DoubleExpression.compile("a.b"));
+        Assert.assertNull(DoubleExpression.compile("math.abs(1)"));
+        Assert.assertNull(DoubleExpression.compile("0x10 + a"));
+        Assert.assertNull(DoubleExpression.compile("a + 1L"));
+        Assert.assertNull(DoubleExpression.compile("(a > 0 ? 1 : 0) / 2"));
+        Assert.assertNull(DoubleExpression.compile("math.round(a) / 2"));
+    }
+
+    /**
+     * Evaluates expressions with random values, and compares the results
+     * with the ones of JEXL.
+     */
+    @Test
+    public void testMatchesJexl() throws Exception {
+        final String[] expressions = new String[] {
+                FORMULA,
+                "a + b * c - a / b",
+                "a % b + 0.1",
+                "a * 0.1 > 1.5 ? a / 3 : b / 7.5",
+                "a == b ? 1 : (a > b ? 2 : 3)",
+                "-a + -(b * 2) - -3",
+                "a >= 0 and b <= 0 or not (c != 0)",
+                "math.max(a, 5) + math.min(b, c) + math.abs(c)",
+                "math.sqrt(a) + math.pow(b, 2) + math.round(c)",
+                "math.log(a) < 1 ? 0 : 1",
+                "datasources['a'] * 1000 * 1000 / (b + c)",
+                "a / b / c",
+        };
+        final Random random = new Random(42);
+        final double[] interesting = new double[] { 0.0, -0.0, 1.0, -1.0, 0.1, 1.5, 1e10, Double.NaN };
+        for (final String expression : expressions) {
+            final Expression exp = new Expression();
+            exp.setExpression(expression);
+            final ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+            for (int i = 0; i < 1000; i++) {
+                final Map<String, Double> values = new HashMap<String, Double>();
+                for (final String ds : new String[] { "a", "b", "c", "ifInOctets", "ifSpeed", "ifHighSpeed", "ifHCInOctets" }) {
+                    values.put(ds, random.nextInt(4) == 0 ? interesting[random.nextInt(interesting.length)] : (double) random.nextInt(200) - 50);
+                }
+                assertSameResult(expression + " with " + values, evaluateWithJexl(expression, values), wrapper, values);
+            }
+        }
+    }
+
+    private static void assertSameResult(final String message, final Object expected, final ExpressionConfigWrapper wrapper, final Map<String, Double> values) {
+        try {
+            final double value = wrapper.evaluate(values);
+            Assert.assertTrue(message + ": expected " + expected + " but was " + value, expected instanceof Double && ((Double) expected).equals(value));
+        } catch (final ThresholdExpressionException e) {
+            Assert.assertTrue(message + ": expected " + expected + " but failed with " + e, expected instanceof Throwable);
+        }
+    }
+
+    /**
+     * Evaluates the expression the way it was before the expressions were compiled.
+     */
+    private static Object evaluateWithJexl(final String expression, final Map<String, Double> values) {
+        final Map<String,Object> context = new HashMap<String,Object>();
+        context.putAll(values);
+        context.put("datasources", new HashMap<String, Double>(values));
+        context.put("math", new ExpressionConfigWrapper.MathBinding());
+        try {
+            return Double.parseDouble(new JexlEngine().createExpression(expression).evaluate(new MapContext(context)).toString());
+        } catch (final Throwable t) {
+            return t;
+        }
+    }
 }
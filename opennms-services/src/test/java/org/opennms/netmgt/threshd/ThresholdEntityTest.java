@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.threshd.Threshold;
+import org.opennms.netmgt.dao.mock.EventAnticipator;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventIpcManagerFactory;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+
+public class ThresholdEntityTest {
+
+    private static final int INSTANCES = 4;
+
+    private static final int EVALUATIONS = 2000;
+
+    private EventAnticipator m_anticipator;
+
+    @Before
+    public void setUp() {
+        m_anticipator = new EventAnticipator();
+        MockEventIpcManager eventMgr = new MockEventIpcManager();
+        eventMgr.setEventAnticipator(m_anticipator);
+        EventIpcManagerFactory.setIpcManager(eventMgr);
+    }
+
+    @After
+    public void tearDown() {
+        ThresholdingEventProxyFactory.getFactory().getProxy().removeAllEvents();
+    }
+
+    /**
+     * Reloads a threshold with a changed value while its instances are
+     * evaluated. Every instance alternates between triggering and rearming,
+     * and the reload rearms the ones that are triggered, so each trigger must
+     * be followed by exactly one rearm, whichever of the two sent it.
+     */
+    @Test
+    public void testEvaluateWhileMerging() throws Exception {
+        final ThresholdEntity entity = createEntity(90.0);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger(INSTANCES);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int[] triggered = new int[INSTANCES];
+        final int[] rearmed = new int[INSTANCES];
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < INSTANCES; i++) {
+            final int index = i;
+            final Thread thread = new Thread("evaluate-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final CollectionResourceWrapper resource = new MockCollectionResourceWrapper(instance(index));
+                        for (int j = 0; j < EVALUATIONS; j++) {
+                            final double value = j % 2 == 0 ? 100.0 : 10.0;
+                            for (final Event event : entity.evaluateAndCreateEvents(resource, Collections.singletonMap("ds-name", value), new Date())) {
+                                if (EventConstants.HIGH_THRESHOLD_EVENT_UEI.equals(event.getUei())) {
+                                    triggered[index]++;
+                                } else if (EventConstants.HIGH_THRESHOLD_REARM_EVENT_UEI.equals(event.getUei())) {
+                                    rearmed[index]++;
+                                }
+                            }
+                        }
+                    } catch (final Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        int merges = 0;
+        while (running.get() > 0) {
+            entity.merge(createEntity(merges++ % 2 == 0 ? 95.0 : 90.0));
+            ThresholdingEventProxyFactory.getFactory().getProxy().sendAllEvents();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        final int[] rearmedOnMerge = new int[INSTANCES];
+        for (final Event event : m_anticipator.unanticipatedEvents()) {
+            assertEquals(EventConstants.HIGH_THRESHOLD_REARM_EVENT_UEI, event.getUei());
+            for (int i = 0; i < INSTANCES; i++) {
+                if (instance(i).equals(getParm(event, "instance"))) {
+                    rearmedOnMerge[i]++;
+                }
+            }
+        }
+
+        for (int i = 0; i < INSTANCES; i++) {
+            final boolean stillTriggered = entity.getThresholdEvaluatorStates(instance(i)).get(0).isTriggered();
+            assertEquals(instance(i), triggered[i], rearmed[i] + rearmedOnMerge[i] + (stillTriggered ? 1 : 0));
+        }
+    }
+
+    private static String instance(final int index) {
+        return "instance" + index;
+    }
+
+    private static String getParm(final Event event, final String name) {
+        for (final Parm parm : event.getParmCollection()) {
+            if (name.equals(parm.getParmName())) {
+                return parm.getValue().getContent();
+            }
+        }
+        return null;
+    }
+
+    private static ThresholdEntity createEntity(final double value) {
+        final Threshold threshold = new Threshold();
+        threshold.setType("high");
+        threshold.setDsName("ds-name");
+        threshold.setDsType("node");
+        threshold.setValue(value);
+        threshold.setRearm(50.0);
+        threshold.setTrigger(1);
+        final ThresholdEntity entity = new ThresholdEntity();
+        entity.addThreshold(new ThresholdConfigWrapper(threshold));
+        return entity;
+    }
+}
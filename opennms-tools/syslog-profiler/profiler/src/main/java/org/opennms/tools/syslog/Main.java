@@ -31,8 +31,12 @@ package org.opennms.tools.syslog;
 import java.io.File;
 import java.io.StringReader;
 import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import javax.management.MBeanServer;
 
@@ -57,11 +61,21 @@ public final class Main {
     
     public static String OPENNMS_HOME;
 
+    private static final String MESSAGE = "<173>Dec  7 12:02:06 10.13.110.116 mgmtd[8326]: [mgmtd.NOTICE]: load test %d on tty1";
+
     @SuppressWarnings({ "static-access", "deprecation" })
     public static void main (final String... args) throws Exception {
         final Options options = new Options();
         options.addOption(OptionBuilder.withDescription("this help").withLongOpt("help").create("h"));
         options.addOption(OptionBuilder.hasArg().withArgName("DIRECTORY").withDescription("OpenNMS home directory").withLongOpt("opennms-home").create("o"));
+        options.addOption(OptionBuilder.hasArg().withArgName("COUNT").withDescription("number of syslog messages to send to syslogd (default: 0)").withLongOpt("count").create("c"));
+        options.addOption(OptionBuilder.hasArg().withArgName("THREADS").withDescription("number of threads sending the messages (default: 1)").withLongOpt("threads").create("t"));
+        options.addOption(OptionBuilder.hasArg().withArgName("PORT").withDescription("syslogd port (default: 10514)").withLongOpt("port").create("p"));
+        options.addOption(OptionBuilder.withDescription("receive with several threads (org.opennms.syslogd.nio)").withLongOpt("nio").create("n"));
+
+        int count = 0;
+        int threads = 1;
+        int port = 10514;
 
         final CommandLineParser parser = new GnuParser();
         try {
@@ -78,6 +92,18 @@ public final class Main {
                 formatter.printHelp("syslog-profiler", "You must specify your OpenNMS home.", options, null);
                 System.exit(1);
             }
+            if (line.hasOption("count")) {
+                count = Integer.parseInt(line.getOptionValue("count"));
+            }
+            if (line.hasOption("threads")) {
+                threads = Integer.parseInt(line.getOptionValue("threads"));
+            }
+            if (line.hasOption("port")) {
+                port = Integer.parseInt(line.getOptionValue("port"));
+            }
+            if (line.hasOption("nio")) {
+                System.setProperty("org.opennms.syslogd.nio", "true");
+            }
         } catch (Throwable e) {
             LOG.warn("An error occurred trying to parse the command-line.", e);
         }
@@ -110,6 +136,47 @@ public final class Main {
         invoker.instantiateClasses();
 
         Thread.sleep(10000);
+
+        if (count > 0) {
+            sendMessages(count, threads, port);
+            // leave syslogd some time to drain its queues while it is being profiled
+            Thread.sleep(10000);
+        }
+    }
+
+    /**
+     * Sends the messages to syslogd as fast as possible and prints the rate.
+     */
+    private static void sendMessages(final int count, final int threads, final int port) throws Exception {
+        final InetAddress localhost = InetAddress.getLocalHost();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long start = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            new Thread("syslog-sender-" + t) {
+                @Override
+                public void run() {
+                    DatagramSocket socket = null;
+                    try {
+                        socket = new DatagramSocket();
+                        for (int i = first; i < count; i += threads) {
+                            final byte[] bytes = String.format(MESSAGE, i).getBytes("US-ASCII");
+                            socket.send(new DatagramPacket(bytes, bytes.length, localhost, port));
+                        }
+                    } catch (final Exception e) {
+                        LOG.warn("Failed to send syslog messages", e);
+                    } finally {
+                        if (socket != null) {
+                            socket.close();
+                        }
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(String.format("- sent %d messages with %d threads in %d milliseconds, %8.2f messages per second", count, threads, elapsed, count * 1000.0 / elapsed));
     }
 
 
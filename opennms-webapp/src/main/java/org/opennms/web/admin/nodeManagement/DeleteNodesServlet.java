@@ -49,6 +49,7 @@ import org.opennms.core.utils.WebSecurityUtils;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.rrd.RrdDirectoryIndex;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.web.api.Util;
 import org.opennms.web.svclayer.api.ResourceService;
@@ -206,9 +207,15 @@ public class DeleteNodesServlet extends HttpServlet {
         }
 
         // Delete the file/directory itself
+        boolean isDirectory = file.isDirectory();
         boolean successful = file.delete();
         if (!successful) {
             LOG.warn("Failed to delete file: {}", file.getAbsolutePath());
+        } else if (isDirectory) {
+            RrdDirectoryIndex index = RrdDirectoryIndex.getInstance();
+            if (index != null) {
+                index.directoryDeleted(file);
+            }
         }
         return successful;
     }